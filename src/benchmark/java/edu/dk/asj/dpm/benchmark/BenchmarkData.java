@@ -0,0 +1,47 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultEntry;
+
+import java.security.SecureRandom;
+
+/**
+ * Generators of the vault data used by the benchmarks.
+ */
+final class BenchmarkData {
+    static final String PASSWORD = "benchmark-master-password";
+    static final String NETWORK_ID_SEED = "benchmark-seed";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create a vault with generated entries.
+     * @param entries the number of entries.
+     * @param entrySize the length of each entry's password.
+     * @return the vault.
+     */
+    static SecureVault createVault(int entries, int entrySize) {
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        for (int i = 0; i < entries; i++) {
+            vault.add(createEntry(i, entrySize));
+        }
+        return vault;
+    }
+
+    /**
+     * Create an entry with a generated password, named after its index.
+     * @param index the index of the entry.
+     * @param entrySize the length of the entry's password.
+     * @return the entry.
+     */
+    static VaultEntry createEntry(int index, int entrySize) {
+        SecureRandom random = SecurityController.getInstance().getRandomGenerator();
+        StringBuilder password = new StringBuilder(entrySize);
+        for (int i = 0; i < entrySize; i++) {
+            password.append((char) ('a' + random.nextInt(26)));
+        }
+        return new VaultEntry(String.format("entry-%06d", index), password.toString());
+    }
+}
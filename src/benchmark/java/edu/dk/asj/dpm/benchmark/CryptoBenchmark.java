@@ -0,0 +1,49 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.security.SecurityController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the symmetric encryption, including the key derivation of every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CryptoBenchmark {
+
+    @Param({"64", "4096", "65536"})
+    public int dataSize;
+
+    private byte[] key;
+    private byte[] clearText;
+    private byte[] cipherText;
+
+    @Setup
+    public void setUp() throws Exception {
+        SecurityController.getInstance().setMasterPassword(BenchmarkData.PASSWORD);
+        key = "benchmark-shared-key".getBytes(StandardCharsets.UTF_8);
+        clearText = new byte[dataSize];
+        SecurityController.getInstance().getRandomGenerator().nextBytes(clearText);
+        cipherText = SecurityController.getInstance().encrypt(clearText, key);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return SecurityController.getInstance().encrypt(clearText, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return SecurityController.getInstance().decrypt(cipherText, key);
+    }
+}
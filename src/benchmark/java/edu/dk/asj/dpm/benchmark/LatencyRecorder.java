@@ -0,0 +1,59 @@
+package edu.dk.asj.dpm.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Thread-safe recorder of latency samples, summarizing them as percentiles.
+ */
+class LatencyRecorder {
+    private long[] samples;
+    private int count;
+
+    LatencyRecorder() {
+        samples = new long[64];
+        count = 0;
+    }
+
+    /**
+     * Record a latency sample.
+     * @param nanos the latency in nanoseconds.
+     */
+    synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    /**
+     * Summarize the recorded samples as a JSON object with the sample count, and the mean, percentiles and maximum in
+     * milliseconds.
+     * @return the JSON summary.
+     */
+    synchronized String toJson() {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        double mean = count == 0 ? 0 : Arrays.stream(sorted).average().orElse(0);
+        return String.format(Locale.ROOT,
+                "{\"count\":%d,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                count,
+                toMillis(mean),
+                toMillis(percentile(sorted, 0.50)),
+                toMillis(percentile(sorted, 0.90)),
+                toMillis(percentile(sorted, 0.99)),
+                toMillis(count == 0 ? 0 : sorted[count - 1]));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,38 @@
+package edu.dk.asj.dpm.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+/**
+ * Runner of the JMH micro-benchmarks with allocation profiling enabled. Accepts the regular JMH command line options,
+ * e.g. a benchmark name pattern and <code>-p entries=1000</code>, and writes the results as JSON to
+ * <i>target/jmh-result.json</i> unless another result file is given.
+ * <p>
+ *     Run with: <code>mvn -Pbenchmark test-compile exec:exec@jmh -Djmh.args="VaultBenchmark"</code>
+ * </p>
+ */
+public class MicroBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include(MicroBenchmarks.class.getPackageName() + "\\..*Benchmark\\.");
+        }
+        if (!commandLineOptions.getResult().hasValue()) {
+            builder.result("target/jmh-result.json");
+        }
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        Options options = builder.addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
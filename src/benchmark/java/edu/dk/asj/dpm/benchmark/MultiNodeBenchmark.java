@@ -0,0 +1,334 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.network.NetworkController;
+import edu.dk.asj.dpm.network.NetworkObserver;
+import edu.dk.asj.dpm.network.transport.InMemoryNetwork;
+import edu.dk.asj.dpm.properties.NetworkProperties;
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.util.NetworkInterfaceHelper;
+import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultAssembler;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark harness running a configurable number of nodes in a single process, connected by a simulated
+ * {@link InMemoryNetwork}, or by real sockets on the loopback interface with unicast discovery
+ * (<code>--transport=loopback</code>). Every iteration lets one node reconstruct the vault from the network, change it,
+ * and redistribute the new fragments, timing each phase of the flow. The latency percentiles are written as JSON.
+ * <p>
+ *     The nodes are driven through their {@link NetworkController}s rather than through
+ *     {@link edu.dk.asj.dpm.Application}, which is bound to its interactive terminal and exits the process on fatal
+ *     errors. An iteration runs the steps of {@code Application.constructVault} and {@code notifyVaultChange}: the
+ *     fragments are fetched into a {@link VaultAssembler} together with the local fragment, and the changed vault is
+ *     fragmented with the configured redundancy and sent until every node has acknowledged its fragment. The snapshot
+ *     cache, change batching, delta publication and the background propagation queue are left out, so that every
+ *     iteration times a full fetch and a full redistribution.
+ * </p>
+ * <p>
+ *     Run with: <code>mvn -Pbenchmark test-compile exec:java -Dexec.args="--nodes=5 --entries=500"</code>
+ * </p>
+ */
+public class MultiNodeBenchmark {
+    private final Config config;
+    private final List<Node> nodes;
+    private volatile Phases phases;
+
+    private MultiNodeBenchmark(Config config) {
+        this.config = config;
+        this.nodes = new ArrayList<>(config.nodes);
+        this.phases = new Phases();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        Logger.getLogger("edu.dk.asj.dpm").setLevel(Level.toLevel(config.logLevel, Level.WARN));
+
+        String report = new MultiNodeBenchmark(config).run();
+        if (config.output == null) {
+            System.out.println(report);
+        } else {
+            Files.write(Paths.get(config.output), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String run() throws Exception {
+        Path storage = Files.createTempDirectory("dpm-benchmark");
+        SecurityController.getInstance().setMasterPassword(BenchmarkData.PASSWORD);
+
+        // the link conditions only apply to the simulated network
+        InMemoryNetwork network = config.loopback ? null : InMemoryNetwork.builder()
+                .latency(Duration.ofMillis(config.latencyMs))
+                .jitter(Duration.ofMillis(config.jitterMs))
+                .lossRate(config.lossRate)
+                .bandwidth(config.bandwidth)
+                .seed(config.seed)
+                .build();
+        try {
+
+            NetworkObserver observer = new NetworkObserver() {
+                @Override
+                public void discoveryCompleted(long durationNanos, int discoveredNodes) {
+                    phases.discovery.record(durationNanos);
+                }
+
+                @Override
+                public void connectionCompleted(String peer, long handshakeNanos, long transferNanos, boolean succeeded) {
+                    if (!succeeded) {
+                        phases.failedConnections++;
+                        return;
+                    }
+                    phases.handshake.record(handshakeNanos);
+                    if (transferNanos > 0) {
+                        phases.transfer.record(transferNanos);
+                    }
+                }
+            };
+
+            for (int i = 0; i < config.nodes; i++) {
+                Node node = new Node(storage.resolve("node-" + i), i, network, config);
+                node.controller.setObserver(observer);
+                node.controller.startDiscoveryListener();
+                nodes.add(node);
+            }
+            seedVault();
+
+            for (int i = 0; i < config.warmup; i++) {
+                runIteration(i);
+            }
+            phases = new Phases();
+            for (int i = 0; i < config.iterations; i++) {
+                runIteration(config.warmup + i);
+            }
+        } finally {
+            nodes.forEach(node -> node.controller.close());
+            if (network != null) {
+                network.close();
+            }
+            deleteRecursively(storage);
+        }
+        return phases.toJson(config);
+    }
+
+    private void seedVault() throws IOException {
+        SecureVault vault = BenchmarkData.createVault(config.entries, config.entrySize);
+        VaultFragment[] fragments = vault.fragment(nodes.size(), nodes.get(0).redundancy);
+        for (int i = 0; i < fragments.length; i++) {
+            if (!SecurityController.getInstance().saveFragment(fragments[i], nodes.get(i).fragmentPath)) {
+                throw new IllegalStateException("Could not seed fragment of " + nodes.get(i).fragmentPath);
+            }
+        }
+    }
+
+    private void runIteration(int iteration) throws Exception {
+        Node node = nodes.get(iteration % nodes.size());
+        long start = System.nanoTime();
+
+        VaultFragment localFragment = SecurityController.getInstance().loadFragment(node.fragmentPath);
+        if (localFragment == null) {
+            throw new IllegalStateException("Could not load local fragment of " + node.fragmentPath);
+        }
+        // as in the application, fragments are scattered into the vault as they arrive
+        long fetchStart = System.nanoTime();
+        VaultAssembler assembler = new VaultAssembler();
+        assembler.accept(localFragment);
+        node.controller.getNetworkFragments(localFragment, assembler);
+        phases.fetch.record(System.nanoTime() - fetchStart);
+
+        long reassemblyStart = System.nanoTime();
+        SecureVault vault = assembler.getVault();
+        phases.reassembly.record(System.nanoTime() - reassemblyStart);
+        phases.reconstruction.record(System.nanoTime() - start);
+        if (assembler.isStale()) {
+            throw new IllegalStateException("Vault was built without changes some nodes missed in iteration " + iteration);
+        }
+
+        vault.add(BenchmarkData.createEntry(config.entries + iteration, config.entrySize));
+        long redistributionStart = System.nanoTime();
+        VaultFragment[] fragments = vault.fragment(node.controller.getNetworkSize(), node.redundancy);
+        if (!SecurityController.getInstance().saveFragment(fragments[0], node.fragmentPath)) {
+            throw new IllegalStateException("Could not save local fragment of " + node.fragmentPath);
+        }
+        // every node acknowledges its fragment once saved, so the next iteration fetches the new fragments
+        if (fragments.length > 1 && !node.controller.sendNetworkFragments(Arrays.copyOfRange(fragments, 1, fragments.length))) {
+            throw new IllegalStateException("Could not redistribute fragments in iteration " + iteration);
+        }
+        phases.redistribution.record(System.nanoTime() - redistributionStart);
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * A node with its own storage and network controller, either on the simulated network or on the loopback
+     * interface, where it discovers the other nodes through their discovery ports.
+     */
+    private static class Node {
+        private final String fragmentPath;
+        private final int redundancy;
+        private final NetworkController controller;
+
+        private Node(Path storage, int index, InMemoryNetwork network, Config config) throws SocketException {
+            Properties properties = new Properties();
+            properties.setProperty("storage.path.vault-fragment", storage.resolve("vault.frag").toString());
+            properties.setProperty("storage.path.network-properties", storage.resolve("network.prop").toString());
+            if (network == null) {
+                NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+                String seeds = IntStream.range(0, config.nodes)
+                        .mapToObj(i -> InetAddress.getLoopbackAddress().getHostAddress() + ":" + (config.basePort + i))
+                        .collect(Collectors.joining(","));
+                properties.setProperty("network.interface.name", loopback.getName());
+                properties.setProperty("network.discovery.mode", "unicast");
+                properties.setProperty("network.discovery.port", String.valueOf(config.basePort + index));
+                properties.setProperty("network.discovery.seeds", seeds);
+            }
+            PropertiesContainer propertiesContainer = PropertiesContainer.loadProperties(properties);
+            if (network == null) {
+                NetworkInterfaceHelper.configure(propertiesContainer.getNetworkInterfaceProperties());
+            }
+
+            NetworkProperties networkProperties = NetworkProperties.generate(BenchmarkData.PASSWORD, BenchmarkData.NETWORK_ID_SEED,
+                    propertiesContainer.getStorageProperties().getNetworkPropertiesPath());
+            if (networkProperties == null) {
+                throw new IllegalStateException("Could not generate network properties in " + storage);
+            }
+
+            this.fragmentPath = propertiesContainer.getStorageProperties().getFragmentPath();
+            this.redundancy = propertiesContainer.getVaultProperties().getRedundancy();
+            this.controller = network == null
+                    ? new NetworkController(networkProperties, propertiesContainer)
+                    : new NetworkController(networkProperties, propertiesContainer, network.createTransport());
+        }
+    }
+
+    /**
+     * The latency recorders of the measured phases.
+     */
+    private static class Phases {
+        private final LatencyRecorder discovery = new LatencyRecorder();
+        private final LatencyRecorder handshake = new LatencyRecorder();
+        private final LatencyRecorder transfer = new LatencyRecorder();
+        private final LatencyRecorder fetch = new LatencyRecorder();
+        private final LatencyRecorder reassembly = new LatencyRecorder();
+        private final LatencyRecorder reconstruction = new LatencyRecorder();
+        private final LatencyRecorder redistribution = new LatencyRecorder();
+        private int failedConnections;
+
+        private String toJson(Config config) {
+            Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+            recorders.put("discovery", discovery);
+            recorders.put("handshake", handshake);
+            recorders.put("transfer", transfer);
+            recorders.put("fetch", fetch);
+            recorders.put("reassembly", reassembly);
+            recorders.put("reconstruction", reconstruction);
+            recorders.put("redistribution", redistribution);
+
+            String phaseJson = recorders.entrySet().stream()
+                    .map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue().toJson())
+                    .collect(Collectors.joining(",", "{", "}"));
+            return "{\"config\":" + config.toJson()
+                    + ",\"failedConnections\":" + failedConnections
+                    + ",\"phases\":" + phaseJson + "}";
+        }
+    }
+
+    /**
+     * The benchmark configuration, parsed from <code>--name=value</code> arguments.
+     */
+    private static class Config {
+        private int nodes = 5;
+        private int entries = 100;
+        private int entrySize = 32;
+        private int iterations = 20;
+        private int warmup = 3;
+        private long latencyMs = 0;
+        private long jitterMs = 0;
+        private double lossRate = 0;
+        private long bandwidth = 0;
+        private long seed = 42;
+        private boolean loopback = false;
+        private int basePort = 36000;
+        private String output;
+        private String logLevel = "WARN";
+
+        private static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Arguments must be given as --name=value, but was: " + arg);
+                }
+                String name = arg.substring(2, separator);
+                String value = arg.substring(separator + 1);
+                switch (name) {
+                    case "nodes": config.nodes = Integer.parseInt(value); break;
+                    case "entries": config.entries = Integer.parseInt(value); break;
+                    case "entry-size": config.entrySize = Integer.parseInt(value); break;
+                    case "iterations": config.iterations = Integer.parseInt(value); break;
+                    case "warmup": config.warmup = Integer.parseInt(value); break;
+                    case "latency-ms": config.latencyMs = Long.parseLong(value); break;
+                    case "jitter-ms": config.jitterMs = Long.parseLong(value); break;
+                    case "loss-rate": config.lossRate = Double.parseDouble(value); break;
+                    case "bandwidth": config.bandwidth = Long.parseLong(value); break;
+                    case "seed": config.seed = Long.parseLong(value); break;
+                    case "transport": config.loopback = parseTransport(value); break;
+                    case "base-port": config.basePort = Integer.parseInt(value); break;
+                    case "output": config.output = value; break;
+                    case "log-level": config.logLevel = value; break;
+                    default: throw new IllegalArgumentException("Unknown argument: " + name);
+                }
+            }
+            if (config.nodes < 2) {
+                throw new IllegalArgumentException("The benchmark requires at least 2 nodes");
+            }
+            if (config.entrySize < 1) {
+                throw new IllegalArgumentException("Entry size must be positive");
+            }
+            return config;
+        }
+
+        private static boolean parseTransport(String value) {
+            switch (value) {
+                case "memory": return false;
+                case "loopback": return true;
+                default: throw new IllegalArgumentException("Transport must be memory or loopback, but was: " + value);
+            }
+        }
+
+        private String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"transport\":\"%s\",\"nodes\":%d,\"entries\":%d,\"entrySize\":%d,\"iterations\":%d,"
+                            + "\"warmup\":%d,\"latencyMs\":%d,\"jitterMs\":%d,\"lossRate\":%s,\"bandwidth\":%d,\"seed\":%d}",
+                    loopback ? "loopback" : "memory", nodes, entries, entrySize, iterations, warmup, latencyMs, jitterMs, lossRate, bandwidth, seed);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.network.packets.FragmentPacket;
+import edu.dk.asj.dpm.network.packets.Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of serializing and de-serializing the fragment packets sent between nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PacketBenchmark {
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    @Param({"32", "1024"})
+    public int entrySize;
+
+    @Param({"2", "8"})
+    public int nodes;
+
+    private Packet packet;
+    private byte[] serializedPacket;
+
+    @Setup
+    public void setUp() throws IOException {
+        packet = new FragmentPacket(BenchmarkData.createVault(entries, entrySize).fragment(nodes)[0]);
+        serializedPacket = packet.serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return packet.serialize();
+    }
+
+    @Benchmark
+    public Packet deserialize() {
+        return Packet.deserialize(serializedPacket);
+    }
+}
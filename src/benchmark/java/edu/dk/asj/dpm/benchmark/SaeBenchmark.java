@@ -0,0 +1,62 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.security.SAESession;
+import edu.dk.asj.dpm.security.SecurityController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the SAE authentication primitives and the network ID computation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaeBenchmark {
+
+    private UUID localNode;
+    private UUID remoteNode;
+    private SAESession localSession;
+    private SAESession remoteSession;
+    private byte[] remoteToken;
+
+    @Setup
+    public void setUp() {
+        SecurityController.getInstance().setMasterPassword(BenchmarkData.PASSWORD);
+        localNode = UUID.randomUUID();
+        remoteNode = UUID.randomUUID();
+
+        localSession = SecurityController.getInstance().initiateSaeSession(localNode, remoteNode);
+        remoteSession = SecurityController.getInstance().initiateSaeSession(remoteNode, localNode);
+        SecurityController.getInstance().generateSAEToken(localSession, remoteSession.getParameters());
+        remoteToken = SecurityController.getInstance().generateSAEToken(remoteSession, localSession.getParameters());
+    }
+
+    @Benchmark
+    public SAESession initiateSaeSession() {
+        return SecurityController.getInstance().initiateSaeSession(localNode, remoteNode);
+    }
+
+    @Benchmark
+    public byte[] generateSAEToken() {
+        return SecurityController.getInstance().generateSAEToken(localSession, remoteSession.getParameters());
+    }
+
+    @Benchmark
+    public byte[] validateSAEToken() {
+        return SecurityController.getInstance().validateSAEToken(localSession, remoteToken, remoteSession.getParameters());
+    }
+
+    @Benchmark
+    public BigInteger computeNetworkId() {
+        return SecurityController.getInstance().computeNetworkId(BenchmarkData.PASSWORD, BenchmarkData.NETWORK_ID_SEED);
+    }
+}
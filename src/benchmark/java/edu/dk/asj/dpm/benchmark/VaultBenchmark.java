@@ -0,0 +1,65 @@
+package edu.dk.asj.dpm.benchmark;
+
+import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultEntry;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of fragmenting, reassembling and searching the vault.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VaultBenchmark {
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    @Param({"32", "1024"})
+    public int entrySize;
+
+    @Param({"2", "8"})
+    public int nodes;
+
+    private SecureVault vault;
+    private VaultFragment[] fragments;
+    private String query;
+
+    @Setup
+    public void setUp() throws IOException {
+        vault = BenchmarkData.createVault(entries, entrySize);
+        fragments = vault.fragment(nodes);
+        query = String.format("%06d", entries / 2).substring(3);
+    }
+
+    @Benchmark
+    public VaultFragment[] fragment() throws IOException {
+        return vault.fragment(nodes);
+    }
+
+    @Benchmark
+    public SecureVault build() throws IOException, ClassNotFoundException {
+        SecureVault.Builder builder = SecureVault.builder();
+        for (VaultFragment fragment : fragments) {
+            builder.addFragment(fragment);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public List<VaultEntry> search() {
+        return vault.search(query);
+    }
+}
@@ -1,12 +1,23 @@
 package edu.dk.asj.dpm;
 
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.network.NetworkController;
+import edu.dk.asj.dpm.network.PropagationListener;
+import edu.dk.asj.dpm.network.PropagationQueue;
+import edu.dk.asj.dpm.properties.RequestProperties;
 import edu.dk.asj.dpm.properties.NetworkProperties;
 import edu.dk.asj.dpm.properties.PropertiesContainer;
 import edu.dk.asj.dpm.security.SecurityController;
 import edu.dk.asj.dpm.ui.UserInterface;
+import edu.dk.asj.dpm.ui.actions.MenuAction;
+import edu.dk.asj.dpm.util.NetworkInterfaceHelper;
+import edu.dk.asj.dpm.vault.FragmentDelta;
 import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultAssembler;
+import edu.dk.asj.dpm.vault.VaultChangeBatcher;
+import edu.dk.asj.dpm.vault.VaultEntry;
 import edu.dk.asj.dpm.vault.VaultFragment;
+import edu.dk.asj.dpm.vault.VaultSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,10 +33,14 @@ public class Application {
     private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
 
     private UserInterface ui;
-    private SecureVault vault;
+    private volatile SecureVault vault;
     private NetworkController networkController;
     private PropertiesContainer propertiesContainer;
     private SecurityController securityController;
+    private VaultChangeBatcher changeBatcher;
+    private PropagationQueue propagationQueue;
+    private int distributedNetworkSize;
+    private volatile boolean readOnly;
 
     private Application() {
         ui = new UserInterface(this);
@@ -52,30 +67,148 @@ public class Application {
     }
 
     /**
-     * Close the application. This method does not return, due to invoking {@link System#exit(int)}.
+     * Check whether the vault is read-only, since it was built without changes some nodes missed. Publishing such a
+     * vault would fragment it anew over every node, and delete the changes from the nodes that have them, so it is only
+     * published when the user chooses to, see {@link #resyncVault()}.
+     * @return true if the vault must not be changed; false otherwise.
+     */
+    public boolean isVaultReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Add an entry to the vault. The change is published to the node network together with the other changes made
+     * within the configured window.
+     * @param entry the entry to add.
+     * @return true if the entry was added, false if the vault already contains the entry or is read-only.
+     */
+    public boolean addVaultEntry(VaultEntry entry) {
+        if (readOnly) {
+            return false;
+        }
+        return changeBatcher.mutate(() -> vault.add(entry));
+    }
+
+    /**
+     * Remove an entry from the vault. The change is published to the node network together with the other changes
+     * made within the configured window.
+     * @param entry the entry to remove.
+     * @return true if the entry was removed, false if it was never in the vault or the vault is read-only.
+     */
+    public boolean removeVaultEntry(VaultEntry entry) {
+        if (readOnly) {
+            return false;
+        }
+        return changeBatcher.mutate(() -> vault.remove(entry));
+    }
+
+    /**
+     * Publish the pending changes to the vault now, rather than when the window closes.
+     * @return true if changes were published; false if none were pending.
+     */
+    public boolean syncVault() {
+        return changeBatcher.flush();
+    }
+
+    /**
+     * Make a read-only vault writable by fragmenting it anew over every node as it was built. This deletes the changes
+     * some nodes missed from the nodes that have them, so the user must confirm it first.
+     * @return true if the vault was published; false if it was not read-only.
+     */
+    public boolean resyncVault() {
+        if (!readOnly) {
+            return false;
+        }
+        LOGGER.warn("Fragmenting vault generation {} anew without the changes some nodes missed", vault.getGeneration());
+        readOnly = false;
+        changeBatcher.republish();
+        return true;
+    }
+
+    /**
+     * Get the number of changes to the vault not yet published to the node network.
+     * @return the number of pending changes.
+     */
+    public int getPendingVaultChanges() {
+        return changeBatcher.getPendingChanges();
+    }
+
+    /**
+     * Get the number of published updates of the vault that have not yet reached the node network.
+     * @return the number of queued updates.
+     */
+    public int getQueuedVaultUpdates() {
+        return propagationQueue != null ? propagationQueue.size() : 0;
+    }
+
+    /**
+     * Close the application, publishing any pending changes to the vault first. This method does not return, due to
+     * invoking {@link System#exit(int)}.
      */
     public void exit() {
+        if (changeBatcher != null) {
+            changeBatcher.close();
+        }
+        if (propagationQueue != null) {
+            propagationQueue.close();
+        }
         networkController.close();
         LOGGER.info("Exiting application");
         System.exit(0);
     }
 
     /**
-     * Construct the secure vault
+     * Construct the secure vault. If the vault cached on the device is at the version of the local fragment, the node
+     * network is only asked to confirm that version, and the fragments are fetched only if it has changed. A vault built
+     * without changes some nodes missed is recovered from the cached vault if that is at the latest version, and sent
+     * to the nodes anew. Otherwise it is read-only, see {@link #isVaultReadOnly()}.
      * @return true if the construction was successful; false if an error was raised.
      */
     public boolean constructVault() {
         ui.message("Loading local data...");
         VaultFragment localFragment = securityController.loadFragment(propertiesContainer.getStorageProperties().getFragmentPath());
         try {
+            SecureVault cachedVault = localFragment == null ? null : loadSnapshot(localFragment.getLatestVersion());
+            if (cachedVault != null) {
+                ui.message("Checking node network for changes...");
+                if (networkController.getModifiedNetworkFragments(localFragment, cachedVault.getVersion()) == null) {
+                    LOGGER.debug("Vault generation {} confirmed by node network", cachedVault.getGeneration());
+                    vault = cachedVault;
+                    readOnly = false;
+                    distributedNetworkSize = networkController.getNetworkSize();
+                    refragmentIfRequired();
+                    return true;
+                }
+                LOGGER.info("Vault changed since generation {}, fetching fragments", cachedVault.getGeneration());
+            }
+
+            // fragments are scattered into the vault as they arrive, and it is decoded once they are complete
             ui.message("Loading node network data...");
-            Collection<VaultFragment> networkFragments = networkController.getNetworkFragments();
+            VaultAssembler assembler = new VaultAssembler();
+            assembler.accept(localFragment);
+            Collection<VaultFragment> networkFragments = networkController.getNetworkFragments(localFragment, assembler);
 
             ui.message("Building vault...");
-            SecureVault.Builder builder = SecureVault.builder();
-            builder.addFragment(localFragment);
-            networkFragments.forEach(builder::addFragment);
-            vault = builder.build();
+            vault = assembler.getVault();
+            distributedNetworkSize = networkController.getNetworkSize();
+            readOnly = assembler.isStale();
+            if (readOnly) {
+                LOGGER.warn("Vault built at generation {}, as some nodes missed later changes", vault.getGeneration());
+                SecureVault latestVault = loadSnapshot(getLatestVersion(localFragment, networkFragments));
+                if (latestVault != null) {
+                    LOGGER.info("Recovered vault generation {} from the device", latestVault.getGeneration());
+                    vault = latestVault;
+                    readOnly = false;
+                    ui.message("Some nodes missed recent changes to the vault. They are sent the vault cached on this device.");
+                    changeBatcher.republish();
+                    return true;
+                }
+                ui.error("Some nodes missed recent changes to the vault, and this device has no copy of them, so the vault "
+                        + "is read-only. Choose \"" + MenuAction.ResyncVault + "\" to publish it without those changes.");
+                return true;
+            }
+            saveSnapshot();
+            refragmentIfRequired();
             return true;
 
         } catch (IOException | ClassNotFoundException e) {
@@ -84,49 +217,198 @@ public class Application {
         } catch (IllegalStateException e) {
             LOGGER.error("Vault construction not complete", e);
             ui.error("Could not retrieve all vault fragments. Maybe some nodes are offline?");
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Vault fragments do not match", e);
+            ui.error("The vault fragments of the nodes do not match. Maybe some nodes missed a change?");
         }
         return false;
     }
 
     /**
-     * Clear the in-game memory storing the vault
+     * Clear the in-game memory storing the vault, publishing any pending changes first.
      */
     public void clearVault() {
+        changeBatcher.flush();
         vault = null;
+        readOnly = false;
     }
 
     /**
      * Notify the network of changes to the vault. This means
      * <ol>
-     *     <li>Fragment the new vault</li>
+     *     <li>Fragment the new vault, or only the changes if the nodes can append them to their fragments</li>
      *     <li>Save a local fragment</li>
-     *     <li>Send rest of fragments to node network</li>
+     *     <li>Queue the rest of fragments to be sent to the node network in the background</li>
      * </ol>
+     * Changes made through {@link #addVaultEntry(VaultEntry)} and {@link #removeVaultEntry(VaultEntry)} are batched
+     * and notified automatically.
      */
     public void notifyVaultChange() {
+        if (readOnly) {
+            LOGGER.warn("Not publishing vault generation {}, since it is missing changes", vault.getGeneration());
+            return;
+        }
         int networkSize = networkController.getNetworkSize();
-        String networkError = "Encountered a network error while notifying network of vault change";
 
         try {
-            VaultFragment[] fragments = vault.fragment(networkSize);
-            boolean saved = securityController.saveFragment(fragments[0], propertiesContainer.getStorageProperties().getFragmentPath());
-            if (!saved) {
+            if (publishDelta(networkSize)) {
+                return;
+            }
+
+            VaultFragment[] fragments = vault.fragment(networkSize, propertiesContainer.getVaultProperties().getRedundancy());
+            if (!networkController.saveLocalFragment(fragments[0])) {
                 ui.fatal("Could not save fragment");
             }
             if (networkSize > 1) {
-                if (!networkController.sendNetworkFragments(Arrays.copyOfRange(fragments, 1, fragments.length))) {
-                    ui.fatal(networkError);
-                }
+                VaultFragment[] networkFragments = Arrays.copyOfRange(fragments, 1, fragments.length);
+                enqueue(PropagationQueue.Publication.fragments(vault.getGeneration(), networkFragments));
             }
+            distributedNetworkSize = networkSize;
+            saveSnapshot();
         } catch (IOException e) {
-            LOGGER.error("Notify network exception", e);
-            ui.fatal(networkError);
+            LOGGER.error("Fragment vault exception", e);
+            ui.fatal("Encountered an error while fragmenting the vault");
         }
     }
 
+    /**
+     * Publish the vault's changes as deltas appended to the current fragments. The vault is fragmented anew instead if
+     * the network changed since it was fragmented, if the local fragment is not at the vault's generation, if a node
+     * rejected an update since it missed an earlier one (see {@link PropagationQueue#isRefragmentRequired()}), or if
+     * the chain of deltas reached its configured maximum, which regularly re-randomizes the fragments.
+     * @param networkSize the current number of nodes.
+     * @return true if the deltas were published; false if the vault must be fragmented anew.
+     * @throws IOException if an IO error occurs during serialization of the changes.
+     */
+    private boolean publishDelta(int networkSize) throws IOException {
+        int maxDeltaChain = propertiesContainer.getVaultProperties().getMaxDeltaChain();
+        if (maxDeltaChain < 1 || networkSize != distributedNetworkSize || !vault.hasChanges()
+                || propagationQueue.isRefragmentRequired()) {
+            return false;
+        }
+
+        VaultFragment localFragment = securityController.loadFragment(propertiesContainer.getStorageProperties().getFragmentPath());
+        if (localFragment == null
+                || localFragment.getLatestGeneration() != vault.getGeneration()
+                || localFragment.getDeltas().size() >= maxDeltaChain) {
+            return false;
+        }
+
+        FragmentDelta[] deltas = vault.delta(networkSize, propertiesContainer.getVaultProperties().getRedundancy());
+        // appended under the lock of the fragments received from other nodes, so neither write is lost
+        if (!networkController.appendLocalDelta(deltas[0])) {
+            ui.fatal("Could not save fragment");
+        }
+        if (networkSize > 1) {
+            FragmentDelta[] networkDeltas = Arrays.copyOfRange(deltas, 1, deltas.length);
+            enqueue(PropagationQueue.Publication.deltas(vault.getGeneration(), networkDeltas));
+        }
+        LOGGER.debug("Published vault generation {} as deltas", vault.getGeneration());
+        saveSnapshot();
+        return true;
+    }
+
+    /**
+     * Load the vault cached on the device, if it is at a given version.
+     * @param version the version, which is usually that of the local fragment.
+     * @return the cached vault, or null if there is none or it is at another version.
+     */
+    private SecureVault loadSnapshot(long version) {
+        if (!propertiesContainer.getVaultProperties().isSnapshotEnabled() || version == 0) {
+            return null;
+        }
+        Object snapshot = securityController.loadObject(propertiesContainer.getStorageProperties().getVaultSnapshotPath());
+        if (!(snapshot instanceof VaultSnapshot)) {
+            return null;
+        }
+        if (((VaultSnapshot) snapshot).getVersion() != version) {
+            LOGGER.debug("Ignoring cached vault, since it is at another version");
+            return null;
+        }
+        return ((VaultSnapshot) snapshot).restore();
+    }
+
+    /**
+     * Get the version of the latest generation any of the fragments reached, including the changes some nodes missed.
+     * @return the version, or 0 if there are no fragments.
+     */
+    private static long getLatestVersion(VaultFragment localFragment, Collection<VaultFragment> networkFragments) {
+        VaultFragment latest = localFragment;
+        for (VaultFragment fragment : networkFragments) {
+            if (latest == null || fragment.getLatestGeneration() > latest.getLatestGeneration()) {
+                latest = fragment;
+            }
+        }
+        return latest == null ? 0 : latest.getLatestVersion();
+    }
+
+    /**
+     * Cache the published vault on the device.
+     */
+    private void saveSnapshot() {
+        if (!propertiesContainer.getVaultProperties().isSnapshotEnabled() || vault.hasChanges() || vault.getVersion() == 0) {
+            return;
+        }
+        if (!securityController.saveObject(VaultSnapshot.of(vault), propertiesContainer.getStorageProperties().getVaultSnapshotPath())) {
+            LOGGER.warn("Could not cache the vault on the device");
+        }
+    }
+
+    /**
+     * Fragment the vault anew if a node rejected an update, since it missed an earlier one. The need is saved with the
+     * queue of updates, so a vault that is not loaded, or is read-only, is fragmented anew once it has been loaded
+     * writable.
+     */
+    private void refragmentIfRequired() {
+        if (vault == null || readOnly || !propagationQueue.isRefragmentRequired()) {
+            return;
+        }
+        LOGGER.info("Fragmenting vault generation {} anew, since a node missed an earlier update", vault.getGeneration());
+        changeBatcher.republish();
+    }
+
+    private void enqueue(PropagationQueue.Publication publication) {
+        if (!propagationQueue.enqueue(publication)) {
+            ui.error("Could not save the vault update for the node network. It is lost if the application exits before it is sent.");
+        }
+    }
+
+    private void startPropagation() {
+        RequestProperties requestProperties = propertiesContainer.getRequestProperties();
+        propagationQueue = new PropagationQueue(networkController::send,
+                propertiesContainer.getStorageProperties().getOutboundQueuePath(),
+                requestProperties.getRetryDelayMs(), requestProperties.getMaxRetryDelayMs());
+        propagationQueue.setListener(new PropagationListener() {
+            @Override
+            public void propagated(PropagationQueue.Publication publication, int attempts) {
+                if (attempts > 1) {
+                    ui.message("Vault changes reached the node network");
+                }
+            }
+
+            @Override
+            public void rejected(PropagationQueue.Publication publication) {
+                ui.error("A node missed an earlier change to the vault. The whole vault is sent to the nodes anew.");
+                refragmentIfRequired();
+            }
+
+            @Override
+            public void propagationFailed(PropagationQueue.Publication publication, int attempts, long retryDelayMs) {
+                if (attempts == 1) {
+                    ui.error("Could not reach the node network. Vault changes are kept and retried in the background.");
+                }
+            }
+        });
+        propagationQueue.start();
+    }
+
     private void loadProperties() {
         try {
             propertiesContainer = PropertiesContainer.loadProperties();
+            changeBatcher = new VaultChangeBatcher(this::notifyVaultChange,
+                    propertiesContainer.getVaultProperties().getBatchWindowMs());
+            Metrics.getInstance().configure(propertiesContainer.getMetricsProperties());
+            NetworkInterfaceHelper.configure(propertiesContainer.getNetworkInterfaceProperties());
         } catch (IOException e) {
             ui.fatal("Failed to load application properties");
         }
@@ -195,6 +477,7 @@ public class Application {
                 ui.confirmPrompt();
             }
         }
+        startPropagation();
         networkController.startDiscoveryListener();
     }
 
@@ -205,19 +488,23 @@ public class Application {
         SecureVault temporaryVault;
         try {
             // Get existing fragments from the network to construct existing vault, or initialize empty if no fragments
-            Collection<VaultFragment> networkFragments = networkController.getNetworkFragments();
+            VaultAssembler assembler = new VaultAssembler();
+            Collection<VaultFragment> networkFragments = networkController.getNetworkFragments(null, assembler);
             if (networkFragments.isEmpty()) {
                 temporaryVault = SecureVault.builder().buildEmpty();
             } else {
-                SecureVault.Builder builder = SecureVault.builder();
-                networkFragments.forEach(builder::addFragment);
-                temporaryVault = builder.build();
+                temporaryVault = assembler.getVault();
+                if (assembler.isStale()) {
+                    // fragmenting the vault anew would delete the changes from the nodes that have them
+                    ui.fatal("Some nodes missed recent changes to the vault. Add this device once every node is online.");
+                    return;
+                }
             }
 
             int nodeCount = networkController.getNetworkSize();
-            VaultFragment[] newFragments = temporaryVault.fragment(nodeCount);
-            boolean saved = securityController.saveFragment(newFragments[0], propertiesContainer.getStorageProperties().getFragmentPath());
-            if (!saved) {
+            VaultFragment[] newFragments = temporaryVault.fragment(nodeCount, propertiesContainer.getVaultProperties().getRedundancy());
+            distributedNetworkSize = nodeCount;
+            if (!networkController.saveLocalFragment(newFragments[0])) {
                 ui.fatal("Could not save fragment");
             }
 
@@ -0,0 +1,31 @@
+package edu.dk.asj.dpm.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering a network discovery round, from sending the discovery request until its window
+ * closes.
+ */
+@Name("edu.dk.asj.dpm.DiscoveryRound")
+@Label("Discovery Round")
+@Category({"Distributed Password Manager", "Network"})
+@Description("Network discovery round collecting echoes from the other nodes")
+public class DiscoveryRoundEvent extends Event {
+
+    @Label("Local Node")
+    public String localNode;
+
+    @Label("Echoes")
+    @Description("Number of discovery echoes received")
+    public int echoes;
+
+    @Label("Invalid Responses")
+    public int invalidResponses;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,36 @@
+package edu.dk.asj.dpm.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering the fetch of all network fragments, including discovery, handshakes and transfers.
+ */
+@Name("edu.dk.asj.dpm.FragmentFetch")
+@Label("Fragment Fetch")
+@Category({"Distributed Password Manager", "Network"})
+@Description("Fetch of the vault fragments stored by the other nodes")
+public class FragmentFetchEvent extends Event {
+
+    @Label("Local Node")
+    public String localNode;
+
+    @Label("Nodes")
+    @Description("Number of nodes connected to")
+    public int nodes;
+
+    @Label("Fragments")
+    @Description("Number of fragments received")
+    public int fragments;
+
+    @Label("Fragment Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,34 @@
+package edu.dk.asj.dpm.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering the encryption and saving, or loading and decryption, of the local vault fragment.
+ */
+@Name("edu.dk.asj.dpm.FragmentIO")
+@Label("Fragment I/O")
+@Category({"Distributed Password Manager", "Storage"})
+@Description("Save or load of the local vault fragment")
+public class FragmentIOEvent extends Event {
+    public static final String SAVE = "save";
+    public static final String LOAD = "load";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Bytes")
+    @Description("Size of the encrypted fragment file")
+    @DataAmount
+    public long bytes;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,41 @@
+package edu.dk.asj.dpm.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering an SAE handshake, from the first commit until the secure connection is established
+ * or has failed.
+ */
+@Name("edu.dk.asj.dpm.Handshake")
+@Label("SAE Handshake")
+@Category({"Distributed Password Manager", "Network"})
+@Description("SAE handshake authenticating a connection between two nodes")
+public class HandshakeEvent extends Event {
+
+    @Label("Local Node")
+    public String localNode;
+
+    @Label("Remote Node")
+    @Description("Identity of the remote node, or null if it was never received")
+    public String remoteNode;
+
+    @Label("Initiator")
+    @Description("True if this node initiated the handshake as the client")
+    public boolean initiator;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    public long bytesReceived;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,30 @@
+package edu.dk.asj.dpm.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event covering the initiation of an SAE session, dominated by finding the password element.
+ */
+@Name("edu.dk.asj.dpm.SaeSession")
+@Label("SAE Session Initiation")
+@Category({"Distributed Password Manager", "Security"})
+@Description("Initiation of an SAE session, including the search for the password element")
+public class SaeSessionEvent extends Event {
+
+    @Label("Local Node")
+    public String localNode;
+
+    @Label("Remote Node")
+    public String remoteNode;
+
+    @Label("PWE Iterations")
+    @Description("Number of hash-and-test iterations needed to find a valid password element")
+    public int pweIterations;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,56 @@
+package edu.dk.asj.dpm.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonically increasing counter, e.g. of events or bytes. Updates are ignored while metrics are disabled.
+ */
+public class Counter implements Metric {
+    private final Metrics registry;
+    private final String name;
+    private final LongAdder count;
+
+    Counter(Metrics registry, String name) {
+        this.registry = registry;
+        this.name = name;
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Increment the counter by one.
+     */
+    public void increment() {
+        if (registry.isEnabled()) {
+            count.increment();
+        }
+    }
+
+    /**
+     * Increment the counter.
+     * @param value the amount to increment by.
+     */
+    public void add(long value) {
+        if (registry.isEnabled()) {
+            count.add(value);
+        }
+    }
+
+    /**
+     * Get the counter's current value.
+     * @return the value.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Number> getValues() {
+        return Map.of(name, getCount());
+    }
+}
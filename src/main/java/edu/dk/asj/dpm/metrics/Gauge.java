@@ -0,0 +1,35 @@
+package edu.dk.asj.dpm.metrics;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Metric sampling a current value, e.g. a size, whenever it is read.
+ */
+public class Gauge implements Metric {
+    private final String name;
+    private final LongSupplier supplier;
+
+    Gauge(String name, LongSupplier supplier) {
+        this.name = name;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Sample the gauge's current value.
+     * @return the value.
+     */
+    public long getValue() {
+        return supplier.getAsLong();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Number> getValues() {
+        return Map.of(name, getValue());
+    }
+}
@@ -0,0 +1,168 @@
+package edu.dk.asj.dpm.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, e.g. durations in nanoseconds or sizes in bytes. Values are counted in
+ * logarithmic buckets, each split into {@value #SUB_BUCKETS} linear sub-buckets, so percentiles are reported with a
+ * relative error of at most 1/{@value #SUB_BUCKETS}, using constant memory and lock-free updates. Updates are ignored
+ * while metrics are disabled.
+ */
+public class Histogram implements Metric {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (Long.SIZE - 1 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+    /**
+     * Start time returned while metrics are disabled. {@link System#nanoTime()} may return any value, including 0, but
+     * a start time this far from the current time would overflow every duration measured from it.
+     */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    private final Metrics registry;
+    private final String name;
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    Histogram(Metrics registry, String name) {
+        this.registry = registry;
+        this.name = name;
+        this.buckets = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Start timing a duration to be recorded with {@link #recordSince(long)}.
+     * @return the start time, or {@link #DISABLED} if metrics are disabled.
+     */
+    public long start() {
+        return registry.isEnabled() ? System.nanoTime() : DISABLED;
+    }
+
+    /**
+     * Record the duration since a start time returned by {@link #start()}.
+     * @param start the start time.
+     */
+    public void recordSince(long start) {
+        if (start != DISABLED) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     * @param value the value.
+     */
+    public void record(long value) {
+        if (!registry.isEnabled()) {
+            return;
+        }
+        long boundedValue = Math.max(0, value);
+        buckets.incrementAndGet(bucketIndex(boundedValue));
+        count.increment();
+        sum.add(boundedValue);
+        max.accumulate(boundedValue);
+    }
+
+    /**
+     * Get the number of recorded values.
+     * @return the count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the mean of the recorded values.
+     * @return the mean, or 0 if no values have been recorded.
+     */
+    public double getMean() {
+        long currentCount = count.sum();
+        return currentCount == 0 ? 0 : (double) sum.sum() / currentCount;
+    }
+
+    /**
+     * Get the largest recorded value.
+     * @return the maximum, or 0 if no values have been recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get an estimate of the value at a percentile of the recorded values.
+     * @param percentile the percentile, in the range [0, 1].
+     * @return the upper bound of the bucket containing the percentile, or 0 if no values have been recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be in the range [0, 1]");
+        }
+
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, Number> getValues() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put(name + ".count", getCount());
+        values.put(name + ".mean", getMean());
+        values.put(name + ".p50", getPercentile(0.50));
+        values.put(name + ".p90", getPercentile(0.90));
+        values.put(name + ".p99", getPercentile(0.99));
+        values.put(name + ".max", getMax());
+        return values;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowerBound = (1L << exponent) + subBucket * width;
+        return lowerBound + (width - 1);
+    }
+}
@@ -0,0 +1,21 @@
+package edu.dk.asj.dpm.metrics;
+
+import java.util.Map;
+
+/**
+ * A named metric in the {@link Metrics} registry.
+ */
+public interface Metric {
+
+    /**
+     * Get the metric's name.
+     * @return the name.
+     */
+    String getName();
+
+    /**
+     * Get the metric's current values, keyed by the attribute name under which they are exported.
+     * @return the values.
+     */
+    Map<String, Number> getValues();
+}
@@ -0,0 +1,174 @@
+package edu.dk.asj.dpm.metrics;
+
+import edu.dk.asj.dpm.properties.MetricsProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe singleton registry of the application's metrics. Metrics are looked up once, typically into static
+ * fields of the instrumented class, and are disabled until {@link #configure(MetricsProperties)} enables them. While
+ * disabled, recording a metric costs a single volatile read.
+ */
+public class Metrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    private static Metrics instance;
+
+    private final ConcurrentMap<String, Metric> metrics;
+    private volatile boolean enabled;
+    private ObjectName registeredName;
+
+    private Metrics() {
+        metrics = new ConcurrentHashMap<>();
+        enabled = false;
+    }
+
+    /**
+     * Get the singleton instance.
+     * @return the metrics registry.
+     */
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Enable or disable the metrics as configured, and export them over JMX if configured.
+     * @param properties the metrics properties.
+     */
+    public synchronized void configure(MetricsProperties properties) {
+        Objects.requireNonNull(properties, "Metrics properties must not be null");
+        setEnabled(properties.isEnabled());
+        if (properties.isEnabled() && properties.isJmxEnabled()) {
+            registerMBean(properties.getJmxDomain());
+        } else {
+            unregisterMBean();
+        }
+    }
+
+    /**
+     * Enable or disable recording of metrics.
+     * @param enabled true if metrics should be recorded; false otherwise.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Check whether metrics are recorded.
+     * @return true if metrics are recorded; false otherwise.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get or create the counter with the given name.
+     * @param name the metric name.
+     * @return the counter.
+     * @throws IllegalArgumentException if a metric of another type is registered with the name.
+     */
+    public Counter counter(String name) {
+        return get(name, Counter.class, () -> new Counter(this, name));
+    }
+
+    /**
+     * Get or create the histogram with the given name.
+     * @param name the metric name.
+     * @return the histogram.
+     * @throws IllegalArgumentException if a metric of another type is registered with the name.
+     */
+    public Histogram histogram(String name) {
+        return get(name, Histogram.class, () -> new Histogram(this, name));
+    }
+
+    /**
+     * Register a gauge with the given name, replacing any gauge previously registered with the name. The registry holds
+     * the gauge, and so the object it samples, until it is {@link #unregister(Gauge) unregistered}.
+     * @param name the metric name.
+     * @param supplier the supplier of the gauge's current value.
+     * @return the gauge.
+     * @throws IllegalArgumentException if a metric of another type is registered with the name.
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        Objects.requireNonNull(supplier, "Gauge supplier must not be null");
+        Gauge gauge = new Gauge(name, supplier);
+        Metric previous = metrics.put(name, gauge);
+        if (previous != null && !(previous instanceof Gauge)) {
+            metrics.put(name, previous);
+            throw new IllegalArgumentException("Metric " + name + " is not a gauge");
+        }
+        return gauge;
+    }
+
+    /**
+     * Unregister a gauge, unless another gauge has since been registered with its name. Objects living shorter than the
+     * process unregister their gauges when closed.
+     * @param gauge the gauge.
+     */
+    public void unregister(Gauge gauge) {
+        Objects.requireNonNull(gauge, "Gauge must not be null");
+        metrics.remove(gauge.getName(), gauge);
+    }
+
+    /**
+     * Get all registered metrics.
+     * @return the metrics.
+     */
+    public Collection<Metric> getMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    private <T extends Metric> T get(String name, Class<T> type, Supplier<T> factory) {
+        Objects.requireNonNull(name, "Metric name must not be null");
+        Metric metric = metrics.computeIfAbsent(name, key -> factory.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    private void registerMBean(String domain) {
+        unregisterMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(domain, "type", "Metrics");
+            server.registerMBean(new MetricsMBean(this), name);
+            registeredName = name;
+            LOGGER.debug("Registered metrics MBean {}", name);
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException
+                | NotCompliantMBeanException e) {
+            LOGGER.warn("Could not register metrics MBean", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            LOGGER.warn("Could not unregister metrics MBean", e);
+        }
+        registeredName = null;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.dk.asj.dpm.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read-only JMX view of the {@link Metrics} registry. Every value of every registered metric is exposed as an
+ * attribute, so metrics registered after the MBean appear in it as well.
+ */
+class MetricsMBean implements DynamicMBean {
+    private final Metrics registry;
+
+    MetricsMBean(Metrics registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = getValues().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No metric value " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric values are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = getValues();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operations are supported");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = getValues();
+        MBeanAttributeInfo[] attributes = values.entrySet().stream()
+                .map(e -> new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(),
+                        true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+        return new MBeanInfo(Metrics.class.getName(), "Application metrics", attributes, null,
+                new MBeanOperationInfo[0], null);
+    }
+
+    private Map<String, Number> getValues() {
+        Map<String, Number> values = new TreeMap<>();
+        registry.getMetrics().forEach(metric -> values.putAll(metric.getValues()));
+        return values;
+    }
+}
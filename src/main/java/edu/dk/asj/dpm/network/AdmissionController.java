@@ -0,0 +1,204 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.properties.AdmissionProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe admission control for incoming requests. A request is admitted if its peer is within its rate limit and
+ * a serving slot is free; otherwise it waits in a bounded queue for a slot, or it is rejected immediately so that the
+ * node stays responsive under overload.
+ * <p>
+ *     An admitted request holds a slot until {@link #release()} is called. Releasing a slot hands it directly to the
+ *     oldest queued request that has not yet expired, whose task is run by the releasing thread.
+ * </p>
+ */
+public class AdmissionController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+
+    private static final int PEER_SWEEP_THRESHOLD = 1024;
+
+    private static final Counter ADMITTED = Metrics.getInstance().counter("network.admission.admitted");
+    private static final Counter QUEUED = Metrics.getInstance().counter("network.admission.queued");
+    private static final Counter EXPIRED = Metrics.getInstance().counter("network.admission.expired");
+    private static final Counter RATE_LIMITED = Metrics.getInstance().counter("network.admission.rejected.rate-limited");
+    private static final Counter SATURATED = Metrics.getInstance().counter("network.admission.rejected.saturated");
+
+    /**
+     * The outcome of offering a request.
+     */
+    public enum Decision {
+        /** The request holds a slot and must be served by the caller. */
+        ADMITTED,
+        /** The request waits for a slot, and its task will be run when one is released. */
+        QUEUED,
+        /** The request was rejected because its peer exceeded its rate limit. */
+        RATE_LIMITED,
+        /** The request was rejected because all slots are taken and the queue is full. */
+        SATURATED
+    }
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long queueTimeoutNanos;
+    private final double peerRatePerNano;
+    private final int peerBurst;
+    private final LongSupplier clock;
+
+    private final Deque<QueuedRequest> queue;
+    private final Map<String, TokenBucket> peers;
+    private int active;
+
+    /**
+     * Construct an admission controller.
+     * @param properties the admission properties.
+     */
+    public AdmissionController(AdmissionProperties properties) {
+        this(properties, System::nanoTime);
+    }
+
+    AdmissionController(AdmissionProperties properties, LongSupplier clock) {
+        Objects.requireNonNull(properties, "Admission properties must not be null");
+        this.maxConcurrent = properties.getMaxConcurrent();
+        this.queueCapacity = properties.getQueueCapacity();
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(properties.getQueueTimeoutMs());
+        this.peerRatePerNano = properties.getPeerRate() / TimeUnit.SECONDS.toNanos(1);
+        this.peerBurst = properties.getPeerBurst();
+        this.clock = clock;
+        this.queue = new ArrayDeque<>();
+        this.peers = new HashMap<>();
+        this.active = 0;
+    }
+
+    /**
+     * Offer a request for admission.
+     * @param peer the identity of the requesting peer used for rate limiting, e.g. its host address.
+     * @param queuedTask the task serving the request if it is queued. It is run holding a slot, which it must release.
+     * @return the admission decision.
+     */
+    public synchronized Decision offer(String peer, Runnable queuedTask) {
+        Objects.requireNonNull(peer, "Peer must not be null");
+        Objects.requireNonNull(queuedTask, "Queued task must not be null");
+
+        long now = clock.getAsLong();
+        if (!acquireToken(peer, now)) {
+            LOGGER.debug("Rejected request from {}: rate limit exceeded", peer);
+            RATE_LIMITED.increment();
+            return Decision.RATE_LIMITED;
+        }
+
+        if (active < maxConcurrent) {
+            active++;
+            ADMITTED.increment();
+            return Decision.ADMITTED;
+        }
+
+        dropExpired(now);
+        if (queue.size() < queueCapacity) {
+            queue.offer(new QueuedRequest(queuedTask, now + queueTimeoutNanos));
+            QUEUED.increment();
+            return Decision.QUEUED;
+        }
+
+        LOGGER.debug("Rejected request from {}: saturated", peer);
+        SATURATED.increment();
+        return Decision.SATURATED;
+    }
+
+    /**
+     * Release a slot held by an admitted request. If requests are queued, the slot is handed to the oldest one that has
+     * not expired, and its task is run by the calling thread.
+     */
+    public void release() {
+        QueuedRequest next;
+        synchronized (this) {
+            dropExpired(clock.getAsLong());
+            next = queue.poll();
+            if (next == null) {
+                active = Math.max(0, active - 1);
+                return;
+            }
+            ADMITTED.increment();
+        }
+
+        try {
+            next.task.run();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Queued request failed", e);
+        }
+    }
+
+    /**
+     * Get the number of slots currently held.
+     * @return the number of active requests.
+     */
+    public synchronized int getActive() {
+        return active;
+    }
+
+    /**
+     * Get the number of requests waiting for a slot.
+     * @return the queue length.
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private boolean acquireToken(String peer, long now) {
+        if (peers.size() >= PEER_SWEEP_THRESHOLD) {
+            // forget peers whose buckets have refilled, since they are indistinguishable from new peers
+            peers.values().removeIf(bucket -> bucket.available(now) >= peerBurst);
+        }
+
+        TokenBucket bucket = peers.computeIfAbsent(peer, key -> new TokenBucket(peerBurst, now));
+        double tokens = bucket.available(now);
+        bucket.lastRefillNanos = now;
+        if (tokens < 1) {
+            bucket.tokens = tokens;
+            return false;
+        }
+        bucket.tokens = tokens - 1;
+        return true;
+    }
+
+    private void dropExpired(long now) {
+        while (!queue.isEmpty() && queue.peek().deadlineNanos - now < 0) {
+            queue.poll();
+            EXPIRED.increment();
+        }
+    }
+
+    private class TokenBucket {
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefillNanos = now;
+        }
+
+        private double available(long now) {
+            return Math.min(peerBurst, tokens + (now - lastRefillNanos) * peerRatePerNano);
+        }
+    }
+
+    private static class QueuedRequest {
+        private final Runnable task;
+        private final long deadlineNanos;
+
+        private QueuedRequest(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package edu.dk.asj.dpm.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which a network request must complete. The phases of the request bound their own timeouts by the
+ * time remaining, so a slow phase shortens the following phases instead of extending the request.
+ */
+public final class Deadline {
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Create a deadline expiring after the given duration.
+     * @param duration the duration from now.
+     * @param unit the unit of the duration.
+     * @return the deadline.
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Create a deadline for a phase that should take at most a share of the remaining time.
+     * @param share the share of the remaining time given to the phase, between 0 and 1.
+     * @return the phase's deadline, which never expires after this deadline.
+     */
+    public Deadline split(double share) {
+        if (share < 0 || share > 1) {
+            throw new IllegalArgumentException("Share must be between 0 and 1");
+        }
+        return new Deadline(System.nanoTime() + (long) (remainingNanos() * share));
+    }
+
+    /**
+     * Get the time remaining until the deadline.
+     * @return the remaining time in nanoseconds, or 0 if the deadline has expired.
+     */
+    public long remainingNanos() {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Get the time remaining until the deadline.
+     * @return the remaining time in milliseconds, or 0 if the deadline has expired.
+     */
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    /**
+     * Bound a timeout by the time remaining until the deadline.
+     * @param timeout the timeout of a single operation.
+     * @param unit the unit of the timeout.
+     * @return the smaller of the timeout and the remaining time, in milliseconds.
+     */
+    public long boundMillis(long timeout, TimeUnit unit) {
+        return Math.min(unit.toMillis(timeout), remainingMillis());
+    }
+
+    /**
+     * Check whether the deadline has expired.
+     * @return true if the deadline has passed; false otherwise.
+     */
+    public boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return Deadline.class + "{remainingMs:" + remainingMillis() + "}";
+    }
+}
@@ -1,63 +1,104 @@
 package edu.dk.asj.dpm.network;
 
+import edu.dk.asj.dpm.events.DiscoveryRoundEvent;
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.network.connections.ClientConnection;
 import edu.dk.asj.dpm.network.packets.DiscoveryEchoPacket;
 import edu.dk.asj.dpm.network.packets.DiscoveryHandler;
 import edu.dk.asj.dpm.network.packets.DiscoveryPacket;
 import edu.dk.asj.dpm.network.packets.Packet;
+import edu.dk.asj.dpm.network.transport.DiscoveryChannel;
+import edu.dk.asj.dpm.network.transport.Transport;
+import edu.dk.asj.dpm.properties.DiscoveryProperties;
 import edu.dk.asj.dpm.properties.NetworkProperties;
 import edu.dk.asj.dpm.util.BufferHelper;
-import edu.dk.asj.dpm.util.NetworkInterfaceHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.NetworkInterface;
 import java.net.SocketAddress;
-import java.net.StandardProtocolFamily;
-import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
+/**
+ * Listener discovering the other nodes of the network, and answering their discovery requests.
+ * <p>
+ *     In multicast mode a discovery round sends a single request to the discovery group and collects echoes until the
+ *     discovery timeout. In unicast mode the request is sent directly to every seed and every learned node, and the
+ *     round ends as soon as all contacted nodes have replied. Learned nodes that stop replying are forgotten after a
+ *     few rounds, while seeds are always contacted.
+ * </p>
+ * <p>
+ *     Discovery datagrams are not authenticated, so in unicast mode only echoes from contacted addresses are accepted.
+ *     A node is learned once a connection to it or from it has completed the SAE handshake, and the nodes listed in an
+ *     echo are only followed if the echo came from a seed or a learned node. At most {@value #MAX_LEARNED_PEERS} nodes
+ *     are learned. A forged echo thus cannot make this node send its network ID to arbitrary addresses.
+ * </p>
+ */
 public class DiscoveryListener extends Thread implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryListener.class);
 
-    private static final int BUFFER_CAPACITY = 1000;
+    private static final int BUFFER_CAPACITY = 4000;
 
-    private static final long DISCOVERY_TIME_MS = 1000;
     private static final long DISCOVERY_IDLE_MS = 10;
-
-    private static final String PEER_GROUP_ADDRESS = "232.0.0.0";
-    private static final int PEER_GROUP_PORT = 35587;
-    private static final InetSocketAddress PEER_GROUP_SOCKET_ADDRESS = new InetSocketAddress(PEER_GROUP_ADDRESS, PEER_GROUP_PORT);
-
-    private DatagramChannel channel;
+    private static final int MAX_ECHO_PEERS = 32;
+    private static final int MAX_MISSED_ROUNDS = 3;
+    private static final int MAX_LEARNED_PEERS = 64;
+
+    private static final Counter DISCOVERY_ROUNDS = Metrics.getInstance().counter("network.discovery.rounds");
+    private static final Counter DISCOVERY_ECHOES = Metrics.getInstance().counter("network.discovery.echoes");
+    private static final Counter DISCOVERY_REQUESTS = Metrics.getInstance().counter("network.discovery.requests");
+    private static final Counter DISCOVERY_BUSY = Metrics.getInstance().counter("network.discovery.busy");
+    private static final Histogram DISCOVERY_WINDOW = Metrics.getInstance().histogram("network.discovery.window.nanos");
+
+    private final Transport transport;
+    private DiscoveryChannel channel;
     private final ByteBuffer discoveryBuffer;
     private final DiscoveryHandler packetHandler;
     private final BigInteger networkId;
     private final UUID nodeId;
+    private final DiscoveryProperties discoveryProperties;
+    private final boolean unicast;
+    private final Map<InetSocketAddress, Integer> learnedPeers;
+    private final Map<UUID, InetSocketAddress> echoSenders;
+    private SocketAddress localAddress;
 
     private boolean isListening;
     private boolean closed;
 
-    private boolean isDiscovering;
+    private volatile boolean isDiscovering;
+    private volatile long roundTimeoutMs;
     private ConcurrentLinkedDeque<ClientConnection> discoveredNodes;
 
-    private DiscoveryListener(DiscoveryHandler packetHandler, BigInteger networkId, UUID nodeId) {
+    private DiscoveryListener(DiscoveryHandler packetHandler, BigInteger networkId, UUID nodeId,
+                              DiscoveryProperties discoveryProperties, Transport transport) {
         super("discovery-listener");
+        this.transport = transport;
         this.packetHandler = packetHandler;
         this.networkId = networkId;
         this.nodeId = nodeId;
+        this.discoveryProperties = discoveryProperties;
+        this.unicast = discoveryProperties.getMode() == DiscoveryProperties.Mode.UNICAST;
+        this.learnedPeers = new ConcurrentHashMap<>();
+        this.echoSenders = new ConcurrentHashMap<>();
         discoveryBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
         isListening = false;
         closed = false;
         isDiscovering = false;
+        roundTimeoutMs = discoveryProperties.getTimeoutMs();
         discoveredNodes = new ConcurrentLinkedDeque<>();
 
         if (!openConnection()) {
@@ -72,13 +113,19 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
      * called.
      * @param handler the object that should handle discovery requests.
      * @param properties this node's network properties.
+     * @param discoveryProperties the discovery properties, determining the discovery mode.
+     * @param transport the transport used for discovery and for the discovered connections.
      * @return the listener.
      */
-    public static DiscoveryListener open(DiscoveryHandler handler, NetworkProperties properties) {
+    public static DiscoveryListener open(DiscoveryHandler handler, NetworkProperties properties,
+                                         DiscoveryProperties discoveryProperties, Transport transport) {
         Objects.requireNonNull(handler, "Handler may not be null");
         Objects.requireNonNull(properties, "Network properties must not be null");
+        Objects.requireNonNull(discoveryProperties, "Discovery properties must not be null");
+        Objects.requireNonNull(transport, "Transport must not be null");
 
-        DiscoveryListener listener = new DiscoveryListener(handler, properties.getNetworkId(), properties.getNodeId());
+        DiscoveryListener listener = new DiscoveryListener(handler, properties.getNetworkId(), properties.getNodeId(),
+                discoveryProperties, transport);
         listener.start();
         LOGGER.debug("Started node discovery listener for network ID {}", properties.getNetworkId());
         return listener;
@@ -127,6 +174,16 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
      * returning, but it will happen as soon as possible.
      */
     public void startNetworkDiscovery() {
+        startNetworkDiscovery(discoveryProperties.getTimeoutMs());
+    }
+
+    /**
+     * Signal for the listener to initiate a new network discovery that lasts at most the given time, e.g. to leave
+     * time for the request it discovers nodes for. The round never lasts longer than the configured discovery timeout.
+     * @param timeoutMs the maximum duration of the discovery round in milliseconds.
+     */
+    public void startNetworkDiscovery(long timeoutMs) {
+        roundTimeoutMs = Math.min(timeoutMs, discoveryProperties.getTimeoutMs());
         isDiscovering = true;
     }
 
@@ -147,6 +204,50 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
         return discoveredNodes.poll();
     }
 
+    /**
+     * Learn the discovery address of a node that echoed this node's last discovery request, once a connection to it
+     * has completed the SAE handshake. This may be called from any thread.
+     * @param node the identity of the node, as announced in its echo.
+     */
+    public void peerAuthenticated(UUID node) {
+        InetSocketAddress address = echoSenders.remove(node);
+        if (address != null) {
+            learnPeer(address);
+        }
+    }
+
+    /**
+     * Learn the discovery address of a node whose discovery request this node answered, once its connection has
+     * completed the SAE handshake. This may be called from any thread.
+     * @param requester the address the node sent its discovery request from.
+     */
+    public void requesterAuthenticated(SocketAddress requester) {
+        learnPeer(requester);
+    }
+
+    /**
+     * Send a discovery echo to a node, e.g. when its request was admitted or the handler answers it later. This may be
+     * called from any thread.
+     * @param echo the echo response.
+     * @param recipient the address of the requesting node.
+     * @return true if the echo was sent; false otherwise.
+     */
+    public boolean sendEcho(DiscoveryEchoPacket echo, SocketAddress recipient) {
+        DiscoveryChannel currentChannel = channel;
+        if (currentChannel == null || !currentChannel.isOpen()) {
+            return false;
+        }
+        try {
+            DiscoveryEchoPacket response = withKnownPeers(echo, recipient);
+            LOGGER.debug("Sending discovery response {} to {}", response, recipient);
+            currentChannel.send(ByteBuffer.wrap(response.serialize()), recipient);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Unexpected exception while sending response", e);
+            return false;
+        }
+    }
+
     /**
      * Close the listener and clean up.
      */
@@ -171,20 +272,8 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
     private boolean openConnection() {
         LOGGER.debug("Opening channel");
         try {
-            NetworkInterface nic = NetworkInterfaceHelper.getNetworkInterfaceController();
-            if (nic == null) {
-                LOGGER.error("Could not determine a valid network interface");
-                return false;
-            }
-
-            channel = DatagramChannel.open(StandardProtocolFamily.INET);
-            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
-                    .bind(new InetSocketAddress(PEER_GROUP_PORT))
-                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, nic)
-                    .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
-            channel.join(InetAddress.getByName(PEER_GROUP_ADDRESS), nic);
-            channel.configureBlocking(false);
-
+            channel = transport.openDiscoveryChannel();
+            localAddress = channel.getLocalAddress();
             return true;
         } catch (IOException e) {
             LOGGER.error("Could not open channel", e);
@@ -193,69 +282,122 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
     }
 
     private synchronized boolean listenForDiscoveries() {
-        SocketAddress sender;
-        boolean hasError = false;
-
         try {
-            sender = channel.receive(discoveryBuffer);
+            SocketAddress sender = channel.receive(discoveryBuffer);
             if (sender != null) {
                 LOGGER.debug("Received request from " + sender);
-                Packet request = Packet.deserialize(BufferHelper.readAndClear(discoveryBuffer));
-
-                if (isValidRequest(request)) {
-                    Packet response = packetHandler.process((DiscoveryPacket) request);
-                    if (response != null) {
-                        ByteBuffer responseBuffer = ByteBuffer.wrap(response.serialize());
-                        try {
-                            LOGGER.debug("Sending discovery response {} to {}", response, sender);
-                            channel.send(responseBuffer, sender);
-                        } catch (IOException e) {
-                            LOGGER.warn("Unexpected exception while sending response", e);
-                            packetHandler.error("An error occurred while sending discovery response");
-                            hasError = true;
-                        }
-                    }
-                }
+                respond(Packet.deserialize(BufferHelper.readAndClear(discoveryBuffer)), sender);
             }
         } catch (IOException e) {
             LOGGER.error("Unexpected exception while receiving request", e);
             packetHandler.error("An error occurred while listening for discovery requests");
-            hasError = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Respond to a discovery request, if it is valid. A response that cannot be sent is only logged, since the
+     * requesting node simply retries in its next round.
+     */
+    private void respond(Packet request, SocketAddress sender) {
+        if (!isValidRequest(request)) {
+            return;
+        }
+        DISCOVERY_REQUESTS.increment();
+
+        DiscoveryEchoPacket echo = packetHandler.process((DiscoveryPacket) request, sender);
+        if (echo != null && !sendEcho(echo, sender)) {
+            LOGGER.warn("Could not send discovery response to {}", sender);
         }
-        return hasError;
     }
 
     private synchronized void discoverNodes() throws IOException {
         LOGGER.info("Discovering network nodes");
+        DISCOVERY_ROUNDS.increment();
+        long start = DISCOVERY_WINDOW.start();
+        DiscoveryRoundEvent event = new DiscoveryRoundEvent();
+        event.begin();
 
-        // send discovery packet to network
+        // send discovery packet to network, or directly to every known node
         DiscoveryPacket packet = new DiscoveryPacket(networkId);
         ByteBuffer sendBuffer = ByteBuffer.wrap(packet.serialize());
-        try {
-            LOGGER.debug("Sending request {} to {}", packet, PEER_GROUP_SOCKET_ADDRESS);
-            channel.send(sendBuffer, PEER_GROUP_SOCKET_ADDRESS);
-        } catch (IOException e) {
-            isDiscovering = false;
-            throw new IOException("Cloud not send discovery request", e);
+        Set<SocketAddress> contacted = new HashSet<>();
+        Set<SocketAddress> pending = new HashSet<>();
+        Set<SocketAddress> seeds = getSeeds();
+        echoSenders.clear();
+        if (unicast) {
+            for (SocketAddress peer : getKnownPeers()) {
+                sendRequest(sendBuffer, peer, contacted, pending);
+            }
+        } else {
+            SocketAddress groupAddress = transport.getDiscoveryGroupAddress();
+            try {
+                LOGGER.debug("Sending request {} to {}", packet, groupAddress);
+                channel.send(sendBuffer, groupAddress);
+            } catch (IOException e) {
+                isDiscovering = false;
+                commitDiscoveryRoundEvent(event, 0, 0, false);
+                throw new IOException("Cloud not send discovery request", e);
+            }
         }
 
         // listen for echo replies and establish connections
         ByteBuffer receiveBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
-        long discoveryEndTime = System.currentTimeMillis() + DISCOVERY_TIME_MS;
+        long discoveryEndTime = System.currentTimeMillis() + roundTimeoutMs;
         LOGGER.debug("Waiting for responses");
+        Set<UUID> echoedNodes = new HashSet<>();
+        int echoes = 0;
+        int invalidResponses = 0;
 
-        while (System.currentTimeMillis() < discoveryEndTime) {
+        while (System.currentTimeMillis() < discoveryEndTime && !(unicast && pending.isEmpty())) {
             SocketAddress sender = channel.receive(receiveBuffer);
             if (sender != null) {
                 Packet response = Packet.deserialize(BufferHelper.readAndClear(receiveBuffer));
                 if (response instanceof DiscoveryEchoPacket) {
-                    InetSocketAddress discoveredNodeAddress = new InetSocketAddress(
-                            ((InetSocketAddress) sender).getAddress(),
-                            ((DiscoveryEchoPacket) response).getConnectionPort());
+                    DiscoveryEchoPacket echo = (DiscoveryEchoPacket) response;
+                    if (unicast && !contacted.contains(sender)) {
+                        LOGGER.debug("Ignoring discovery echo from {}, which was not contacted", sender);
+                        invalidResponses++;
+                        continue;
+                    }
+                    pending.remove(sender);
+                    if (echo.isBusy()) {
+                        LOGGER.debug("Node {} is too busy to answer the discovery request", sender);
+                        DISCOVERY_BUSY.increment();
+                        continue;
+                    }
+                    if (nodeId.equals(echo.getNodeId()) || !echoedNodes.add(echo.getNodeId())) {
+                        LOGGER.debug("Ignoring repeated discovery echo from {}", sender);
+                        continue;
+                    }
+                    DISCOVERY_ECHOES.increment();
+                    echoes++;
+                    SocketAddress discoveredNodeAddress = transport.resolveStreamAddress(sender, echo.getConnectionPort());
                     LOGGER.debug("Discovered node connection {}", discoveredNodeAddress);
-                    discoveredNodes.offer(ClientConnection.prepare(discoveredNodeAddress, nodeId));
+                    discoveredNodes.offer(ClientConnection.prepare(transport, discoveredNodeAddress, nodeId, echo.getNodeId()));
+
+                    if (unicast) {
+                        InetSocketAddress address = toInetAddress(sender);
+                        boolean trusted = seeds.contains(sender) || (address != null && learnedPeers.replace(address, 0) != null);
+                        if (address != null && echoSenders.size() < MAX_LEARNED_PEERS) {
+                            echoSenders.put(echo.getNodeId(), address);
+                        }
+                        // an echo from a node not yet authenticated may be forged, so its list is not followed
+                        if (trusted) {
+                            for (InetSocketAddress peer : echo.getKnownPeers()) {
+                                sendRequest(sendBuffer, peer, contacted, pending);
+                            }
+                        }
+                    }
+                } else if (response instanceof DiscoveryPacket) {
+                    // another node is discovering the network at the same time
+                    if (isListening) {
+                        respond(response, sender);
+                    }
                 } else {
                     LOGGER.warn("Unexpected discovery response {}", response);
+                    invalidResponses++;
                 }
             } else {
                 try {
@@ -265,9 +407,108 @@ public class DiscoveryListener extends Thread implements AutoCloseable {
                 }
             }
         }
+        if (unicast) {
+            forgetUnresponsivePeers(pending);
+        }
+        DISCOVERY_WINDOW.recordSince(start);
+        commitDiscoveryRoundEvent(event, echoes, invalidResponses, true);
         isDiscovering = false;
     }
 
+    private void sendRequest(ByteBuffer request, SocketAddress peer, Set<SocketAddress> contacted, Set<SocketAddress> pending) {
+        if (peer == null || peer.equals(localAddress) || !contacted.add(peer)) {
+            return;
+        }
+        try {
+            LOGGER.debug("Sending discovery request to {}", peer);
+            channel.send(request.duplicate(), peer);
+            pending.add(peer);
+        } catch (IOException e) {
+            LOGGER.warn("Could not send discovery request to {}", peer, e);
+        }
+    }
+
+    /**
+     * Get the discovery addresses of the seeds and the learned nodes.
+     */
+    private Set<SocketAddress> getKnownPeers() {
+        Set<SocketAddress> peers = getSeeds();
+        peers.addAll(learnedPeers.keySet());
+        return peers;
+    }
+
+    /**
+     * Get the discovery addresses of the seeds.
+     */
+    private Set<SocketAddress> getSeeds() {
+        Set<SocketAddress> seeds = new LinkedHashSet<>();
+        for (DiscoveryProperties.Seed seed : discoveryProperties.getSeeds()) {
+            SocketAddress address = transport.resolveDiscoveryAddress(seed.getHost(), seed.getPort());
+            if (address != null) {
+                seeds.add(address);
+            }
+        }
+        return seeds;
+    }
+
+    private void learnPeer(SocketAddress peer) {
+        InetSocketAddress address = toInetAddress(peer);
+        if (!unicast || address == null || address.equals(localAddress)) {
+            return;
+        }
+        if (learnedPeers.size() >= MAX_LEARNED_PEERS && !learnedPeers.containsKey(address)) {
+            LOGGER.debug("Not learning node {}, since {} nodes are known", peer, MAX_LEARNED_PEERS);
+            return;
+        }
+        learnedPeers.put(address, 0);
+    }
+
+    private void forgetUnresponsivePeers(Set<SocketAddress> unresponsive) {
+        for (SocketAddress peer : unresponsive) {
+            InetSocketAddress address = toInetAddress(peer);
+            if (address == null || !learnedPeers.containsKey(address)) {
+                continue;
+            }
+            if (learnedPeers.merge(address, 1, Integer::sum) >= MAX_MISSED_ROUNDS) {
+                LOGGER.debug("Forgetting unresponsive node {}", peer);
+                learnedPeers.remove(address);
+            }
+        }
+    }
+
+    /**
+     * Attach the known nodes other than the recipient to an echo, in unicast mode. A busy echo stays no larger than the
+     * request it answers, so that rejected requests cannot be used to amplify traffic.
+     */
+    private DiscoveryEchoPacket withKnownPeers(DiscoveryEchoPacket echo, SocketAddress recipient) {
+        if (!unicast || echo.isBusy()) {
+            return echo;
+        }
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (SocketAddress peer : getKnownPeers()) {
+            InetSocketAddress address = toInetAddress(peer);
+            if (address != null && !address.equals(recipient) && !address.equals(localAddress) && peers.size() < MAX_ECHO_PEERS) {
+                peers.add(address);
+            }
+        }
+        return new DiscoveryEchoPacket(echo.getConnectionPort(), echo.getNodeId(), peers);
+    }
+
+    private static InetSocketAddress toInetAddress(SocketAddress address) {
+        return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+    }
+
+    private void commitDiscoveryRoundEvent(DiscoveryRoundEvent event, int echoes, int invalidResponses, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.localNode = nodeId.toString();
+            event.echoes = echoes;
+            event.invalidResponses = invalidResponses;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
     private boolean isValidRequest(Packet request) {
         if (!(request instanceof DiscoveryPacket)) {
             LOGGER.debug("Ignoring invalid request packet.");
@@ -0,0 +1,97 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.network.packets.FragmentPacket;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Thread-safe cache of the fragment this node serves, held decrypted and decoded as a ready-to-send
+ * {@link FragmentPacket}. Serving a cached fragment skips the key derivation, decryption and deserialization of
+ * loading it from storage, and its serialized form is reused across requests.
+ * <p>
+ *     The cache is keyed by the fragment file's modification time and size, so a fragment written by another part of
+ *     the application is loaded again on the next request. Writers in this node should still call
+ *     {@link #invalidate()}, since a rewrite may keep both.
+ * </p>
+ */
+class FragmentCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FragmentCache.class);
+
+    private static final Counter HITS = Metrics.getInstance().counter("network.fragment-cache.hit");
+    private static final Counter MISSES = Metrics.getInstance().counter("network.fragment-cache.miss");
+
+    private final String storagePath;
+    private Entry entry;
+
+    /**
+     * Construct a cache of the fragment at the storage path.
+     * @param storagePath the path of the fragment file.
+     */
+    FragmentCache(String storagePath) {
+        this.storagePath = Objects.requireNonNull(storagePath, "Storage path must not be null");
+    }
+
+    /**
+     * Get the fragment as a ready-to-send packet, loading it from storage if it changed since it was cached.
+     * @return the packet, whose fragment is null if the node has no fragment.
+     */
+    FragmentPacket get() {
+        Path path = Paths.get(storagePath);
+        String stamp = getStamp(path);
+        synchronized (this) {
+            if (entry != null && stamp != null && stamp.equals(entry.stamp)) {
+                HITS.increment();
+                return entry.packet;
+            }
+        }
+
+        MISSES.increment();
+        VaultFragment fragment = SecurityController.getInstance().loadFragment(storagePath);
+        FragmentPacket packet = new FragmentPacket(fragment);
+        synchronized (this) {
+            // only cache the fragment if the file did not change while it was loaded
+            if (fragment != null && stamp != null && stamp.equals(getStamp(path))) {
+                entry = new Entry(stamp, packet);
+            }
+        }
+        return packet;
+    }
+
+    /**
+     * Discard the cached fragment, so that the next request loads it from storage.
+     */
+    synchronized void invalidate() {
+        entry = null;
+    }
+
+    private static String getStamp(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toString() + "/" + attributes.size();
+        } catch (IOException e) {
+            LOGGER.debug("Could not read fragment file attributes", e);
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        private final String stamp;
+        private final FragmentPacket packet;
+
+        private Entry(String stamp, FragmentPacket packet) {
+            this.stamp = stamp;
+            this.packet = packet;
+        }
+    }
+}
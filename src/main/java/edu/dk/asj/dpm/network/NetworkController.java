@@ -1,23 +1,36 @@
 package edu.dk.asj.dpm.network;
 
+import edu.dk.asj.dpm.events.FragmentFetchEvent;
+import edu.dk.asj.dpm.metrics.Gauge;
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.network.connections.ClientConnection;
 import edu.dk.asj.dpm.network.connections.ServerConnection;
 import edu.dk.asj.dpm.network.packets.DiscoveryEchoPacket;
 import edu.dk.asj.dpm.network.packets.DiscoveryHandler;
 import edu.dk.asj.dpm.network.packets.DiscoveryPacket;
+import edu.dk.asj.dpm.network.packets.FragmentAckPacket;
+import edu.dk.asj.dpm.network.packets.FragmentDeltaPacket;
 import edu.dk.asj.dpm.network.packets.FragmentPacket;
 import edu.dk.asj.dpm.network.packets.GetFragmentPacket;
+import edu.dk.asj.dpm.network.packets.NotModifiedPacket;
 import edu.dk.asj.dpm.network.packets.Packet;
 import edu.dk.asj.dpm.network.packets.PacketHandler;
+import edu.dk.asj.dpm.network.transport.SocketTransport;
+import edu.dk.asj.dpm.network.transport.Transport;
 import edu.dk.asj.dpm.properties.NetworkProperties;
 import edu.dk.asj.dpm.properties.PropertiesContainer;
+import edu.dk.asj.dpm.properties.RequestProperties;
 import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.FragmentDelta;
 import edu.dk.asj.dpm.vault.VaultFragment;
+import edu.dk.asj.dpm.vault.VaultShare;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -25,22 +38,98 @@ import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class NetworkController implements DiscoveryHandler, PacketHandler, AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(NetworkController.class);
     private static final long IDLE_MS = 50;
+    private static final double DISCOVERY_SHARE = 0.5;
 
     private DiscoveryListener discoveryListener;
+    private final Transport transport;
     private final PropertiesContainer propertiesContainer;
+    private final AdmissionController admissionController;
+    private final FragmentCache fragmentCache;
+    private final Object fragmentLock = new Object();
+    private final List<Gauge> gauges;
     private final BigInteger networkId;
     private final UUID nodeId;
     private int networkSize;
+    private NetworkObserver observer;
 
+    /**
+     * Construct a network controller communicating over the host's network interface.
+     * @param properties this node's network properties.
+     * @param propertiesContainer the application properties.
+     */
     public NetworkController(NetworkProperties properties, PropertiesContainer propertiesContainer) {
+        this(properties, propertiesContainer, new SocketTransport(propertiesContainer.getDiscoveryProperties()));
+    }
+
+    /**
+     * Construct a network controller communicating over the given transport.
+     * @param properties this node's network properties.
+     * @param propertiesContainer the application properties.
+     * @param transport the transport to communicate over.
+     */
+    public NetworkController(NetworkProperties properties, PropertiesContainer propertiesContainer, Transport transport) {
         networkId = properties.getNetworkId();
         nodeId = properties.getNodeId();
+        this.transport = Objects.requireNonNull(transport, "Transport must not be null");
         this.propertiesContainer = propertiesContainer;
-        discoveryListener = DiscoveryListener.open(this, properties);
+        this.observer = new NetworkObserver() {};
+        admissionController = new AdmissionController(propertiesContainer.getAdmissionProperties());
+        fragmentCache = new FragmentCache(propertiesContainer.getStorageProperties().getFragmentPath());
+        gauges = List.of(
+                Metrics.getInstance().gauge("network.size", this::getNetworkSize),
+                Metrics.getInstance().gauge("network.admission.active", admissionController::getActive),
+                Metrics.getInstance().gauge("network.admission.queue", admissionController::getQueued));
+        discoveryListener = DiscoveryListener.open(this, properties, propertiesContainer.getDiscoveryProperties(), transport);
+    }
+
+    /**
+     * Set the observer notified of the phases of this controller's network requests.
+     * @param observer the observer.
+     */
+    public void setObserver(NetworkObserver observer) {
+        this.observer = Objects.requireNonNull(observer, "Observer must not be null");
+    }
+
+    /**
+     * Save this node's own fragment, e.g. when this node publishes a new fragmentation of the vault. The fragment is
+     * saved exclusively of the fragments and deltas received from other nodes.
+     * @param fragment the fragment.
+     * @return true if the fragment was saved; false otherwise.
+     */
+    public boolean saveLocalFragment(VaultFragment fragment) {
+        Objects.requireNonNull(fragment, "Fragment must not be null");
+        synchronized (fragmentLock) {
+            return storeFragment(fragment);
+        }
+    }
+
+    /**
+     * Append this node's own part of a delta to its fragment, when this node publishes a change of the vault. The
+     * fragment is loaded, appended to and saved exclusively of the fragments and deltas received from other nodes, so
+     * neither is lost.
+     * @param delta the delta.
+     * @return true if the delta was appended and saved; false if there is no fragment, it is not at the generation the
+     * delta continues from, or it could not be saved.
+     */
+    public boolean appendLocalDelta(FragmentDelta delta) {
+        Objects.requireNonNull(delta, "Delta must not be null");
+        String path = propertiesContainer.getStorageProperties().getFragmentPath();
+        synchronized (fragmentLock) {
+            VaultFragment fragment = SecurityController.getInstance().loadFragment(path);
+            if (fragment == null || !fragment.appendDelta(delta)) {
+                LOGGER.warn("Could not append delta from generation {} to the local fragment", delta.getBaseGeneration());
+                return false;
+            }
+            return storeFragment(fragment);
+        }
     }
 
     /**
@@ -56,68 +145,244 @@ public class NetworkController implements DiscoveryHandler, PacketHandler, AutoC
      * @throws IOException if an I/O error occurred.
      */
     public Collection<VaultFragment> getNetworkFragments() throws IOException {
-        Deque<ClientConnection> nodeConnections = sendRequestToNetwork(new GetFragmentPacket(networkId), true);
-
-        networkSize = 1;
-        boolean hasError = false;
-        List<VaultFragment> fragments = new ArrayList<>(nodeConnections.size());
-        while (!nodeConnections.isEmpty()) {
-            ClientConnection connection = getFinishedConnection(nodeConnections);
-            if (connection.getResponse() != null) {
-                if (connection.getResponse() instanceof FragmentPacket) {
-                    networkSize++;
-                    fragments.add(((FragmentPacket) connection.getResponse()).getFragment());
-                    LOGGER.debug("Accepted fragment from {}", connection.getName());
+        return getNetworkFragments(null);
+    }
+
+    /**
+     * Get vault fragments from the node network within the configured request deadline, which is split between
+     * discovering the nodes and receiving their fragments.
+     * <p>
+     *     If the nodes hold {@link VaultShare}s, only as many nodes as there are shares missing are asked at first, in
+     *     the order they answered discovery. Whenever no node has answered within the hedge delay another node is asked
+     *     as well, and a node that fails is replaced at once. As soon as the vault and every delta appended to any of
+     *     the shares can be reconstructed together with the local fragment, the nodes that have not answered are
+     *     cancelled. Until the deadline, a vault whose deltas some nodes missed thereby asks the other nodes for their
+     *     shares as well. Otherwise the fragments of every node are required.
+     * </p>
+     * @param localFragment this node's own fragment, or null if it has none.
+     * @return the node network's fragments.
+     * @throws IOException if an I/O error occurred, or if too few nodes sent their fragments before the deadline.
+     */
+    public Collection<VaultFragment> getNetworkFragments(VaultFragment localFragment) throws IOException {
+        return fetchNetworkFragments(localFragment, 0, null);
+    }
+
+    /**
+     * Get vault fragments from the node network in the same way as {@link #getNetworkFragments(VaultFragment)}, handing
+     * each fragment to a sink as soon as its connection has finished, while the other connections are still in flight.
+     * @param localFragment this node's own fragment, or null if it has none.
+     * @param sink the sink accepting the fragments, from the calling thread.
+     * @return the node network's fragments.
+     * @throws IOException if an I/O error occurred, or if too few nodes sent their fragments before the deadline.
+     */
+    public Collection<VaultFragment> getNetworkFragments(VaultFragment localFragment, Consumer<VaultFragment> sink) throws IOException {
+        Objects.requireNonNull(sink, "Sink must not be null");
+        return fetchNetworkFragments(localFragment, 0, sink);
+    }
+
+    /**
+     * Get the vault fragments of the nodes whose fragment is not at a known vault version, in the same way as
+     * {@link #getNetworkFragments(VaultFragment)}. Nodes at the known version only confirm it, and once as many nodes
+     * have confirmed it as would be needed to reconstruct the vault, the vault is known not to have changed.
+     * @param localFragment this node's own fragment.
+     * @param knownVersion the version of the vault this node holds.
+     * @return null if the network confirmed the known version; otherwise the fragments sent by the nodes at another
+     * version, which may be too few to reconstruct the vault without the nodes that confirmed the known version.
+     * @throws IOException if an I/O error occurred, or if too few nodes answered before the deadline.
+     */
+    public Collection<VaultFragment> getModifiedNetworkFragments(VaultFragment localFragment, long knownVersion) throws IOException {
+        Objects.requireNonNull(localFragment, "Local fragment must not be null");
+        if (knownVersion == 0) {
+            throw new IllegalArgumentException("Known version must not be 0");
+        }
+        return fetchNetworkFragments(localFragment, knownVersion, null);
+    }
+
+    private Collection<VaultFragment> fetchNetworkFragments(VaultFragment localFragment, long knownVersion,
+                                                            Consumer<VaultFragment> sink) throws IOException {
+        FragmentFetchEvent event = new FragmentFetchEvent();
+        event.begin();
+        RequestProperties requestProperties = propertiesContainer.getRequestProperties();
+        Deadline deadline = Deadline.after(requestProperties.getDeadlineMs(), TimeUnit.MILLISECONDS);
+        boolean tolerateFailures = localFragment instanceof VaultShare
+                || propertiesContainer.getVaultProperties().getRedundancy() > 0;
+
+        int nodes = 0;
+        int responses = 0;
+        int failures = 0;
+        int confirmations = 0;
+        List<VaultFragment> fragments = new ArrayList<>();
+        List<VaultFragment> available = new ArrayList<>();
+        if (localFragment != null) {
+            available.add(localFragment);
+        }
+
+        try (RequestScheduler scheduler = new RequestScheduler(new GetFragmentPacket(networkId, knownVersion), true,
+                deadline, requestProperties.getHedgeDelayMs())) {
+            scheduler.setTarget(getRequestTarget(available, requestProperties));
+
+            // Let the listener run its discovery flow (async); as it does it will feed prepared connections into its
+            // queue, which are handed to the scheduler while earlier connections are already transferring
+            long discoveryStart = System.nanoTime();
+            discoveryListener.startNetworkDiscovery(deadline.split(DISCOVERY_SHARE).remainingMillis());
+            boolean discovering = true;
+            while ((discovering || !scheduler.isIdle()) && !deadline.isExpired()) {
+                if (discovering) {
+                    // read the flag before polling, so connections discovered just before the round ended are not missed
+                    discovering = discoveryListener.isDiscovering();
+                    ClientConnection discovered;
+                    while ((discovered = discoveryListener.getNextNodeConnection()) != null) {
+                        LOGGER.debug("Offering node {} to scheduler", discovered);
+                        nodes++;
+                        scheduler.offer(discovered);
+                    }
+                    if (!discovering) {
+                        networkSize = nodes + 1;
+                        observer.discoveryCompleted(System.nanoTime() - discoveryStart, nodes);
+                        if (scheduler.isIdle()) {
+                            break;
+                        }
+                    }
+                }
+
+                ClientConnection connection = scheduler.poll(discovering ? IDLE_MS : deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                if (connection == null) {
+                    continue;
+                }
+                notifyConnectionCompleted(connection);
+                if (connection.getResponse() != null) {
+                    if (connection.getResponse() instanceof FragmentPacket) {
+                        VaultFragment fragment = ((FragmentPacket) connection.getResponse()).getFragment();
+                        fragments.add(fragment);
+                        responses++;
+                        LOGGER.debug("Accepted fragment from {}", connection.getName());
+                        if (fragment != null) {
+                            available.add(fragment);
+                            if (sink != null) {
+                                sink.accept(fragment);
+                            }
+                        }
+                    } else if (connection.getResponse() instanceof NotModifiedPacket) {
+                        confirmations++;
+                        responses++;
+                        LOGGER.debug("{} confirmed vault version", connection.getName());
+                    } else {
+                        LOGGER.warn("Unexpected reply to network fragment request. Expected {} but was {}", FragmentPacket.class, connection.getClass());
+                        failures++;
+                    }
+
+                } else if (connection.getError() != null) {
+                    LOGGER.warn("Fragment request error: {}", connection.getError());
+                    failures++;
                 } else {
-                    LOGGER.warn("Unexpected reply to network fragment request. Expected {} but was {}", FragmentPacket.class, connection.getClass());
-                    hasError = true;
+                    LOGGER.warn("{} finished with no response or error", connection.getName());
+                    responses++;
                 }
 
-            } else if (connection.getError() != null) {
-                LOGGER.warn("Fragment request error: {}", connection.getError());
-                hasError = true;
-            } else {
-                LOGGER.warn("{} finished with no response or error", connection.getName());
+                if (failures > 0 && !tolerateFailures) {
+                    commitFragmentFetchEvent(event, nodes, fragments, false);
+                    throw new IOException("Failed to get network fragments");
+                }
+                // with deltas some nodes missed, further shares are asked for until they hold every delta
+                if (VaultShare.isCurrent(available)
+                        || (knownVersion != 0 && isConfirmed(available, fragments, confirmations, -1))) {
+                    // keep discovering, so the network size includes the nodes that were not asked
+                    scheduler.cancel();
+                } else {
+                    scheduler.setTarget(getRequestTarget(available, requestProperties) - confirmations);
+                }
             }
+        }
 
-            if (hasError) {
-                nodeConnections.forEach(ClientConnection::close);
-                throw new IOException("Failed to get network fragments");
+        if (knownVersion != 0 && isConfirmed(available, fragments, confirmations, nodes)) {
+            LOGGER.debug("{} nodes confirmed vault version, network size is {}", confirmations, networkSize);
+            commitFragmentFetchEvent(event, nodes, fragments, true);
+            return null;
+        }
+        if (!VaultShare.isSufficient(available) && (failures > 0 || responses < nodes)) {
+            commitFragmentFetchEvent(event, nodes, fragments, false);
+            if (deadline.isExpired()) {
+                throw new IOException("Fragment request deadline exceeded with " + responses + " of " + nodes + " nodes answered");
             }
+            throw new IOException("Failed to get enough network fragments from " + (nodes - failures) + " of " + nodes + " nodes");
         }
         LOGGER.debug("Network size is {}", networkSize);
+        commitFragmentFetchEvent(event, nodes, fragments, true);
         return fragments;
     }
 
     /**
-     * Send the new fragments to the node network.
+     * Send the new fragments to the node network, in the same way as {@link #send(PropagationQueue.Publication)}.
      * @param fragments the new fragments.
      * @return true if the fragments were sent, false otherwise.
      */
     public boolean sendNetworkFragments(VaultFragment[] fragments) throws IOException {
         Objects.requireNonNull(fragments, "Fragments must not be null");
-        LOGGER.debug("Sending fragments to network");
+        long generation = fragments.length > 0 ? fragments[0].getGeneration() : 0;
+        return send(PropagationQueue.Publication.fragments(generation, fragments));
+    }
 
-        Deque<Packet> fragmentRequests = new ArrayDeque<>(fragments.length);
-        for (VaultFragment fragment : fragments) {
-            fragmentRequests.offer(new FragmentPacket(fragment));
-        }
+    /**
+     * Send the nodes' parts of a vault delta to the node network, to be appended to their stored fragments, in the same
+     * way as {@link #send(PropagationQueue.Publication)}.
+     * @param deltas the deltas, one per node.
+     * @return true if the deltas were sent, false otherwise.
+     */
+    public boolean sendNetworkDeltas(FragmentDelta[] deltas) {
+        Objects.requireNonNull(deltas, "Deltas must not be null");
+        long generation = deltas.length > 0 ? deltas[0].getGeneration() : 0;
+        return send(PropagationQueue.Publication.deltas(generation, deltas));
+    }
 
-        Deque<ClientConnection> connections = sendRequestsToNetwork(fragmentRequests, false);
-        if (connections.isEmpty()) {
-            LOGGER.warn("No network connections to send new fragments to");
+    /**
+     * Send a vault update to the node network. Each discovered node is sent the part assigned to it by an earlier
+     * attempt, or else a part not yet assigned, and must acknowledge it once it has saved it. Nodes that acknowledged
+     * their part in an earlier attempt are skipped.
+     * @param publication the update, which records the nodes' parts and acknowledgements.
+     * @return true if every part has been assigned and acknowledged; false otherwise, including when a node holding a
+     * part was not reached.
+     */
+    public boolean send(PropagationQueue.Publication publication) {
+        Objects.requireNonNull(publication, "Publication must not be null");
+        LOGGER.debug("Sending vault generation {} to network", publication.getGeneration());
+
+        int[] discovered = new int[1];
+        Deque<ClientConnection> connections = sendRequestsToNetwork(connection -> {
+            discovered[0]++;
+            UUID peer = connection.getRemoteId();
+            if (publication.isDelivered(peer)) {
+                LOGGER.debug("Node {} already acknowledged vault generation {}", peer, publication.getGeneration());
+                return null;
+            }
+            int part = publication.assign(peer);
+            if (part < 0) {
+                LOGGER.warn("No part of vault generation {} left for node {}", publication.getGeneration(), peer);
+                return null;
+            }
+            return publication.isFull()
+                    ? new FragmentPacket(publication.getFragments()[part])
+                    : new FragmentDeltaPacket(publication.getDeltas()[part]);
+        }, true);
+        if (discovered[0] == 0) {
+            LOGGER.warn("No network connections to send requests to");
             return false;
         }
 
         while (!connections.isEmpty()) {
             ClientConnection connection = getFinishedConnection(connections);
-            if (connection.getError() != null) {
-                LOGGER.warn("Send network fragments error: {}", connection.getError());
-                connections.forEach(ClientConnection::close);
-                return false;
+            notifyConnectionCompleted(connection);
+            Packet response = connection.getResponse();
+            if (response instanceof FragmentAckPacket && ((FragmentAckPacket) response).isApplied()) {
+                publication.setDelivered(connection.getRemoteId());
+            } else if (response instanceof FragmentAckPacket) {
+                LOGGER.warn("Node {} rejected vault generation {}, since its fragment is at generation {}",
+                        connection.getRemoteId(), publication.getGeneration(), ((FragmentAckPacket) response).getGeneration());
+                publication.setRejected();
+            } else {
+                LOGGER.warn("Send network requests error: {}", connection.getError());
             }
         }
-        return true;
+        return publication.isDelivered();
     }
 
     /**
@@ -132,32 +397,72 @@ public class NetworkController implements DiscoveryHandler, PacketHandler, AutoC
     public void close() {
         LOGGER.info("Closing network resources");
         discoveryListener.close();
+        gauges.forEach(Metrics.getInstance()::unregister);
     }
 
     @Override
-    public DiscoveryEchoPacket process(DiscoveryPacket packet) {
-        ServerConnection connection = ServerConnection.open(this, nodeId);
-        return new DiscoveryEchoPacket(connection.getPort());
+    public DiscoveryEchoPacket process(DiscoveryPacket packet, SocketAddress sender) {
+        String peer = sender instanceof InetSocketAddress ? ((InetSocketAddress) sender).getHostString() : sender.toString();
+        AdmissionController.Decision decision = admissionController.offer(peer, () -> answer(sender));
+
+        switch (decision) {
+            case ADMITTED:
+                answer(sender);
+                return null;
+            case QUEUED:
+                LOGGER.debug("Deferred discovery response to {} until a connection is available", sender);
+                return null;
+            default:
+                LOGGER.debug("Rejected discovery request from {}: {}", sender, decision);
+                return DiscoveryEchoPacket.busy(nodeId);
+        }
     }
 
     @Override
     public Packet process(Packet request) {
         if (request instanceof FragmentPacket) {
             VaultFragment fragment = ((FragmentPacket) request).getFragment();
+            synchronized (fragmentLock) {
+                saveFragment(fragment, "Failed to save new fragment");
+            }
+            return new FragmentAckPacket(true, fragment.getLatestGeneration());
+
+        } else if (request instanceof FragmentDeltaPacket) {
+            FragmentDelta delta = ((FragmentDeltaPacket) request).getDelta();
+            // the fragment is loaded, appended to and saved by one connection at a time, so no delta is lost
             String path = propertiesContainer.getStorageProperties().getFragmentPath();
-            boolean saved = SecurityController.getInstance().saveFragment(fragment, path);
-            if (!saved) {
-                error("Failed to save new fragment");
+            synchronized (fragmentLock) {
+                VaultFragment fragment = SecurityController.getInstance().loadFragment(path);
+                if (fragment == null) {
+                    LOGGER.warn("Rejecting fragment delta, since this node has no fragment");
+                    return new FragmentAckPacket(false, 0);
+                }
+                if (fragment.getDeltas().contains(delta)) {
+                    // the sender retries a delta whose acknowledgement it did not receive
+                    return new FragmentAckPacket(true, fragment.getLatestGeneration());
+                }
+                if (!fragment.appendDelta(delta)) {
+                    LOGGER.warn("Rejecting fragment delta from generation {}, since the fragment is at generation {}",
+                            delta.getBaseGeneration(), fragment.getLatestGeneration());
+                    return new FragmentAckPacket(false, fragment.getLatestGeneration());
+                }
+                saveFragment(fragment, "Failed to save fragment delta");
+                return new FragmentAckPacket(true, fragment.getLatestGeneration());
             }
-            return null;
 
         } else if (request instanceof GetFragmentPacket) {
-            if (!networkId.equals(((GetFragmentPacket) request).getNetworkId())) {
+            GetFragmentPacket fragmentRequest = (GetFragmentPacket) request;
+            if (!networkId.equals(fragmentRequest.getNetworkId())) {
                 LOGGER.warn("Ignoring fragment request from unknown network");
                 return null;
             }
-            String path = propertiesContainer.getStorageProperties().getFragmentPath();
-            return new FragmentPacket(SecurityController.getInstance().loadFragment(path));
+            FragmentPacket response = fragmentCache.get();
+            VaultFragment fragment = response.getFragment();
+            long knownVersion = fragmentRequest.getKnownVersion();
+            if (fragment != null && knownVersion != 0 && fragment.getLatestVersion() == knownVersion) {
+                return new NotModifiedPacket(knownVersion);
+            }
+            return response;
 
         } else {
             LOGGER.warn("Unknown request {}", request.getClass());
@@ -171,20 +476,54 @@ public class NetworkController implements DiscoveryHandler, PacketHandler, AutoC
         throw new RuntimeException("Network controller received a critical error. Please check the application log");
     }
 
-    private Deque<ClientConnection> sendRequestToNetwork(Packet request, boolean requreResponse) {
+    /**
+     * Save this node's fragment, and drop the cached copy. Must be called while holding the fragment lock.
+     */
+    private void saveFragment(VaultFragment fragment, String failure) {
+        if (!storeFragment(fragment)) {
+            error(failure);
+        }
+    }
+
+    /**
+     * Save this node's fragment, and drop the cached copy. Must be called while holding the fragment lock.
+     */
+    private boolean storeFragment(VaultFragment fragment) {
+        String path = propertiesContainer.getStorageProperties().getFragmentPath();
+        boolean saved = SecurityController.getInstance().saveFragment(fragment, path);
+        fragmentCache.invalidate();
+        return saved;
+    }
+
+    /**
+     * Start a connection to each discovered node, with the request chosen for it.
+     * @param requests chooses the request of a discovered node's connection, or null to abandon the connection.
+     */
+    private Deque<ClientConnection> sendRequestsToNetwork(Function<ClientConnection, Packet> requests, boolean requireResponse) {
         Deque<ClientConnection> runningConnections = new ArrayDeque<>();
+        long discoveryStart = System.nanoTime();
 
         // Let the listener run its discovery flow (async); as it does it will feed prepared connections into its queue
         // which we pull from dynamically during the flow, in order to start the connection's get-fragment flow
         discoveryListener.startNetworkDiscovery();
-        while (discoveryListener.isDiscovering()) {
+        while (true) {
+            // read the flag before polling, so connections discovered just before the round ended are not missed
+            boolean discovering = discoveryListener.isDiscovering();
             ClientConnection connection = discoveryListener.getNextNodeConnection();
             if (connection != null) {
-                connection.setRequest(request, requreResponse);
+                Packet request = requests.apply(connection);
+                if (request == null) {
+                    // the node holds a slot for the connection until it connects
+                    connection.abandon();
+                    continue;
+                }
+                connection.setRequest(request, requireResponse);
                 connection.start();
 
                 LOGGER.debug("Offering node {} to queue", connection);
                 runningConnections.offer(connection);
+            } else if (!discovering) {
+                break;
             } else {
                 try {
                     Thread.sleep(IDLE_MS);
@@ -194,35 +533,103 @@ public class NetworkController implements DiscoveryHandler, PacketHandler, AutoC
             }
         }
 
-        LOGGER.debug("Finished sending request to network");
+        observer.discoveryCompleted(System.nanoTime() - discoveryStart, runningConnections.size());
+        LOGGER.debug("Finished sending requests to network");
         return runningConnections;
     }
 
-    private Deque<ClientConnection> sendRequestsToNetwork(Deque<Packet> requests, boolean requireResponse) {
-        Deque<ClientConnection> runningConnections = new ArrayDeque<>();
+    /**
+     * Check whether enough nodes confirmed the requested vault version to trust it: as many as would be needed to
+     * reconstruct the vault, which is every node unless the nodes hold shares.
+     * @param nodes the number of discovered nodes once discovery has ended, or -1 while it may still be running.
+     */
+    private static boolean isConfirmed(Collection<VaultFragment> available, Collection<VaultFragment> fragments,
+                                       int confirmations, int nodes) {
+        if (!fragments.isEmpty()) {
+            return false;
+        }
+        int missing = VaultShare.getMissingShares(available);
+        if (missing >= 0) {
+            return confirmations >= missing;
+        }
+        return nodes >= 0 && confirmations == nodes;
+    }
 
-        // Let the listener run its discovery flow (async); as it does it will feed prepared connections into its queue
-        // which we pull from dynamically during the flow, in order to start the connection's get-fragment flow
-        discoveryListener.startNetworkDiscovery();
-        while (discoveryListener.isDiscovering()) {
-            ClientConnection connection = discoveryListener.getNextNodeConnection();
-            if (connection != null) {
-                connection.setRequest(requests.poll(), requireResponse);
-                connection.start();
+    /**
+     * Get the number of fragment requests to run at a time. When the nodes hold shares, only the missing shares are
+     * requested at first, and hedging requests the remaining shares if the first nodes are slow.
+     */
+    private static int getRequestTarget(Collection<VaultFragment> available, RequestProperties requestProperties) {
+        int missing = VaultShare.getMissingShares(available);
+        return requestProperties.getHedgeDelayMs() > 0 && missing >= 0 ? missing : Integer.MAX_VALUE;
+    }
 
-                LOGGER.debug("Offering node {} to queue", connection);
-                runningConnections.offer(connection);
-            } else {
-                try {
-                    Thread.sleep(IDLE_MS);
-                } catch (InterruptedException e) {
-                    // do nothing
-                }
+    /**
+     * Open a server connection for an admitted discovery request. The connection releases its admission slot when it
+     * finishes.
+     */
+    /**
+     * Open a server connection for a discovering node that was given a slot, and send it the echo with the
+     * connection's port.
+     */
+    private void answer(SocketAddress requester) {
+        ServerConnection connection = openServerConnection(requester);
+        if (connection == null) {
+            return;
+        }
+        boolean sent = false;
+        try {
+            sent = discoveryListener.sendEcho(new DiscoveryEchoPacket(connection.getPort(), nodeId), requester);
+        } finally {
+            if (!sent) {
+                LOGGER.warn("Could not send discovery response to {}", requester);
+                // the node will not connect, so the slot is released now rather than when the connection times out
+                connection.close();
             }
         }
+    }
 
-        LOGGER.debug("Finished sending requests to network");
-        return runningConnections;
+    /**
+     * Open a server connection for a discovering node. The node is learned once its connection is authenticated.
+     */
+    private ServerConnection openServerConnection(SocketAddress requester) {
+        // the node connects only after the echo, which is sent once the connection is opened and set
+        AtomicReference<ServerConnection> opened = new AtomicReference<>();
+        try {
+            ServerConnection connection = ServerConnection.open(transport, this, nodeId, () -> {
+                ServerConnection finished = opened.get();
+                if (finished != null && finished.isAuthenticated()) {
+                    discoveryListener.requesterAuthenticated(requester);
+                }
+                admissionController.release();
+            });
+            opened.set(connection);
+            return connection;
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Could not open server connection", e);
+            admissionController.release();
+            return null;
+        }
+    }
+
+    private void commitFragmentFetchEvent(FragmentFetchEvent event, int nodes, List<VaultFragment> fragments, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.localNode = nodeId.toString();
+            event.nodes = nodes;
+            event.fragments = fragments.size();
+            event.bytes = fragments.stream().filter(Objects::nonNull).mapToLong(fragment -> fragment.getFragment().length).sum();
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    private void notifyConnectionCompleted(ClientConnection connection) {
+        if (connection.isAuthenticated()) {
+            discoveryListener.peerAuthenticated(connection.getRemoteId());
+        }
+        observer.connectionCompleted(connection.getName(), connection.getHandshakeNanos(), connection.getTransferNanos(),
+                connection.getError() == null);
     }
 
     private ClientConnection getFinishedConnection(Deque<ClientConnection> connections) {
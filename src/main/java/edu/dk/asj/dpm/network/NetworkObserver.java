@@ -0,0 +1,26 @@
+package edu.dk.asj.dpm.network;
+
+/**
+ * Observer of the phases of the network requests made by a {@link NetworkController}. All methods have empty default
+ * implementations, so an observer only needs to override the events it is interested in.
+ */
+public interface NetworkObserver {
+
+    /**
+     * Called when a network discovery has finished.
+     * @param durationNanos the duration of the discovery.
+     * @param discoveredNodes the number of nodes discovered.
+     */
+    default void discoveryCompleted(long durationNanos, int discoveredNodes) {
+    }
+
+    /**
+     * Called when a connection to a discovered node has finished its flow.
+     * @param peer the name of the connection.
+     * @param handshakeNanos the duration from initiating the connection until the secured request was sent.
+     * @param transferNanos the duration of receiving the response, or 0 if no response was required.
+     * @param succeeded true if the connection finished without error; false otherwise.
+     */
+    default void connectionCompleted(String peer, long handshakeNanos, long transferNanos, boolean succeeded) {
+    }
+}
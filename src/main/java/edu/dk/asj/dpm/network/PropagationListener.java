@@ -0,0 +1,42 @@
+package edu.dk.asj.dpm.network;
+
+/**
+ * Listener of the vault updates sent to the node network by a {@link PropagationQueue}. The methods are called on the
+ * queue's worker thread, and all have empty default implementations.
+ */
+public interface PropagationListener {
+
+    /**
+     * Called when an update has been sent to the node network.
+     * @param publication the sent update.
+     * @param attempts the number of attempts it took.
+     */
+    default void propagated(PropagationQueue.Publication publication, int attempts) {
+    }
+
+    /**
+     * Called when an attempt to send an update failed, before it is retried.
+     * @param publication the update.
+     * @param attempts the number of failed attempts so far.
+     * @param retryDelayMs the delay before the next attempt.
+     */
+    default void propagationFailed(PropagationQueue.Publication publication, int attempts, long retryDelayMs) {
+    }
+
+    /**
+     * Called when a node rejected its part of an update, since it missed an earlier update. The update is not retried,
+     * and holds the updates after it until a full fragmentation of the vault supersedes it, which the listener should
+     * publish. The queue is not locked during the call, so it may publish at once.
+     * @param publication the rejected update.
+     */
+    default void rejected(PropagationQueue.Publication publication) {
+    }
+
+    /**
+     * Called when an update was dropped without being sent, because a later full fragmentation of the vault
+     * supersedes it.
+     * @param publication the dropped update.
+     */
+    default void superseded(PropagationQueue.Publication publication) {
+    }
+}
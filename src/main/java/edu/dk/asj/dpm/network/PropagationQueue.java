@@ -0,0 +1,467 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Gauge;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.FragmentDelta;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Durable, thread-safe queue of the vault updates to send to the node network. Updates are sent in the background, so
+ * publishing a change to the vault only waits for the local disk.
+ * <p>
+ *     The queue is saved encrypted under the master password whenever it changes, and is resumed when the queue is
+ *     started again, so an update survives the application exiting before the nodes were reachable. Updates are sent
+ *     one at a time in the order they were published, which keeps each node's deltas in generation order. An update
+ *     succeeds once every part has been assigned to a node and acknowledged by it, so a node that was offline still
+ *     receives its part. A failed update is retried with a doubling delay until it succeeds, and blocks the updates
+ *     after it in the meantime. An update a node rejected, since the node missed an earlier update, is not retried: it
+ *     stays queued as a record that the vault must be fragmented anew (see {@link #isRefragmentRequired()}), and holds
+ *     the updates after it until a full fragmentation supersedes it.
+ *     Publishing a full fragmentation of the vault drops the queued updates before it, since it supersedes them.
+ * </p>
+ */
+public class PropagationQueue implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PropagationQueue.class);
+
+    private static final Counter PROPAGATED = Metrics.getInstance().counter("network.propagation.sent");
+    private static final Counter RETRIED = Metrics.getInstance().counter("network.propagation.retried");
+    private static final Counter SUPERSEDED = Metrics.getInstance().counter("network.propagation.superseded");
+
+    private final Predicate<Publication> sender;
+    private final String storagePath;
+    private final long retryDelayMs;
+    private final long maxRetryDelayMs;
+
+    private final Deque<Publication> queue;
+    private final Thread worker;
+    private final Gauge sizeGauge;
+    private Publication inFlight;
+    private volatile PropagationListener listener;
+    private boolean closed;
+
+    /**
+     * Construct a queue.
+     * @param sender the action sending an update to the node network, returning whether it succeeded.
+     * @param storagePath the path to where the queue is saved.
+     * @param retryDelayMs the delay before the first retry of a failed update.
+     * @param maxRetryDelayMs the upper bound of the doubling retry delay.
+     */
+    public PropagationQueue(Predicate<Publication> sender, String storagePath, long retryDelayMs, long maxRetryDelayMs) {
+        this.sender = Objects.requireNonNull(sender, "Sender must not be null");
+        this.storagePath = Objects.requireNonNull(storagePath, "Storage path must not be null");
+        this.retryDelayMs = retryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        this.queue = new ArrayDeque<>();
+        this.listener = new PropagationListener() {};
+        this.closed = false;
+
+        worker = new Thread(this::run, "propagation-queue");
+        worker.setDaemon(true);
+        sizeGauge = Metrics.getInstance().gauge("network.propagation.queued", this::size);
+    }
+
+    /**
+     * Set the listener notified of the progress of the updates.
+     * @param listener the listener.
+     */
+    public void setListener(PropagationListener listener) {
+        this.listener = Objects.requireNonNull(listener, "Listener must not be null");
+    }
+
+    /**
+     * Resume the updates saved by an earlier run and start sending updates. The master password must be set.
+     */
+    public void start() {
+        Object saved = SecurityController.getInstance().loadObject(storagePath);
+        if (saved instanceof Publication[]) {
+            synchronized (this) {
+                queue.addAll(Arrays.asList((Publication[]) saved));
+            }
+            LOGGER.info("Resuming {} vault updates not yet sent to the node network", queue.size());
+        }
+        worker.start();
+    }
+
+    /**
+     * Queue an update, and save the queue before returning.
+     * @param publication the update.
+     * @return true if the update was queued durably; false if the queue could not be saved, in which case the update
+     * is still sent unless the application exits first.
+     */
+    public boolean enqueue(Publication publication) {
+        Objects.requireNonNull(publication, "Publication must not be null");
+        List<Publication> superseded = new ArrayList<>();
+        boolean saved;
+        synchronized (this) {
+            if (publication.isFull()) {
+                Iterator<Publication> queued = queue.iterator();
+                while (queued.hasNext()) {
+                    Publication earlier = queued.next();
+                    if (earlier != inFlight) {
+                        queued.remove();
+                        superseded.add(earlier);
+                    }
+                }
+            }
+            queue.offer(publication);
+            saved = save();
+            notifyAll();
+        }
+
+        if (!superseded.isEmpty()) {
+            LOGGER.debug("Dropped {} vault updates superseded by generation {}", superseded.size(), publication.getGeneration());
+            SUPERSEDED.add(superseded.size());
+            superseded.forEach(listener::superseded);
+        }
+        return saved;
+    }
+
+    /**
+     * Check whether a node rejected the update at the head of the queue, so the vault must be fragmented anew before
+     * any further update can be sent. This holds across restarts until a full fragmentation is queued.
+     * @return true if the vault must be fragmented anew; false otherwise.
+     */
+    public synchronized boolean isRefragmentRequired() {
+        Publication head = queue.peekFirst();
+        return head != null && head.isRejected();
+    }
+
+    /**
+     * Get the number of updates not yet sent, including the one being sent.
+     * @return the number of queued updates.
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Wait until every queued update has been sent.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if the queue is empty; false if the timeout elapsed first.
+     */
+    public synchronized boolean awaitEmpty(long timeout, TimeUnit unit) {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            while (!queue.isEmpty()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            return queue.isEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * Stop sending updates. The updates not yet sent remain saved, and are resumed when the queue is next started.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        worker.interrupt();
+        Metrics.getInstance().unregister(sizeGauge);
+    }
+
+    private void run() {
+        Publication current = null;
+        int attempts = 0;
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!closed && (queue.isEmpty() || queue.peekFirst().isRejected())) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+                if (closed) {
+                    return;
+                }
+                if (queue.peekFirst() != current) {
+                    current = queue.peekFirst();
+                    attempts = 0;
+                }
+                inFlight = current;
+            }
+
+            boolean sent;
+            try {
+                sent = sender.test(current);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Sending vault update failed", e);
+                sent = false;
+            }
+            attempts++;
+
+            if (sent) {
+                LOGGER.debug("Sent vault generation {} to the node network after {} attempts", current.getGeneration(), attempts);
+                PROPAGATED.increment();
+                listener.propagated(current, attempts);
+                synchronized (this) {
+                    inFlight = null;
+                    queue.remove(current);
+                    save();
+                    notifyAll();
+                }
+                continue;
+            }
+
+            if (current.isRejected()) {
+                LOGGER.warn("A node rejected vault generation {}, holding the updates until the vault is fragmented anew",
+                        current.getGeneration());
+                synchronized (this) {
+                    // the rejection is saved, so the vault is fragmented anew even if the application exits first
+                    inFlight = null;
+                    save();
+                }
+                listener.rejected(current);
+                continue;
+            }
+
+            long delayMs = getRetryDelayMs(attempts);
+            LOGGER.warn("Could not send vault generation {} to the node network, retrying in {} ms", current.getGeneration(), delayMs);
+            RETRIED.increment();
+            synchronized (this) {
+                // keep the nodes that acknowledged their part, so a resumed update is not sent to them again
+                save();
+            }
+            listener.propagationFailed(current, attempts, delayMs);
+            synchronized (this) {
+                inFlight = null;
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+                try {
+                    // a superseding update is sent at once
+                    while (!closed && queue.peekFirst() == current) {
+                        long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        }
+    }
+
+    private long getRetryDelayMs(int attempts) {
+        long delayMs = retryDelayMs << Math.min(attempts - 1, 30);
+        return delayMs > 0 ? Math.min(delayMs, maxRetryDelayMs) : maxRetryDelayMs;
+    }
+
+    /**
+     * Save the queue. Must be called while holding the lock.
+     */
+    private boolean save() {
+        boolean saved = SecurityController.getInstance().saveObject(queue.toArray(new Publication[0]), storagePath);
+        if (!saved) {
+            LOGGER.error("Could not save the queue of vault updates");
+        }
+        return saved;
+    }
+
+    /**
+     * An update of the vault to send to the node network: either the fragments of a full fragmentation, or the deltas
+     * of a change, for the nodes other than this one.
+     * <p>
+     *     The update records which node each part was assigned to, and which nodes acknowledged their part. A node keeps
+     *     its part across attempts, since the nodes that appended a delta would reject the part of another, and a retry
+     *     only sends to the nodes that have not acknowledged their part. The record is saved with the queue.
+     * </p>
+     */
+    public static final class Publication implements Serializable {
+        private static final long serialVersionUID = 4710293577820161384L;
+
+        private final long generation;
+        private final VaultFragment[] fragments;
+        private final FragmentDelta[] deltas;
+        private Map<UUID, Integer> assignments;
+        private Set<UUID> delivered;
+        private volatile boolean rejected;
+
+        private Publication(long generation, VaultFragment[] fragments, FragmentDelta[] deltas) {
+            this.generation = generation;
+            this.fragments = fragments;
+            this.deltas = deltas;
+            this.assignments = new HashMap<>();
+            this.delivered = new HashSet<>();
+        }
+
+        /**
+         * Create an update replacing the nodes' fragments.
+         * @param generation the generation of the fragments.
+         * @param fragments the fragments of the other nodes.
+         * @return the update.
+         */
+        public static Publication fragments(long generation, VaultFragment[] fragments) {
+            return new Publication(generation, Objects.requireNonNull(fragments, "Fragments must not be null"), null);
+        }
+
+        /**
+         * Create an update appending deltas to the nodes' fragments.
+         * @param generation the generation of the vault with the deltas applied.
+         * @param deltas the deltas of the other nodes.
+         * @return the update.
+         */
+        public static Publication deltas(long generation, FragmentDelta[] deltas) {
+            return new Publication(generation, null, Objects.requireNonNull(deltas, "Deltas must not be null"));
+        }
+
+        /**
+         * Get the generation of the vault the update brings the nodes to.
+         * @return the generation.
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Check whether the update is a full fragmentation of the vault.
+         * @return true if the update replaces the nodes' fragments; false if it holds deltas.
+         */
+        public boolean isFull() {
+            return fragments != null;
+        }
+
+        /**
+         * Get the fragments of a full fragmentation.
+         * @return the fragments, or null if the update holds deltas.
+         */
+        public VaultFragment[] getFragments() {
+            return fragments;
+        }
+
+        /**
+         * Get the deltas of a change.
+         * @return the deltas, or null if the update is a full fragmentation.
+         */
+        public FragmentDelta[] getDeltas() {
+            return deltas;
+        }
+
+        /**
+         * Get the number of parts of the update, one per node.
+         * @return the number of fragments or deltas.
+         */
+        public int getPartCount() {
+            return isFull() ? fragments.length : deltas.length;
+        }
+
+        /**
+         * Get the part assigned to a node, first assigning it the first part not assigned to another node if it has
+         * none.
+         * @param node the identity of the node.
+         * @return the index of the node's part, or -1 if every part is assigned to another node.
+         */
+        synchronized int assign(UUID node) {
+            Integer part = assignments.get(node);
+            if (part != null) {
+                return part;
+            }
+            for (int i = 0; i < getPartCount(); i++) {
+                if (!assignments.containsValue(i)) {
+                    assignments.put(node, i);
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Record that a node acknowledged its part.
+         * @param node the identity of the node.
+         */
+        synchronized void setDelivered(UUID node) {
+            if (!assignments.containsKey(node)) {
+                throw new IllegalStateException("Node " + node + " has not been assigned a part");
+            }
+            delivered.add(node);
+        }
+
+        /**
+         * Check whether a node acknowledged its part.
+         * @param node the identity of the node.
+         * @return true if the node acknowledged its part; false otherwise.
+         */
+        synchronized boolean isDelivered(UUID node) {
+            return delivered.contains(node);
+        }
+
+        /**
+         * Check whether every part has been assigned to a node and acknowledged by it. A part not yet assigned belongs to
+         * a node that has not been reached, so the update is not delivered until that node is.
+         * @return true if no part is pending; false otherwise.
+         */
+        synchronized boolean isDelivered() {
+            return assignments.size() == getPartCount() && delivered.containsAll(assignments.keySet());
+        }
+
+        /**
+         * Record that a node rejected its part, since its fragment is at another generation than the part continues
+         * from. Retrying cannot deliver such a part, and the node only recovers when the vault is fragmented anew. The
+         * rejection is saved with the queue.
+         */
+        void setRejected() {
+            rejected = true;
+        }
+
+        /**
+         * Check whether a node rejected its part, since it missed an earlier update.
+         * @return true if a node rejected its part; false otherwise.
+         */
+        public boolean isRejected() {
+            return rejected;
+        }
+
+        private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            // updates saved before delivery was recorded have not reached any node
+            if (assignments == null) {
+                assignments = new HashMap<>();
+            }
+            if (delivered == null) {
+                delivered = new HashSet<>();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Publication.class + "{generation:" + generation + ";full:" + isFull() + "}";
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.network.connections.ClientConnection;
+import edu.dk.asj.dpm.network.packets.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe scheduler of the connections sending one request to the discovered nodes, within the request's deadline.
+ * <p>
+ *     At most <i>target</i> connections run at a time, and further discovered nodes are held back as alternates. If
+ *     no running connection completes within the hedge delay, the request is also sent to an alternate, so that a
+ *     single slow node does not set the latency of the whole request. Cancelling or closing the scheduler cancels the
+ *     connections that are still running, and abandons the alternates, so their nodes release the slots they hold.
+ * </p>
+ * <p>
+ *     Alternates are only useful when any of several nodes can answer the request, so the target is unlimited unless
+ *     the caller lowers it.
+ * </p>
+ */
+class RequestScheduler implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestScheduler.class);
+
+    private static final Counter HEDGED = Metrics.getInstance().counter("network.request.hedged");
+    private static final Counter CANCELLED = Metrics.getInstance().counter("network.request.cancelled");
+
+    private final Packet request;
+    private final boolean requireResponse;
+    private final Deadline deadline;
+    private final long hedgeDelayNanos;
+
+    private final BlockingQueue<ClientConnection> completed;
+    private final Set<ClientConnection> running;
+    private final Deque<ClientConnection> alternates;
+    private int target;
+    private long lastProgressNanos;
+    private boolean closed;
+
+    /**
+     * Construct a scheduler for the request.
+     * @param request the request sent by every connection.
+     * @param requireResponse flag for whether the connections wait for a response to the request.
+     * @param deadline the deadline of the request, which bounds every connection.
+     * @param hedgeDelayMs the time without progress after which an alternate is started, or 0 to never hedge.
+     */
+    RequestScheduler(Packet request, boolean requireResponse, Deadline deadline, long hedgeDelayMs) {
+        this.request = Objects.requireNonNull(request, "Request must not be null");
+        this.requireResponse = requireResponse;
+        this.deadline = Objects.requireNonNull(deadline, "Deadline must not be null");
+        this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs);
+        this.completed = new LinkedBlockingQueue<>();
+        this.running = new HashSet<>();
+        this.alternates = new ArrayDeque<>();
+        this.target = Integer.MAX_VALUE;
+        this.lastProgressNanos = System.nanoTime();
+        this.closed = false;
+    }
+
+    /**
+     * Offer a discovered node's connection. It is started at once if fewer than the target connections are running,
+     * and otherwise held as an alternate.
+     * @param connection the prepared, but not started, connection.
+     */
+    void offer(ClientConnection connection) {
+        connection.setRequest(request, requireResponse);
+        connection.setDeadline(deadline);
+        connection.setCompletionListener(this::complete);
+
+        boolean start = false;
+        boolean discard = false;
+        synchronized (this) {
+            if (closed) {
+                discard = true;
+            } else if (running.size() < target) {
+                running.add(connection);
+                start = true;
+            } else {
+                alternates.offer(connection);
+            }
+        }
+
+        if (discard) {
+            connection.abandon();
+        } else if (start) {
+            LOGGER.debug("Starting connection {}", connection.getName());
+            connection.start();
+        }
+    }
+
+    /**
+     * Set the number of connections to run at a time, starting alternates if fewer are running.
+     * @param target the number of connections.
+     */
+    void setTarget(int target) {
+        List<ClientConnection> started = new ArrayList<>();
+        synchronized (this) {
+            this.target = Math.max(0, target);
+            while (!closed && running.size() < this.target && !alternates.isEmpty()) {
+                ClientConnection connection = alternates.poll();
+                running.add(connection);
+                started.add(connection);
+            }
+        }
+        started.forEach(ClientConnection::start);
+    }
+
+    /**
+     * Wait for the next connection to complete, hedging the request if the running connections are slow.
+     * @param timeout the maximum time to wait, which is further bounded by the deadline.
+     * @param unit the unit of the timeout.
+     * @return the completed connection, or null if none completed in time.
+     */
+    ClientConnection poll(long timeout, TimeUnit unit) {
+        long end = System.nanoTime() + Math.min(unit.toNanos(timeout), deadline.remainingNanos());
+        while (true) {
+            hedgeIfDue();
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return completed.poll();
+            }
+            try {
+                ClientConnection connection = completed.poll(Math.min(remaining, nanosUntilHedge()), TimeUnit.NANOSECONDS);
+                if (connection != null) {
+                    return connection;
+                }
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+        }
+    }
+
+    /**
+     * Check whether every started connection has completed and been polled.
+     * @return true if no further connection will complete unless more are started; false otherwise.
+     */
+    synchronized boolean isIdle() {
+        return running.isEmpty() && completed.isEmpty();
+    }
+
+    /**
+     * Cancel the running connections and discard the alternates, once a caller needs no further responses. Connections
+     * offered afterwards are discarded.
+     */
+    void cancel() {
+        List<ClientConnection> cancelled;
+        List<ClientConnection> discarded;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelled = new ArrayList<>(running);
+            discarded = new ArrayList<>(alternates);
+            running.clear();
+            alternates.clear();
+        }
+
+        if (!cancelled.isEmpty()) {
+            LOGGER.debug("Cancelling {} late connections", cancelled.size());
+            CANCELLED.add(cancelled.size());
+        }
+        cancelled.forEach(ClientConnection::close);
+        discarded.forEach(ClientConnection::abandon);
+    }
+
+    /**
+     * Cancel the scheduler, if it has not been cancelled yet.
+     * @see #cancel()
+     */
+    @Override
+    public void close() {
+        cancel();
+    }
+
+    private void complete(ClientConnection connection) {
+        synchronized (this) {
+            if (!running.remove(connection)) {
+                return;
+            }
+            lastProgressNanos = System.nanoTime();
+        }
+        completed.offer(connection);
+    }
+
+    /**
+     * Start an alternate if the running connections have made no progress within the hedge delay.
+     */
+    private void hedgeIfDue() {
+        ClientConnection hedge;
+        synchronized (this) {
+            if (nanosUntilHedge() > 0) {
+                return;
+            }
+            hedge = alternates.poll();
+            running.add(hedge);
+            lastProgressNanos = System.nanoTime();
+        }
+        LOGGER.debug("Hedging request to {}", hedge.getName());
+        HEDGED.increment();
+        hedge.start();
+    }
+
+    private synchronized long nanosUntilHedge() {
+        if (closed || hedgeDelayNanos == 0 || running.isEmpty() || alternates.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, lastProgressNanos + hedgeDelayNanos - System.nanoTime());
+    }
+}
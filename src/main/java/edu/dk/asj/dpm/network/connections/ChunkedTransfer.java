@@ -0,0 +1,388 @@
+package edu.dk.asj.dpm.network.connections;
+
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * Framing of the messages exchanged over a stream connection, and flow-controlled transfer of messages of any size.
+ * <p>
+ *     Every message on the connection is a frame of a type (1 byte), a body length (4 bytes) and the body. The
+ *     handshake is sent as {@link #PACKET} frames. An application message is sent as a transfer: a {@link #HEADER}
+ *     frame with the size of the message, {@link #CHUNK} frames with consecutive pieces of its cipher-text, and an
+ *     {@link #END} frame with the SHA3-256 digest of the cipher-text.
+ * </p>
+ * <p>
+ *     The sender may have at most {@link #INITIAL_CREDITS} chunks in flight. The receiver returns a {@link #CREDIT}
+ *     frame as it consumes chunks, and the sender waits for credit when it runs out, so neither side buffers more than
+ *     the window no matter the size of the message.
+ * </p>
+ */
+class ChunkedTransfer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedTransfer.class);
+
+    static final byte PACKET = 1;
+    static final byte HEADER = 2;
+    static final byte CHUNK = 3;
+    static final byte END = 4;
+    static final byte CREDIT = 5;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int INITIAL_CREDITS = 8;
+
+    private static final int FRAME_HEADER_LENGTH = 1 + 4;
+    private static final int MAX_FRAME_LENGTH = CHUNK_SIZE;
+    private static final String DIGEST_SCHEME = "SHA3-256";
+
+    private final StreamChannel channel;
+    private final ByteBuffer receiveBuffer;
+    private int credits;
+    private long bytesSent;
+    private long bytesReceived;
+
+    /**
+     * Construct a transfer over a connection.
+     * @param channel the connection.
+     */
+    ChunkedTransfer(StreamChannel channel) {
+        this.channel = Objects.requireNonNull(channel, "Channel must not be null");
+        this.receiveBuffer = ByteBuffer.allocate(2 * (FRAME_HEADER_LENGTH + MAX_FRAME_LENGTH));
+        this.receiveBuffer.flip();
+        this.credits = INITIAL_CREDITS;
+    }
+
+    /**
+     * Write a frame.
+     * @param type the type of the frame.
+     * @param body the body of the frame.
+     * @param timeoutMs the time to wait for the frame to be written.
+     * @throws IOException if the frame could not be written in time.
+     */
+    void writeFrame(byte type, byte[] body, long timeoutMs) throws IOException {
+        writeFrame(type, body, 0, body.length, timeoutMs);
+    }
+
+    /**
+     * Read the next frame, waiting for it to arrive. Credit frames returned by the peer for earlier transfers are
+     * consumed on the way.
+     * @param timeoutMs the time to wait for each read of the connection.
+     * @return the frame.
+     * @throws IOException if no frame could be read in time, or the frame is malformed.
+     */
+    Frame readFrame(long timeoutMs) throws IOException {
+        Frame frame = nextFrame(timeoutMs);
+        while (frame.getType() == CREDIT) {
+            addCredits(frame);
+            frame = nextFrame(timeoutMs);
+        }
+        return frame;
+    }
+
+    /**
+     * Open a stream sending the data written to it as the chunks of a transfer, after its header frame. The data is
+     * sent as it is written, waiting for credit from the receiver whenever the window is exhausted. Closing the stream
+     * sends the end frame.
+     * @param size the size of the message the data encodes.
+     * @param timeout the supplier of the time to wait for each write, or for credit.
+     * @return the stream.
+     * @throws IOException if the header frame could not be written.
+     */
+    OutputStream send(long size, LongSupplier timeout) throws IOException {
+        writeFrame(HEADER, ByteBuffer.allocate(8).putLong(size).array(), timeout.getAsLong());
+        return new ChunkOutputStream(timeout);
+    }
+
+    /**
+     * Receive the header frame of a transfer.
+     * @param timeoutMs the time to wait for the frame.
+     * @return the size of the message the transfer encodes.
+     * @throws IOException if no header frame was received.
+     */
+    long receiveHeader(long timeoutMs) throws IOException {
+        Frame frame = readFrame(timeoutMs);
+        if (frame.getType() != HEADER || frame.getBody().length != 8) {
+            throw new IOException("Expected transfer header, but received frame of type " + frame.getType());
+        }
+        return ByteBuffer.wrap(frame.getBody()).getLong();
+    }
+
+    /**
+     * Open a stream reading the chunks of the transfer whose header was received, granting credit to the sender as
+     * they are consumed. The stream ends once the end frame was received and its digest verified.
+     * @param timeout the supplier of the time to wait for each frame.
+     * @return the stream.
+     */
+    InputStream receive(LongSupplier timeout) {
+        return new ChunkInputStream(timeout);
+    }
+
+    /**
+     * Get the number of bytes written to the connection.
+     * @return the number of bytes.
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Get the number of bytes read from the connection.
+     * @return the number of bytes.
+     */
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    private Frame nextFrame(long timeoutMs) throws IOException {
+        while (true) {
+            if (receiveBuffer.remaining() >= FRAME_HEADER_LENGTH) {
+                byte type = receiveBuffer.get(receiveBuffer.position());
+                int length = receiveBuffer.getInt(receiveBuffer.position() + 1);
+                if (length < 0 || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (receiveBuffer.remaining() >= FRAME_HEADER_LENGTH + length) {
+                    receiveBuffer.position(receiveBuffer.position() + FRAME_HEADER_LENGTH);
+                    byte[] body = new byte[length];
+                    receiveBuffer.get(body);
+                    return new Frame(type, body);
+                }
+            }
+            receive(timeoutMs);
+        }
+    }
+
+    private void addCredits(Frame frame) throws IOException {
+        if (frame.getBody().length != 4) {
+            throw new IOException("Invalid credit frame");
+        }
+        credits += ByteBuffer.wrap(frame.getBody()).getInt();
+    }
+
+    private void grantCredits(int count, long timeoutMs) {
+        try {
+            writeFrame(CREDIT, ByteBuffer.allocate(4).putInt(count).array(), timeoutMs);
+        } catch (IOException e) {
+            // the sender may already have sent everything and closed the connection
+            LOGGER.debug("Could not return transfer credit", e);
+        }
+    }
+
+    private void writeFrame(byte type, byte[] body, int offset, int length, long timeoutMs) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH + length)
+                .put(type)
+                .putInt(length)
+                .put(body, offset, length)
+                .flip();
+        while (frame.hasRemaining()) {
+            int written = await(channel.write(frame), timeoutMs, "write");
+            if (written < 0) {
+                throw new EOFException("Connection was closed");
+            }
+            bytesSent += written;
+            SAEConnection.BYTES_SENT.add(written);
+        }
+    }
+
+    private void receive(long timeoutMs) throws IOException {
+        receiveBuffer.compact();
+        try {
+            int read = await(channel.read(receiveBuffer), timeoutMs, "read");
+            if (read < 0) {
+                throw new EOFException("Connection was closed");
+            }
+            bytesReceived += read;
+            SAEConnection.BYTES_RECEIVED.add(read);
+        } finally {
+            receiveBuffer.flip();
+        }
+    }
+
+    private static int await(Future<Integer> promise, long timeoutMs, String operation) throws IOException {
+        try {
+            return promise.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            promise.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during " + operation);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not " + operation + " connection", e.getCause());
+        } catch (TimeoutException e) {
+            promise.cancel(true);
+            SAEConnection.TIMEOUTS.increment();
+            throw new IOException("Timed out during " + operation, e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_SCHEME);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Invalid digest algorithm [" + e.getMessage() + "]");
+        }
+    }
+
+    /**
+     * A frame read from the connection.
+     */
+    static final class Frame {
+        private final byte type;
+        private final byte[] body;
+
+        private Frame(byte type, byte[] body) {
+            this.type = type;
+            this.body = body;
+        }
+
+        byte getType() {
+            return type;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+    }
+
+    private final class ChunkOutputStream extends OutputStream {
+        private final LongSupplier timeout;
+        private final MessageDigest digest;
+        private final byte[] chunk;
+        private int length;
+        private boolean closed;
+
+        private ChunkOutputStream(LongSupplier timeout) {
+            this.timeout = timeout;
+            this.digest = newDigest();
+            this.chunk = new byte[CHUNK_SIZE];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            while (len > 0) {
+                int count = Math.min(len, CHUNK_SIZE - length);
+                System.arraycopy(b, off, chunk, length, count);
+                length += count;
+                off += count;
+                len -= count;
+                if (length == CHUNK_SIZE) {
+                    sendChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (length > 0) {
+                sendChunk();
+            }
+            writeFrame(END, digest.digest(), timeout.getAsLong());
+        }
+
+        private void sendChunk() throws IOException {
+            while (credits <= 0) {
+                Frame frame = nextFrame(timeout.getAsLong());
+                if (frame.getType() != CREDIT) {
+                    throw new IOException("Expected credit, but received frame of type " + frame.getType());
+                }
+                addCredits(frame);
+            }
+            credits--;
+            digest.update(chunk, 0, length);
+            writeFrame(CHUNK, chunk, 0, length, timeout.getAsLong());
+            length = 0;
+        }
+    }
+
+    private final class ChunkInputStream extends InputStream {
+        private final LongSupplier timeout;
+        private final MessageDigest digest;
+        private byte[] chunk;
+        private int position;
+        private int consumed;
+        private boolean ended;
+
+        private ChunkInputStream(LongSupplier timeout) {
+            this.timeout = timeout;
+            this.digest = newDigest();
+            this.chunk = new byte[0];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            while (position == chunk.length) {
+                if (ended || !nextChunk()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private boolean nextChunk() throws IOException {
+            Frame frame = readFrame(timeout.getAsLong());
+            if (frame.getType() == END) {
+                ended = true;
+                if (!MessageDigest.isEqual(digest.digest(), frame.getBody())) {
+                    throw new IOException("Transfer digest does not match");
+                }
+                if (consumed > 0) {
+                    grantCredits(consumed, timeout.getAsLong());
+                    consumed = 0;
+                }
+                return false;
+            }
+            if (frame.getType() != CHUNK) {
+                throw new IOException("Expected chunk, but received frame of type " + frame.getType());
+            }
+            chunk = frame.getBody();
+            position = 0;
+            digest.update(chunk);
+
+            // return credit in batches, before the sender runs out
+            if (++consumed >= INITIAL_CREDITS / 2) {
+                grantCredits(consumed, timeout.getAsLong());
+                consumed = 0;
+            }
+            return true;
+        }
+    }
+}
@@ -1,41 +1,61 @@
 package edu.dk.asj.dpm.network.connections;
 
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.network.Deadline;
 import edu.dk.asj.dpm.network.packets.Packet;
-import edu.dk.asj.dpm.util.BufferHelper;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import edu.dk.asj.dpm.network.transport.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Client stream-oriented connection running in its own isolated thread.
+ * <p>
+ *     A connection with a deadline bounds its connect and handshake timeouts by the time remaining, and waits for the
+ *     response for as long as the deadline allows. Closing a running connection cancels it.
+ * </p>
  */
 public class ClientConnection extends SAEConnection implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClientConnection.class);
 
-    private static final int BUFFER_CAPACITY = 10 * 1000 * 1000;
-    private static final long TIMEOUT_SEC = 1L;
+    private static final long TIMEOUT_MS = 1000L;
+    private static final String CANCELLED = "Cancelled";
 
+    private static final Histogram CONNECT_TIME = Metrics.getInstance().histogram("network.connection.connect.nanos");
+    private static final Histogram RECEIVE_TIME = Metrics.getInstance().histogram("network.connection.receive.nanos");
+
+    private final Transport transport;
     private final SocketAddress destination;
+    private final UUID remoteId;
     private Packet request;
 
     private Packet response;
     private String error;
     private boolean requireResponse;
-    private boolean finished;
-
-    private ClientConnection(SocketAddress destination, UUID nodeId) {
-        super("connection" + destination.toString(), nodeId, true);
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private volatile boolean abandoned;
+    private Consumer<ClientConnection> completionListener;
+    private long handshakeNanos;
+    private long transferNanos;
+
+    private ClientConnection(Transport transport, SocketAddress destination, UUID nodeId, UUID remoteId) {
+        super("connection" + destination.toString(), nodeId);
+        this.transport = transport;
         this.destination = destination;
+        this.remoteId = remoteId;
         this.requireResponse = true;
     }
 
@@ -43,13 +63,17 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
      * Construct a client connection in a separate thread. This thread is not yet started. In order to start the thread
      * you must first set the connection's request using {@link ClientConnection#setRequest(Packet,boolean)} and then
      * start the connection using {@link ClientConnection#start()}.
+     * @param transport the transport to connect over.
      * @param destination the destination of the connection.
      * @param nodeId the identity of this node.
+     * @param remoteId the identity of the destination node.
      * @return the initialized (but not started) connection.
      */
-    public static ClientConnection prepare(SocketAddress destination, UUID nodeId) {
+    public static ClientConnection prepare(Transport transport, SocketAddress destination, UUID nodeId, UUID remoteId) {
+        Objects.requireNonNull(transport, "Transport must not be null");
         Objects.requireNonNull(destination, "Destination must not be null");
-        return new ClientConnection(destination, nodeId);
+        Objects.requireNonNull(remoteId, "Remote identity must not be null");
+        return new ClientConnection(transport, destination, nodeId, remoteId);
     }
 
     /**
@@ -57,10 +81,30 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
      */
     @Override
     public synchronized void start() {
-        LOGGER.debug("Started client connection");
         if (request == null) {
             throw new IllegalStateException("Connection does not have a request");
         }
+        if (cancelled) {
+            LOGGER.debug("Not starting cancelled client connection");
+            return;
+        }
+        LOGGER.debug("Started client connection");
+        super.start();
+    }
+
+    /**
+     * Abandon a connection that will not be sent a request, e.g. since the node already has what it would be sent. The
+     * connection is started, but closes as soon as it has connected, so the node's server connection finishes and
+     * releases its admission slot at once rather than when it times out waiting.
+     */
+    public synchronized void abandon() {
+        if (cancelled || isAlive()) {
+            return;
+        }
+        LOGGER.debug("Abandoning client connection");
+        abandoned = true;
+        // the node is released even once the request's deadline has passed
+        deadline = null;
         super.start();
     }
 
@@ -71,26 +115,28 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
     public void run() {
         super.run();
 
-        if (!openConnection()) {
+        long start = System.nanoTime();
+        if (!openConnection() || cancelled || abandoned) {
             cleanUp();
             return;
         }
 
-        if (!saeHandshake()) {
-            LOGGER.warn("SAE handshake failed");
-            error = "Could not authenticate connection";
-            cleanUp();
-            return;
-        }
-        LOGGER.info("Established secure connection");
-
-        if (!sendRequest()) {
+        // the request is sent as part of the handshake, right after this node's confirm
+        if (!initiateSaeHandshake(remoteId, request)) {
+            if (!cancelled) {
+                LOGGER.warn("SAE handshake failed");
+                error = "Could not authenticate connection";
+            }
             cleanUp();
             return;
         }
+        LOGGER.info("Established secure connection and sent request");
+        handshakeNanos = System.nanoTime() - start;
 
         if (requireResponse) {
+            start = System.nanoTime();
             receiveResponse();
+            transferNanos = System.nanoTime() - start;
         }
         cleanUp();
     }
@@ -106,6 +152,31 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
         this.requireResponse = requireResponse;
     }
 
+    /**
+     * Set the deadline by which the connection must have received its response.
+     * @param deadline the deadline, or null to use the default timeouts.
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Set a listener called once when the connection finishes, whether it succeeded, failed or was cancelled. The
+     * listener is called from the connection's thread, or from the thread closing the connection.
+     * @param completionListener the listener.
+     */
+    public void setCompletionListener(Consumer<ClientConnection> completionListener) {
+        this.completionListener = completionListener;
+    }
+
+    /**
+     * Get the identity of the destination node.
+     * @return the identity.
+     */
+    public UUID getRemoteId() {
+        return remoteId;
+    }
+
     /**
      * Get the response received by this connection, in response to its request.
      * @return the response. Will be null if an error occurred prior to receiving the response.
@@ -131,97 +202,103 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
     }
 
     /**
-     * Close the connection and clean up.
+     * Get the duration from initiating the connection until the secured request was sent.
+     * @return the duration in nanoseconds, or 0 if the request was never sent.
+     */
+    public long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    /**
+     * Get the duration of receiving the response to the request.
+     * @return the duration in nanoseconds, or 0 if no response was received.
+     */
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    /**
+     * Determine if the connection was closed before it finished its flow.
+     * @return true if the connection was cancelled; false otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Close the connection and clean up. If the connection is still running it is cancelled, and stops waiting for the
+     * remote node.
      */
     @Override
     public void close() {
+        if (!finished) {
+            cancelled = true;
+            error = CANCELLED;
+            if (isAlive() && currentThread() != this) {
+                interrupt();
+            }
+        }
         cleanUp();
     }
 
     private boolean openConnection() {
         LOGGER.debug("Connecting to " + destination);
+        Future<StreamChannel> promise;
         try {
-            connection = AsynchronousSocketChannel.open();
+            promise = transport.connect(destination);
         } catch (IOException e) {
             LOGGER.error("Could not open client connection", e);
             error = "Failed to open client connection";
             return false;
         }
 
-        Future<Void> promise = connection.connect(destination);
-
+        long start = CONNECT_TIME.start();
         try {
-            promise.get(TIMEOUT_SEC, TimeUnit.SECONDS);
+            connection = promise.get(boundTimeout(TIMEOUT_MS), TimeUnit.MILLISECONDS);
+            CONNECT_TIME.recordSince(start);
             LOGGER.debug("Connected");
             return true;
 
         } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while connecting to node");
-            error = "An error occurred while connecting to node";
+            LOGGER.debug("Interrupted while connecting to node");
+            promise.cancel(true);
+            error = cancelled ? CANCELLED : "An error occurred while connecting to node";
         } catch (ExecutionException e) {
-            LOGGER.warn("Unknown exception while connecting to node", e);
-            error = "An error occurred while connecting to node";
+            if (!cancelled) {
+                LOGGER.warn("Unknown exception while connecting to node", e);
+            }
+            error = cancelled ? CANCELLED : "An error occurred while connecting to node";
         } catch (TimeoutException e) {
             LOGGER.warn("Timed out while connecting to node");
             promise.cancel(true);
+            TIMEOUTS.increment();
             error = "Connect timed out";
         }
 
         return false;
     }
 
-    private boolean sendRequest() {
-        LOGGER.debug("Sending request");
-
-        ByteBuffer requestBuffer = null;
-        try {
-            requestBuffer = ByteBuffer.wrap(encrypt(request.serialize()));
-        } catch (Exception e) {
-            LOGGER.warn("Exception caught while encrypting data", e);
-            error = "Could not encrypt data";
-        }
-        Future<Integer> sendPromise = connection.write(requestBuffer);
-
-        try {
-            sendPromise.get(TIMEOUT_SEC, TimeUnit.SECONDS);
-            LOGGER.debug("Request sent");
-            return true;
-
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while sending request");
-            error = "Interrupted while sending request";
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unknown exception while sending request", e);
-            error = "Unknown error while sending request";
-        } catch (TimeoutException e) {
-            LOGGER.warn("Send timed out");
-            sendPromise.cancel(true);
-            error = "Timed out while sending request";
-        }
-
-        return false;
-    }
-
     private void receiveResponse() {
         LOGGER.debug("Receiving response");
-        ByteBuffer responseBuffer= ByteBuffer.allocate(BUFFER_CAPACITY);
-        Future<Integer> receivePromise = connection.read(responseBuffer);
-
+        long start = RECEIVE_TIME.start();
         try {
-            receivePromise.get(TIMEOUT_SEC, TimeUnit.SECONDS);
+            response = receiveMessage(() -> deadline == null ? TIMEOUT_MS : deadline.remainingMillis());
+            RECEIVE_TIME.recordSince(start);
             LOGGER.debug("Received response");
-            response = Packet.deserialize(decrypt(BufferHelper.readAndClear(responseBuffer)));
 
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while receiving response");
-            error = "An error occurred while receiving a node response";
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unknown exception while receiving response", e);
-            error = "An error occurred while receiving a node response";
-        } catch (TimeoutException e) {
-            LOGGER.warn("Receive timed out");
-            receivePromise.cancel(true);
-            error = "No response";
+        } catch (InterruptedIOException e) {
+            LOGGER.debug("Interrupted while receiving response");
+            error = cancelled ? CANCELLED : "An error occurred while receiving a node response";
+        } catch (IOException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                LOGGER.warn("Receive timed out");
+                error = "No response";
+            } else {
+                if (!cancelled) {
+                    LOGGER.warn("Unknown exception while receiving response", e);
+                }
+                error = cancelled ? CANCELLED : "An error occurred while receiving a node response";
+            }
         } catch (Exception e) {
             LOGGER.warn("Exception caught while decrypting data", e);
             error = "Could not decrypt secure data";
@@ -230,7 +307,11 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
 
     private void cleanUp() {
         LOGGER.info("Cleaning up");
-        finished = true;
+        boolean completing;
+        synchronized (this) {
+            completing = !finished;
+            finished = true;
+        }
         if (connection != null && connection.isOpen()) {
             try {
                 connection.close();
@@ -239,5 +320,8 @@ public class ClientConnection extends SAEConnection implements AutoCloseable {
                 error = "Clean-up failed";
             }
         }
+        if (completing && completionListener != null) {
+            completionListener.accept(this);
+        }
     }
 }
@@ -1,292 +1,367 @@
 package edu.dk.asj.dpm.network.connections;
 
-import edu.dk.asj.dpm.network.packets.IdentityPacket;
+import edu.dk.asj.dpm.events.HandshakeEvent;
+import edu.dk.asj.dpm.metrics.Counter;
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.network.Deadline;
 import edu.dk.asj.dpm.network.packets.Packet;
-import edu.dk.asj.dpm.network.packets.SAEParameterPacket;
-import edu.dk.asj.dpm.network.packets.SAETokenPacket;
+import edu.dk.asj.dpm.network.packets.SAECommitPacket;
+import edu.dk.asj.dpm.network.packets.SAEConfirmPacket;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
 import edu.dk.asj.dpm.security.SAEParameterSpec;
 import edu.dk.asj.dpm.security.SAESession;
 import edu.dk.asj.dpm.security.SecurityController;
-import edu.dk.asj.dpm.util.BufferHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
 
 /**
  * Abstract class modeling the SAE properties and protocol for a stream-oriented connection.
+ * <p>
+ *     The handshake is pipelined so that the client sends the first application frame after a single round trip:
+ * </p>
+ * <ol>
+ *     <li>The client sends its commit (identity and parameters) immediately after connecting. It already knows the
+ *     server's identity from the server's discovery echo.</li>
+ *     <li>The server replies with its own commit and its confirm token in one message.</li>
+ *     <li>The client validates the server's token, derives the key, and sends its confirm token followed directly by
+ *     the first encrypted application frame.</li>
+ *     <li>The server validates the client's token, derives the key, and decrypts the application frame.</li>
+ * </ol>
+ * <p>
+ *     The handshake itself thus takes one round trip, and a request with its response takes two round trips in total
+ *     (counted from the client's commit until the response arrives), where the sequential handshake took four.
+ * </p>
+ * <p>
+ *     Application frames are sent as chunked, flow-controlled transfers (see {@link ChunkedTransfer}), so their size is
+ *     not bounded by a receive buffer, and the receiver decrypts each chunk into the message buffer as it arrives.
+ * </p>
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class SAEConnection extends Thread {
     private static final Logger LOGGER = LoggerFactory.getLogger(SAEConnection.class);
 
     private static final long SAE_HANDSHAKE_TIMEOUT_MS = 3000;
-    private static final int SAE_BUFFER_CAPACITY = 1000;
+    private static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+    private static final int INITIAL_MESSAGE_CAPACITY = 64 * 1024;
+
+    private static final Histogram HANDSHAKE_TIME = Metrics.getInstance().histogram("network.sae.handshake.nanos");
+    private static final Counter HANDSHAKE_FAILURES = Metrics.getInstance().counter("network.sae.handshake.failures");
+    protected static final Counter BYTES_SENT = Metrics.getInstance().counter("network.connection.bytes.sent");
+    protected static final Counter BYTES_RECEIVED = Metrics.getInstance().counter("network.connection.bytes.received");
+    protected static final Counter TIMEOUTS = Metrics.getInstance().counter("network.connection.timeouts");
 
     private final UUID nodeId;
-    private final boolean isClient;
     private byte[] saeKey;
+    private volatile boolean authenticated;
+    private boolean abandoned;
+    private UUID peerId;
+    private ChunkedTransfer transfer;
 
-    protected AsynchronousSocketChannel connection;
+    protected StreamChannel connection;
+    protected Deadline deadline;
 
     /**
      * Construct an SAE connection.
      * @param name the name of the thread executing the connection.
      * @param nodeId the ID of this node.
-     * @param isClient flag indicating whether the connection should execute its flow as an initiating client or
-     *                 reactionary server.
      */
-    protected SAEConnection(String name, UUID nodeId, boolean isClient) {
+    protected SAEConnection(String name, UUID nodeId) {
         super(name);
         this.nodeId = nodeId;
-        this.isClient = isClient;
     }
 
     /**
      * Construct an SAE connection.
      * @param nodeId the ID of this node.
-     * @param isClient flag indicating whether the connection should execute its flow as an initiating client or
-     *                 reactionary server.
      */
-    protected SAEConnection(UUID nodeId, boolean isClient) {
+    protected SAEConnection(UUID nodeId) {
         this.nodeId = nodeId;
-        this.isClient = isClient;
     }
 
     /**
-     * Execute the SAE protocol/handshake in order to mutually authenticate the participating nodes, and establish a
-     * secure connection by computing a secret key used for encrypting the channel's data.
-     * @return true if the handshake succeeded and the connection was authenticated and secured; false otherwise.
+     * Execute the initiating client's side of the SAE protocol/handshake in order to mutually authenticate the
+     * participating nodes and establish a secure connection. The first application frame is encrypted with the computed
+     * key and sent right after the client's confirm token.
+     * @param remoteId the identity of the remote node, as announced in its discovery echo.
+     * @param request the first application frame to send over the secured connection.
+     * @return true if the handshake succeeded and the request was sent; false otherwise.
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    protected boolean saeHandshake() {
+    protected boolean initiateSaeHandshake(UUID remoteId, Packet request) {
+        HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        long start = HANDSHAKE_TIME.start();
+        peerId = remoteId;
+        boolean succeeded = initiateHandshake(remoteId, request);
+        recordHandshake(start, succeeded, event, true);
+        return succeeded;
+    }
+
+    private boolean initiateHandshake(UUID remoteId, Packet request) {
         LOGGER.info("Initiating SAE handshake");
 
-        UUID remoteId = exchangeIdentities();
-        if (remoteId != null) {
-            SAESession session = SecurityController.getInstance().initiateSaeSession(nodeId, remoteId);
-            SAEParameterSpec remoteParameters = exchangeParameters(session.getParameters());
-            if (remoteParameters != null) {
-                byte[] token = SecurityController.getInstance().generateSAEToken(session, remoteParameters);
-                byte[] remoteToken = exchangeTokens(token);
-                if (remoteToken != null) {
-                    saeKey = SecurityController.getInstance().validateSAEToken(session, remoteToken, remoteParameters);
-                    return saeKey != null;
-                }
-            }
+        SAESession session;
+        try {
+            session = SecurityController.getInstance().initiateSaeSession(nodeId, remoteId);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not initiate SAE session", e);
+            return false;
+        }
+        if (!sendPacket(new SAECommitPacket(nodeId, session.getParameters()), "SAE commit")) {
+            return false;
         }
-        return false;
-    }
 
-    /**
-     * Encrypt the data using the computed shared SAE key.
-     * @param data the clear-text data to be encrypted.
-     * @return the encrypted cipher-text.
-     * @throws Exception if an exception was raised.
-     */
-    protected byte[] encrypt(byte[] data) throws Exception {
-        LOGGER.debug("Encrypting data");
-        return SecurityController.getInstance().encrypt(data, saeKey);
+        Packet response = receivePacket("SAE commit");
+        if (!(response instanceof SAECommitPacket)) {
+            LOGGER.warn("Received invalid SAE commit");
+            return false;
+        }
+        SAECommitPacket remoteCommit = (SAECommitPacket) response;
+        if (!remoteId.equals(remoteCommit.getNodeId()) || remoteCommit.getToken() == null) {
+            LOGGER.warn("Received SAE commit from unexpected identity or without confirm");
+            return false;
+        }
+
+        SAEParameterSpec remoteParameters = remoteCommit.getParameters();
+        byte[] token = SecurityController.getInstance().generateSAEToken(session, remoteParameters);
+        saeKey = SecurityController.getInstance().validateSAEToken(session, remoteCommit.getToken(), remoteParameters);
+        if (saeKey == null) {
+            LOGGER.warn("Received invalid SAE confirm");
+            return false;
+        }
+        authenticated = true;
+
+        if (!sendPacket(new SAEConfirmPacket(token), "SAE confirm")) {
+            return false;
+        }
+        try {
+            sendMessage(request, () -> boundTimeout(SAE_HANDSHAKE_TIMEOUT_MS));
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("Exception caught while sending encrypted data", e);
+            return false;
+        }
     }
 
     /**
-     * Decrypt the data using the computed shared SAE key.
-     * @param data the cipher-text to be decrypted.
-     * @return the decrypted clear-text.
-     * @throws Exception if an exception was raised.
+     * Execute the responding server's side of the SAE protocol/handshake in order to mutually authenticate the
+     * participating nodes and establish a secure connection.
+     * @return the client's first application frame if the handshake succeeded; null otherwise.
      */
-    protected byte[] decrypt(byte[] data) throws Exception {
-        LOGGER.debug("Decrypting data");
-        return SecurityController.getInstance().decrypt(data, saeKey);
+    protected Packet acceptSaeHandshake() {
+        HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        long start = HANDSHAKE_TIME.start();
+        Packet request = acceptHandshake();
+        if (!abandoned) {
+            recordHandshake(start, request != null, event, false);
+        }
+        return request;
     }
 
-    ///region Identities
-    private UUID exchangeIdentities() {
-        if (isClient)  {
-            if (sendIdentity()) {
-                return receiveIdentity();
+    private Packet acceptHandshake() {
+        LOGGER.info("Accepting SAE handshake");
+
+        Packet commit;
+        try {
+            commit = readPacket("SAE commit");
+        } catch (EOFException e) {
+            if (getTransfer().getBytesReceived() > 0) {
+                LOGGER.warn("Could not receive SAE commit", e);
+                return null;
             }
+            LOGGER.debug("Connection was closed before the SAE commit");
+            abandoned = true;
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not receive SAE commit", e);
             return null;
-        } else {
-            UUID otherIdentity = receiveIdentity();
-            if (otherIdentity != null) {
-                sendIdentity();
-            }
-            return otherIdentity;
         }
-    }
+        if (!(commit instanceof SAECommitPacket)) {
+            LOGGER.warn("Received invalid SAE commit");
+            return null;
+        }
+        UUID remoteId = ((SAECommitPacket) commit).getNodeId();
+        peerId = remoteId;
+        SAEParameterSpec remoteParameters = ((SAECommitPacket) commit).getParameters();
 
-    private UUID receiveIdentity() {
-        ByteBuffer idBuffer = ByteBuffer.allocate(SAE_BUFFER_CAPACITY);
-        Future<Integer> receiveIdPromise = connection.read(idBuffer);
-        int receivedBytes = -1;
+        SAESession session;
         try {
-            LOGGER.debug("Receiving SAE identity");
-            receivedBytes =  receiveIdPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while receiving SAE identity");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while receiving SAE identity", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while receiving SAE identity");
+            session = SecurityController.getInstance().initiateSaeSession(nodeId, remoteId);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not initiate SAE session", e);
+            return null;
         }
-
-        if (receivedBytes < 1) {
+        byte[] token = SecurityController.getInstance().generateSAEToken(session, remoteParameters);
+        if (!sendPacket(new SAECommitPacket(nodeId, session.getParameters(), token), "SAE commit")) {
             return null;
         }
 
-        Packet response = Packet.deserialize(BufferHelper.readAndClear(idBuffer));
-        if (!(response instanceof IdentityPacket)) {
-            LOGGER.warn("Received invalid SAE identity");
+        Packet confirm = receivePacket("SAE confirm");
+        if (!(confirm instanceof SAEConfirmPacket)) {
+            LOGGER.warn("Received invalid SAE confirm");
             return null;
         }
-        return ((IdentityPacket) response).getNodeId();
-    }
+        saeKey = SecurityController.getInstance().validateSAEToken(session, ((SAEConfirmPacket) confirm).getToken(), remoteParameters);
+        if (saeKey == null) {
+            LOGGER.warn("Received invalid SAE confirm token");
+            return null;
+        }
+        authenticated = true;
 
-    private boolean sendIdentity() {
-        Packet identityRequest = new IdentityPacket(nodeId);
-        Future<Integer> sendIdPromise = connection.write(ByteBuffer.wrap(identityRequest.serialize()));
-        int sentBytes = -1;
         try {
-            LOGGER.debug("Sending SAE identity");
-            sentBytes = sendIdPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while sending SAE identity");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while sending SAE identity", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while sending SAE identity");
+            return receiveMessage(() -> boundTimeout(SAE_HANDSHAKE_TIMEOUT_MS));
+        } catch (Exception e) {
+            LOGGER.warn("Exception caught while receiving encrypted data", e);
+            return null;
         }
+    }
+
+    /**
+     * Check whether the remote node proved during the handshake that it knows the master password.
+     * @return true if the remote node was authenticated; false otherwise.
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
 
-        return sentBytes > 0;
+    /**
+     * Check whether the remote node closed the connection without sending anything, which is how a node abandons a
+     * connection it will not send a request over. Only valid once {@link #acceptSaeHandshake()} has returned null.
+     * @return true if the connection was abandoned; false otherwise.
+     */
+    protected boolean isAbandoned() {
+        return abandoned;
     }
-    ///endregion
 
-    ///region Parameters
-    private SAEParameterSpec exchangeParameters(SAEParameterSpec parameters) {
-        if (isClient) {
-            if (sendParameters(parameters)){
-                return receiveParameters();
-            }
-            return null;
-        } else {
-            SAEParameterSpec otherParameters = receiveParameters();
-            if (otherParameters != null) {
-                sendParameters(parameters);
-            }
-            return otherParameters;
-        }
+    /**
+     * Bound the timeout of a single operation by the connection's deadline, if it has one.
+     * @param timeoutMs the timeout of the operation.
+     * @return the timeout in milliseconds, which is 0 if the deadline has expired.
+     */
+    protected long boundTimeout(long timeoutMs) {
+        return deadline == null ? timeoutMs : deadline.boundMillis(timeoutMs, TimeUnit.MILLISECONDS);
     }
 
-    private SAEParameterSpec receiveParameters() {
-        ByteBuffer parameterBuffer = ByteBuffer.allocate(SAE_BUFFER_CAPACITY);
-        Future<Integer> receiveParamPromise = connection.read(parameterBuffer);
-        int receivedBytes = -1;
-        try {
-            LOGGER.debug("Receiving SAE parameters");
-            receivedBytes = receiveParamPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while receiving SAE parameters");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while receiving SAE parameters", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while receiving SAE parameters");
+    /**
+     * Send a packet encrypted with the computed shared SAE key. The packet is serialized, and then encrypted in segments
+     * that are sent as the chunks of a transfer, waiting for the receiver to grant credit whenever the window is full.
+     * @param packet the packet to be sent.
+     * @param timeout the supplier of the time to wait for each write, or for credit.
+     * @throws Exception if the packet could not be encrypted or sent.
+     */
+    protected void sendMessage(Packet packet, LongSupplier timeout) throws Exception {
+        LOGGER.debug("Sending encrypted data");
+        byte[] message = packet.serialize();
+        OutputStream chunks = getTransfer().send(message.length, timeout);
+        try (OutputStream stream = SecurityController.getInstance().encryptingStream(chunks, saeKey)) {
+            stream.write(message);
         }
+    }
 
-        if (receivedBytes < 1) {
-            return null;
+    /**
+     * Receive a packet encrypted with the computed shared SAE key. Each chunk is decrypted into the message buffer as it
+     * arrives, so the cipher-text is never held as a whole.
+     * <p>
+     *     The size announced by the sender is not authenticated, so it only bounds the message: the buffer starts small
+     *     and grows as authenticated plain-text arrives, and a size beyond {@value #MAX_MESSAGE_LENGTH} bytes is
+     *     rejected before anything is read.
+     * </p>
+     * @param timeout the supplier of the time to wait for each frame.
+     * @return the decrypted packet.
+     * @throws Exception if the packet could not be received, or it was not authentic.
+     */
+    protected Packet receiveMessage(LongSupplier timeout) throws Exception {
+        LOGGER.debug("Receiving encrypted data");
+        long size = getTransfer().receiveHeader(timeout.getAsLong());
+        if (size < 0 || size > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Invalid message size " + size);
         }
 
-        Packet response = Packet.deserialize(BufferHelper.readAndClear(parameterBuffer));
-        if (!(response instanceof SAEParameterPacket)) {
-            LOGGER.warn("Received invalid SAE parameter response");
-            return null;
+        byte[] message = new byte[(int) Math.min(size, INITIAL_MESSAGE_CAPACITY)];
+        int length = 0;
+        try (InputStream stream = SecurityController.getInstance().decryptingStream(getTransfer().receive(timeout), saeKey)) {
+            while (length < size) {
+                if (length == message.length) {
+                    message = Arrays.copyOf(message, (int) Math.min(size, 2L * message.length));
+                }
+                int read = stream.read(message, length, message.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            // reading past the message verifies the last segment and the digest of the transfer
+            if (length < size || stream.read() != -1) {
+                throw new IOException("Message does not match its announced size of " + size + " bytes");
+            }
         }
-        return ((SAEParameterPacket) response).getParameters();
+        return Packet.deserialize(message);
     }
 
-    private boolean sendParameters(SAEParameterSpec parameters) {
-        Packet request = new SAEParameterPacket(parameters);
-        Future<Integer> sendParamPromise = connection.write(ByteBuffer.wrap(request.serialize()));
-        int sentBytes = -1;
-        try {
-            LOGGER.debug("Sending SAE parameters");
-            sentBytes = sendParamPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while sending SAE parameters");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while sending SAE parameters", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while sending SAE parameters");
+    private void recordHandshake(long start, boolean succeeded, HandshakeEvent event, boolean initiator) {
+        if (succeeded) {
+            HANDSHAKE_TIME.recordSince(start);
+        } else {
+            HANDSHAKE_FAILURES.increment();
         }
-        return sentBytes > 0;
-    }
-    ///endregion
 
-    ///region Tokens
-    private byte[] exchangeTokens(byte[] token) {
-        if (isClient) {
-            if (sendToken(token)){
-                return receiveToken();
-            }
-            return null;
-        } else {
-            byte[] otherToken = receiveToken();
-            if (otherToken != null) {
-                sendToken(token);
-            }
-            return otherToken;
+        event.end();
+        if (event.shouldCommit()) {
+            event.localNode = nodeId.toString();
+            event.remoteNode = peerId == null ? null : peerId.toString();
+            event.initiator = initiator;
+            event.bytesSent = transfer == null ? 0 : transfer.getBytesSent();
+            event.bytesReceived = transfer == null ? 0 : transfer.getBytesReceived();
+            event.succeeded = succeeded;
+            event.commit();
         }
     }
 
-    private byte[] receiveToken() {
-        ByteBuffer tokenBuffer = ByteBuffer.allocate(SAE_BUFFER_CAPACITY);
-        Future<Integer> receiveTokenPromise = connection.read(tokenBuffer);
-        int receivedBytes = -1;
-        try {
-            LOGGER.debug("Receiving SAE token");
-            receivedBytes = receiveTokenPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while receiving SAE token");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while receiving SAE token", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while receiving SAE token");
+    private ChunkedTransfer getTransfer() {
+        if (transfer == null) {
+            transfer = new ChunkedTransfer(connection);
         }
+        return transfer;
+    }
 
-        if (receivedBytes < 1) {
+    private Packet receivePacket(String description) {
+        try {
+            return readPacket(description);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not receive " + description, e);
             return null;
         }
+    }
 
-        Packet response = Packet.deserialize(BufferHelper.readAndClear(tokenBuffer));
-        if (!(response instanceof SAETokenPacket)) {
-            LOGGER.warn("Received invalid SAE token response");
+    private Packet readPacket(String description) throws IOException {
+        LOGGER.debug("Receiving {}", description);
+        ChunkedTransfer.Frame frame = getTransfer().readFrame(boundTimeout(SAE_HANDSHAKE_TIMEOUT_MS));
+        if (frame.getType() != ChunkedTransfer.PACKET) {
+            LOGGER.warn("Expected {}, but received frame of type {}", description, frame.getType());
             return null;
         }
-        return ((SAETokenPacket) response).getToken();
+        return Packet.deserialize(frame.getBody());
     }
 
-    private boolean sendToken(byte[] token) {
-        Packet request = new SAETokenPacket(token);
-        Future<Integer> sendTokenPromise = connection.write(ByteBuffer.wrap(request.serialize()));
-        int sentBytes = -1;
+    private boolean sendPacket(Packet packet, String description) {
         try {
-            LOGGER.debug("Sending SAE token");
-            sentBytes = sendTokenPromise.get(SAE_HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while sending SAE token");
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unexpected exception while sending SAE token", e);
-        } catch (TimeoutException e) {
-            LOGGER.warn("Timed out while sending SAE token");
+            LOGGER.debug("Sending {}", description);
+            getTransfer().writeFrame(ChunkedTransfer.PACKET, packet.serialize(), boundTimeout(SAE_HANDSHAKE_TIMEOUT_MS));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not send " + description, e);
+            return false;
         }
-        return sentBytes > 0;
     }
-    ///endregion
 }
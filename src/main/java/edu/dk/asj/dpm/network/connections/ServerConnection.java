@@ -1,18 +1,17 @@
 package edu.dk.asj.dpm.network.connections;
 
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.network.packets.PacketHandler;
 import edu.dk.asj.dpm.network.packets.Packet;
-import edu.dk.asj.dpm.util.BufferHelper;
-import edu.dk.asj.dpm.util.NetworkInterfaceHelper;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import edu.dk.asj.dpm.network.transport.StreamListener;
+import edu.dk.asj.dpm.network.transport.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousServerSocketChannel;
-import java.nio.channels.AsynchronousSocketChannel;
+import java.io.InterruptedIOException;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
@@ -26,22 +25,25 @@ import java.util.concurrent.TimeoutException;
 public class ServerConnection extends SAEConnection implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ServerConnection.class);
 
-    private static final int BUFFER_CAPACITY = 10 * 1000 * 1000;
     private static final long TIMEOUT = 10L;
 
-    private final AsynchronousServerSocketChannel connectionListener;
+    private static final Histogram SEND_TIME = Metrics.getInstance().histogram("network.connection.send.nanos");
+
+    private final StreamListener connectionListener;
     private final PacketHandler packetHandler;
+    private final Runnable finishedCallback;
     private final int port;
+    private volatile boolean cancelled;
 
-    private ServerConnection(PacketHandler packetHandler, UUID nodeId) {
-        super(nodeId, false);
+    private ServerConnection(Transport transport, PacketHandler packetHandler, UUID nodeId, Runnable finishedCallback) {
+        super(nodeId);
         this.packetHandler = packetHandler;
+        this.finishedCallback = finishedCallback;
         try {
-            SocketAddress nicWithRandPort = new InetSocketAddress(NetworkInterfaceHelper.getNetworkInterfaceAddress(), 0);
-            connectionListener = AsynchronousServerSocketChannel.open().bind(nicWithRandPort);
-            port = ((InetSocketAddress) connectionListener.getLocalAddress()).getPort();
+            connectionListener = transport.openStreamListener();
+            port = connectionListener.getPort();
             setName("server:" + port);
-            LOGGER.debug("Opened server connection listener on {}", connectionListener.getLocalAddress());
+            LOGGER.debug("Opened server connection listener on port {}", port);
 
         } catch (IOException e) {
             LOGGER.error("Could not bind server socket", e);
@@ -52,15 +54,21 @@ public class ServerConnection extends SAEConnection implements AutoCloseable {
 
     /**
      * Open and start a new server connection running in its own thread.
+     * @param transport the transport to listen on.
      * @param packetHandler the handler that will be served the packets received by the connection.
      * @param nodeId this node's ID.
+     * @param finishedCallback called once when the connection's flow has finished, whether it succeeded or not.
      * @return the started connection.
+     * @throws IllegalStateException if the connection could not be opened. The callback is not called in this case.
      */
-    public static ServerConnection open(PacketHandler packetHandler, UUID nodeId) {
+    public static ServerConnection open(Transport transport, PacketHandler packetHandler, UUID nodeId,
+                                        Runnable finishedCallback) throws IllegalStateException {
+        Objects.requireNonNull(transport, "Transport must not be null");
         Objects.requireNonNull(packetHandler, "Request processor must not be null");
         Objects.requireNonNull(nodeId, "Node identity must not be null");
+        Objects.requireNonNull(finishedCallback, "Finished callback must not be null");
 
-        ServerConnection connection = new ServerConnection(packetHandler, nodeId);
+        ServerConnection connection = new ServerConnection(transport, packetHandler, nodeId, finishedCallback);
         connection.start();
 
         LOGGER.info("Started server connection");
@@ -72,24 +80,54 @@ public class ServerConnection extends SAEConnection implements AutoCloseable {
      */
     @Override
     public void run() {
+        try {
+            serve();
+        } finally {
+            finishedCallback.run();
+        }
+    }
+
+    /**
+     * Get the server's port number after it has been opened.
+     * @return the port number.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Close the connection and clean up. If the connection is still waiting for the remote node, it is cancelled and
+     * its flow finishes at once, calling the finished callback.
+     */
+    @Override
+    public synchronized void close() {
+        cancelled = true;
+        if (isAlive() && currentThread() != this) {
+            interrupt();
+        }
+        cleanUp();
+    }
+
+    private void serve() {
         if (!acceptConnection()) {
-            cleanUp();;
+            cleanUp();
             return;
         }
 
-        if (!saeHandshake()) {
-            LOGGER.warn("SAE handshake failed");
-            packetHandler.error("Could not authenticate connection");
+        // the client's request arrives as part of the handshake, right after its confirm
+        Packet request = acceptSaeHandshake();
+        if (request == null && isAbandoned()) {
+            LOGGER.debug("Client abandoned the connection");
             cleanUp();
             return;
         }
-        LOGGER.debug("Established secure connection");
-
-        Packet request = receiveRequest();
         if (request == null) {
-            cleanUp();;
+            LOGGER.warn("SAE handshake failed");
+            packetHandler.error("Could not authenticate connection");
+            cleanUp();
             return;
         }
+        LOGGER.debug("Established secure connection and received request");
 
         Packet response = packetHandler.process(request);
         if (response != null) {
@@ -99,25 +137,9 @@ public class ServerConnection extends SAEConnection implements AutoCloseable {
         cleanUp();
     }
 
-    /**
-     * Get the server's port number after it has been opened.
-     * @return the port number.
-     */
-    public int getPort() {
-        return port;
-    }
-
-    /**
-     * Close the connection and clean up.
-     */
-    @Override
-    public synchronized void close() {
-        cleanUp();
-    }
-
     private boolean acceptConnection() {
         LOGGER.debug("Waiting for connections");
-        Future<AsynchronousSocketChannel> acceptPromise = connectionListener.accept();
+        Future<StreamChannel> acceptPromise = connectionListener.accept();
 
         try {
             connection = acceptPromise.get(TIMEOUT, TimeUnit.SECONDS);
@@ -125,9 +147,13 @@ public class ServerConnection extends SAEConnection implements AutoCloseable {
             return true;
 
         } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while waiting for request");
             acceptPromise.cancel(true);
-            packetHandler.error("An error occurred while waiting for a server request");
+            if (cancelled) {
+                LOGGER.debug("Cancelled while waiting for request");
+            } else {
+                LOGGER.warn("Interrupted while waiting for request");
+                packetHandler.error("An error occurred while waiting for a server request");
+            }
 
         } catch (ExecutionException e) {
             LOGGER.warn("Unknown exception while waiting for request", e);
@@ -137,73 +163,36 @@ public class ServerConnection extends SAEConnection implements AutoCloseable {
         } catch (TimeoutException e) {
             LOGGER.warn("Timed out while waiting for request");
             acceptPromise.cancel(true);
+            TIMEOUTS.increment();
         }
 
         return false;
     }
 
-    private Packet receiveRequest() {
-        LOGGER.debug("Receiving packet");
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
-        Future<Integer> promise = connection.read(buffer);
-
-        try {
-            promise.get(TIMEOUT, TimeUnit.SECONDS);
-            LOGGER.debug("Received packet");
-            return Packet.deserialize(decrypt(BufferHelper.readAndClear(buffer)));
-
-        } catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while receiving request");
-            promise.cancel(true);
-            packetHandler.error("An error occurred while receiving a node response");
-
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unknown exception during receive", e);
-            promise.cancel(true);
-            packetHandler.error("An error occurred while receiving a node response");
-
-        } catch (TimeoutException e) {
-            LOGGER.warn("Receive timed out");
-            promise.cancel(true);
-            packetHandler.error("No response to server");
-
-        } catch (Exception e) {
-            LOGGER.warn("Exception caught while decrypting data", e);
-            packetHandler.error("Could not decrypt secure data");
-        }
-
-        return null;
-    }
-
     private void sendResponse(Packet response) {
         LOGGER.debug("Sending response");
-        ByteBuffer buffer = null;
-        try {
-            buffer = ByteBuffer.wrap(encrypt(response.serialize()));
-        } catch (Exception e) {
-            LOGGER.warn("Exception caught while encrypting data", e);
-            packetHandler.error("Could not encrypt data");
-        }
-        Future<Integer> promise = connection.write(buffer);
-
+        long start = SEND_TIME.start();
         try {
-            promise.get(TIMEOUT, TimeUnit.SECONDS);
+            sendMessage(response, () -> TimeUnit.SECONDS.toMillis(TIMEOUT));
+            SEND_TIME.recordSince(start);
             LOGGER.debug("Response sent");
 
-        } catch (InterruptedException e) {
+        } catch (InterruptedIOException e) {
             LOGGER.warn("Interrupted while sending response");
-            promise.cancel(true);
             packetHandler.error("An error occurred while sending server response");
 
-        } catch (ExecutionException e) {
-            LOGGER.warn("Unknown exception while sending response", e);
-            promise.cancel(true);
-            packetHandler.error("An error occurred while sending server response");
+        } catch (IOException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                LOGGER.warn("Send timed out");
+                packetHandler.error("Could not send server response");
+            } else {
+                LOGGER.warn("Unknown exception while sending response", e);
+                packetHandler.error("An error occurred while sending server response");
+            }
 
-        } catch (TimeoutException e) {
-            LOGGER.warn("Send timed out");
-            promise.cancel(true);
-            packetHandler.error("Could not send server response");
+        } catch (Exception e) {
+            LOGGER.warn("Exception caught while encrypting data", e);
+            packetHandler.error("Could not encrypt data");
         }
     }
 
@@ -1,22 +1,74 @@
 package edu.dk.asj.dpm.network.packets;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * Packet for echoing a response to a {@link DiscoveryPacket}. This response includes the port number on which the
- * sender of the discovery request should initiate a session connection.
+ * sender of the discovery request should initiate a session connection, and the identity of the echoing node so the
+ * sender can commit to an SAE handshake as soon as it connects.
+ * <p>
+ *     In unicast discovery the echo also lists the discovery addresses of the other nodes known to the echoing node,
+ *     so that the sender can contact the nodes that are not among its own seeds.
+ * </p>
+ * <p>
+ *     A node that rejects a request because it is overloaded answers with a {@link #busy(UUID) busy} echo, which
+ *     carries no port and no peers, so that the sender knows the node is alive but should not connect.
+ * </p>
  */
 public class DiscoveryEchoPacket extends Packet {
     private static final long serialVersionUID = 8379654888314823172L;
 
     private final int connectionPort;
+    private final UUID nodeId;
+    private final ArrayList<InetSocketAddress> knownPeers;
+    private final boolean busy;
 
     /**
      * Construct the request with a connection port for the receiver of this request to connect to.
      * @param connectionPort the connection port
+     * @param nodeId the ID of the echoing node.
      */
-    public DiscoveryEchoPacket(int connectionPort) {
+    public DiscoveryEchoPacket(int connectionPort, UUID nodeId) {
+        this(connectionPort, nodeId, Collections.emptyList());
+    }
+
+    /**
+     * Construct the request with a connection port for the receiver of this request to connect to, and the other
+     * nodes known to the echoing node.
+     * @param connectionPort the connection port
+     * @param nodeId the ID of the echoing node.
+     * @param knownPeers the discovery addresses of other nodes known to the echoing node.
+     */
+    public DiscoveryEchoPacket(int connectionPort, UUID nodeId, Collection<InetSocketAddress> knownPeers) {
+        Objects.requireNonNull(nodeId, "Node ID must not be null");
+        Objects.requireNonNull(knownPeers, "Known peers must not be null");
         this.connectionPort = connectionPort;
+        this.nodeId = nodeId;
+        this.knownPeers = new ArrayList<>(knownPeers);
+        this.busy = false;
+    }
+
+    private DiscoveryEchoPacket(UUID nodeId) {
+        Objects.requireNonNull(nodeId, "Node ID must not be null");
+        this.connectionPort = 0;
+        this.nodeId = nodeId;
+        this.knownPeers = new ArrayList<>();
+        this.busy = true;
+    }
+
+    /**
+     * Construct the response of a node that rejected the request because it is overloaded.
+     * @param nodeId the ID of the echoing node.
+     * @return the busy echo.
+     */
+    public static DiscoveryEchoPacket busy(UUID nodeId) {
+        return new DiscoveryEchoPacket(nodeId);
     }
 
     /**
@@ -27,21 +79,49 @@ public class DiscoveryEchoPacket extends Packet {
         return connectionPort;
     }
 
+    /**
+     * Get the ID of the echoing node.
+     * @return the node ID.
+     */
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Check whether the echoing node rejected the request because it is overloaded. The sender should not connect to a
+     * busy node.
+     * @return true if the node is busy; false if it waits for a connection on the connection port.
+     */
+    public boolean isBusy() {
+        return busy;
+    }
+
+    /**
+     * Get the discovery addresses of the other nodes known to the echoing node.
+     * @return the known peers, which is empty in multicast discovery.
+     */
+    public List<InetSocketAddress> getKnownPeers() {
+        return knownPeers == null ? Collections.emptyList() : Collections.unmodifiableList(knownPeers);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof DiscoveryEchoPacket)) return false;
         DiscoveryEchoPacket that = (DiscoveryEchoPacket) o;
-        return connectionPort == that.connectionPort;
+        return connectionPort == that.connectionPort &&
+                busy == that.busy &&
+                nodeId.equals(that.nodeId) &&
+                getKnownPeers().equals(that.getKnownPeers());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(connectionPort);
+        return Objects.hash(connectionPort, busy, nodeId, getKnownPeers());
     }
 
     @Override
     public String toString() {
-        return DiscoveryEchoPacket.class + "{connectionPort:" + connectionPort + "}";
+        return DiscoveryEchoPacket.class + "{connectionPort:" + connectionPort + ";nodeId:" + nodeId + ";busy:" + busy + ";knownPeers:" + getKnownPeers() + "}";
     }
 }
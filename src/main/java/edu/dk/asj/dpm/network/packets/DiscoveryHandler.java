@@ -1,15 +1,20 @@
 package edu.dk.asj.dpm.network.packets;
 
+import java.net.SocketAddress;
+
 /**
  * Interface for handling network discovery requests.
  */
 public interface DiscoveryHandler {
     /**
-     * Process a network discovery request.
+     * Process a network discovery request. A handler that opens a connection for the requesting node sends the echo
+     * itself, so it can release the connection if the echo cannot be delivered.
      * @param packet the discovery request.
-     * @return the echo response to the discovery request.
+     * @param sender the address of the requesting node.
+     * @return the echo response to send to the requesting node, e.g. a {@link DiscoveryEchoPacket#busy(java.util.UUID)
+     * busy} echo if the request was rejected, or null if the handler answers the request itself, or not at all.
      */
-    DiscoveryEchoPacket process(DiscoveryPacket packet);
+    DiscoveryEchoPacket process(DiscoveryPacket packet, SocketAddress sender);
 
     /**
      * Handle an error.
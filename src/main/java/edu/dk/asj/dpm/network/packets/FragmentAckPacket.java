@@ -0,0 +1,59 @@
+package edu.dk.asj.dpm.network.packets;
+
+import java.util.Objects;
+
+/**
+ * Response to a fragment or a fragment delta, confirming that the node saved it, or reporting that the node rejected
+ * it because its stored fragment is at another generation.
+ */
+public class FragmentAckPacket extends Packet {
+    private static final long serialVersionUID = 7309264518839027461L;
+
+    private boolean applied;
+    private long generation;
+
+    /**
+     * Construct a new packet.
+     * @param applied whether the node saved the fragment or delta.
+     * @param generation the latest generation of the node's fragment after processing the request, or 0 if the node has
+     *                   no fragment.
+     */
+    public FragmentAckPacket(boolean applied, long generation) {
+        this.applied = applied;
+        this.generation = generation;
+    }
+
+    /**
+     * Check whether the node saved the fragment or delta.
+     * @return true if the node's fragment is now at the sent generation; false if the request was rejected.
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * Get the latest generation of the node's fragment after processing the request.
+     * @return the generation, or 0 if the node has no fragment.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FragmentAckPacket)) return false;
+        FragmentAckPacket that = (FragmentAckPacket) o;
+        return applied == that.applied && generation == that.generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(applied, generation);
+    }
+
+    @Override
+    public String toString() {
+        return FragmentAckPacket.class + "{applied:" + applied + ";generation:" + generation + "}";
+    }
+}
@@ -0,0 +1,48 @@
+package edu.dk.asj.dpm.network.packets;
+
+import edu.dk.asj.dpm.vault.FragmentDelta;
+
+import java.util.Objects;
+
+/**
+ * Request containing a node's part of the changes made to the vault, to be appended to the node's stored fragment.
+ */
+public class FragmentDeltaPacket extends Packet {
+    private static final long serialVersionUID = 2853329402746010713L;
+
+    private FragmentDelta delta;
+
+    /**
+     * Construct the request using a fragment delta.
+     * @param delta the fragment delta to be sent with this request.
+     */
+    public FragmentDeltaPacket(FragmentDelta delta) {
+        this.delta = Objects.requireNonNull(delta, "Delta must not be null");
+    }
+
+    /**
+     * Get the fragment delta.
+     * @return the fragment delta.
+     */
+    public FragmentDelta getDelta() {
+        return delta;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FragmentDeltaPacket)) return false;
+        FragmentDeltaPacket that = (FragmentDeltaPacket) o;
+        return delta.equals(that.delta);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(delta);
+    }
+
+    @Override
+    public String toString() {
+        return FragmentDeltaPacket.class + "{delta:" + delta + "}";
+    }
+}
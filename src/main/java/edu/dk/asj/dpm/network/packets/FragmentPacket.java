@@ -5,12 +5,15 @@ import edu.dk.asj.dpm.vault.VaultFragment;
 import java.util.Objects;
 
 /**
- * Request containing a vault fragment.
+ * Request containing a vault fragment. The packet's serialized form is computed once and reused, so a packet that is
+ * sent repeatedly, such as a node's cached fragment, is only serialized once. The fragment must therefore not be
+ * changed after the packet has been serialized.
  */
 public class FragmentPacket extends Packet {
     private static final long serialVersionUID = -5156371335990354618L;
 
     private VaultFragment fragment;
+    private transient volatile byte[] serialized;
 
     /**
      * Construct the request using a vault fragment.
@@ -28,6 +31,16 @@ public class FragmentPacket extends Packet {
         return fragment;
     }
 
+    @Override
+    public byte[] serialize() throws RuntimeException {
+        byte[] data = serialized;
+        if (data == null) {
+            data = super.serialize();
+            serialized = data;
+        }
+        return data;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -4,19 +4,31 @@ import java.math.BigInteger;
 import java.util.Objects;
 
 /**
- * Packet for requesting a node's fragment.
+ * Packet for requesting a node's fragment. A conditional request carries the vault version the requester already
+ * holds, and a node whose fragment is at that version answers with a {@link NotModifiedPacket} instead.
  */
 public class GetFragmentPacket extends Packet {
     private static final long serialVersionUID = -3818150600075892916L;
 
     private BigInteger networkId;
+    private long knownVersion;
 
     /**
      * Construct a new packet.
      * @param networkId the ID of the network to send this packet to.
      */
     public GetFragmentPacket(BigInteger networkId) {
+        this(networkId, 0);
+    }
+
+    /**
+     * Construct a new conditional packet.
+     * @param networkId the ID of the network to send this packet to.
+     * @param knownVersion the vault version the requester holds, or 0 to always request the fragment.
+     */
+    public GetFragmentPacket(BigInteger networkId, long knownVersion) {
         this.networkId = networkId;
+        this.knownVersion = knownVersion;
     }
 
     /**
@@ -27,21 +39,29 @@ public class GetFragmentPacket extends Packet {
         return networkId;
     }
 
+    /**
+     * Get the vault version the requester holds.
+     * @return the version, or 0 if the request is unconditional.
+     */
+    public long getKnownVersion() {
+        return knownVersion;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof GetFragmentPacket)) return false;
         GetFragmentPacket that = (GetFragmentPacket) o;
-        return networkId.equals(that.networkId);
+        return networkId.equals(that.networkId) && knownVersion == that.knownVersion;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(networkId);
+        return Objects.hash(networkId, knownVersion);
     }
 
     @Override
     public String toString() {
-        return GetFragmentPacket.class + "{networkId:"+networkId+"}";
+        return GetFragmentPacket.class + "{networkId:"+networkId+";knownVersion:"+knownVersion+"}";
     }
 }
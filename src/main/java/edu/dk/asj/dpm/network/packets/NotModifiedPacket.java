@@ -0,0 +1,46 @@
+package edu.dk.asj.dpm.network.packets;
+
+import java.util.Objects;
+
+/**
+ * Response to a conditional fragment request, confirming that the node's fragment is at the requested vault version.
+ */
+public class NotModifiedPacket extends Packet {
+    private static final long serialVersionUID = 2894526174068306112L;
+
+    private long version;
+
+    /**
+     * Construct a new packet.
+     * @param version the latest vault version of the node's fragment.
+     */
+    public NotModifiedPacket(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Get the latest vault version of the node's fragment.
+     * @return the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NotModifiedPacket)) return false;
+        NotModifiedPacket that = (NotModifiedPacket) o;
+        return version == that.version;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(version);
+    }
+
+    @Override
+    public String toString() {
+        return NotModifiedPacket.class + "{version:" + version + "}";
+    }
+}
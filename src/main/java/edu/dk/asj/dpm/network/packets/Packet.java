@@ -3,8 +3,10 @@ package edu.dk.asj.dpm.network.packets;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 
 /**
@@ -38,11 +40,19 @@ public abstract class Packet implements Serializable {
      * @throws RuntimeException if the serialisation fails.
      */
     public byte[] serialize() throws RuntimeException {
-        try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-             ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        serialize(byteStream);
+        return byteStream.toByteArray();
+    }
 
+    /**
+     * Serialize the packet into a stream, which is closed afterwards.
+     * @param stream the stream.
+     * @throws RuntimeException if the serialisation fails.
+     */
+    public void serialize(OutputStream stream) throws RuntimeException {
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(stream)) {
             objectStream.writeObject(this);
-            return byteStream.toByteArray();
         } catch (IOException e) {
             throw new RuntimeException("Could not serialize request", e);
         }
@@ -55,8 +65,17 @@ public abstract class Packet implements Serializable {
      * @throws RuntimeException if the de-serialization failed.
      */
     public static Packet deserialize(byte[] data) throws RuntimeException{
-        try (ByteArrayInputStream byteStream = new ByteArrayInputStream(data);
-             ObjectInputStream objectStream = new ObjectInputStream(byteStream)) {
+        return deserialize(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Construct a packet by de-serializing it from a stream, which is closed afterwards.
+     * @param stream the stream providing a previously serialized packet.
+     * @return the de-serialized packet.
+     * @throws RuntimeException if the de-serialization failed.
+     */
+    public static Packet deserialize(InputStream stream) throws RuntimeException {
+        try (ObjectInputStream objectStream = new ObjectInputStream(stream)) {
 
             return (Packet) objectStream.readObject();
         } catch (IOException e) {
@@ -0,0 +1,93 @@
+package edu.dk.asj.dpm.network.packets;
+
+import edu.dk.asj.dpm.security.SAEParameterSpec;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Packet for use in authenticating a connection using the SAE (Simultaneous Authentication of Equals) scheme.
+ * This packet encapsulates the commit message of the protocol: the sender's identity along with its SAE parameters.
+ * <p>
+ *     The initiating client sends its commit without a token, as it cannot compute one before it knows the remote
+ *     parameters. The responding server already knows both sets of parameters when it commits, so it piggybacks its
+ *     confirm token on the commit, saving a round trip.
+ * </p>
+ */
+public class SAECommitPacket extends Packet {
+    private static final long serialVersionUID = -2404591725826379518L;
+
+    private final UUID nodeId;
+    private final SAEParameterSpec parameters;
+    private final byte[] token;
+
+    /**
+     * Construct a commit packet without a confirm token.
+     * @param nodeId the sender's node ID.
+     * @param parameters the sender's SAE parameters.
+     */
+    public SAECommitPacket(UUID nodeId, SAEParameterSpec parameters) {
+        this(nodeId, parameters, null);
+    }
+
+    /**
+     * Construct a commit packet carrying the sender's confirm token.
+     * @param nodeId the sender's node ID.
+     * @param parameters the sender's SAE parameters.
+     * @param token the sender's confirm token, or null if the commit is sent without one.
+     */
+    public SAECommitPacket(UUID nodeId, SAEParameterSpec parameters, byte[] token) {
+        Objects.requireNonNull(nodeId, "Node ID must not be null");
+        Objects.requireNonNull(parameters, "SAE parameters must not be null");
+        this.nodeId = nodeId;
+        this.parameters = parameters;
+        this.token = token;
+    }
+
+    /**
+     * Get the sender's node ID.
+     * @return the ID.
+     */
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get the sender's SAE parameters.
+     * @return the parameters.
+     */
+    public SAEParameterSpec getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Get the sender's confirm token.
+     * @return the token, or null if the commit was sent without one.
+     */
+    public byte[] getToken() {
+        return token;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SAECommitPacket)) return false;
+        SAECommitPacket that = (SAECommitPacket) o;
+        return nodeId.equals(that.nodeId) &&
+                parameters.equals(that.parameters) &&
+                Arrays.equals(token, that.token);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(nodeId, parameters);
+        result = 31 * result + Arrays.hashCode(token);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SAECommitPacket{nodeId:" + nodeId + ";parameters:" + parameters + ";hasToken:" + (token != null) + "}";
+    }
+}
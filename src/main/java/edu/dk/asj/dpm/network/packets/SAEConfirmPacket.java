@@ -5,25 +5,25 @@ import java.util.Objects;
 
 /**
  * Packet for use in authenticating a connection using the SAE (Simultaneous Authentication of Equals) scheme.
- * This packet encapsulates the second round of parameters needed in the authentication process: an
- * authentication/verification token.
+ * This packet encapsulates the initiating client's confirm token. The first application frame follows it on the
+ * connection, encrypted under the key the client derived from the handshake.
  */
-public class SAETokenPacket extends Packet {
-    private static final long serialVersionUID = -1333257494477722021L;
+public class SAEConfirmPacket extends Packet {
+    private static final long serialVersionUID = 5190434521840683328L;
 
     private final byte[] token;
 
     /**
-     * Construct a token packet with the given authentication token.
-     * @param token the token.
+     * Construct a confirm packet.
+     * @param token the sender's confirm token.
      */
-    public SAETokenPacket(byte[] token) {
+    public SAEConfirmPacket(byte[] token) {
         Objects.requireNonNull(token, "Token must not be null");
         this.token = token;
     }
 
     /**
-     * Get the authentication token.
+     * Get the confirm token.
      * @return the token.
      */
     public byte[] getToken() {
@@ -33,8 +33,8 @@ public class SAETokenPacket extends Packet {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (!(o instanceof SAETokenPacket)) return false;
-        SAETokenPacket that = (SAETokenPacket) o;
+        if (!(o instanceof SAEConfirmPacket)) return false;
+        SAEConfirmPacket that = (SAEConfirmPacket) o;
         return Arrays.equals(token, that.token);
     }
 
@@ -45,6 +45,6 @@ public class SAETokenPacket extends Packet {
 
     @Override
     public String toString() {
-        return "SAETokenPacket{token.length:"+token.length+"}";
+        return "SAEConfirmPacket{token.length:" + token.length + "}";
     }
 }
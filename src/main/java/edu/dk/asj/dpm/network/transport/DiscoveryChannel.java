@@ -0,0 +1,42 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking datagram channel used for network discovery.
+ */
+public interface DiscoveryChannel extends Closeable {
+
+    /**
+     * Receive a datagram, if one is available. The datagram is copied into the buffer, and any part of it that does
+     * not fit in the buffer's remaining space is silently discarded.
+     * @param buffer the buffer to receive the datagram into.
+     * @return the datagram's source address, or null if no datagram was available.
+     * @throws IOException if an I/O error occurred.
+     */
+    SocketAddress receive(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Send a datagram.
+     * @param buffer the buffer holding the datagram.
+     * @param target the address to send the datagram to.
+     * @throws IOException if an I/O error occurred.
+     */
+    void send(ByteBuffer buffer, SocketAddress target) throws IOException;
+
+    /**
+     * Get the local address the channel is bound to, which remote nodes see as the source of its datagrams.
+     * @return the local address.
+     * @throws IOException if an I/O error occurred.
+     */
+    SocketAddress getLocalAddress() throws IOException;
+
+    /**
+     * Check whether the channel is open.
+     * @return true if the channel is open; false otherwise.
+     */
+    boolean isOpen();
+}
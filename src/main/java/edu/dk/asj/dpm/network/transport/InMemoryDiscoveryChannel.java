@@ -0,0 +1,78 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Discovery channel of a simulated node, receiving the datagrams delivered to it by the {@link InMemoryNetwork}.
+ */
+class InMemoryDiscoveryChannel implements DiscoveryChannel {
+    private final InMemoryNetwork network;
+    private final InMemoryTransport host;
+    private final Queue<Datagram> inbound;
+    private volatile boolean open;
+
+    InMemoryDiscoveryChannel(InMemoryNetwork network, InMemoryTransport host) {
+        this.network = network;
+        this.host = host;
+        this.inbound = new ConcurrentLinkedQueue<>();
+        this.open = true;
+    }
+
+    @Override
+    public SocketAddress receive(ByteBuffer buffer) throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        Datagram datagram = inbound.poll();
+        if (datagram == null) {
+            return null;
+        }
+        buffer.put(datagram.data, 0, Math.min(buffer.remaining(), datagram.data.length));
+        return datagram.source;
+    }
+
+    @Override
+    public void send(ByteBuffer buffer, SocketAddress target) throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        network.sendDatagram(host, data, target);
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return InetSocketAddress.createUnresolved(host.getHost(), InMemoryNetwork.DISCOVERY_PORT);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        inbound.clear();
+    }
+
+    void deliver(SocketAddress source, byte[] data) {
+        inbound.offer(new Datagram(source, data));
+    }
+
+    private static class Datagram {
+        private final SocketAddress source;
+        private final byte[] data;
+
+        private Datagram(SocketAddress source, byte[] data) {
+            this.source = source;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package edu.dk.asj.dpm.network.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulated network of nodes running inside a single JVM. Each node gets its own {@link Transport} from
+ * {@link InMemoryNetwork#createTransport()}, and all traffic between the transports is subject to the network's
+ * simulated link conditions:
+ * <ul>
+ *     <li><b>latency</b> is the one-way propagation delay of every datagram and stream segment, with an additional
+ *     random <b>jitter</b> of up to the configured amount.</li>
+ *     <li><b>loss rate</b> is the probability that a datagram is dropped. Streams are reliable, so a lost stream
+ *     segment is instead delayed by a retransmission timeout.</li>
+ *     <li><b>bandwidth</b> limits the number of bytes per second each node can send, shared by all its channels.</li>
+ * </ul>
+ * Stream segments and end-of-stream markers are always delivered in order, while datagrams may be re-ordered by
+ * jitter.
+ */
+public class InMemoryNetwork implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryNetwork.class);
+
+    static final int DISCOVERY_PORT = 35587;
+    private static final int FIRST_STREAM_PORT = 49152;
+    private static final int MAX_RETRANSMISSIONS = 10;
+    private static final InetSocketAddress GROUP_ADDRESS = InetSocketAddress.createUnresolved("in-memory-group", DISCOVERY_PORT);
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double lossRate;
+    private final long bandwidth;
+    private final Random random;
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger hostCounter;
+    private final Map<String, InMemoryTransport> hosts;
+    private final Map<SocketAddress, InMemoryStreamListener> listeners;
+
+    private InMemoryNetwork(Builder builder) {
+        latencyNanos = builder.latency.toNanos();
+        jitterNanos = builder.jitter.toNanos();
+        lossRate = builder.lossRate;
+        bandwidth = builder.bandwidth;
+        random = builder.seed != null ? new Random(builder.seed) : new Random();
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "in-memory-network");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        scheduler = executor;
+        hostCounter = new AtomicInteger();
+        hosts = new ConcurrentHashMap<>();
+        listeners = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get a builder for configuring the simulated network's link conditions.
+     * @return the builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a transport for a new node on the network.
+     * @return the node's transport.
+     */
+    public InMemoryTransport createTransport() {
+        String host = "node-" + hostCounter.incrementAndGet();
+        InMemoryTransport transport = new InMemoryTransport(this, host, FIRST_STREAM_PORT);
+        hosts.put(host, transport);
+        LOGGER.debug("Created in-memory host {}", host);
+        return transport;
+    }
+
+    /**
+     * Stop delivering traffic on the network.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    SocketAddress getGroupAddress() {
+        return GROUP_ADDRESS;
+    }
+
+    /**
+     * Send a datagram from a host to either the discovery group or a single host's discovery channel.
+     */
+    void sendDatagram(InMemoryTransport sender, byte[] data, SocketAddress target) {
+        long departureNanos = sender.reserveUplink(data.length, bandwidth);
+        if (random.nextDouble() < lossRate) {
+            LOGGER.debug("Dropped datagram from {} to {}", sender.getHost(), target);
+            return;
+        }
+        SocketAddress source = InetSocketAddress.createUnresolved(sender.getHost(), DISCOVERY_PORT);
+
+        if (GROUP_ADDRESS.equals(target)) {
+            hosts.values().stream()
+                    .filter(host -> host != sender)
+                    .forEach(host -> schedule(departureNanos + propagationNanos(), () -> host.deliverDatagram(source, data)));
+        } else {
+            InetSocketAddress address = (InetSocketAddress) target;
+            InMemoryTransport host = hosts.get(address.getHostString());
+            if (host != null && address.getPort() == DISCOVERY_PORT) {
+                schedule(departureNanos + propagationNanos(), () -> host.deliverDatagram(source, data));
+            }
+        }
+    }
+
+    /**
+     * Compute the delay until a stream segment sent by the host arrives at its destination, including retransmissions
+     * of lost segments.
+     */
+    long streamDelayNanos(InMemoryTransport sender, int length) {
+        long delay = sender.reserveUplink(length, bandwidth) + propagationNanos();
+        long retransmissionTimeout = Math.max(3 * latencyNanos, TimeUnit.MILLISECONDS.toNanos(1));
+        for (int i = 0; i < MAX_RETRANSMISSIONS && random.nextDouble() < lossRate; i++) {
+            delay += retransmissionTimeout;
+        }
+        return delay;
+    }
+
+    void registerListener(SocketAddress address, InMemoryStreamListener listener) {
+        listeners.put(address, listener);
+    }
+
+    void unregisterListener(SocketAddress address) {
+        listeners.remove(address);
+    }
+
+    Future<StreamChannel> connect(InMemoryTransport source, SocketAddress destination) {
+        CompletableFuture<StreamChannel> promise = new CompletableFuture<>();
+        InMemoryStreamListener listener = listeners.get(destination);
+        if (listener == null) {
+            schedule(2 * propagationNanos(), () -> promise.completeExceptionally(new ConnectException("Connection refused")));
+            return promise;
+        }
+
+        InMemoryTransport destinationHost = hosts.get(((InetSocketAddress) destination).getHostString());
+        InMemoryStreamChannel clientEnd = new InMemoryStreamChannel(this, source);
+        InMemoryStreamChannel serverEnd = new InMemoryStreamChannel(this, destinationHost);
+        clientEnd.setPeer(serverEnd);
+        serverEnd.setPeer(clientEnd);
+
+        long oneWay = propagationNanos();
+        schedule(oneWay, () -> {
+            if (!listener.offer(serverEnd)) {
+                schedule(oneWay, () -> promise.completeExceptionally(new ConnectException("Connection refused")));
+                return;
+            }
+            schedule(oneWay, () -> {
+                if (!promise.complete(clientEnd)) {
+                    clientEnd.close();
+                }
+            });
+        });
+        promise.whenComplete((channel, e) -> {
+            if (promise.isCancelled()) {
+                clientEnd.close();
+            }
+        });
+        return promise;
+    }
+
+    void schedule(long delayNanos, Runnable task) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(task, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private long propagationNanos() {
+        if (jitterNanos <= 0) {
+            return latencyNanos;
+        }
+        return latencyNanos + (long) (random.nextDouble() * jitterNanos);
+    }
+
+    /**
+     * Builder for configuring the link conditions of a simulated network. By default the network is perfect, with no
+     * latency, loss, or bandwidth limit.
+     */
+    public static class Builder {
+        private Duration latency = Duration.ZERO;
+        private Duration jitter = Duration.ZERO;
+        private double lossRate = 0;
+        private long bandwidth = 0;
+        private Long seed = null;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the one-way latency of every link.
+         * @param latency the latency.
+         * @return this builder.
+         */
+        public Builder latency(Duration latency) {
+            if (latency.isNegative()) {
+                throw new IllegalArgumentException("Latency must not be negative");
+            }
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Set the maximum random jitter added to the latency.
+         * @param jitter the jitter.
+         * @return this builder.
+         */
+        public Builder jitter(Duration jitter) {
+            if (jitter.isNegative()) {
+                throw new IllegalArgumentException("Jitter must not be negative");
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Set the probability of a packet being lost.
+         * @param lossRate the probability, in the range 0 <= <b>lossRate</b> <= 1.
+         * @return this builder.
+         */
+        public Builder lossRate(double lossRate) {
+            if (lossRate < 0 || lossRate > 1) {
+                throw new IllegalArgumentException("Loss rate must be in the range [0, 1]");
+            }
+            this.lossRate = lossRate;
+            return this;
+        }
+
+        /**
+         * Set the upload bandwidth of each node.
+         * @param bytesPerSecond the bandwidth in bytes per second, or 0 for unlimited bandwidth.
+         * @return this builder.
+         */
+        public Builder bandwidth(long bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException("Bandwidth must not be negative");
+            }
+            this.bandwidth = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Set the seed for the random generator deciding jitter and loss, to make a simulation repeatable.
+         * @param seed the seed.
+         * @return this builder.
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Build the network.
+         * @return the network.
+         */
+        public InMemoryNetwork build() {
+            return new InMemoryNetwork(this);
+        }
+    }
+}
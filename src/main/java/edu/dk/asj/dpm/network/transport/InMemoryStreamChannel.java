@@ -0,0 +1,134 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadPendingException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * One end of a simulated stream connection. Written bytes are delivered to the peer end by the
+ * {@link InMemoryNetwork} after the simulated delay, and always in the order they were written.
+ */
+class InMemoryStreamChannel implements StreamChannel {
+    private final InMemoryNetwork network;
+    private final InMemoryTransport host;
+    private final Deque<ByteBuffer> inbound;
+
+    private InMemoryStreamChannel peer;
+    private CompletableFuture<Integer> pendingRead;
+    private ByteBuffer pendingReadBuffer;
+    private long lastArrivalNanos;
+    private boolean open;
+    private boolean endOfStream;
+
+    InMemoryStreamChannel(InMemoryNetwork network, InMemoryTransport host) {
+        this.network = network;
+        this.host = host;
+        this.inbound = new ArrayDeque<>();
+        this.open = true;
+        this.endOfStream = false;
+    }
+
+    void setPeer(InMemoryStreamChannel peer) {
+        this.peer = peer;
+    }
+
+    @Override
+    public synchronized Future<Integer> read(ByteBuffer buffer) {
+        if (!open) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+        if (pendingRead != null && !pendingRead.isDone()) {
+            throw new ReadPendingException();
+        }
+
+        pendingRead = new CompletableFuture<>();
+        pendingReadBuffer = buffer;
+        fulfillPendingRead();
+        return pendingRead;
+    }
+
+    @Override
+    public synchronized Future<Integer> write(ByteBuffer buffer) {
+        if (!open) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        InMemoryStreamChannel receiver = peer;
+        network.schedule(nextArrivalDelay(data.length), () -> receiver.deliver(data));
+        return CompletableFuture.completedFuture(data.length);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        inbound.clear();
+        if (pendingRead != null) {
+            pendingRead.completeExceptionally(new AsynchronousCloseException());
+        }
+
+        InMemoryStreamChannel receiver = peer;
+        network.schedule(nextArrivalDelay(0), receiver::deliverEndOfStream);
+    }
+
+    private synchronized void deliver(byte[] data) {
+        if (open) {
+            inbound.offer(ByteBuffer.wrap(data));
+            fulfillPendingRead();
+        }
+    }
+
+    private synchronized void deliverEndOfStream() {
+        endOfStream = true;
+        fulfillPendingRead();
+    }
+
+    /**
+     * Compute the delay of the next segment sent from this end, never letting it arrive before a previous segment.
+     */
+    private long nextArrivalDelay(int length) {
+        long now = System.nanoTime();
+        long arrival = Math.max(now + network.streamDelayNanos(host, length), lastArrivalNanos);
+        lastArrivalNanos = arrival;
+        return arrival - now;
+    }
+
+    private void fulfillPendingRead() {
+        if (pendingRead == null || pendingRead.isDone()) {
+            return;
+        }
+
+        if (!inbound.isEmpty()) {
+            int read = 0;
+            while (!inbound.isEmpty() && pendingReadBuffer.hasRemaining()) {
+                ByteBuffer segment = inbound.peek();
+                int length = Math.min(segment.remaining(), pendingReadBuffer.remaining());
+                ByteBuffer slice = segment.duplicate();
+                slice.limit(slice.position() + length);
+                pendingReadBuffer.put(slice);
+                segment.position(segment.position() + length);
+                read += length;
+                if (!segment.hasRemaining()) {
+                    inbound.poll();
+                }
+            }
+            pendingRead.complete(read);
+        } else if (endOfStream) {
+            pendingRead.complete(-1);
+        }
+    }
+}
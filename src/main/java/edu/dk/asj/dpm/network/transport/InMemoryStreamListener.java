@@ -0,0 +1,88 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.net.SocketAddress;
+import java.nio.channels.AcceptPendingException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Stream listener of a simulated node, accepting the channels connected to it through the {@link InMemoryNetwork}.
+ */
+class InMemoryStreamListener implements StreamListener {
+    private final InMemoryNetwork network;
+    private final SocketAddress address;
+    private final int port;
+    private final Deque<InMemoryStreamChannel> pending;
+
+    private CompletableFuture<StreamChannel> pendingAccept;
+    private boolean open;
+
+    InMemoryStreamListener(InMemoryNetwork network, SocketAddress address, int port) {
+        this.network = network;
+        this.address = address;
+        this.port = port;
+        this.pending = new ArrayDeque<>();
+        this.open = true;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public synchronized Future<StreamChannel> accept() {
+        if (!open) {
+            return CompletableFuture.failedFuture(new ClosedChannelException());
+        }
+        if (pendingAccept != null && !pendingAccept.isDone()) {
+            throw new AcceptPendingException();
+        }
+
+        pendingAccept = new CompletableFuture<>();
+        fulfillPendingAccept();
+        return pendingAccept;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        network.unregisterListener(address);
+        if (pendingAccept != null) {
+            pendingAccept.completeExceptionally(new AsynchronousCloseException());
+        }
+        pending.forEach(InMemoryStreamChannel::close);
+        pending.clear();
+    }
+
+    /**
+     * Offer a newly connected channel to the listener.
+     * @return true if the listener accepts connections; false if it is closed.
+     */
+    synchronized boolean offer(InMemoryStreamChannel channel) {
+        if (!open) {
+            return false;
+        }
+        pending.offer(channel);
+        fulfillPendingAccept();
+        return true;
+    }
+
+    private void fulfillPendingAccept() {
+        if (pendingAccept != null && !pendingAccept.isDone() && !pending.isEmpty()) {
+            pendingAccept.complete(pending.poll());
+        }
+    }
+}
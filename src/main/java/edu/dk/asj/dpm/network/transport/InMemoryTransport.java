@@ -0,0 +1,93 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Objects;
+import java.util.concurrent.Future;
+
+/**
+ * Transport of a single simulated node in an {@link InMemoryNetwork}. The node's addresses are unresolved socket
+ * addresses using the node's host name.
+ */
+public class InMemoryTransport implements Transport {
+    private final InMemoryNetwork network;
+    private final String host;
+
+    private int nextPort;
+    private long uplinkFreeNanos;
+    private InMemoryDiscoveryChannel discoveryChannel;
+
+    InMemoryTransport(InMemoryNetwork network, String host, int firstPort) {
+        this.network = network;
+        this.host = host;
+        this.nextPort = firstPort;
+        this.uplinkFreeNanos = 0;
+    }
+
+    /**
+     * Get the simulated host name of this node.
+     * @return the host name.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public synchronized DiscoveryChannel openDiscoveryChannel() throws IOException {
+        if (discoveryChannel != null && discoveryChannel.isOpen()) {
+            throw new IOException("Discovery channel is already open on " + host);
+        }
+        discoveryChannel = new InMemoryDiscoveryChannel(network, this);
+        return discoveryChannel;
+    }
+
+    @Override
+    public SocketAddress getDiscoveryGroupAddress() {
+        return network.getGroupAddress();
+    }
+
+    @Override
+    public SocketAddress resolveDiscoveryAddress(String host, int port) {
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    @Override
+    public SocketAddress resolveStreamAddress(SocketAddress discoverySender, int port) {
+        return InetSocketAddress.createUnresolved(((InetSocketAddress) discoverySender).getHostString(), port);
+    }
+
+    @Override
+    public synchronized StreamListener openStreamListener() {
+        SocketAddress address = InetSocketAddress.createUnresolved(host, nextPort);
+        InMemoryStreamListener listener = new InMemoryStreamListener(network, address, nextPort++);
+        network.registerListener(address, listener);
+        return listener;
+    }
+
+    @Override
+    public Future<StreamChannel> connect(SocketAddress destination) {
+        Objects.requireNonNull(destination, "Destination must not be null");
+        return network.connect(this, destination);
+    }
+
+    /**
+     * Reserve the node's uplink for sending the given number of bytes.
+     * @return the delay in nanoseconds until the bytes have been transmitted.
+     */
+    synchronized long reserveUplink(int length, long bandwidth) {
+        if (bandwidth <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long start = Math.max(now, uplinkFreeNanos);
+        uplinkFreeNanos = start + length * 1_000_000_000L / bandwidth;
+        return uplinkFreeNanos - now;
+    }
+
+    synchronized void deliverDatagram(SocketAddress source, byte[] data) {
+        if (discoveryChannel != null && discoveryChannel.isOpen()) {
+            discoveryChannel.deliver(source, data);
+        }
+    }
+}
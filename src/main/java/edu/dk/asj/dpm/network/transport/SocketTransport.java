@@ -0,0 +1,263 @@
+package edu.dk.asj.dpm.network.transport;
+
+import edu.dk.asj.dpm.properties.DiscoveryProperties;
+import edu.dk.asj.dpm.util.NetworkInterfaceHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.DatagramChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Transport on top of the host's network interface controller, using UDP datagrams for discovery and TCP sockets for
+ * sessions. Discovery requests are either sent to a multicast group joined by every node, or sent directly to other
+ * nodes' discovery ports, depending on the configured {@link DiscoveryProperties.Mode}.
+ */
+public class SocketTransport implements Transport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketTransport.class);
+
+    private static final String PEER_GROUP_ADDRESS = "232.0.0.0";
+
+    private final DiscoveryProperties.Mode mode;
+    private final int discoveryPort;
+    private final InetSocketAddress groupAddress;
+
+    /**
+     * Construct a socket transport.
+     * @param properties the discovery properties, determining the discovery mode and port.
+     */
+    public SocketTransport(DiscoveryProperties properties) {
+        Objects.requireNonNull(properties, "Discovery properties must not be null");
+        this.mode = properties.getMode();
+        this.discoveryPort = properties.getPort();
+        this.groupAddress = new InetSocketAddress(PEER_GROUP_ADDRESS, discoveryPort);
+    }
+
+    @Override
+    public DiscoveryChannel openDiscoveryChannel() throws IOException {
+        NetworkInterface nic = NetworkInterfaceHelper.getNetworkInterfaceController();
+        InetAddress nicAddress = NetworkInterfaceHelper.getNetworkInterfaceAddress();
+        if (nic == null || nicAddress == null) {
+            throw new IOException("Could not determine a valid network interface");
+        }
+
+        boolean unicastOverIpv6 = mode == DiscoveryProperties.Mode.UNICAST && nicAddress instanceof Inet6Address;
+        DatagramChannel channel = DatagramChannel.open(unicastOverIpv6 ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try {
+            if (mode == DiscoveryProperties.Mode.UNICAST) {
+                // bound to the interface's own address, so replies come from the address other nodes know it by
+                channel.bind(new InetSocketAddress(nicAddress, discoveryPort));
+            } else {
+                channel.setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                        .bind(new InetSocketAddress(discoveryPort))
+                        .setOption(StandardSocketOptions.IP_MULTICAST_IF, nic)
+                        .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+                channel.join(groupAddress.getAddress(), nic);
+            }
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        LOGGER.debug("Opened {} discovery channel on {}", mode, channel.getLocalAddress());
+        return new SocketDiscoveryChannel(channel);
+    }
+
+    @Override
+    public SocketAddress getDiscoveryGroupAddress() {
+        return groupAddress;
+    }
+
+    @Override
+    public SocketAddress resolveDiscoveryAddress(String host, int port) {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            LOGGER.warn("Could not resolve discovery address {}:{}", host, port);
+            return null;
+        }
+        return address;
+    }
+
+    @Override
+    public SocketAddress resolveStreamAddress(SocketAddress discoverySender, int port) {
+        return new InetSocketAddress(((InetSocketAddress) discoverySender).getAddress(), port);
+    }
+
+    @Override
+    public StreamListener openStreamListener() throws IOException {
+        SocketAddress nicWithRandPort = new InetSocketAddress(NetworkInterfaceHelper.getNetworkInterfaceAddress(), 0);
+        AsynchronousServerSocketChannel listener = AsynchronousServerSocketChannel.open();
+        try {
+            listener.bind(nicWithRandPort);
+        } catch (IOException e) {
+            listener.close();
+            throw e;
+        }
+        LOGGER.debug("Opened stream listener on {}", listener.getLocalAddress());
+        return new SocketStreamListener(listener);
+    }
+
+    @Override
+    public Future<StreamChannel> connect(SocketAddress destination) throws IOException {
+        AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
+        CompletableFuture<StreamChannel> promise = new CompletableFuture<>();
+        promise.whenComplete((result, e) -> {
+            if (promise.isCancelled()) {
+                closeQuietly(channel);
+            }
+        });
+
+        channel.connect(destination, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void result, Void attachment) {
+                if (!promise.complete(new SocketStreamChannel(channel))) {
+                    closeQuietly(channel);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                promise.completeExceptionally(e);
+                closeQuietly(channel);
+            }
+        });
+        return promise;
+    }
+
+    private static void closeQuietly(Closeable channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close channel", e);
+        }
+    }
+
+    /**
+     * Discovery channel wrapping a non-blocking multicast datagram channel.
+     */
+    private static class SocketDiscoveryChannel implements DiscoveryChannel {
+        private final DatagramChannel channel;
+
+        private SocketDiscoveryChannel(DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public SocketAddress receive(ByteBuffer buffer) throws IOException {
+            return channel.receive(buffer);
+        }
+
+        @Override
+        public void send(ByteBuffer buffer, SocketAddress target) throws IOException {
+            channel.send(buffer, target);
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() throws IOException {
+            return channel.getLocalAddress();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stream listener wrapping an asynchronous server socket channel.
+     */
+    private static class SocketStreamListener implements StreamListener {
+        private final AsynchronousServerSocketChannel listener;
+        private final int port;
+
+        private SocketStreamListener(AsynchronousServerSocketChannel listener) throws IOException {
+            this.listener = listener;
+            this.port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public Future<StreamChannel> accept() {
+            CompletableFuture<StreamChannel> promise = new CompletableFuture<>();
+            listener.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+                @Override
+                public void completed(AsynchronousSocketChannel channel, Void attachment) {
+                    if (!promise.complete(new SocketStreamChannel(channel))) {
+                        closeQuietly(channel);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment) {
+                    promise.completeExceptionally(e);
+                }
+            });
+            return promise;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return listener.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            listener.close();
+        }
+    }
+
+    /**
+     * Stream channel wrapping an asynchronous socket channel.
+     */
+    private static class SocketStreamChannel implements StreamChannel {
+        private final AsynchronousSocketChannel channel;
+
+        private SocketStreamChannel(AsynchronousSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer buffer) {
+            return channel.read(buffer);
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer buffer) {
+            return channel.write(buffer);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
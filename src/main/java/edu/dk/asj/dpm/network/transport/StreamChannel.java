@@ -0,0 +1,31 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous, connected, stream-oriented channel between two nodes.
+ */
+public interface StreamChannel extends Closeable {
+
+    /**
+     * Read a sequence of bytes into the buffer. The read completes as soon as at least one byte is available.
+     * @param buffer the buffer to read into.
+     * @return the promise of the number of bytes read, or -1 if the channel has reached end-of-stream.
+     */
+    Future<Integer> read(ByteBuffer buffer);
+
+    /**
+     * Write a sequence of bytes from the buffer.
+     * @param buffer the buffer to write from.
+     * @return the promise of the number of bytes written.
+     */
+    Future<Integer> write(ByteBuffer buffer);
+
+    /**
+     * Check whether the channel is open.
+     * @return true if the channel is open; false otherwise.
+     */
+    boolean isOpen();
+}
@@ -0,0 +1,28 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.io.Closeable;
+import java.util.concurrent.Future;
+
+/**
+ * Listener accepting stream channels from remote nodes.
+ */
+public interface StreamListener extends Closeable {
+
+    /**
+     * Get the port number the listener is bound to.
+     * @return the port number.
+     */
+    int getPort();
+
+    /**
+     * Accept a connection.
+     * @return the promise of the accepted channel.
+     */
+    Future<StreamChannel> accept();
+
+    /**
+     * Check whether the listener is open.
+     * @return true if the listener is open; false otherwise.
+     */
+    boolean isOpen();
+}
@@ -0,0 +1,61 @@
+package edu.dk.asj.dpm.network.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.Future;
+
+/**
+ * Service provider interface for the network transport used by a node. A transport provides the datagram channel
+ * used for network discovery, and the stream-oriented channels used for sessions between nodes.
+ * <p>
+ *     {@link SocketTransport} is the production implementation on top of multicast UDP and TCP sockets, while
+ *     {@link InMemoryNetwork} creates transports that simulate a network of nodes inside a single JVM.
+ * </p>
+ */
+public interface Transport {
+
+    /**
+     * Open the datagram channel used for sending and receiving discovery packets.
+     * @return the opened channel.
+     * @throws IOException if the channel could not be opened.
+     */
+    DiscoveryChannel openDiscoveryChannel() throws IOException;
+
+    /**
+     * Get the address to which discovery requests are sent in order to reach every other node in the network.
+     * @return the discovery group address.
+     */
+    SocketAddress getDiscoveryGroupAddress();
+
+    /**
+     * Resolve the address of a remote node's discovery channel, e.g. a configured seed node.
+     * @param host the remote node's host name or address.
+     * @param port the remote node's discovery port.
+     * @return the discovery channel's address, or null if the host could not be resolved.
+     */
+    SocketAddress resolveDiscoveryAddress(String host, int port);
+
+    /**
+     * Resolve the address of a remote node's stream listener, from the address the remote node sent a discovery
+     * packet from and the port number it announced in that packet.
+     * @param discoverySender the address from which the remote node's discovery packet was received.
+     * @param port the stream listener port announced by the remote node.
+     * @return the stream listener's address.
+     */
+    SocketAddress resolveStreamAddress(SocketAddress discoverySender, int port);
+
+    /**
+     * Open a stream listener bound to a random free port, ready to accept a connection.
+     * @return the opened listener.
+     * @throws IOException if the listener could not be opened.
+     */
+    StreamListener openStreamListener() throws IOException;
+
+    /**
+     * Connect a new stream channel to a remote node's stream listener.
+     * @param destination the address of the remote listener.
+     * @return the promise of the connected channel. Cancelling the promise closes the channel.
+     * @throws IOException if the channel could not be opened.
+     */
+    Future<StreamChannel> connect(SocketAddress destination) throws IOException;
+}
@@ -0,0 +1,82 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to the admission of incoming network requests.
+ */
+public class AdmissionProperties {
+
+    private static final String PREFIX = "network.admission.";
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final long queueTimeoutMs;
+    private final double peerRate;
+    private final int peerBurst;
+
+    /**
+     * Construct the admission properties object by reading the relevant properties from the parameter object. All
+     * properties are optional and have defaults suited for a small personal network.
+     * @param properties the properties object containing all application properties.
+     * @throws IllegalArgumentException if a property has an invalid value.
+     */
+    AdmissionProperties(Properties properties) throws IllegalArgumentException {
+        this.maxConcurrent = Integer.parseInt(properties.getProperty(PREFIX + "max-concurrent", "8").trim());
+        this.queueCapacity = Integer.parseInt(properties.getProperty(PREFIX + "queue-capacity", "16").trim());
+        this.queueTimeoutMs = Long.parseLong(properties.getProperty(PREFIX + "queue-timeout-ms", "1000").trim());
+        this.peerRate = Double.parseDouble(properties.getProperty(PREFIX + "peer-rate", "5").trim());
+        this.peerBurst = Integer.parseInt(properties.getProperty(PREFIX + "peer-burst", "10").trim());
+
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Property " + PREFIX + "max-concurrent must be > 0");
+        }
+        if (queueCapacity < 0 || queueTimeoutMs < 0) {
+            throw new IllegalArgumentException("Admission queue properties must not be negative");
+        }
+        if (peerRate <= 0 || peerBurst < 1) {
+            throw new IllegalArgumentException("Admission peer rate and burst must be > 0");
+        }
+    }
+
+    /**
+     * Get the maximum number of requests served concurrently.
+     * @return the concurrency limit.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Get the maximum number of requests waiting for a free slot when the concurrency limit is reached.
+     * @return the queue capacity.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Get how long a request may wait in the queue before it is dropped, since the requesting node stops waiting for a
+     * discovery echo after its discovery window.
+     * @return the queue timeout in milliseconds.
+     */
+    public long getQueueTimeoutMs() {
+        return queueTimeoutMs;
+    }
+
+    /**
+     * Get the sustained number of requests per second admitted from a single peer.
+     * @return the rate.
+     */
+    public double getPeerRate() {
+        return peerRate;
+    }
+
+    /**
+     * Get the number of requests a single peer may make in a burst above its sustained rate.
+     * @return the burst size.
+     */
+    public int getPeerBurst() {
+        return peerBurst;
+    }
+}
@@ -0,0 +1,155 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to the discovery of other nodes in the network.
+ */
+public class DiscoveryProperties {
+
+    private static final String PREFIX = "network.discovery.";
+    private static final int DEFAULT_PORT = 35587;
+
+    /**
+     * The way discovery requests reach the other nodes.
+     */
+    public enum Mode {
+        /** Requests are sent to a multicast group joined by every node. */
+        MULTICAST,
+        /** Requests are sent directly to the configured seed nodes and to the nodes they know of. */
+        UNICAST
+    }
+
+    private final Mode mode;
+    private final int port;
+    private final long timeoutMs;
+    private final List<Seed> seeds;
+
+    /**
+     * Construct the discovery properties object by reading the relevant properties from the parameter object. All
+     * properties are optional, and discovery uses multicast unless configured otherwise.
+     * @param properties the properties object containing all application properties.
+     * @throws IllegalArgumentException if a property has an invalid value.
+     */
+    DiscoveryProperties(Properties properties) throws IllegalArgumentException {
+        String modeValue = properties.getProperty(PREFIX + "mode", Mode.MULTICAST.name()).trim();
+        try {
+            this.mode = Mode.valueOf(modeValue.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Property " + PREFIX + "mode has unknown value " + modeValue, e);
+        }
+        this.port = Integer.parseInt(properties.getProperty(PREFIX + "port", String.valueOf(DEFAULT_PORT)).trim());
+        this.timeoutMs = Long.parseLong(properties.getProperty(PREFIX + "timeout-ms", "1000").trim());
+        this.seeds = parseSeeds(properties.getProperty(PREFIX + "seeds", ""), port);
+
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Property " + PREFIX + "port must be a valid port number");
+        }
+        if (timeoutMs < 1) {
+            throw new IllegalArgumentException("Property " + PREFIX + "timeout-ms must be > 0");
+        }
+        if (mode == Mode.UNICAST && seeds.isEmpty()) {
+            throw new IllegalArgumentException("Property " + PREFIX + "seeds is required in unicast mode");
+        }
+    }
+
+    /**
+     * Get the discovery mode.
+     * @return the mode.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Get the port on which this node receives discovery requests.
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get how long a discovery round waits for replies. In multicast mode the round always lasts this long, while in
+     * unicast mode it ends as soon as every contacted node has replied.
+     * @return the timeout in milliseconds.
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Get the seed nodes contacted in unicast mode.
+     * @return the seeds, in the configured order.
+     */
+    public List<Seed> getSeeds() {
+        return seeds;
+    }
+
+    private static List<Seed> parseSeeds(String value, int defaultPort) {
+        List<Seed> seeds = new ArrayList<>();
+        for (String seed : value.split(",")) {
+            seed = seed.trim();
+            if (seed.isEmpty()) {
+                continue;
+            }
+
+            int separator = seed.lastIndexOf(':');
+            if (separator < 0 || seed.endsWith("]")) {
+                seeds.add(new Seed(stripBrackets(seed), defaultPort));
+                continue;
+            }
+            try {
+                seeds.add(new Seed(stripBrackets(seed.substring(0, separator)), Integer.parseInt(seed.substring(separator + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid port in discovery seed " + seed, e);
+            }
+        }
+        return Collections.unmodifiableList(seeds);
+    }
+
+    private static String stripBrackets(String host) {
+        return host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+    }
+
+    /**
+     * The host and port of a seed node's discovery channel.
+     */
+    public static class Seed {
+        private final String host;
+        private final int port;
+
+        private Seed(String host, int port) {
+            if (host.isEmpty() || port < 1 || port > 65535) {
+                throw new IllegalArgumentException("Invalid discovery seed " + host + ":" + port);
+            }
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Get the seed's host name or address.
+         * @return the host.
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Get the seed's discovery port.
+         * @return the port.
+         */
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to the application's metrics.
+ */
+public class MetricsProperties {
+
+    private static final String PREFIX = "metrics.";
+    private static final String DEFAULT_JMX_DOMAIN = "edu.dk.asj.dpm";
+
+    private final boolean enabled;
+    private final boolean jmxEnabled;
+    private final String jmxDomain;
+
+    /**
+     * Construct the metrics properties object by reading the relevant properties from the parameter object. All
+     * properties are optional; metrics are disabled unless enabled explicitly.
+     * @param properties the properties object containing all application properties.
+     */
+    MetricsProperties(Properties properties) {
+        this.enabled = Boolean.parseBoolean(properties.getProperty(PREFIX + "enabled", "false").trim());
+        this.jmxEnabled = Boolean.parseBoolean(properties.getProperty(PREFIX + "jmx.enabled", "true").trim());
+        this.jmxDomain = properties.getProperty(PREFIX + "jmx.domain", DEFAULT_JMX_DOMAIN).trim();
+    }
+
+    /**
+     * Check whether metrics should be recorded.
+     * @return true if metrics are enabled; false otherwise.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Check whether recorded metrics should be exported over JMX.
+     * @return true if JMX export is enabled; false otherwise.
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Get the JMX domain under which the metrics are exported.
+     * @return the domain.
+     */
+    public String getJmxDomain() {
+        return jmxDomain;
+    }
+}
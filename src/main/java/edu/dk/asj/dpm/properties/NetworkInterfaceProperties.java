@@ -0,0 +1,45 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to the selection of the network interface used for
+ * communicating with other nodes.
+ */
+public class NetworkInterfaceProperties {
+
+    private static final String PREFIX = "network.interface.";
+
+    private final String name;
+    private final String cidr;
+
+    /**
+     * Construct the network interface properties object by reading the relevant properties from the parameter object.
+     * All properties are optional; if none are given the interface is detected from the host's routing table.
+     * @param properties the properties object containing all application properties.
+     */
+    NetworkInterfaceProperties(Properties properties) {
+        this.name = emptyToNull(properties.getProperty(PREFIX + "name"));
+        this.cidr = emptyToNull(properties.getProperty(PREFIX + "cidr"));
+    }
+
+    /**
+     * Get the name of the interface to use, e.g. <i>eth0</i>.
+     * @return the interface name, or null if not configured.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the subnet in CIDR notation, e.g. <i>192.168.1.0/24</i>, in which the interface's address must lie.
+     * @return the subnet, or null if not configured.
+     */
+    public String getCidr() {
+        return cidr;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
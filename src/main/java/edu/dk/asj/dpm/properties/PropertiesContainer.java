@@ -10,9 +10,25 @@ import java.util.Properties;
 public class PropertiesContainer {
 
     private final StorageProperties storageProperties;
+    private final MetricsProperties metricsProperties;
+    private final AdmissionProperties admissionProperties;
+    private final NetworkInterfaceProperties networkInterfaceProperties;
+    private final DiscoveryProperties discoveryProperties;
+    private final VaultProperties vaultProperties;
+    private final RequestProperties requestProperties;
 
-    private PropertiesContainer(StorageProperties storageProperties) {
+    private PropertiesContainer(StorageProperties storageProperties, MetricsProperties metricsProperties,
+                                AdmissionProperties admissionProperties,
+                                NetworkInterfaceProperties networkInterfaceProperties,
+                                DiscoveryProperties discoveryProperties, VaultProperties vaultProperties,
+                                RequestProperties requestProperties) {
         this.storageProperties = storageProperties;
+        this.metricsProperties = metricsProperties;
+        this.admissionProperties = admissionProperties;
+        this.networkInterfaceProperties = networkInterfaceProperties;
+        this.discoveryProperties = discoveryProperties;
+        this.vaultProperties = vaultProperties;
+        this.requestProperties = requestProperties;
     }
 
     /**
@@ -23,10 +39,26 @@ public class PropertiesContainer {
     public static PropertiesContainer loadProperties() throws IOException {
         Properties properties = new Properties();
         properties.load(PropertiesContainer.class.getResourceAsStream("/application.properties"));
+        return loadProperties(properties);
+    }
 
+    /**
+     * Load properties from an already populated properties object, e.g. to run several nodes with different storage
+     * paths in the same process.
+     * @param properties the properties, using the same keys as the <i>application.properties</i> file.
+     * @return the properties container.
+     */
+    public static PropertiesContainer loadProperties(Properties properties) {
         StorageProperties storageProperties = new StorageProperties(properties);
+        MetricsProperties metricsProperties = new MetricsProperties(properties);
+        AdmissionProperties admissionProperties = new AdmissionProperties(properties);
+        NetworkInterfaceProperties networkInterfaceProperties = new NetworkInterfaceProperties(properties);
+        DiscoveryProperties discoveryProperties = new DiscoveryProperties(properties);
+        VaultProperties vaultProperties = new VaultProperties(properties);
+        RequestProperties requestProperties = new RequestProperties(properties);
 
-        return new PropertiesContainer(storageProperties);
+        return new PropertiesContainer(storageProperties, metricsProperties, admissionProperties,
+                networkInterfaceProperties, discoveryProperties, vaultProperties, requestProperties);
     }
 
     /**
@@ -36,4 +68,52 @@ public class PropertiesContainer {
     public StorageProperties getStorageProperties() {
         return storageProperties;
     }
+
+    /**
+     * Get metrics properties object.
+     * @return the object.
+     */
+    public MetricsProperties getMetricsProperties() {
+        return metricsProperties;
+    }
+
+    /**
+     * Get admission properties object.
+     * @return the object.
+     */
+    public AdmissionProperties getAdmissionProperties() {
+        return admissionProperties;
+    }
+
+    /**
+     * Get network interface properties object.
+     * @return the object.
+     */
+    public NetworkInterfaceProperties getNetworkInterfaceProperties() {
+        return networkInterfaceProperties;
+    }
+
+    /**
+     * Get discovery properties object.
+     * @return the object.
+     */
+    public DiscoveryProperties getDiscoveryProperties() {
+        return discoveryProperties;
+    }
+
+    /**
+     * Get vault properties object.
+     * @return the object.
+     */
+    public VaultProperties getVaultProperties() {
+        return vaultProperties;
+    }
+
+    /**
+     * Get request properties object.
+     * @return the object.
+     */
+    public RequestProperties getRequestProperties() {
+        return requestProperties;
+    }
 }
@@ -0,0 +1,78 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to the requests this node sends to the node network.
+ */
+public class RequestProperties {
+
+    private static final String PREFIX = "network.request.";
+
+    private final long deadlineMs;
+    private final long hedgeDelayMs;
+    private final long retryDelayMs;
+    private final long maxRetryDelayMs;
+
+    /**
+     * Construct the request properties object by reading the relevant properties from the parameter object. All
+     * properties are optional.
+     * @param properties the properties object containing all application properties.
+     * @throws IllegalArgumentException if a property has an invalid value.
+     */
+    RequestProperties(Properties properties) throws IllegalArgumentException {
+        this.deadlineMs = Long.parseLong(properties.getProperty(PREFIX + "deadline-ms", "5000").trim());
+        this.hedgeDelayMs = Long.parseLong(properties.getProperty(PREFIX + "hedge-delay-ms", "250").trim());
+        this.retryDelayMs = Long.parseLong(properties.getProperty(PREFIX + "retry-delay-ms", "1000").trim());
+        this.maxRetryDelayMs = Long.parseLong(properties.getProperty(PREFIX + "max-retry-delay-ms", "60000").trim());
+
+        if (deadlineMs < 1) {
+            throw new IllegalArgumentException("Property " + PREFIX + "deadline-ms must be > 0");
+        }
+        if (hedgeDelayMs < 0) {
+            throw new IllegalArgumentException("Property " + PREFIX + "hedge-delay-ms must not be negative");
+        }
+        if (retryDelayMs < 1) {
+            throw new IllegalArgumentException("Property " + PREFIX + "retry-delay-ms must be > 0");
+        }
+        if (maxRetryDelayMs < retryDelayMs) {
+            throw new IllegalArgumentException("Property " + PREFIX + "max-retry-delay-ms must not be less than "
+                    + PREFIX + "retry-delay-ms");
+        }
+    }
+
+    /**
+     * Get the overall time a fragment request may take, from the start of discovery until the last required fragment
+     * has been received. The deadline is split between discovery and the connections to the discovered nodes.
+     * @return the deadline in milliseconds.
+     */
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    /**
+     * Get how long to wait for progress before requesting a share from another node than the ones already asked. This
+     * only applies when the vault is erasure coded, since otherwise every node's fragment is required.
+     * @return the hedge delay in milliseconds, where 0 means every node is asked at once.
+     */
+    public long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    /**
+     * Get how long to wait before sending a vault update to the node network again, after the first attempt failed.
+     * The delay doubles with every further failed attempt.
+     * @return the retry delay in milliseconds.
+     */
+    public long getRetryDelayMs() {
+        return retryDelayMs;
+    }
+
+    /**
+     * Get the upper bound of the doubling retry delay.
+     * @return the maximum retry delay in milliseconds.
+     */
+    public long getMaxRetryDelayMs() {
+        return maxRetryDelayMs;
+    }
+}
@@ -1,5 +1,6 @@
 package edu.dk.asj.dpm.properties;
 
+import java.nio.file.Paths;
 import java.util.Objects;
 import java.util.Properties;
 
@@ -12,6 +13,8 @@ public class StorageProperties {
 
     private final String fragmentPath;
     private final String networkPropertiesPath;
+    private final String outboundQueuePath;
+    private final String vaultSnapshotPath;
 
     /**
      * Construct the storage properties object by reading the relevant properties from the parameter object.
@@ -20,12 +23,19 @@ public class StorageProperties {
     StorageProperties(Properties properties) {
         String fragmentPathKey = PREFIX + "vault-fragment";
         String networkPropsKey = PREFIX + "network-properties";
+        String outboundQueueKey = PREFIX + "outbound-queue";
+        String vaultSnapshotKey = PREFIX + "vault-snapshot";
 
         this.fragmentPath = properties.getProperty(fragmentPathKey);
         this.networkPropertiesPath = properties.getProperty(networkPropsKey);
 
         Objects.requireNonNull(this.fragmentPath, "Missing property: " + fragmentPathKey);
         Objects.requireNonNull(this.networkPropertiesPath, "Missing property: " + networkPropsKey);
+
+        String defaultQueuePath = Paths.get(fragmentPath).resolveSibling("outbound.queue").toString();
+        this.outboundQueuePath = properties.getProperty(outboundQueueKey, defaultQueuePath);
+        String defaultSnapshotPath = Paths.get(fragmentPath).resolveSibling("vault.snapshot").toString();
+        this.vaultSnapshotPath = properties.getProperty(vaultSnapshotKey, defaultSnapshotPath);
     }
 
     /**
@@ -43,4 +53,21 @@ public class StorageProperties {
     public String getNetworkPropertiesPath() {
         return networkPropertiesPath;
     }
+
+    /**
+     * Get storage path for the queue of vault updates not yet sent to the node network. Defaults to a file next to
+     * the local vault fragment.
+     * @return the storage path.
+     */
+    public String getOutboundQueuePath() {
+        return outboundQueuePath;
+    }
+
+    /**
+     * Get storage path for the cached snapshot of the vault. Defaults to a file next to the local vault fragment.
+     * @return the storage path.
+     */
+    public String getVaultSnapshotPath() {
+        return vaultSnapshotPath;
+    }
 }
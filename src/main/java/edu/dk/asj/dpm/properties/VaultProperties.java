@@ -0,0 +1,76 @@
+package edu.dk.asj.dpm.properties;
+
+import java.util.Properties;
+
+/**
+ * This class defines an object containing properties related to how the vault is distributed between the nodes.
+ */
+public class VaultProperties {
+
+    private static final String PREFIX = "vault.";
+
+    private final int redundancy;
+    private final int maxDeltaChain;
+    private final long batchWindowMs;
+    private final boolean snapshotEnabled;
+
+    /**
+     * Construct the vault properties object by reading the relevant properties from the parameter object. All
+     * properties are optional; without redundancy every node's fragment is required to reconstruct the vault.
+     * @param properties the properties object containing all application properties.
+     * @throws IllegalArgumentException if a property has an invalid value.
+     */
+    VaultProperties(Properties properties) throws IllegalArgumentException {
+        this.redundancy = Integer.parseInt(properties.getProperty(PREFIX + "redundancy", "0").trim());
+        this.maxDeltaChain = Integer.parseInt(properties.getProperty(PREFIX + "delta.max-chain", "16").trim());
+        this.batchWindowMs = Long.parseLong(properties.getProperty(PREFIX + "batch.window-ms", "0").trim());
+        this.snapshotEnabled = Boolean.parseBoolean(properties.getProperty(PREFIX + "snapshot.enabled", "true").trim());
+
+        if (redundancy < 0) {
+            throw new IllegalArgumentException("Property " + PREFIX + "redundancy must not be negative");
+        }
+        if (maxDeltaChain < 0) {
+            throw new IllegalArgumentException("Property " + PREFIX + "delta.max-chain must not be negative");
+        }
+        if (batchWindowMs < 0) {
+            throw new IllegalArgumentException("Property " + PREFIX + "batch.window-ms must not be negative");
+        }
+    }
+
+    /**
+     * Get the number of nodes that may be offline while the vault can still be reconstructed. With redundancy the
+     * vault is erasure coded into shares, each of which is the size of the vault divided by the number of shares
+     * required to reconstruct it. Since those shares reveal the vault, it is only encoded when at least two shares are
+     * required, and split without redundancy in smaller node networks.
+     * @return the redundancy, where 0 means the vault is split between the nodes without redundancy.
+     */
+    public int getRedundancy() {
+        return redundancy;
+    }
+
+    /**
+     * Get the number of deltas that may be appended to the fragments before the vault is fragmented anew. Fragmenting
+     * anew re-randomizes which node holds which part of the vault, and keeps sign-in from replaying a long chain.
+     * @return the maximum chain length, where 0 means every change fragments the vault anew.
+     */
+    public int getMaxDeltaChain() {
+        return maxDeltaChain;
+    }
+
+    /**
+     * Get the time changes to the vault are collected before they are published to the nodes as one batch.
+     * @return the window in milliseconds, where 0 means every change is published at once.
+     */
+    public long getBatchWindowMs() {
+        return batchWindowMs;
+    }
+
+    /**
+     * Check whether a snapshot of the vault is cached on the device, encrypted under the master password, so that
+     * signing in only fetches the fragments if the vault has changed.
+     * @return true if the snapshot is cached; false if every sign-in fetches the fragments.
+     */
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+}
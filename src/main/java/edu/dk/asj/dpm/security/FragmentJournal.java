@@ -0,0 +1,110 @@
+package edu.dk.asj.dpm.security;
+
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.vault.VaultFragment;
+
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe group commit of fragment saves. Each save of a fragment file is written atomically by the
+ * {@link FragmentStore}, at the cost of a flush to disk. Saves of the same file requested while a write is in progress
+ * are gathered, and only the latest of them is written, with a single flush, once that write is done. Since a fragment
+ * holds its deltas, the latest fragment includes the changes of the saves it replaces.
+ * <p>
+ *     A save returns once a write covering it is durable, so a burst of updates pays for about two writes instead of
+ *     one per update.
+ * </p>
+ */
+final class FragmentJournal {
+    private static final Histogram COMMIT_SIZE = Metrics.getInstance().histogram("security.fragment.commit.saves");
+
+    private final FragmentStore store;
+    private final Map<Path, Slot> slots;
+
+    /**
+     * Construct a journal writing fragments with a store.
+     * @param store the store.
+     */
+    FragmentJournal(FragmentStore store) {
+        this.store = Objects.requireNonNull(store, "Store must not be null");
+        this.slots = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Save a fragment, waiting until it or a later fragment of the same file is written.
+     * @param fragment the fragment.
+     * @param path the path of the file.
+     * @param random the generator of the salt and IV.
+     * @return the size of the written file.
+     * @throws Exception if the write covering the fragment failed.
+     */
+    long commit(VaultFragment fragment, Path path, SecureRandom random) throws Exception {
+        Objects.requireNonNull(fragment, "Fragment must not be null");
+        Slot slot = slots.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new Slot());
+
+        Commit commit;
+        synchronized (slot) {
+            if (slot.open == null) {
+                slot.open = new Commit();
+            }
+            commit = slot.open;
+            commit.fragment = fragment;
+            commit.saves++;
+
+            while (!commit.done && slot.writing) {
+                slot.wait();
+            }
+            if (commit.done) {
+                return commit.getResult();
+            }
+            // lead the commit, and let later saves gather in the next one
+            slot.writing = true;
+            slot.open = null;
+        }
+
+        try {
+            commit.bytes = store.save(commit.fragment, path, random);
+        } catch (Exception e) {
+            commit.error = e;
+        }
+        COMMIT_SIZE.record(commit.saves);
+
+        synchronized (slot) {
+            commit.done = true;
+            slot.writing = false;
+            slot.notifyAll();
+        }
+        return commit.getResult();
+    }
+
+    /**
+     * The saves of a fragment file. Guarded by its own lock.
+     */
+    private static final class Slot {
+        private Commit open;
+        private boolean writing;
+    }
+
+    /**
+     * A write of a fragment file covering one or more saves.
+     */
+    private static final class Commit {
+        private VaultFragment fragment;
+        private int saves;
+        private boolean done;
+        private long bytes;
+        private Exception error;
+
+        private long getResult() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package edu.dk.asj.dpm.security;
+
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.util.BufferHelper;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Objects;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Storage of the local vault fragment in a structured file, read and written through memory-mapped buffers. The
+ * serialized fragment is encrypted segment by segment directly into the mapped file, and the fragment is deserialized
+ * while its segments are decrypted from the mapped file, so loading holds at most one segment of plaintext besides the
+ * fragment itself.
+ * <p>
+ *     The file starts with a fixed-layout header, followed by the {@link StreamAead} ciphertext of the serialized
+ *     fragment:
+ * </p>
+ * <pre>
+ *     magic (4) | format version (2) | KDF iterations (4) | salt length (1) | salt | generation (8) |
+ *     plaintext length (4) | ciphertext length (4) | ciphertext
+ * </pre>
+ * The header is authenticated as associated data of every segment, which is only checked once the key has been derived
+ * from it, so the KDF parameters are first checked against a sane range: at most {@value #MAX_ITERATION_FACTOR} times
+ * the iterations of new files, and a salt of {@value #MIN_SALT_LENGTH} to {@value #MAX_SALT_LENGTH} bytes. Files of
+ * format version 1, where the ciphertext
+ * was a single AES-GCM message under an IV stored after the salt, are still read. Files without the magic number were
+ * written before the header was introduced, and are left to the caller to read.
+ */
+final class FragmentStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FragmentStore.class);
+
+    static final int MAGIC = 0x44504d46; // "DPMF"
+    static final short FORMAT_VERSION = 2;
+
+    private static final short SINGLE_MESSAGE_FORMAT_VERSION = 1;
+
+    private static final int SINGLE_MESSAGE_TAG_LENGTH = 128 / 8;
+
+    private static final int MAX_ITERATION_FACTOR = 16;
+    private static final int MIN_SALT_LENGTH = 8;
+    private static final int MAX_SALT_LENGTH = 64;
+
+    private static final Histogram ENCRYPT_TIME = Metrics.getInstance().histogram("security.encrypt.nanos");
+    private static final Histogram DECRYPT_TIME = Metrics.getInstance().histogram("security.decrypt.nanos");
+
+    /**
+     * Derivation of the fragment key from the master password.
+     */
+    interface KeyDerivation {
+        SecretKey deriveKey(byte[] salt, int iterations);
+    }
+
+    private final KeyDerivation keyDerivation;
+    private final int iterations;
+    private final int saltLength;
+    private final int segmentSize;
+
+    /**
+     * Construct a store writing files with the given key derivation parameters.
+     * @param keyDerivation the derivation of the fragment key.
+     * @param iterations the KDF iterations of new files.
+     * @param saltLength the KDF salt length of new files.
+     * @param segmentSize the plaintext size of the encrypted segments of new files.
+     */
+    FragmentStore(KeyDerivation keyDerivation, int iterations, int saltLength, int segmentSize) {
+        this.keyDerivation = Objects.requireNonNull(keyDerivation, "Key derivation must not be null");
+        this.iterations = iterations;
+        this.saltLength = saltLength;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Load a fragment from a structured file.
+     * @param path the path of the file.
+     * @return the fragment, or null if the file does not start with a header.
+     * @throws Exception if the file could not be read or decrypted.
+     */
+    VaultFragment load(Path path) throws Exception {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() < 4) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) {
+                return null;
+            }
+            return decrypt(mapped);
+        }
+    }
+
+    /**
+     * Save a fragment to a structured file, replacing it atomically. The fragment is written and flushed to a temporary
+     * file next to it, which is then renamed over the file, so a crash leaves either the old or the new fragment.
+     * @param fragment the fragment.
+     * @param path the path of the file.
+     * @param random the generator of the salt and nonce prefix.
+     * @return the size of the written file.
+     * @throws Exception if the file could not be written.
+     */
+    long save(VaultFragment fragment, Path path, SecureRandom random) throws Exception {
+        ExposedByteArrayOutputStream plainStream = new ExposedByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(plainStream)) {
+            objectStream.writeObject(fragment);
+        }
+        ByteBuffer plainText = plainStream.toBuffer();
+
+        long start = ENCRYPT_TIME.start();
+        byte[] salt = new byte[saltLength];
+        random.nextBytes(salt);
+        ByteBuffer header = ByteBuffer.allocate(getHeaderLength(saltLength))
+                .putInt(MAGIC)
+                .putShort(FORMAT_VERSION)
+                .putInt(iterations)
+                .put((byte) saltLength).put(salt)
+                .putLong(fragment.getLatestGeneration())
+                .putInt(plainText.remaining());
+        int cipherLength = Math.toIntExact(StreamAead.getCipherTextLength(plainText.remaining(), segmentSize));
+        header.putInt(cipherLength);
+        StreamAead aead = new StreamAead(getCipherKey(salt, iterations), segmentSize, header.array());
+
+        Path temporaryPath = getTemporaryPath(path);
+        try (FileChannel channel = FileChannel.open(temporaryPath, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.capacity() + cipherLength);
+            mapped.put(header.array());
+            aead.encrypt(plainText, mapped, random);
+            mapped.force();
+        }
+        ENCRYPT_TIME.recordSince(start);
+
+        Files.move(temporaryPath, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        forceDirectory(path.toAbsolutePath().getParent());
+        return header.capacity() + cipherLength;
+    }
+
+    private VaultFragment decrypt(ByteBuffer mapped) throws Exception {
+        long start = DECRYPT_TIME.start();
+        mapped.position(4);
+        short formatVersion = mapped.getShort();
+        if (formatVersion != FORMAT_VERSION && formatVersion != SINGLE_MESSAGE_FORMAT_VERSION) {
+            throw new IOException("Unsupported fragment file format version " + formatVersion);
+        }
+        int fileIterations = mapped.getInt();
+        if (fileIterations < 1 || fileIterations > (long) iterations * MAX_ITERATION_FACTOR) {
+            throw new IOException("Fragment file has unsupported KDF iteration count " + fileIterations);
+        }
+        int fileSaltLength = mapped.get();
+        if (fileSaltLength < MIN_SALT_LENGTH || fileSaltLength > MAX_SALT_LENGTH) {
+            throw new IOException("Fragment file has unsupported KDF salt length " + fileSaltLength);
+        }
+        byte[] salt = new byte[fileSaltLength];
+        mapped.get(salt);
+        byte[] iv = null;
+        if (formatVersion == SINGLE_MESSAGE_FORMAT_VERSION) {
+            iv = new byte[mapped.get()];
+            mapped.get(iv);
+        }
+        mapped.getLong(); // generation, which is only informational
+        int plainLength = mapped.getInt();
+        int cipherLength = mapped.getInt();
+        if (plainLength < 0 || cipherLength != mapped.remaining()) {
+            throw new IOException("Fragment file is truncated");
+        }
+        SecretKey key = getCipherKey(salt, fileIterations);
+
+        if (iv != null) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(SINGLE_MESSAGE_TAG_LENGTH * 8, iv));
+            cipher.updateAAD(getHeader(mapped));
+            ByteBuffer plainText = ByteBuffer.allocate(cipher.getOutputSize(cipherLength));
+            cipher.doFinal(mapped, plainText);
+            DECRYPT_TIME.recordSince(start);
+
+            try (ObjectInputStream objectStream = new ObjectInputStream(
+                    new ByteArrayInputStream(plainText.array(), 0, plainText.position()))) {
+                return (VaultFragment) objectStream.readObject();
+            }
+        }
+
+        StreamAead aead = new StreamAead(key, segmentSize, getHeader(mapped));
+        try (ObjectInputStream objectStream = new ObjectInputStream(aead.newDecryptingStream(BufferHelper.asInputStream(mapped)))) {
+            // the end of the fragment lies in the last segment, so reading it authenticates the whole file
+            VaultFragment fragment = (VaultFragment) objectStream.readObject();
+            DECRYPT_TIME.recordSince(start);
+            return fragment;
+        }
+    }
+
+    /**
+     * Get the temporary file a new fragment is written to before it replaces the file, creating its directory.
+     */
+    private static Path getTemporaryPath(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        return directory.resolve(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Flush a directory, so that a file renamed into it survives a crash. Not every platform can open a directory, in
+     * which case the rename is only as durable as the file system makes it.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.debug("Could not flush directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Get the derived key as a plain AES key, so that the cipher is not bound to the provider of the key derivation.
+     */
+    private SecretKey getCipherKey(byte[] salt, int iterations) {
+        return new SecretKeySpec(keyDerivation.deriveKey(salt, iterations).getEncoded(), "AES");
+    }
+
+    /**
+     * Get the header preceding the buffer's position, which is small enough to copy.
+     */
+    private static byte[] getHeader(ByteBuffer buffer) {
+        byte[] header = new byte[buffer.position()];
+        buffer.duplicate().flip().get(header);
+        return header;
+    }
+
+    private static int getHeaderLength(int saltLength) {
+        return 4 + 2 + 4 + 1 + saltLength + 8 + 4 + 4;
+    }
+
+    /**
+     * Output stream giving access to its buffer without copying it.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package edu.dk.asj.dpm.security;
 
+import edu.dk.asj.dpm.events.FragmentIOEvent;
+import edu.dk.asj.dpm.events.SaeSessionEvent;
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.util.StorageHelper;
 import edu.dk.asj.dpm.vault.VaultFragment;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -16,15 +20,21 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
@@ -55,14 +65,22 @@ public class SecurityController {
     private static final String CIPHER_SCHEME = "AES/GCM/NoPadding";
     private static final int IV_LENGTH = 96 / 8;    // IV length recommended by NIST
 
+    private static final int OBJECT_MAGIC = 0x44504d4f; // "DPMO"
+
     private static final String KDF_SCHEME = "PBKDF2WithHmacSHA3-256";
     private static final int KDF_ITERATIONS = 1000;
     private static final int KDF_LENGTH = 128 / 8;
     private static final int KDF_SALT_LENGTH = KDF_LENGTH;
 
+    private static final Histogram KDF_TIME = Metrics.getInstance().histogram("security.kdf.nanos");
+    private static final Histogram ENCRYPT_TIME = Metrics.getInstance().histogram("security.encrypt.nanos");
+    private static final Histogram DECRYPT_TIME = Metrics.getInstance().histogram("security.decrypt.nanos");
+
     private static SecurityController instance;
 
     private final ECCurve ec;
+    private final FragmentStore fragmentStore;
+    private final FragmentJournal fragmentJournal;
 
     private byte[] mpDerivative;
 
@@ -71,6 +89,9 @@ public class SecurityController {
         Security.addProvider(new BouncyCastleProvider());
 
         ec = new Curve25519();
+        fragmentStore = new FragmentStore((salt, iterations) -> deriveSecretKey(mpDerivative, salt, iterations),
+                KDF_ITERATIONS, KDF_SALT_LENGTH, StreamAead.DEFAULT_SEGMENT_SIZE);
+        fragmentJournal = new FragmentJournal(fragmentStore);
 
         // check that all the cryptographic schemes are available and won't throw errors
         getRandomGenerator();
@@ -149,48 +170,123 @@ public class SecurityController {
     }
 
     /**
-     * Load the local fragment from the device.
+     * Load the local fragment from the device. Fragment files written before the structured file format was introduced
+     * are still read.
      * @param storagePath the path on where to find the fragment.
      * @return the loaded fragment, or null.
      */
     public VaultFragment loadFragment(String storagePath) {
         LOGGER.debug("Loading local fragment");
+        FragmentIOEvent event = new FragmentIOEvent();
+        event.begin();
+
+        Path path = Paths.get(storagePath);
+        try {
+            VaultFragment fragment = fragmentStore.load(path);
+            if (fragment != null) {
+                event.bytes = Files.size(path);
+                commitFragmentIOEvent(event, FragmentIOEvent.LOAD, storagePath, true);
+                return fragment;
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not read from fragment file", e);
+            commitFragmentIOEvent(event, FragmentIOEvent.LOAD, storagePath, false);
+            return null;
+        }
 
+        LOGGER.debug("Reading fragment file without header");
         StandardOpenOption[] fileOptions = new StandardOpenOption[] { READ };
-        try (InputStream fileStream = Files.newInputStream(Paths.get(storagePath), fileOptions)){
-            byte[] data = decrypt(fileStream.readAllBytes(), mpDerivative);
+        try (InputStream fileStream = Files.newInputStream(path, fileOptions)){
+            byte[] encryptedData = fileStream.readAllBytes();
+            event.bytes = encryptedData.length;
+            byte[] data = decrypt(encryptedData, mpDerivative);
             VaultFragment fragment;
             try (ByteArrayInputStream byteStream = new ByteArrayInputStream(data);
                  ObjectInputStream objectStream = new ObjectInputStream(byteStream)) {
                 fragment = (VaultFragment) objectStream.readObject();
             }
+            commitFragmentIOEvent(event, FragmentIOEvent.LOAD, storagePath, true);
             return fragment;
         } catch (Exception e) {
             LOGGER.warn("Could not read from fragment file", e);
+            commitFragmentIOEvent(event, FragmentIOEvent.LOAD, storagePath, false);
             return null;
         }
     }
 
     /**
-     * Save a fragment to the node's device at the given storage path.
+     * Save a fragment to the node's device at the given storage path. The fragment file is replaced atomically, and
+     * concurrent saves to the same path are committed together.
      * @param fragment the fragment to be saved.
      * @param storagePath the path to where the fragment will be saved.
      * @return true if the save succeeded, false otherwise.
      */
     public boolean saveFragment(VaultFragment fragment, String storagePath) {
         LOGGER.debug("Saving local fragment");
+        FragmentIOEvent event = new FragmentIOEvent();
+        event.begin();
 
-        StandardOpenOption[] fileOptions = new StandardOpenOption[] { WRITE, TRUNCATE_EXISTING };
-        try (OutputStream fileStream = Files.newOutputStream(StorageHelper.getOrCreateStoragePath(storagePath), fileOptions);
-             ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-             ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)){
-
-            objectStream.writeObject(fragment);
-            byte[] serializedFragment = byteStream.toByteArray();
-            fileStream.write(encrypt(serializedFragment, mpDerivative));
+        try {
+            event.bytes = fragmentJournal.commit(fragment, Paths.get(storagePath), getRandomGenerator());
+            commitFragmentIOEvent(event, FragmentIOEvent.SAVE, storagePath, true);
             return true;
         } catch (Exception e) {
             LOGGER.error("Could not write to fragment file", e);
+            commitFragmentIOEvent(event, FragmentIOEvent.SAVE, storagePath, false);
+            return false;
+        }
+    }
+
+    /**
+     * Load an object encrypted by {@link #saveObject(Serializable, String)} from the device. Files written before
+     * objects were encrypted as a stream are still read.
+     * @param storagePath the path on where to find the object.
+     * @return the loaded object, or null if it does not exist or could not be read.
+     */
+    public Object loadObject(String storagePath) {
+        Path path = Paths.get(storagePath);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        try (InputStream fileStream = new BufferedInputStream(Files.newInputStream(path, READ))) {
+            fileStream.mark(4);
+            byte[] magic = fileStream.readNBytes(4);
+            if (magic.length == 4 && ByteBuffer.wrap(magic).getInt() == OBJECT_MAGIC) {
+                try (ObjectInputStream objectStream = new ObjectInputStream(decryptingStream(fileStream, mpDerivative))) {
+                    return objectStream.readObject();
+                }
+            }
+
+            LOGGER.debug("Reading object file without header");
+            fileStream.reset();
+            byte[] data = decrypt(fileStream.readAllBytes(), mpDerivative);
+            try (ByteArrayInputStream byteStream = new ByteArrayInputStream(data);
+                 ObjectInputStream objectStream = new ObjectInputStream(byteStream)) {
+                return objectStream.readObject();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not read from file " + storagePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Save an object encrypted under the master password to the device at the given storage path. The object is
+     * encrypted as a stream while it is serialized, so it is never held in memory as a whole.
+     * @param object the object to be saved.
+     * @param storagePath the path to where the object will be saved.
+     * @return true if the save succeeded, false otherwise.
+     */
+    public boolean saveObject(Serializable object, String storagePath) {
+        StandardOpenOption[] fileOptions = new StandardOpenOption[] { WRITE, TRUNCATE_EXISTING };
+        try (OutputStream fileStream = new BufferedOutputStream(Files.newOutputStream(StorageHelper.getOrCreateStoragePath(storagePath), fileOptions))) {
+            fileStream.write(ByteBuffer.allocate(4).putInt(OBJECT_MAGIC).array());
+            try (ObjectOutputStream objectStream = new ObjectOutputStream(encryptingStream(fileStream, mpDerivative))) {
+                objectStream.writeObject(object);
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Could not write to file " + storagePath, e);
             return false;
         }
     }
@@ -207,6 +303,9 @@ public class SecurityController {
             throw new RuntimeException("Identities must not be the same");
         }
 
+        SaeSessionEvent event = new SaeSessionEvent();
+        event.begin();
+
         BigInteger curvePrime = ec.getField().getCharacteristic();
         BigInteger curveOrder = ec.getOrder();
 
@@ -235,10 +334,13 @@ public class SecurityController {
             pwe = findPointForX(x, flipSign);
         }
 
+        // the loop increments past the successful iteration before its condition is checked
+        int iterations = i - 1;
         if (i > limit) {
+            commitSaeSessionEvent(event, localNode, remoteNode, iterations, false);
             throw new RuntimeException("Could not calculate fitting curve point in "+limit+" cycles");
         } else {
-            LOGGER.debug("Found valid password element after "+i+" iterations");
+            LOGGER.debug("Found valid password element after "+iterations+" iterations");
         }
 
         BigInteger rand = new BigInteger(curveOrder.bitLength(), rng);
@@ -248,6 +350,7 @@ public class SecurityController {
         ECPoint element = pwe.multiply(mask).negate();
         SAEParameterSpec saeParameters = new SAEParameterSpec(scalar, element.getEncoded(false));
 
+        commitSaeSessionEvent(event, localNode, remoteNode, iterations, true);
         return new SAESession(saeParameters, rand, pwe);
     }
 
@@ -323,6 +426,7 @@ public class SecurityController {
      * @throws Exception if an error was raised.
      */
     public byte[] encrypt(byte[] clearText, byte[] baseKey) throws Exception {
+        long start = ENCRYPT_TIME.start();
         Cipher cipher = getCipherEngine();
         SecureRandom randomGenerator = getRandomGenerator();
 
@@ -342,6 +446,7 @@ public class SecurityController {
         System.arraycopy(iv, 0, fullData, KDF_SALT_LENGTH, IV_LENGTH);
         System.arraycopy(cipherText, 0, fullData, KDF_SALT_LENGTH + IV_LENGTH, cipherText.length);
 
+        ENCRYPT_TIME.recordSince(start);
         return fullData;
     }
 
@@ -354,6 +459,7 @@ public class SecurityController {
      * @throws Exception if an error was raised.
      */
     public byte[] decrypt(byte[] cipherText, byte[] baseKey) throws Exception {
+        long start = DECRYPT_TIME.start();
         Cipher cipher = getCipherEngine();
 
         byte[] salt = Arrays.copyOfRange(cipherText, 0, KDF_SALT_LENGTH);
@@ -364,7 +470,48 @@ public class SecurityController {
         IvParameterSpec cipherParams = new IvParameterSpec(iv);
         cipher.init(Cipher.DECRYPT_MODE, key, cipherParams);
 
-        return cipher.doFinal(encryptedData);
+        byte[] clearText = cipher.doFinal(encryptedData);
+        DECRYPT_TIME.recordSince(start);
+        return clearText;
+    }
+
+    /**
+     * Open a stream encrypting the data written to it using a secret key derived from the base key. The data is
+     * encrypted in segments by a {@link StreamAead}, as it is written, and the cipher-text is complete when the stream
+     * is closed.
+     * @param out the stream receiving the cipher-text, which is closed with the returned stream.
+     * @param baseKey the key to use as input for a key derivation function such that the encryption key
+     *                <i>k = KDF(baseKey)</i>
+     * @return the encrypting stream.
+     * @throws Exception if an error was raised.
+     */
+    public OutputStream encryptingStream(OutputStream out, byte[] baseKey) throws Exception {
+        SecureRandom randomGenerator = getRandomGenerator();
+        byte[] salt = new byte[KDF_SALT_LENGTH];
+        randomGenerator.nextBytes(salt);
+        out.write(salt);
+        return getStreamAead(baseKey, salt).newEncryptingStream(out, randomGenerator);
+    }
+
+    /**
+     * Open a stream decrypting the cipher-text of {@link #encryptingStream(OutputStream, byte[])} as it is read.
+     * @param in the stream providing the cipher-text, which is closed with the returned stream.
+     * @param baseKey the key to use as input for a key derivation function such that the encryption key
+     *                <i>k = KDF(baseKey)</i>
+     * @return the decrypting stream.
+     * @throws Exception if an error was raised.
+     */
+    public InputStream decryptingStream(InputStream in, byte[] baseKey) throws Exception {
+        byte[] salt = in.readNBytes(KDF_SALT_LENGTH);
+        if (salt.length < KDF_SALT_LENGTH) {
+            throw new EOFException("Cipher-text is truncated");
+        }
+        return getStreamAead(baseKey, salt).newDecryptingStream(in);
+    }
+
+    private StreamAead getStreamAead(byte[] baseKey, byte[] salt) {
+        SecretKey key = new SecretKeySpec(deriveSecretKey(baseKey, salt).getEncoded(), "AES");
+        return new StreamAead(key, StreamAead.DEFAULT_SEGMENT_SIZE, null);
     }
 
     private SecretKey deriveSecretKey(byte[] baseKey) {
@@ -372,13 +519,20 @@ public class SecurityController {
     }
 
     private SecretKey deriveSecretKey(byte[] baseKey, byte[] salt) {
+        return deriveSecretKey(baseKey, salt, KDF_ITERATIONS);
+    }
+
+    private SecretKey deriveSecretKey(byte[] baseKey, byte[] salt, int iterations) {
+        long start = KDF_TIME.start();
         try {
             SecretKeyFactory kdf = SecretKeyFactory.getInstance(KDF_SCHEME, "BC");
             PBEKeySpec keySpec = new PBEKeySpec(new String(baseKey, StandardCharsets.UTF_8).toCharArray(),
                     salt,
-                    KDF_ITERATIONS,
+                    iterations,
                     KDF_LENGTH * 8);
-            return kdf.generateSecret(keySpec);
+            SecretKey key = kdf.generateSecret(keySpec);
+            KDF_TIME.recordSince(start);
+            return key;
 
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException("Invalid KDF algorithm ["+e.getMessage()+"]");
@@ -389,6 +543,27 @@ public class SecurityController {
         }
     }
 
+    private void commitFragmentIOEvent(FragmentIOEvent event, String operation, String storagePath, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = storagePath;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    private void commitSaeSessionEvent(SaeSessionEvent event, UUID localNode, UUID remoteNode, int iterations, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.localNode = localNode.toString();
+            event.remoteNode = remoteNode.toString();
+            event.pweIterations = iterations;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
     private BigInteger mapPointToInt(ECPoint p) {
         /*
         bijective map/function: injective and surjective
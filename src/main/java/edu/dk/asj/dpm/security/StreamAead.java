@@ -0,0 +1,512 @@
+package edu.dk.asj.dpm.security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Streaming authenticated encryption, following the STREAM construction: the plaintext is split into segments of a
+ * fixed size, and each segment is encrypted with AES-GCM under its own nonce and with its own tag. Data can therefore
+ * be encrypted and decrypted segment by segment as it is written or read, with memory bounded by the segment size.
+ * <p>
+ *     The nonce of a segment is a random prefix chosen per stream, followed by the segment's index and a flag marking
+ *     the last segment, so segments cannot be reordered, dropped, or cut off at a segment boundary without failing
+ *     authentication. The ciphertext starts with a header holding the nonce prefix and the segment size:
+ * </p>
+ * <pre>
+ *     nonce prefix (7) | segment size (4) | segment 0 | ... | last segment
+ * </pre>
+ * Every segment is the encrypted plaintext followed by a 16 byte tag. All but the last segment hold exactly the segment
+ * size of plaintext; the last holds the rest, which may be nothing. The associated data of the stream, if any, is
+ * authenticated with every segment.
+ * <p>
+ *     Since the segments are independent, they are sealed and opened in parallel on a {@link ForkJoinPool}: the buffer
+ *     operations process every segment at once, and the streams process batches of up to one segment per worker, which
+ *     bounds their memory by the batch.
+ * </p>
+ */
+public final class StreamAead {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int HEADER_LENGTH = NONCE_PREFIX_LENGTH + 4;
+    static final int TAG_LENGTH = 128 / 8;
+
+    private static final String CIPHER_SCHEME = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + 4 + 1;
+    private static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_BATCH_SEGMENTS = 8;
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER_SCHEME);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid cipher algorithm [" + e.getMessage() + "]");
+        }
+    });
+
+    private final SecretKey key;
+    private final int segmentSize;
+    private final byte[] associatedData;
+    private final ForkJoinPool pool;
+    private final int batchSegments;
+
+    /**
+     * Construct a streaming encryption.
+     * @param key the AES key.
+     * @param segmentSize the plaintext size of the segments of encrypted streams. Decrypted streams use the segment
+     *                    size of their header.
+     * @param associatedData the data authenticated with every segment, or null.
+     * @throws IllegalArgumentException if the segment size is not positive, or too large.
+     */
+    public StreamAead(SecretKey key, int segmentSize, byte[] associatedData) throws IllegalArgumentException {
+        this(key, segmentSize, associatedData, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct a streaming encryption processing segments in parallel on a given pool.
+     * @param key the AES key.
+     * @param segmentSize the plaintext size of the segments of encrypted streams. Decrypted streams use the segment
+     *                    size of their header.
+     * @param associatedData the data authenticated with every segment, or null.
+     * @param pool the pool the segments are processed on.
+     * @throws IllegalArgumentException if the segment size is not positive, or too large.
+     */
+    public StreamAead(SecretKey key, int segmentSize, byte[] associatedData, ForkJoinPool pool) throws IllegalArgumentException {
+        this.key = Objects.requireNonNull(key, "Key must not be null");
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        }
+        this.segmentSize = segmentSize;
+        this.associatedData = associatedData == null ? new byte[0] : associatedData.clone();
+        this.pool = Objects.requireNonNull(pool, "Pool must not be null");
+        this.batchSegments = Math.max(1, Math.min(MAX_BATCH_SEGMENTS, pool.getParallelism()));
+    }
+
+    /**
+     * Get the length of the ciphertext of a plaintext, including the header.
+     * @param plainTextLength the length of the plaintext.
+     * @param segmentSize the plaintext size of the segments.
+     * @return the length of the ciphertext.
+     */
+    public static long getCipherTextLength(long plainTextLength, int segmentSize) {
+        long segments = plainTextLength == 0 ? 1 : (plainTextLength + segmentSize - 1) / segmentSize;
+        return HEADER_LENGTH + plainTextLength + segments * TAG_LENGTH;
+    }
+
+    /**
+     * Get the length of the plaintext of a ciphertext.
+     * @param cipherTextLength the length of the ciphertext, including the header.
+     * @param segmentSize the plaintext size of the segments.
+     * @return the length of the plaintext.
+     * @throws IllegalArgumentException if no ciphertext has the length.
+     */
+    public static long getPlainTextLength(long cipherTextLength, int segmentSize) throws IllegalArgumentException {
+        long cipherSegmentSize = segmentSize + TAG_LENGTH;
+        long length = cipherTextLength - HEADER_LENGTH;
+        long segments = (length + cipherSegmentSize - 1) / cipherSegmentSize;
+        if (length < TAG_LENGTH || length - (segments - 1) * cipherSegmentSize < TAG_LENGTH) {
+            throw new IllegalArgumentException("Cipher-text is truncated");
+        }
+        return length - segments * TAG_LENGTH;
+    }
+
+    /**
+     * Encrypt the remaining content of a buffer into another buffer, sealing its segments in parallel.
+     * @param plainText the plaintext, which is consumed.
+     * @param cipherText the buffer receiving the ciphertext. Must have room for
+     *                   {@link #getCipherTextLength(long, int)} bytes.
+     * @param random the generator of the nonce prefix.
+     * @throws GeneralSecurityException if a segment could not be encrypted.
+     */
+    public void encrypt(ByteBuffer plainText, ByteBuffer cipherText, SecureRandom random) throws GeneralSecurityException {
+        byte[] noncePrefix = newNoncePrefix(random);
+        cipherText.put(noncePrefix).putInt(segmentSize);
+
+        int segments = Math.max(1, (plainText.remaining() + segmentSize - 1) / segmentSize);
+        ByteBuffer[] inputs = new ByteBuffer[segments];
+        ByteBuffer[] outputs = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            inputs[i] = slice(plainText, i * segmentSize, segmentSize);
+            outputs[i] = slice(cipherText, i * (segmentSize + TAG_LENGTH), segmentSize + TAG_LENGTH);
+        }
+        process(Cipher.ENCRYPT_MODE, noncePrefix, 0, true, inputs, outputs);
+        cipherText.position(cipherText.position() + plainText.remaining() + segments * TAG_LENGTH);
+        plainText.position(plainText.limit());
+    }
+
+    /**
+     * Decrypt the remaining content of a buffer into another buffer, opening its segments in parallel.
+     * @param cipherText the ciphertext, which is consumed.
+     * @param plainText the buffer receiving the plaintext. Must have room for
+     *                  {@link #getPlainTextLength(long, int)} bytes.
+     * @throws GeneralSecurityException if a segment could not be authenticated.
+     */
+    public void decrypt(ByteBuffer cipherText, ByteBuffer plainText) throws GeneralSecurityException {
+        if (cipherText.remaining() < HEADER_LENGTH) {
+            throw new AEADBadTagException("Cipher-text header is truncated");
+        }
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        cipherText.get(noncePrefix);
+        int streamSegmentSize = cipherText.getInt();
+        if (streamSegmentSize <= 0 || streamSegmentSize > MAX_SEGMENT_SIZE) {
+            throw new AEADBadTagException("Invalid segment size " + streamSegmentSize);
+        }
+        int plainLength;
+        try {
+            plainLength = Math.toIntExact(getPlainTextLength(HEADER_LENGTH + cipherText.remaining(), streamSegmentSize));
+        } catch (IllegalArgumentException e) {
+            throw new AEADBadTagException(e.getMessage());
+        }
+
+        int segments = Math.max(1, (plainLength + streamSegmentSize - 1) / streamSegmentSize);
+        ByteBuffer[] inputs = new ByteBuffer[segments];
+        ByteBuffer[] outputs = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            inputs[i] = slice(cipherText, i * (streamSegmentSize + TAG_LENGTH), streamSegmentSize + TAG_LENGTH);
+            outputs[i] = slice(plainText, i * streamSegmentSize, streamSegmentSize);
+        }
+        process(Cipher.DECRYPT_MODE, noncePrefix, 0, true, inputs, outputs);
+        plainText.position(plainText.position() + plainLength);
+        cipherText.position(cipherText.limit());
+    }
+
+    /**
+     * Open a stream encrypting the data written to it. The ciphertext is complete when the stream is closed.
+     * @param out the stream receiving the ciphertext, which is closed with the returned stream.
+     * @param random the generator of the nonce prefix.
+     * @return the encrypting stream.
+     * @throws IOException if the header could not be written.
+     */
+    public OutputStream newEncryptingStream(OutputStream out, SecureRandom random) throws IOException {
+        return new EncryptingOutputStream(out, newNoncePrefix(random));
+    }
+
+    /**
+     * Open a stream decrypting the ciphertext read from another stream. A segment is only returned once it has been
+     * authenticated, and reading past the end fails unless the last segment was authenticated.
+     * @param in the stream providing the ciphertext, which is closed with the returned stream.
+     * @return the decrypting stream.
+     * @throws IOException if the header could not be read.
+     */
+    public InputStream newDecryptingStream(InputStream in) throws IOException {
+        return new DecryptingInputStream(in);
+    }
+
+    private byte[] newNoncePrefix(SecureRandom random) {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        random.nextBytes(noncePrefix);
+        return noncePrefix;
+    }
+
+    /**
+     * Seal or open consecutive segments, in parallel if there are several.
+     * @param mode the cipher mode.
+     * @param noncePrefix the nonce prefix of the stream.
+     * @param firstIndex the index of the first segment.
+     * @param includesLast whether the last of the segments is the last of the stream.
+     * @param inputs the input of every segment.
+     * @param outputs the buffer receiving the output of every segment.
+     * @throws GeneralSecurityException if a segment could not be processed.
+     */
+    private void process(int mode, byte[] noncePrefix, int firstIndex, boolean includesLast, ByteBuffer[] inputs,
+                         ByteBuffer[] outputs) throws GeneralSecurityException {
+        if (inputs.length == 1) {
+            processSegment(mode, noncePrefix, firstIndex, includesLast, inputs[0], outputs[0]);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(inputs.length);
+        for (int i = 0; i < inputs.length; i++) {
+            int segment = i;
+            boolean last = includesLast && segment == inputs.length - 1;
+            tasks.add(() -> {
+                processSegment(mode, noncePrefix, firstIndex + segment, last, inputs[segment], outputs[segment]);
+                return null;
+            });
+        }
+        for (Future<Void> result : pool.invokeAll(tasks)) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                // the pool may wrap the exception of a task run by another thread
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof GeneralSecurityException) {
+                        throw (GeneralSecurityException) cause;
+                    }
+                }
+                throw new IllegalStateException("Could not process segment", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while processing segments", e);
+            }
+        }
+    }
+
+    private void processSegment(int mode, byte[] noncePrefix, int index, boolean last, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 5).putInt(index).put((byte) (last ? 1 : 0));
+        Cipher cipher = CIPHERS.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(associatedData);
+        cipher.doFinal(input, output);
+    }
+
+    /**
+     * Get a view of at most a given length of a buffer's remaining content, starting at an offset from its position.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(buffer.position() + Math.min(offset, buffer.remaining()));
+        slice.limit(slice.position() + Math.min(length, slice.remaining()));
+        return slice;
+    }
+
+    private final class EncryptingOutputStream extends FilterOutputStream {
+        private final byte[] noncePrefix;
+        private final byte[][] segments;
+        private byte[] cipherBatch;
+        private int current;
+        private int length;
+        private int index;
+        private boolean closed;
+
+        private EncryptingOutputStream(OutputStream out, byte[] noncePrefix) throws IOException {
+            super(Objects.requireNonNull(out, "Output stream must not be null"));
+            this.noncePrefix = noncePrefix;
+            this.segments = new byte[batchSegments][];
+            this.segments[0] = new byte[segmentSize];
+            out.write(ByteBuffer.allocate(HEADER_LENGTH).put(noncePrefix).putInt(segmentSize).array());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            while (len > 0) {
+                // a full segment is only sealed once more data shows that it is not the last
+                if (length == segmentSize) {
+                    nextSegment();
+                }
+                int count = Math.min(len, segmentSize - length);
+                System.arraycopy(b, off, segments[current], length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (OutputStream stream = out) {
+                writeBatch(true);
+                stream.flush();
+            }
+        }
+
+        private void nextSegment() throws IOException {
+            if (current == segments.length - 1) {
+                writeBatch(false);
+                current = 0;
+            } else {
+                current++;
+                if (segments[current] == null) {
+                    segments[current] = new byte[segmentSize];
+                }
+            }
+            length = 0;
+        }
+
+        /**
+         * Seal the segments up to the current one, and write them in order.
+         */
+        private void writeBatch(boolean last) throws IOException {
+            int count = current + 1;
+            int cipherLength = current * (segmentSize + TAG_LENGTH) + length + TAG_LENGTH;
+            if (cipherBatch == null || cipherBatch.length < cipherLength) {
+                cipherBatch = new byte[count * (segmentSize + TAG_LENGTH)];
+            }
+            ByteBuffer[] inputs = new ByteBuffer[count];
+            ByteBuffer[] outputs = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                inputs[i] = ByteBuffer.wrap(segments[i], 0, i == current ? length : segmentSize);
+                outputs[i] = ByteBuffer.wrap(cipherBatch, i * (segmentSize + TAG_LENGTH), segmentSize + TAG_LENGTH);
+            }
+            try {
+                process(Cipher.ENCRYPT_MODE, noncePrefix, index, last, inputs, outputs);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not encrypt segment", e);
+            }
+            index += count;
+            out.write(cipherBatch, 0, cipherLength);
+        }
+    }
+
+    private final class DecryptingInputStream extends FilterInputStream {
+        private final byte[] noncePrefix;
+        private final int streamSegmentSize;
+        private byte[] cipherBatch;
+        private byte[] plainBatch;
+        private int cipherLength;
+        private int position;
+        private int length;
+        private int index;
+        private boolean last;
+
+        private DecryptingInputStream(InputStream in) throws IOException {
+            super(Objects.requireNonNull(in, "Input stream must not be null"));
+            byte[] header = new byte[HEADER_LENGTH];
+            if (readFully(header, 0, HEADER_LENGTH) < HEADER_LENGTH) {
+                throw new EOFException("Stream header is truncated");
+            }
+            this.noncePrefix = Arrays.copyOf(header, NONCE_PREFIX_LENGTH);
+            this.streamSegmentSize = ByteBuffer.wrap(header, NONCE_PREFIX_LENGTH, 4).getInt();
+            if (streamSegmentSize <= 0 || streamSegmentSize > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid segment size " + streamSegmentSize);
+            }
+            // one byte beyond the segments tells whether the last of them is the last of the stream. The first read
+            // is a single segment, so that short streams do not allocate a whole batch
+            this.cipherBatch = new byte[streamSegmentSize + TAG_LENGTH + 1];
+            this.plainBatch = new byte[streamSegmentSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            while (position == length) {
+                if (last) {
+                    return -1;
+                }
+                readBatch();
+            }
+            int count = Math.min(len, length - position);
+            System.arraycopy(plainBatch, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Read and open the next batch of segments.
+         */
+        private void readBatch() throws IOException {
+            int cipherSegmentSize = streamSegmentSize + TAG_LENGTH;
+            if (index > 0 && cipherBatch.length < batchSegments * cipherSegmentSize + 1) {
+                // the stream has more than one segment, so read full batches from now on
+                byte next = cipherBatch[0];
+                cipherBatch = new byte[batchSegments * cipherSegmentSize + 1];
+                plainBatch = new byte[batchSegments * streamSegmentSize];
+                cipherBatch[0] = next;
+            }
+            int batchLength = cipherBatch.length - 1;
+            cipherLength += readFully(cipherBatch, cipherLength, cipherBatch.length - cipherLength);
+            last = cipherLength <= batchLength;
+            int currentLength = Math.min(cipherLength, batchLength);
+            int count = (currentLength + cipherSegmentSize - 1) / cipherSegmentSize;
+            if (currentLength - (count - 1) * cipherSegmentSize < TAG_LENGTH) {
+                throw new EOFException("Stream is truncated");
+            }
+
+            ByteBuffer[] inputs = new ByteBuffer[count];
+            ByteBuffer[] outputs = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                int offset = i * cipherSegmentSize;
+                inputs[i] = ByteBuffer.wrap(cipherBatch, offset, Math.min(cipherSegmentSize, currentLength - offset));
+                outputs[i] = ByteBuffer.wrap(plainBatch, i * streamSegmentSize, streamSegmentSize);
+            }
+            try {
+                process(Cipher.DECRYPT_MODE, noncePrefix, index, last, inputs, outputs);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not authenticate segments from " + index, e);
+            }
+            index += count;
+            length = currentLength - count * TAG_LENGTH;
+            position = 0;
+
+            if (!last) {
+                // keep the byte read beyond the batch for the next one
+                cipherBatch[0] = cipherBatch[batchLength];
+                cipherLength = 1;
+            }
+        }
+
+        private int readFully(byte[] b, int off, int len) throws IOException {
+            int total = 0;
+            while (total < len) {
+                int count = in.read(b, off + total, len - total);
+                if (count < 0) {
+                    break;
+                }
+                total += count;
+            }
+            return total;
+        }
+    }
+}
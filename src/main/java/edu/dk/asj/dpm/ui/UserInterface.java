@@ -4,6 +4,7 @@ import edu.dk.asj.dpm.Application;
 import edu.dk.asj.dpm.security.SecurityController;
 import edu.dk.asj.dpm.ui.actions.EmptyResultSetAction;
 import edu.dk.asj.dpm.ui.actions.MenuAction;
+import edu.dk.asj.dpm.ui.actions.PagedResultSetAction;
 import edu.dk.asj.dpm.ui.actions.SignInAction;
 import edu.dk.asj.dpm.ui.actions.ResultSetAction;
 import edu.dk.asj.dpm.vault.VaultEntry;
@@ -21,6 +22,11 @@ import java.util.Objects;
 public class UserInterface {
     private static final Logger LOGGER = LoggerFactory.getLogger(UserInterface.class);
     private static final String BLANK_SCREEN = "clean-bookmark";
+    private static final int PAGE_SIZE = 20;
+    private static final int FUZZY_RESULTS = 10;
+    private static final String ENTRIES_HEADING = "-- Vault Entries --";
+    private static final String READ_ONLY = "The vault is read-only, since some nodes missed recent changes. Choose \""
+            + MenuAction.ResyncVault + "\" to publish it without those changes.";
 
     private TextIO textUI;
     private Application application;
@@ -54,21 +60,40 @@ public class UserInterface {
             }
 
             message("-- Main Menu --");
+            int pendingChanges = application.getPendingVaultChanges();
+            if (pendingChanges > 0) {
+                message("(" + pendingChanges + " change" + (pendingChanges == 1 ? "" : "s") + " not yet synced)");
+            }
+            int queuedUpdates = application.getQueuedVaultUpdates();
+            if (queuedUpdates > 0) {
+                message("(" + queuedUpdates + " update" + (queuedUpdates == 1 ? "" : "s") + " waiting for the node network)");
+            }
             MenuAction action = textUI.newEnumInputReader(MenuAction.class).read();
             switch (action){
                 case ShowVault:
-                    handleVaultEntries(application.getVault().getAll());
+                    showVault();
                     break;
 
                 case SearchVault:
-                    String query = textUI.newStringInputReader().read("Search entry names for:");
-                    handleVaultEntries(application.getVault().search(query));
+                    searchVault();
                     break;
 
                 case AddVaultEntry:
                     addVaultEntry();
                     break;
 
+                case SyncVault:
+                    clearScreen();
+                    message("Syncing changes...");
+                    boolean synced = application.syncVault();
+                    clearScreen();
+                    message(synced ? "Changes synced" : "No changes to sync");
+                    break;
+
+                case ResyncVault:
+                    resyncVault();
+                    break;
+
                 case SignOut:
                     signOut();
                     break;
@@ -161,10 +186,41 @@ public class UserInterface {
     }
 
     @SuppressWarnings("SwitchStatementWithTooFewBranches")
-    private void handleVaultEntries(List<VaultEntry> entries) {
+    private void searchVault() {
+        String query = textUI.newStringInputReader().read("Search entry names for:");
+        List<VaultEntry> entries = application.getVault().search(query);
+        if (entries.isEmpty()) {
+            // no name contains the query, so it may be mistyped
+            entries = application.getVault().fuzzySearch(query, FUZZY_RESULTS);
+            handleVaultEntries(entries, "-- Close Matches --", false);
+        } else {
+            handleVaultEntries(entries, ENTRIES_HEADING, false);
+        }
+    }
+
+    private void showVault() {
+        String after = null;
+        boolean nextPage;
+        do {
+            // fetch one entry beyond the page, to know whether another page follows
+            List<VaultEntry> page = application.getVault().getPage(after, PAGE_SIZE + 1);
+            boolean hasNextPage = page.size() > PAGE_SIZE;
+            if (hasNextPage) {
+                page = page.subList(0, PAGE_SIZE);
+                after = page.get(PAGE_SIZE - 1).getName();
+            }
+            nextPage = handleVaultEntries(page, ENTRIES_HEADING, hasNextPage);
+        } while (nextPage);
+    }
+
+    /**
+     * Present entries, and let the user act on them.
+     * @return true if the user asked for the next page; false otherwise.
+     */
+    private boolean handleVaultEntries(List<VaultEntry> entries, String heading, boolean hasNextPage) {
         clearScreen();
 
-        message("-- Vault Entries --");
+        message(heading);
         if (entries == null || entries.isEmpty()){
             message("No entries found");
             EmptyResultSetAction action = textUI.newEnumInputReader(EmptyResultSetAction.class).read();
@@ -179,7 +235,16 @@ public class UserInterface {
                 message("[" + (i++) + "] " + entry);
             }
 
-            ResultSetAction action = textUI.newEnumInputReader(ResultSetAction.class).read();
+            ResultSetAction action;
+            if (hasNextPage) {
+                PagedResultSetAction pageAction = textUI.newEnumInputReader(PagedResultSetAction.class).read();
+                if (pageAction == PagedResultSetAction.NextPage) {
+                    return true;
+                }
+                action = pageAction == PagedResultSetAction.Delete ? ResultSetAction.Delete : ResultSetAction.Back;
+            } else {
+                action = textUI.newEnumInputReader(ResultSetAction.class).read();
+            }
             switch (action) {
                 case Delete:
                     Integer selection = textUI
@@ -190,15 +255,16 @@ public class UserInterface {
 
                     clearScreen();
                     if (selection == 0) {
-                        return;
+                        return false;
+                    }
+                    if (application.isVaultReadOnly()) {
+                        error(READ_ONLY);
+                        break;
                     }
-                    boolean removed = application.getVault().remove(entries.get(selection - 1));
+                    boolean removed = application.removeVaultEntry(entries.get(selection - 1));
                     if (!removed) {
                         error("Could not delete entry");
                     } else {
-                        message("Deleting entry...");
-                        application.notifyVaultChange();
-                        clearScreen();
                         message("Entry deleted");
                     }
                     break;
@@ -208,10 +274,15 @@ public class UserInterface {
                     break;
             }
         }
+        return false;
     }
 
     private void addVaultEntry() {
         clearScreen();
+        if (application.isVaultReadOnly()) {
+            error(READ_ONLY);
+            return;
+        }
         message("-- New Entry --");
         message("Adding new entry ([x] to abort and go back)");
 
@@ -227,17 +298,33 @@ public class UserInterface {
         }
 
         clearScreen();
-        boolean added = application.getVault().add(new VaultEntry(name, pwd));
+        boolean added = application.addVaultEntry(new VaultEntry(name, pwd));
         if (!added) {
             error("Could not add new entry to vault");
         } else {
-            message("Adding entry");
-            application.notifyVaultChange();
-            clearScreen();
             message("Entry added");
         }
     }
 
+    private void resyncVault() {
+        clearScreen();
+        if (!application.isVaultReadOnly()) {
+            message("The vault is already in sync with the node network");
+            return;
+        }
+        String prompt = "Publish the vault as loaded to every node? The changes some nodes missed are lost.";
+        if (!textUI.newBooleanInputReader().withFalseInput("n").withTrueInput("y").read(prompt)) {
+            clearScreen();
+            return;
+        }
+
+        clearScreen();
+        message("Syncing vault...");
+        application.resyncVault();
+        clearScreen();
+        message("Vault synced");
+    }
+
     private void signIn() {
         clearScreen();
 
@@ -277,6 +364,9 @@ public class UserInterface {
 
     private void signOut() {
         signedIn = false;
+        if (application.getPendingVaultChanges() > 0) {
+            message("Syncing changes...");
+        }
         application.clearVault();
         message("Signed out");
     }
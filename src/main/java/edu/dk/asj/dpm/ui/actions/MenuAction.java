@@ -7,6 +7,8 @@ public enum MenuAction {
     ShowVault("Show vault"),
     SearchVault("Search for names"),
     AddVaultEntry("Add new entry"),
+    SyncVault("Sync changes now"),
+    ResyncVault("Re-sync vault to every node"),
     SignOut("Sign out");
 
     private String name;
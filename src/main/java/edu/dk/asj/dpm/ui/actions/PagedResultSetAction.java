@@ -0,0 +1,21 @@
+package edu.dk.asj.dpm.ui.actions;
+
+/**
+ * Available UI actions when presenting a page of a result set, which is followed by more pages.
+ */
+public enum PagedResultSetAction {
+    NextPage("Show next page"),
+    Delete("Delete an entry"),
+    Back("Go back");
+
+    private String name;
+
+    PagedResultSetAction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
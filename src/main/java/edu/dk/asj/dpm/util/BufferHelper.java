@@ -1,5 +1,6 @@
 package edu.dk.asj.dpm.util;
 
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
@@ -43,4 +44,37 @@ public class BufferHelper {
         buffer.get(data).clear();
         return data;
     }
+
+    /**
+     * Read the remaining content of a byte buffer as a stream, without copying it. Reading the stream advances the
+     * position of the buffer.
+     * @param buffer the buffer to read from.
+     * @return the stream.
+     */
+    public static InputStream asInputStream(ByteBuffer buffer) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
 }
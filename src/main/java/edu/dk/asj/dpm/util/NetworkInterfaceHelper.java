@@ -1,35 +1,88 @@
 package edu.dk.asj.dpm.util;
 
+import edu.dk.asj.dpm.properties.NetworkInterfaceProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.Inet6Address;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.nio.channels.SocketChannel;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Random;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class for retrieving the underlying system's active network interface controller.
+ * <p>
+ *     The interface is selected without any outbound traffic, in order of preference:
+ * </p>
+ * <ol>
+ *     <li>The interface configured by name.</li>
+ *     <li>The interface with an address in the configured subnet.</li>
+ *     <li>The interface of the default route in the host's routing table (<code>/proc/net/route</code>, on Linux).</li>
+ *     <li>The interface of the address the operating system would send from to a documentation address (RFC 5737),
+ *     found by connecting a datagram socket, which consults the routing table without sending anything. This covers
+ *     hosts without a readable routing table file.</li>
+ *     <li>The first active, non-virtual interface with an IPv4 address.</li>
+ *     <li>The loopback interface, which only allows communicating with nodes on the same host.</li>
+ * </ol>
+ * <p>
+ *     The selection is cached, and re-validated at most every {@value #REVALIDATE_INTERVAL_MS} ms in case the host's
+ *     interfaces have changed.
+ * </p>
  */
 public final class NetworkInterfaceHelper {
     private static final Logger LOGGER = LoggerFactory.getLogger(NetworkInterfaceHelper.class);
 
+    private static final long REVALIDATE_INTERVAL_MS = 5000;
+    private static final Path ROUTE_TABLE = Paths.get("/proc/net/route");
+    private static final String DEFAULT_ROUTE_DESTINATION = "00000000";
+    private static final int ROUTE_FLAG_UP = 0x1;
+    // documentation address (RFC 5737); connecting a datagram socket to it only consults the routing table
+    private static final String ROUTE_PROBE_ADDRESS = "192.0.2.1";
+    private static final int ROUTE_PROBE_PORT = 9;
+
+    private static String configuredName = null;
+    private static String configuredCidr = null;
+
     private static NetworkInterface controller = null;
     private static InetAddress address = null;
+    private static List<String> interfaceFingerprint = null;
+    private static long validatedAtNanos = 0;
+
+    private NetworkInterfaceHelper() {
+    }
+
+    /**
+     * Configure how the network interface is selected. This clears any previously selected interface.
+     * @param properties the network interface properties.
+     */
+    public static synchronized void configure(NetworkInterfaceProperties properties) {
+        Objects.requireNonNull(properties, "Network interface properties must not be null");
+        configuredName = properties.getName();
+        configuredCidr = properties.getCidr();
+        controller = null;
+        address = null;
+        interfaceFingerprint = null;
+    }
 
     /**
      * Get the active network interface controller found on the host system.
      * @return the active network interface, or null if  no active interface could be determined.
      */
-    public static NetworkInterface getNetworkInterfaceController() {
-        if (controller == null) {
-            locateNetworkInterface();
-        }
+    public static synchronized NetworkInterface getNetworkInterfaceController() {
+        validate();
         return controller;
     }
 
@@ -37,58 +90,244 @@ public final class NetworkInterfaceHelper {
      * Get the local address of the active network interface controller found on the host system.
      * @return the interface controller's address, or null if no active interface could be determined.
      */
-    public static InetAddress getNetworkInterfaceAddress() {
-        if (address == null) {
-            locateNetworkInterface();
-        }
+    public static synchronized InetAddress getNetworkInterfaceAddress() {
+        validate();
         return address;
     }
 
+    private static void validate() {
+        long now = System.nanoTime();
+        if (controller != null && now - validatedAtNanos < TimeUnit.MILLISECONDS.toNanos(REVALIDATE_INTERVAL_MS)) {
+            return;
+        }
+        validatedAtNanos = now;
+
+        List<String> fingerprint = fingerprintInterfaces();
+        if (controller != null && fingerprint.equals(interfaceFingerprint)) {
+            return;
+        }
+        if (controller != null) {
+            LOGGER.info("Network interfaces changed; selecting network interface again");
+        }
+        interfaceFingerprint = fingerprint;
+        locateNetworkInterface();
+    }
+
     private static void locateNetworkInterface() {
+        controller = null;
+        address = null;
         try {
-            Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
-            for (NetworkInterface networkInterface : Collections.list(networkInterfaces)) {
-                if (networkInterface.isLoopback()) {
-                    continue;
+            if (configuredName != null && selectByName(configuredName)) {
+                return;
+            }
+            if (configuredCidr != null && selectBySubnet(configuredCidr)) {
+                return;
+            }
+            if (selectByRouteTable() || selectByRouteProbe() || selectFirstActive() || selectLoopback()) {
+                return;
+            }
+        } catch (SocketException e) {
+            LOGGER.warn("Exception while determining network interface", e);
+        }
+        LOGGER.error("Found no fitting interface");
+    }
+
+    private static boolean selectByName(String name) throws SocketException {
+        NetworkInterface networkInterface = NetworkInterface.getByName(name);
+        if (networkInterface == null || !networkInterface.isUp()) {
+            LOGGER.warn("Configured network interface {} is not available; detecting interface instead", name);
+            return false;
+        }
+        return select(networkInterface, preferredAddress(networkInterface), "configured name");
+    }
+
+    private static boolean selectBySubnet(String cidr) throws SocketException {
+        Subnet subnet;
+        try {
+            subnet = Subnet.parse(cidr);
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            LOGGER.warn("Invalid configured network interface subnet {}; detecting interface instead", cidr);
+            return false;
+        }
+
+        for (NetworkInterface networkInterface : activeInterfaces()) {
+            for (InetAddress netAddress : Collections.list(networkInterface.getInetAddresses())) {
+                if (subnet.contains(netAddress)) {
+                    return select(networkInterface, netAddress, "configured subnet");
                 }
+            }
+        }
+        LOGGER.warn("No network interface in configured subnet {}; detecting interface instead", cidr);
+        return false;
+    }
+
+    private static boolean selectByRouteTable() throws SocketException {
+        if (!Files.isReadable(ROUTE_TABLE)) {
+            return false;
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(ROUTE_TABLE, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            LOGGER.debug("Could not read routing table", e);
+            return false;
+        }
 
-                if (!networkInterface.isUp()) {
-                    continue;
+        String bestInterface = null;
+        long bestMetric = Long.MAX_VALUE;
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            // columns: Iface Destination Gateway Flags RefCnt Use Metric Mask ...
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length < 8 || !DEFAULT_ROUTE_DESTINATION.equals(columns[1])) {
+                continue;
+            }
+            try {
+                int flags = Integer.parseInt(columns[3], 16);
+                long metric = Long.parseLong(columns[6]);
+                if ((flags & ROUTE_FLAG_UP) != 0 && metric < bestMetric) {
+                    bestInterface = columns[0];
+                    bestMetric = metric;
                 }
+            } catch (NumberFormatException e) {
+                LOGGER.debug("Ignoring malformed route {}", line);
+            }
+        }
+
+        if (bestInterface == null) {
+            return false;
+        }
+        NetworkInterface networkInterface = NetworkInterface.getByName(bestInterface);
+        return networkInterface != null && networkInterface.isUp()
+                && select(networkInterface, preferredAddress(networkInterface), "default route");
+    }
 
-                for (InetAddress netAddress : Collections.list(networkInterface.getInetAddresses())) {
-                    if (netAddress instanceof Inet6Address) {
-                        continue;
-                    }
-
-                    if (!netAddress.isReachable(3000)){
-                        continue;
-                    }
-
-                    try (SocketChannel socket = SocketChannel.open()) {
-                        socket.socket().setSoTimeout(3000);
-                        socket.socket().setReuseAddress(true);
-
-                        // bind the socket to your local interface
-                        int upperBound = 60000;
-                        int port = new Random().nextInt(upperBound) + 2000;
-                        socket.bind(new InetSocketAddress(netAddress, port));
-
-                        // try to connect to *somewhere*
-                        socket.connect(new InetSocketAddress("google.com", 80));
-                    } catch (IOException ex) {
-                        LOGGER.debug("Could not connect with interface {}} using address {}}", networkInterface, netAddress);
-                        continue;
-                    }
-                    LOGGER.debug("Using network interface {}", networkInterface);
-                    controller = networkInterface;
-                    address = netAddress;
-                    return;
+    private static boolean selectByRouteProbe() throws SocketException {
+        InetAddress localAddress;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            // connecting a datagram socket sends nothing, but binds it to the address the route would use
+            socket.connect(InetAddress.getByName(ROUTE_PROBE_ADDRESS), ROUTE_PROBE_PORT);
+            localAddress = socket.getLocalAddress();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.debug("Could not probe the route to {}", ROUTE_PROBE_ADDRESS, e);
+            return false;
+        }
+
+        if (localAddress == null || localAddress.isAnyLocalAddress() || localAddress.isLoopbackAddress()) {
+            return false;
+        }
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(localAddress);
+        return networkInterface != null && networkInterface.isUp()
+                && select(networkInterface, localAddress, "routing probe");
+    }
+
+    private static boolean selectFirstActive() throws SocketException {
+        for (NetworkInterface networkInterface : activeInterfaces()) {
+            if (networkInterface.isVirtual() || networkInterface.isPointToPoint()) {
+                continue;
+            }
+            InetAddress netAddress = preferredAddress(networkInterface);
+            if (netAddress instanceof Inet4Address && !netAddress.isLinkLocalAddress()) {
+                return select(networkInterface, netAddress, "first active interface");
+            }
+        }
+        return false;
+    }
+
+    private static boolean selectLoopback() throws SocketException {
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (networkInterface.isLoopback() && networkInterface.isUp()) {
+                LOGGER.warn("Found no external network interface; only nodes on this host can be reached");
+                return select(networkInterface, preferredAddress(networkInterface), "loopback fallback");
+            }
+        }
+        return false;
+    }
+
+    private static boolean select(NetworkInterface networkInterface, InetAddress netAddress, String reason) {
+        if (netAddress == null) {
+            return false;
+        }
+        LOGGER.debug("Using network interface {} with address {} by {}", networkInterface.getName(), netAddress, reason);
+        controller = networkInterface;
+        address = netAddress;
+        return true;
+    }
+
+    private static InetAddress preferredAddress(NetworkInterface networkInterface) {
+        InetAddress fallback = null;
+        for (InetAddress netAddress : Collections.list(networkInterface.getInetAddresses())) {
+            if (netAddress instanceof Inet4Address) {
+                return netAddress;
+            }
+            if (fallback == null) {
+                fallback = netAddress;
+            }
+        }
+        return fallback;
+    }
+
+    private static List<NetworkInterface> activeInterfaces() throws SocketException {
+        List<NetworkInterface> active = new ArrayList<>();
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isLoopback() && networkInterface.isUp()) {
+                active.add(networkInterface);
+            }
+        }
+        return active;
+    }
+
+    private static List<String> fingerprintInterfaces() {
+        List<String> fingerprint = new ArrayList<>();
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                fingerprint.add(networkInterface.getName() + networkInterface.isUp()
+                        + Collections.list(networkInterface.getInetAddresses()));
+            }
+        } catch (SocketException e) {
+            LOGGER.debug("Could not list network interfaces", e);
+        }
+        Collections.sort(fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * An IP subnet in CIDR notation.
+     */
+    private static final class Subnet {
+        private final byte[] network;
+        private final int prefixLength;
+
+        private Subnet(byte[] network, int prefixLength) {
+            this.network = network;
+            this.prefixLength = prefixLength;
+        }
+
+        private static Subnet parse(String cidr) throws UnknownHostException {
+            int separator = cidr.indexOf('/');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Missing prefix length in " + cidr);
+            }
+            byte[] network = InetAddress.getByName(cidr.substring(0, separator)).getAddress();
+            int prefixLength = Integer.parseInt(cidr.substring(separator + 1));
+            if (prefixLength < 0 || prefixLength > network.length * 8) {
+                throw new IllegalArgumentException("Invalid prefix length in " + cidr);
+            }
+            return new Subnet(network, prefixLength);
+        }
+
+        private boolean contains(InetAddress candidate) {
+            byte[] bytes = candidate.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            for (int bit = 0; bit < prefixLength; bit++) {
+                int mask = 0x80 >>> (bit % 8);
+                if ((bytes[bit / 8] & mask) != (network[bit / 8] & mask)) {
+                    return false;
                 }
             }
-        } catch (IOException e) {
-            LOGGER.warn("Exception while determining network interface", e);
+            return true;
         }
-        LOGGER.error("Found no fitting interface");
     }
 }
@@ -0,0 +1,196 @@
+package edu.dk.asj.dpm.vault;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * BK-tree of the normalized names of vault entries, for fuzzy search by edit (Levenshtein) distance.
+ * <p>
+ *     Every child of a node is stored under its distance from the node. By the triangle inequality, the names within
+ *     distance <i>t</i> of a query at distance <i>d</i> from a node can only be found under children at distances
+ *     <i>d - t</i> to <i>d + t</i>, so a search with a small bound visits a small part of the tree. Once a search has
+ *     found as many matches as it returns, the bound is narrowed to the distance of the worst of them.
+ * </p>
+ * <p>
+ *     A BK-tree cannot unlink a node without rebuilding its subtree, so removed entries are only marked, and their names
+ *     keep routing searches. Not thread-safe.
+ * </p>
+ */
+final class BkTree {
+    private static final Comparator<Match> RANK = Comparator.comparingInt((Match m) -> m.distance)
+            .thenComparing(m -> m.node.name);
+
+    private Node root;
+    private int size;
+    private int removed;
+
+    /**
+     * Add an entry, replacing any entry of the same normalized name.
+     * @param entry the entry.
+     */
+    void add(VaultEntry entry) {
+        String name = entry.getNormalizedName();
+        if (root == null) {
+            root = new Node(name, entry);
+            size++;
+            return;
+        }
+
+        Node node = root;
+        while (true) {
+            int distance = distance(name, node.name);
+            if (distance == 0) {
+                if (node.entry == null) {
+                    removed--;
+                    size++;
+                }
+                node.entry = entry;
+                return;
+            }
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, new Node(name, entry));
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Remove the entry of the same normalized name as an entry.
+     * @param entry the entry.
+     */
+    void remove(VaultEntry entry) {
+        String name = entry.getNormalizedName();
+        Node node = root;
+        while (node != null) {
+            int distance = distance(name, node.name);
+            if (distance == 0) {
+                if (node.entry != null) {
+                    node.entry = null;
+                    removed++;
+                    size--;
+                }
+                return;
+            }
+            node = node.children.get(distance);
+        }
+    }
+
+    /**
+     * Find the entries whose normalized name is within an edit distance of the normalized query.
+     * @param query the query.
+     * @param maxDistance the maximum edit distance.
+     * @param limit the maximum number of entries to find.
+     * @return the closest entries, ordered by distance and then by name.
+     */
+    List<VaultEntry> search(String query, int maxDistance, int limit) {
+        String normalized = VaultEntry.normalize(query);
+        // the worst of the best matches found so far is at the head
+        PriorityQueue<Match> best = new PriorityQueue<>(RANK.reversed());
+        int bound = maxDistance;
+
+        Deque<Node> pending = new ArrayDeque<>();
+        if (root != null) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = distance(normalized, node.name);
+            if (distance <= bound && node.entry != null) {
+                best.add(new Match(node, distance));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+                if (best.size() == limit) {
+                    bound = best.peek().distance;
+                }
+            }
+            for (int d = Math.max(1, distance - bound); d <= distance + bound; d++) {
+                Node child = node.children.get(d);
+                if (child != null) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(RANK);
+        List<VaultEntry> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.node.entry);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of entries in the tree.
+     * @return the number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of removed entries whose nodes are still in the tree.
+     * @return the number of removed entries.
+     */
+    int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Compute the Levenshtein distance between two strings, using two rows of the distance matrix.
+     */
+    static int distance(String a, String b) {
+        if (a.equals(b)) {
+            return 0;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[b.length()];
+    }
+
+    private static final class Node {
+        private final String name;
+        private final Map<Integer, Node> children;
+        private VaultEntry entry;
+
+        private Node(String name, VaultEntry entry) {
+            this.name = name;
+            this.entry = entry;
+            this.children = new HashMap<>(4);
+        }
+    }
+
+    private static final class Match {
+        private final Node node;
+        private final int distance;
+
+        private Match(Node node, int distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+}
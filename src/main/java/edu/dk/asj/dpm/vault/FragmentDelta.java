@@ -0,0 +1,90 @@
+package edu.dk.asj.dpm.vault;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A node's part of the changes made to the vault between two generations. The changes are fragmented like the vault
+ * itself, either split between the nodes or erasure coded, and each node appends its part to its stored fragment. The
+ * vault at the new generation is reconstructed from the fragments of the base generation and the parts of every delta
+ * since.
+ */
+public class FragmentDelta implements Serializable {
+    private static final long serialVersionUID = -2361770154587370734L;
+
+    private final long baseGeneration;
+    private final long generation;
+    private final long version;
+    private final VaultFragment fragment;
+
+    /**
+     * Create a new fragment delta.
+     * @param baseGeneration the generation the changes were made to.
+     * @param generation the generation of the vault with the changes applied.
+     * @param version the version stamp of the generation with the changes applied.
+     * @param fragment this node's fragment of the serialized changes. Must not be null.
+     */
+    public FragmentDelta(long baseGeneration, long generation, long version, VaultFragment fragment) {
+        if (generation <= baseGeneration) {
+            throw new IllegalArgumentException("Generation must be after the base generation");
+        }
+        this.baseGeneration = baseGeneration;
+        this.generation = generation;
+        this.version = version;
+        this.fragment = Objects.requireNonNull(fragment, "Fragment must not be null");
+    }
+
+    /**
+     * Get the generation the changes were made to.
+     * @return the base generation.
+     */
+    public long getBaseGeneration() {
+        return baseGeneration;
+    }
+
+    /**
+     * Get the generation of the vault with the changes applied.
+     * @return the generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the version stamp of the generation with the changes applied.
+     * @return the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get this node's fragment of the serialized changes.
+     * @return the fragment.
+     */
+    public VaultFragment getFragment() {
+        return fragment;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FragmentDelta)) return false;
+        FragmentDelta that = (FragmentDelta) o;
+        return baseGeneration == that.baseGeneration &&
+                generation == that.generation &&
+                version == that.version &&
+                fragment.equals(that.fragment);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(baseGeneration, generation, version, fragment);
+    }
+
+    @Override
+    public String toString() {
+        return FragmentDelta.class + "{baseGeneration:" + baseGeneration + ";generation:" + generation
+                + ";version:" + version + ";fragment:" + fragment + "}";
+    }
+}
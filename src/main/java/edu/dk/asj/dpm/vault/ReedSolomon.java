@@ -0,0 +1,200 @@
+package edu.dk.asj.dpm.vault;
+
+import java.util.Objects;
+
+/**
+ * Reed-Solomon erasure code over GF(2^8), encoding <i>k</i> equally long data stripes into <i>n</i> shares of the same
+ * length, from which any <i>k</i> shares recover the stripes.
+ * <p>
+ *     Share <i>i</i> is the linear combination of the stripes given by row <i>i</i> of an <i>n</i>&times;<i>k</i>
+ *     Cauchy matrix. Every square sub-matrix of a Cauchy matrix is invertible, so the stripes are recovered by inverting
+ *     the rows of the <i>k</i> available shares.
+ * </p>
+ * <p>
+ *     The code adds redundancy, not secrecy: any <i>k</i> shares reveal the data to whoever holds them. With <i>k</i> = 1
+ *     every share is a multiple of the data, and the first share is the data itself.
+ * </p>
+ */
+final class ReedSolomon {
+    static final int MAX_SHARES = 128;
+
+    private static final int FIELD_SIZE = 256;
+    private static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+    private static final int[] EXP = new int[2 * FIELD_SIZE];
+    private static final int[] LOG = new int[FIELD_SIZE];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = value;
+            LOG[value] = i;
+            value <<= 1;
+            if (value >= FIELD_SIZE) {
+                value ^= PRIMITIVE_POLYNOMIAL;
+            }
+        }
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+    }
+
+    private final int threshold;
+
+    /**
+     * Construct a code recovering the data from any <b>threshold</b> shares.
+     * @param threshold the number of data stripes, and of shares required to recover them.
+     */
+    ReedSolomon(int threshold) {
+        if (threshold < 1 || threshold > MAX_SHARES) {
+            throw new IllegalArgumentException("Threshold must be in the range 1-" + MAX_SHARES);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Encode the data stripes into shares.
+     * @param stripes the <i>k</i> data stripes, all of the same length.
+     * @param shareCount the number of shares <i>n</i>, where <i>k</i> &le; <i>n</i> &le; {@value #MAX_SHARES}.
+     * @return the shares, where share <i>i</i> must be decoded with index <i>i</i>.
+     */
+    byte[][] encode(byte[][] stripes, int shareCount) {
+        Objects.requireNonNull(stripes, "Stripes must not be null");
+        if (stripes.length != threshold) {
+            throw new IllegalArgumentException("Expected " + threshold + " stripes but got " + stripes.length);
+        }
+        if (shareCount < threshold || shareCount > MAX_SHARES) {
+            throw new IllegalArgumentException("Share count must be in the range " + threshold + "-" + MAX_SHARES);
+        }
+
+        byte[][] shares = new byte[shareCount][];
+        for (int i = 0; i < shareCount; i++) {
+            shares[i] = combine(coefficients(i), stripes);
+        }
+        return shares;
+    }
+
+    /**
+     * Decode the data stripes from <i>k</i> shares.
+     * @param indices the indices of the shares, which must be distinct.
+     * @param shares the <i>k</i> shares, all of the same length.
+     * @return the data stripes.
+     */
+    byte[][] decode(int[] indices, byte[][] shares) {
+        Objects.requireNonNull(indices, "Indices must not be null");
+        Objects.requireNonNull(shares, "Shares must not be null");
+        if (indices.length != threshold || shares.length != threshold) {
+            throw new IllegalArgumentException("Exactly " + threshold + " shares are required");
+        }
+
+        int[][] matrix = new int[threshold][];
+        for (int i = 0; i < threshold; i++) {
+            Objects.checkIndex(indices[i], MAX_SHARES);
+            matrix[i] = coefficients(indices[i]);
+        }
+        int[][] inverse = invert(matrix);
+
+        byte[][] stripes = new byte[threshold][];
+        for (int i = 0; i < threshold; i++) {
+            stripes[i] = combine(inverse[i], shares);
+        }
+        return stripes;
+    }
+
+    /**
+     * Get row <b>index</b> of the Cauchy matrix, 1 / (x<sub>i</sub> + y<sub>j</sub>) with x<sub>i</sub> = k + i and
+     * y<sub>j</sub> = j, which are all distinct for n + k &le; 256.
+     */
+    private int[] coefficients(int index) {
+        int[] row = new int[threshold];
+        for (int j = 0; j < threshold; j++) {
+            row[j] = inverse((threshold + index) ^ j);
+        }
+        return row;
+    }
+
+    private static byte[] combine(int[] coefficients, byte[][] inputs) {
+        int length = inputs[0].length;
+        byte[] output = new byte[length];
+        byte[] product = new byte[FIELD_SIZE];
+        for (int j = 0; j < inputs.length; j++) {
+            if (inputs[j].length != length) {
+                throw new IllegalArgumentException("All inputs must have the same length");
+            }
+            if (coefficients[j] == 0) {
+                continue;
+            }
+            // multiplication table for the coefficient, so each byte costs one lookup
+            for (int b = 0; b < FIELD_SIZE; b++) {
+                product[b] = (byte) multiply(coefficients[j], b);
+            }
+            byte[] input = inputs[j];
+            for (int b = 0; b < length; b++) {
+                output[b] ^= product[input[b] & 0xff];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Invert a square matrix by Gauss-Jordan elimination.
+     */
+    private static int[][] invert(int[][] matrix) {
+        int size = matrix.length;
+        int[][] work = new int[size][];
+        int[][] inverse = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            work[i] = matrix[i].clone();
+            inverse[i][i] = 1;
+        }
+
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new IllegalArgumentException("Share indices must be distinct");
+            }
+            swap(work, column, pivot);
+            swap(inverse, column, pivot);
+
+            int scale = inverse(work[column][column]);
+            for (int j = 0; j < size; j++) {
+                work[column][j] = multiply(work[column][j], scale);
+                inverse[column][j] = multiply(inverse[column][j], scale);
+            }
+
+            for (int row = 0; row < size; row++) {
+                int factor = work[row][column];
+                if (row == column || factor == 0) {
+                    continue;
+                }
+                for (int j = 0; j < size; j++) {
+                    work[row][j] ^= multiply(factor, work[column][j]);
+                    inverse[row][j] ^= multiply(factor, inverse[column][j]);
+                }
+            }
+        }
+        return inverse;
+    }
+
+    private static void swap(int[][] rows, int i, int j) {
+        int[] row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+    }
+
+    private static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int inverse(int a) {
+        if (a == 0) {
+            throw new ArithmeticException("Zero has no inverse");
+        }
+        return EXP[FIELD_SIZE - 1 - LOG[a]];
+    }
+}
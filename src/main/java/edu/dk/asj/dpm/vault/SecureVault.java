@@ -1,22 +1,34 @@
 package edu.dk.asj.dpm.vault;
 
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
 import edu.dk.asj.dpm.security.SecurityController;
 import edu.dk.asj.dpm.util.BufferHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 /**
  * This class encapsulates the facilities of a secure vault storing vault entries, including addition, removal, and
@@ -25,28 +37,84 @@ import java.util.stream.Collectors;
  * <p>
  * All handling of raw byte data is done in unencrypted contexts, thus the user of this class should take care that any
  * data sent to the vault (as entries or fragments) are done so in an unencrypted state.
+ * <p>
+ * Every fragmentation of the vault starts a new <i>generation</i>. Changes made since the last fragmentation can be
+ * published as a {@link FragmentDelta} per node with {@link #delta(int, int)}, which costs bytes proportional to the
+ * changes rather than to the vault. Every generation is stamped with a random <i>version</i>, which identifies it
+ * across nodes without revealing anything about the vault's contents.
+ * <p>
+ * Entries are held ordered by their {@link VaultEntry#getNormalizedName() normalized name}, which supports exact
+ * look-ups, prefix ranges and pages in logarithmic time. The vault is serialized as the set of its entries, as it
+ * always has been, so fragments and snapshots remain readable across versions. Earlier versions told entries apart by
+ * their exact name, so an entry read from them whose name differs from another only in case is renamed on load.
  */
 public class SecureVault implements Serializable {
     private static final long serialVersionUID = 2528173234528631366L;
-
-    private final Set<VaultEntry> entries;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecureVault.class);
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("entries", Set.class)
+    };
+
+    private static final int MIN_THRESHOLD = 2;
+
+    private static final Histogram FRAGMENT_TIME = Metrics.getInstance().histogram("vault.fragment.nanos");
+    private static final Histogram FRAGMENT_SIZE = Metrics.getInstance().histogram("vault.fragment.bytes");
+    private static final Histogram BUILD_TIME = Metrics.getInstance().histogram("vault.build.nanos");
+    private static final Histogram BUILD_SIZE = Metrics.getInstance().histogram("vault.build.bytes");
+    private static final Histogram DELTA_SIZE = Metrics.getInstance().histogram("vault.delta.bytes");
+
+    private transient NavigableMap<String, VaultEntry> entries;
+    private transient long generation;
+    private transient long version;
+    private transient VaultDelta changes;
+    private transient TrigramIndex index;
+    private transient BkTree fuzzyIndex;
 
     private SecureVault() {
-        entries = new TreeSet<>(new VaultEntryNameComparator());
+        entries = new TreeMap<>();
     }
 
     /**
      * Search the vault for entries matching a given name query. This search is case-insensitive and matches on both
-     * complete strings and sub-strings.
+     * complete strings and sub-strings. The search is served by a {@link TrigramIndex} of the entry names, which is
+     * built on the first search and maintained by later additions and removals.
      * @param nameQuery query to filter on. Results include entries whose name contains the complete character sequence,
      *                  either in full or as a sub-string of the entry's name.
-     * @return the result as an index-enabled list. May be empty.
+     * @return the result as an index-enabled list, ordered by name. May be empty.
      */
     public List<VaultEntry> search(String nameQuery) {
-        Set<VaultEntry> resultSet = entries.stream()
-                .filter(e -> e.getName().toLowerCase().contains(nameQuery.toLowerCase()))
-                .collect(Collectors.toCollection(() -> new TreeSet<>(new VaultEntryNameComparator())));
-        return asList(resultSet);
+        return getIndex().search(nameQuery);
+    }
+
+    /**
+     * Search the vault for entries whose name is close to a query, tolerating typos. The search is case-insensitive,
+     * and allows an edit distance of 1 for queries of up to four characters and 2 for longer queries.
+     * @param nameQuery the query.
+     * @param limit the maximum number of entries to return.
+     * @return the closest entries, ordered by edit distance and then by name. May be empty.
+     * @see #fuzzySearch(String, int, int)
+     */
+    public List<VaultEntry> fuzzySearch(String nameQuery, int limit) {
+        return fuzzySearch(nameQuery, nameQuery.length() <= 4 ? 1 : 2, limit);
+    }
+
+    /**
+     * Search the vault for entries whose name is within an edit (Levenshtein) distance of a query. The search is
+     * case-insensitive and served by a {@link BkTree} of the entry names, which is built on the first search and
+     * maintained by later additions and removals, so it only visits the names that may be within the distance.
+     * @param nameQuery the query.
+     * @param maxDistance the maximum number of single-character insertions, deletions and substitutions.
+     * @param limit the maximum number of entries to return.
+     * @return the closest entries, ordered by edit distance and then by name. May be empty.
+     */
+    public List<VaultEntry> fuzzySearch(String nameQuery, int maxDistance, int limit) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Distance must not be negative");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be > 0");
+        }
+        return getFuzzyIndex().search(nameQuery, maxDistance, limit);
     }
 
     /**
@@ -54,7 +122,56 @@ public class SecureVault implements Serializable {
      * @return all the entries.
      */
     public List<VaultEntry> getAll() {
-        return asList(entries);
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Get the entry of a name.
+     * @param name the name, in any case.
+     * @return the entry, or null if the vault has no entry of the name.
+     */
+    public VaultEntry get(String name) {
+        return entries.get(VaultEntry.normalize(name));
+    }
+
+    /**
+     * Get the entries whose name starts with a prefix, regardless of case.
+     * @param prefix the prefix.
+     * @return an unmodifiable view of the entries, ordered by name, which reflects later changes to the vault.
+     */
+    public Collection<VaultEntry> getByPrefix(String prefix) {
+        String start = VaultEntry.normalize(prefix);
+        String end = getPrefixEnd(start);
+        NavigableMap<String, VaultEntry> range = end == null ? entries.tailMap(start, true) : entries.subMap(start, true, end, false);
+        return Collections.unmodifiableCollection(range.values());
+    }
+
+    /**
+     * Get a page of the entries, ordered by name. The next page starts after the name of the last entry of a page.
+     * @param after the name after which the page starts, or null for the first page.
+     * @param limit the maximum number of entries on the page.
+     * @return the entries on the page, which are fewer than the limit only on the last page.
+     */
+    public List<VaultEntry> getPage(String after, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be > 0");
+        }
+        Iterator<VaultEntry> iterator = (after == null ? entries : entries.tailMap(VaultEntry.normalize(after), false))
+                .values()
+                .iterator();
+        List<VaultEntry> page = new ArrayList<>();
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    /**
+     * Get the number of entries in the vault.
+     * @return the number of entries.
+     */
+    public int size() {
+        return entries.size();
     }
 
     /**
@@ -63,7 +180,17 @@ public class SecureVault implements Serializable {
      * @return true if the entry was added, false if the vault already contains the entry.
      */
     public boolean add(VaultEntry entry) {
-        return entries.add(entry);
+        boolean added = entries.putIfAbsent(entry.getNormalizedName(), entry) == null;
+        if (added) {
+            getChanges().added(entry);
+            if (index != null) {
+                index.add(entry);
+            }
+            if (fuzzyIndex != null) {
+                fuzzyIndex.add(entry);
+            }
+        }
+        return added;
     }
 
     /**
@@ -72,11 +199,50 @@ public class SecureVault implements Serializable {
      * @return true if the entry was removed, false if it was never in the vault.
      */
     public boolean remove(VaultEntry entry) {
-        return entries.remove(entry);
+        boolean removed = entries.remove(entry.getNormalizedName()) != null;
+        if (removed) {
+            getChanges().removed(entry);
+            if (index != null) {
+                index.remove(entry);
+            }
+            if (fuzzyIndex != null) {
+                fuzzyIndex.remove(entry);
+                if (fuzzyIndex.getRemoved() > fuzzyIndex.size()) {
+                    // mostly removed names; rebuild on the next search
+                    fuzzyIndex = null;
+                }
+            }
+        }
+        return removed;
     }
 
     /**
-     * Fragment the vault.
+     * Get the generation of the vault, which is the generation of the fragments or delta it was last published as, or
+     * reconstructed from.
+     * @return the generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the version stamp of the vault's generation.
+     * @return the version, or 0 if the vault has never been published or reconstructed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Check whether the vault has changes that have not been published as fragments or as a delta.
+     * @return true if there are unpublished changes; false otherwise.
+     */
+    public boolean hasChanges() {
+        return changes != null && !changes.isEmpty();
+    }
+
+    /**
+     * Fragment the vault, starting a new generation.
      * @param count number of fragments to split the vault into.
      * @return vault fragments.
      * @throws IOException if an IO error occurs during vault serialization.
@@ -85,14 +251,18 @@ public class SecureVault implements Serializable {
         if (count < 1) {
             throw new IllegalArgumentException("Fragment count must be > 0");
         }
+        long start = FRAGMENT_TIME.start();
 
-        byte[] data;
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(bos))  {
-            oos.writeObject(this);
-            data = bos.toByteArray();
-        }
+        byte[] data = serialize(this);
+        VaultFragment[] fragments = split(data, count);
+        startGeneration(fragments);
+
+        FRAGMENT_TIME.recordSince(start);
+        FRAGMENT_SIZE.record(data.length);
+        return fragments;
+    }
 
+    private static VaultFragment[] split(byte[] data, int count) {
         VaultFragment.Builder[] builders = new VaultFragment.Builder[count];
         for (int i = 0; i < builders.length; i++) {
             builders[i] = VaultFragment.builder(data.length);
@@ -108,10 +278,114 @@ public class SecureVault implements Serializable {
         for (int i = 0; i < builders.length; i++) {
             fragments[i] = builders[i].build();
         }
-
         return fragments;
     }
 
+    /**
+     * Fragment the vault so that it survives losing some of the fragments. Without redundancy the vault is split into
+     * fragments by {@link #fragment(int)}; otherwise it is encoded into {@link VaultShare}s by {@link #encode(int, int)}.
+     * <p>
+     *     Any <i>threshold</i> shares reveal the vault to whoever holds them, so a threshold below
+     *     {@value #MIN_THRESHOLD} would let a single node read it. When there are too few fragments for the redundancy,
+     *     the vault is split without redundancy instead.
+     * </p>
+     * @param count number of fragments to create.
+     * @param redundancy number of fragments that may be lost while the vault can still be reconstructed.
+     * @return vault fragments.
+     * @throws IOException if an IO error occurs during vault serialization.
+     */
+    public VaultFragment[] fragment(int count, int redundancy) throws IOException {
+        int threshold = getThreshold(count, redundancy);
+        if (threshold < 0) {
+            return fragment(count);
+        }
+        return encode(count, threshold);
+    }
+
+    /**
+     * Encode the vault into shares, of which any <b>threshold</b> shares reconstruct the vault, starting a new
+     * generation.
+     * @param count number of shares to create.
+     * @param threshold number of shares required to reconstruct the vault, which must be at least
+     *                  {@value #MIN_THRESHOLD}.
+     * @return vault shares.
+     * @throws IOException if an IO error occurs during vault serialization.
+     */
+    public VaultShare[] encode(int count, int threshold) throws IOException {
+        long start = FRAGMENT_TIME.start();
+
+        byte[] data = serialize(this);
+        VaultShare[] shares = encode(data, count, threshold);
+        startGeneration(shares);
+
+        FRAGMENT_TIME.recordSince(start);
+        FRAGMENT_SIZE.record(data.length);
+        return shares;
+    }
+
+    /**
+     * Fragment the changes made since the vault was last published, so that each node can append its part to its
+     * fragment. The changes are split or encoded the same way as {@link #fragment(int, int)} would fragment the vault,
+     * so a delta is reconstructed from the same number of nodes as the vault. This starts a new generation.
+     * @param count number of deltas to create, one per node.
+     * @param redundancy number of deltas that may be lost while the changes can still be reconstructed.
+     * @return the deltas.
+     * @throws IOException if an IO error occurs during serialization of the changes.
+     * @throws IllegalStateException if the vault has no unpublished changes.
+     */
+    public FragmentDelta[] delta(int count, int redundancy) throws IOException, IllegalStateException {
+        if (!hasChanges()) {
+            throw new IllegalStateException("Vault has no unpublished changes");
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Delta count must be > 0");
+        }
+
+        byte[] data = serialize(changes);
+        int threshold = getThreshold(count, redundancy);
+        VaultFragment[] parts = threshold < 0 ? split(data, count) : encode(data, count, threshold);
+        long deltaVersion = newVersion();
+        FragmentDelta[] deltas = new FragmentDelta[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            deltas[i] = new FragmentDelta(generation, generation + 1, deltaVersion, parts[i]);
+        }
+        generation++;
+        version = deltaVersion;
+        changes = null;
+
+        DELTA_SIZE.record(data.length);
+        return deltas;
+    }
+
+    /**
+     * Get the threshold of the shares for a redundancy, or -1 if the fragments are split without redundancy.
+     */
+    private static int getThreshold(int count, int redundancy) {
+        return redundancy < 1 || count - redundancy < MIN_THRESHOLD ? -1 : count - redundancy;
+    }
+
+    private static VaultShare[] encode(byte[] data, int count, int threshold) {
+        if (threshold < MIN_THRESHOLD || count < threshold) {
+            throw new IllegalArgumentException("Share count must be >= threshold, and threshold must be >= "
+                    + MIN_THRESHOLD);
+        }
+        int stripeLength = (data.length + threshold - 1) / threshold;
+        byte[][] stripes = new byte[threshold][];
+        for (int i = 0; i < threshold; i++) {
+            // the last stripes are zero-padded to the common length
+            stripes[i] = Arrays.copyOfRange(data, Math.min(i * stripeLength, data.length),
+                    Math.min(i * stripeLength, data.length) + stripeLength);
+        }
+
+        byte[][] encoded = new ReedSolomon(threshold).encode(stripes, count);
+        long encodingId = SecurityController.getInstance().getRandomGenerator().nextLong();
+        VaultShare[] shares = new VaultShare[count];
+        for (int i = 0; i < count; i++) {
+            shares[i] = new VaultShare(i, threshold, encodingId, encoded[i], data.length);
+        }
+        return shares;
+    }
+
     /**
      * Get builder for constructing a secure vault.
      * @return vault builder.
@@ -120,60 +394,217 @@ public class SecureVault implements Serializable {
         return new Builder();
     }
 
-    private ArrayList<VaultEntry> asList(Set<VaultEntry> entries) {
-        ArrayList<VaultEntry> list = new ArrayList<>();
-        if (entries != null) {
-            list.addAll(entries);
+    /**
+     * Stamp the fragments of a full fragmentation with a new generation, which includes all changes made so far.
+     */
+    private void startGeneration(VaultFragment[] fragments) {
+        generation++;
+        version = newVersion();
+        changes = null;
+        for (VaultFragment fragment : fragments) {
+            fragment.setGeneration(generation, version);
+        }
+    }
+
+    /**
+     * Set the generation of a vault restored from a {@link VaultSnapshot}.
+     */
+    void setGeneration(long generation, long version) {
+        this.generation = generation;
+        this.version = version;
+    }
+
+    private static long newVersion() {
+        long newVersion;
+        do {
+            newVersion = SecurityController.getInstance().getRandomGenerator().nextLong();
+        } while (newVersion == 0);
+        return newVersion;
+    }
+
+    private TrigramIndex getIndex() {
+        if (index == null) {
+            index = new TrigramIndex();
+            entries.values().forEach(index::add);
+        }
+        return index;
+    }
+
+    private BkTree getFuzzyIndex() {
+        if (fuzzyIndex == null) {
+            fuzzyIndex = new BkTree();
+            entries.values().forEach(fuzzyIndex::add);
+        }
+        return fuzzyIndex;
+    }
+
+    private VaultDelta getChanges() {
+        if (changes == null) {
+            changes = new VaultDelta();
+        }
+        return changes;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutputStream oos = new ObjectOutputStream(bos))  {
+            oos.writeObject(object);
+            return bos.toByteArray();
+        }
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return ois.readObject();
+        }
+    }
+
+    /**
+     * Get the least string greater than every string starting with a prefix, or null if there is none.
+     */
+    private static String getPrefixEnd(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        return last < 0 ? null : prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Set<VaultEntry> entrySet = new TreeSet<>(new VaultEntryNameComparator());
+        entrySet.addAll(entries.values());
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("entries", entrySet);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        Set<VaultEntry> entrySet = (Set<VaultEntry>) in.readFields().get("entries", null);
+        entries = new TreeMap<>();
+        if (entrySet != null) {
+            entrySet.forEach(this::restore);
+        }
+    }
+
+    /**
+     * Restore a deserialized entry. Earlier vaults were keyed by the exact name, so they may hold names differing only
+     * in case. The first of these keeps its name, and every later one is renamed with a numeric suffix, so that no
+     * password is lost when the vault is next published.
+     */
+    private void restore(VaultEntry entry) {
+        if (entries.putIfAbsent(entry.getNormalizedName(), entry) == null) {
+            return;
         }
-        return list;
+        VaultEntry renamed;
+        int suffix = 2;
+        do {
+            renamed = new VaultEntry(entry.getName() + " (" + suffix++ + ")", entry.getPassword());
+        } while (entries.putIfAbsent(renamed.getNormalizedName(), renamed) != null);
+        // the names are part of the vault's secret, so they are not logged
+        LOGGER.warn("Renamed a vault entry whose name differs from another only in case");
     }
 
 
     /**
      * Builder class for constructing a secure vault. This can either build an empty vault, or iteratively process
-     * {@link VaultFragment}s to build an existing vault.
+     * {@link VaultFragment}s to build an existing vault. The fragments are either all the fragments created by
+     * {@link SecureVault#fragment(int)}, or enough {@link VaultShare}s of one encoding.
+     * <p>
+     * The vault is built at the generation of its fragments, and then brought up to date by applying the
+     * {@link FragmentDelta}s of the fragments in order. If a delta cannot be reconstructed, because some node missed
+     * it, the vault is built at the last generation before that delta and is reported as stale.
      */
     public static class Builder {
         private ByteBuffer buffer;
         private int byteCounter;
         private int finalVaultSize;
+        private long generation;
+        private long version;
+        private final List<VaultFragment> fragments;
+        private final Map<Long, Map<Integer, VaultShare>> shares;
+        private Map<Integer, VaultShare> completeShares;
+        private boolean stale;
 
         public Builder() {
             byteCounter = 0;
             finalVaultSize = -1;
+            fragments = new ArrayList<>();
+            shares = new HashMap<>();
             // buffer isn't initialised until the first fragment request, since the final size is not known until then
         }
 
         /**
-         * Add a vault fragment to the builder to be used for building a complete vault.
+         * Add a vault fragment to the builder to be used for building a complete vault. Shares are grouped by their
+         * encoding, and shares of other encodings added after one encoding has enough shares are ignored.
          * @param fragment the vault fragment.
          * @throws IllegalStateException if the builder is complete and is waiting to build the vault object.
-         * @throws IllegalArgumentException if a fragment reports a different vault size than the fragment initially
-         * added to the builder.
+         * @throws IllegalArgumentException if a fragment reports a different vault size or generation than the
+         * fragment initially added to the builder, or if fragments and shares are mixed.
          * @return this builder.
          */
         public Builder addFragment(VaultFragment fragment) throws IllegalStateException, IllegalArgumentException {
+            if (fragment instanceof VaultShare) {
+                return addShare((VaultShare) fragment);
+            }
             if (isComplete()) {
                 throw new IllegalStateException("Fragment list complete");
             }
 
             if (fragment != null) {
+                if (!shares.isEmpty()) {
+                    throw new IllegalArgumentException("Vault fragments and shares cannot be combined");
+                }
                 if (buffer == null) {
                     finalVaultSize = fragment.getVaultSize();
+                    generation = fragment.getGeneration();
+                    version = fragment.getVersion();
                     buffer = ByteBuffer.allocate(finalVaultSize);
                 }
 
                 if (finalVaultSize != fragment.getVaultSize()) {
                     throw new IllegalArgumentException("Fragment reports unexpected total vault byte-size");
                 }
+                if (generation != fragment.getGeneration() || version != fragment.getVersion()) {
+                    throw new IllegalArgumentException("Fragment belongs to another vault generation");
+                }
 
                 for (int i = 0; i < fragment.getMask().length; ++i, ++byteCounter) {
                     int maskIndex = fragment.getMask()[i];
                     byte dataByte = fragment.getFragment()[i];
                     buffer.put(maskIndex, dataByte);
                 }
+                fragments.add(fragment);
+            }
+
+            return this;
+        }
+
+        private Builder addShare(VaultShare share) {
+            if (buffer != null) {
+                throw new IllegalArgumentException("Vault fragments and shares cannot be combined");
+            }
+            Map<Integer, VaultShare> encodingShares = shares.get(share.getEncodingId());
+            if (completeShares != null && completeShares != encodingShares) {
+                return this;
+            }
+            if (encodingShares == null) {
+                encodingShares = new HashMap<>();
+                shares.put(share.getEncodingId(), encodingShares);
             }
 
+            VaultShare first = encodingShares.values().stream().findAny().orElse(share);
+            if (first.getThreshold() != share.getThreshold() || first.getVaultSize() != share.getVaultSize()
+                    || first.getFragment().length != share.getFragment().length) {
+                throw new IllegalArgumentException("Share does not match the other shares of its encoding");
+            }
+            // shares beyond the threshold are kept, since they may hold delta shares missing from the others
+            encodingShares.putIfAbsent(share.getIndex(), share);
+            if (encodingShares.size() >= share.getThreshold()) {
+                completeShares = encodingShares;
+                generation = share.getGeneration();
+                version = share.getVersion();
+            }
             return this;
         }
 
@@ -183,7 +614,16 @@ public class SecureVault implements Serializable {
          * @return true if the builder has received all required fragments to build a vault object, false otherwise.
          */
         boolean isComplete() {
-            return byteCounter == finalVaultSize;
+            return completeShares != null || byteCounter == finalVaultSize;
+        }
+
+        /**
+         * Check whether the last built vault is older than the latest generation of its fragments, because a delta
+         * could not be reconstructed.
+         * @return true if the vault is stale; false otherwise.
+         */
+        public boolean isStale() {
+            return stale;
         }
 
         /**
@@ -201,10 +641,72 @@ public class SecureVault implements Serializable {
             if (!isComplete()) {
                 throw new IllegalStateException("Vault fragments are not complete");
             }
+            long start = BUILD_TIME.start();
+
+            byte[] data = assemble();
+            SecureVault vault = (SecureVault) deserialize(data);
+            vault.generation = generation;
+            vault.version = version;
+            applyDeltas(vault);
+            BUILD_TIME.recordSince(start);
+            BUILD_SIZE.record(data.length);
+            return vault;
+        }
+
+        private byte[] assemble() {
+            return completeShares != null ? decodeShares() : BufferHelper.readAndClear(buffer);
+        }
+
+        /**
+         * Reconstruct the deltas of the fragments and apply them in order, for as long as they continue from the
+         * vault's generation.
+         */
+        private void applyDeltas(SecureVault vault) throws IOException, ClassNotFoundException {
+            Collection<? extends VaultFragment> sources = completeShares != null ? completeShares.values() : fragments;
+            Map<Long, Builder> deltaBuilders = new HashMap<>();
+            Map<Long, FragmentDelta> nextDeltas = new HashMap<>();
+            long latestGeneration = vault.generation;
+            for (VaultFragment source : sources) {
+                latestGeneration = Math.max(latestGeneration, source.getLatestGeneration());
+                for (FragmentDelta delta : source.getDeltas()) {
+                    Builder deltaBuilder = deltaBuilders.computeIfAbsent(delta.getBaseGeneration(), g -> new Builder());
+                    if (!deltaBuilder.isComplete()) {
+                        deltaBuilder.addFragment(delta.getFragment());
+                    }
+                    nextDeltas.putIfAbsent(delta.getBaseGeneration(), delta);
+                }
+            }
+
+            Builder deltaBuilder;
+            while ((deltaBuilder = deltaBuilders.get(vault.generation)) != null && deltaBuilder.isComplete()) {
+                VaultDelta delta = (VaultDelta) deserialize(deltaBuilder.assemble());
+                delta.applyTo(vault.entries);
+                FragmentDelta applied = nextDeltas.get(vault.generation);
+                vault.generation = applied.getGeneration();
+                vault.version = applied.getVersion();
+            }
+            stale = vault.generation < latestGeneration;
+        }
 
-            byte[] data = BufferHelper.readAndClear(buffer);
-            ObjectInputStream objWriter = new ObjectInputStream(new ByteArrayInputStream(data));
-            return (SecureVault) objWriter.readObject();
+        private byte[] decodeShares() {
+            VaultShare[] selected = completeShares.values().stream()
+                    .sorted(Comparator.comparingInt(VaultShare::getIndex))
+                    .limit(completeShares.values().iterator().next().getThreshold())
+                    .toArray(VaultShare[]::new);
+            int[] indices = new int[selected.length];
+            byte[][] encoded = new byte[selected.length][];
+            for (int i = 0; i < selected.length; i++) {
+                indices[i] = selected[i].getIndex();
+                encoded[i] = selected[i].getFragment();
+            }
+
+            byte[][] stripes = new ReedSolomon(selected.length).decode(indices, encoded);
+            int vaultSize = selected[0].getVaultSize();
+            byte[] data = new byte[vaultSize];
+            for (int i = 0, offset = 0; i < stripes.length && offset < vaultSize; offset += stripes[i].length, i++) {
+                System.arraycopy(stripes[i], 0, data, offset, Math.min(stripes[i].length, vaultSize - offset));
+            }
+            return data;
         }
 
         /**
@@ -0,0 +1,143 @@
+package edu.dk.asj.dpm.vault;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the trigrams (sequences of three characters) of the normalized names of vault entries, for
+ * case-insensitive sub-string search.
+ * <p>
+ *     Every name containing a query of three or more characters contains all of the query's trigrams, so the candidates
+ *     are the intersection of the trigrams' posting lists, starting from the shortest. Only the candidates are compared
+ *     with the query, which keeps a search proportional to the number of matches rather than to the size of the vault.
+ *     Shorter queries have no trigram, and are compared with every name.
+ * </p>
+ * <p>
+ *     The index is maintained incrementally as entries are added and removed. Entries are keyed by their normalized
+ *     name, like the vault's entries. Not thread-safe.
+ * </p>
+ */
+final class TrigramIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final Comparator<VaultEntry> NAME_ORDER = Comparator.comparing(VaultEntry::getNormalizedName);
+
+    private final Map<String, VaultEntry> entries;
+    private final Map<Long, Set<String>> postings;
+
+    /**
+     * Construct an empty index.
+     */
+    TrigramIndex() {
+        entries = new HashMap<>();
+        postings = new HashMap<>();
+    }
+
+    /**
+     * Index an entry, replacing any entry of the same name.
+     * @param entry the entry.
+     */
+    void add(VaultEntry entry) {
+        remove(entry);
+        String name = entry.getNormalizedName();
+        entries.put(name, entry);
+        for (long gram : grams(name)) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(name);
+        }
+    }
+
+    /**
+     * Remove the entry of the same name as an entry from the index.
+     * @param entry the entry.
+     */
+    void remove(VaultEntry entry) {
+        String name = entry.getNormalizedName();
+        if (entries.remove(name) == null) {
+            return;
+        }
+        for (long gram : grams(name)) {
+            Set<String> names = postings.get(gram);
+            names.remove(name);
+            if (names.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Find the entries whose normalized name contains the normalized query.
+     * @param query the query.
+     * @return the matching entries, ordered by name.
+     */
+    List<VaultEntry> search(String query) {
+        String normalized = VaultEntry.normalize(query);
+        List<VaultEntry> result = new ArrayList<>();
+        long[] grams = grams(normalized);
+        if (grams.length == 0) {
+            for (Map.Entry<String, VaultEntry> indexed : entries.entrySet()) {
+                if (indexed.getKey().contains(normalized)) {
+                    result.add(indexed.getValue());
+                }
+            }
+        } else {
+            List<Set<String>> lists = new ArrayList<>(grams.length);
+            for (long gram : grams) {
+                Set<String> names = postings.get(gram);
+                if (names == null) {
+                    return result;
+                }
+                lists.add(names);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+
+            Set<String> shortest = lists.get(0);
+            for (String name : shortest) {
+                // the trigrams may occur in another order or apart
+                if (containsAll(lists, name) && name.contains(normalized)) {
+                    result.add(entries.get(name));
+                }
+            }
+        }
+        result.sort(NAME_ORDER);
+        return result;
+    }
+
+    /**
+     * Get the number of entries in the index.
+     * @return the number of entries.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private static boolean containsAll(List<Set<String>> lists, String name) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the distinct trigrams of a normalized string, each packed into a long.
+     */
+    private static long[] grams(String normalized) {
+        int count = normalized.length() - GRAM_LENGTH + 1;
+        if (count < 1) {
+            return new long[0];
+        }
+        long[] grams = new long[count];
+        for (int i = 0; i < count; i++) {
+            grams[i] = ((long) normalized.charAt(i) << 32)
+                    | ((long) normalized.charAt(i + 1) << 16)
+                    | normalized.charAt(i + 2);
+        }
+        return Arrays.stream(grams).distinct().toArray();
+    }
+}
@@ -0,0 +1,147 @@
+package edu.dk.asj.dpm.vault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe, pipelined reconstruction of a vault from fragments arriving one at a time.
+ * <p>
+ *     Each fragment is scattered into the {@link SecureVault.Builder}'s buffer as soon as it is accepted, rather than
+ *     after every fragment has been fetched, and the vault is decoded in the background as soon as the buffer is
+ *     complete. The cost of reassembly is thereby hidden behind the fragments still in flight and the rest of the fetch,
+ *     instead of being added after it.
+ * </p>
+ * <p>
+ *     Shares accepted after decoding has started are kept, since they may hold deltas missing from the shares decoded.
+ *     If the decoded vault is stale, it is decoded again with them before it is returned. Other fragments accepted
+ *     after decoding has started are ignored, since every fragment was needed to start it.
+ * </p>
+ */
+public class VaultAssembler implements Consumer<VaultFragment> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VaultAssembler.class);
+
+    private final SecureVault.Builder builder;
+    private final Executor executor;
+    private final List<VaultShare> lateShares;
+    private CompletableFuture<SecureVault> decoding;
+
+    /**
+     * Construct an assembler decoding the vault on the common pool.
+     */
+    public VaultAssembler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Construct an assembler.
+     * @param executor the executor decoding the vault once its fragments are complete.
+     */
+    public VaultAssembler(Executor executor) {
+        this.builder = SecureVault.builder();
+        this.executor = executor;
+        this.lateShares = new ArrayList<>();
+    }
+
+    /**
+     * Scatter a fragment into the vault buffer, and start decoding the vault if the buffer is now complete. A share
+     * accepted after decoding has started is kept for {@link #getVault()}.
+     * @param fragment the fragment, which is ignored if it is null.
+     * @throws IllegalArgumentException if the fragment does not match the fragments added before it.
+     */
+    @Override
+    public synchronized void accept(VaultFragment fragment) throws IllegalArgumentException {
+        if (decoding != null) {
+            if (fragment instanceof VaultShare) {
+                lateShares.add((VaultShare) fragment);
+            } else {
+                LOGGER.debug("Ignoring fragment accepted after decoding started");
+            }
+            return;
+        }
+        builder.addFragment(fragment);
+        if (builder.isComplete()) {
+            LOGGER.debug("Vault fragments complete, decoding vault");
+            decoding = CompletableFuture.supplyAsync(this::build, executor);
+        }
+    }
+
+    /**
+     * Get the reconstructed vault, waiting for it to be decoded. If the vault is stale and shares were accepted after
+     * decoding started, it is decoded again with them.
+     * @return the vault.
+     * @throws IllegalStateException if the fragments accepted are not enough to reconstruct the vault.
+     * @throws IOException if the vault could not be read from its fragments.
+     * @throws ClassNotFoundException if the fragments could not be deserialized into a vault.
+     */
+    public SecureVault getVault() throws IOException, ClassNotFoundException, IllegalStateException {
+        CompletableFuture<SecureVault> promise;
+        synchronized (this) {
+            if (decoding == null) {
+                throw new IllegalStateException("Vault fragments are not complete");
+            }
+            promise = decoding;
+        }
+
+        SecureVault vault;
+        try {
+            vault = promise.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding vault", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not decode vault", cause);
+        }
+
+        // the decoding has finished, so only this thread uses the builder
+        synchronized (this) {
+            if (builder.isStale() && !lateShares.isEmpty()) {
+                LOGGER.debug("Decoding vault again with {} shares accepted after decoding started", lateShares.size());
+                lateShares.forEach(builder::addFragment);
+                lateShares.clear();
+                vault = builder.build();
+                decoding = CompletableFuture.completedFuture(vault);
+            }
+        }
+        return vault;
+    }
+
+    /**
+     * Check whether the reconstructed vault is older than the latest generation of its fragments, because a delta
+     * could not be reconstructed. Only valid once {@link #getVault()} has returned.
+     * @return true if the vault is stale; false otherwise.
+     */
+    public boolean isStale() {
+        return builder.isStale();
+    }
+
+    private SecureVault build() {
+        try {
+            return builder.build();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new CompletionException(e);
+        }
+    }
+}
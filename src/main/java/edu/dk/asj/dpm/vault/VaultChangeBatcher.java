@@ -0,0 +1,157 @@
+package edu.dk.asj.dpm.vault;
+
+import edu.dk.asj.dpm.metrics.Histogram;
+import edu.dk.asj.dpm.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Thread-safe batcher coalescing the mutations of a vault into one publication to the node network.
+ * <p>
+ *     The first mutation after a publication opens a window of the configured length, and every mutation made within
+ *     the window is published together when it closes, or earlier when {@link #flush()} is called. A bulk edit thereby
+ *     costs one network round rather than one per entry. With a window of 0 every mutation is published at once.
+ * </p>
+ * <p>
+ *     Pending mutations are only held in memory: they are durable once the publication they are part of has completed,
+ *     and are lost if the application is killed before that. The owner must therefore flush the batcher before the
+ *     vault is discarded, i.e. on sign-out and exit.
+ * </p>
+ */
+public class VaultChangeBatcher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VaultChangeBatcher.class);
+
+    private static final Histogram BATCH_SIZE = Metrics.getInstance().histogram("vault.batch.changes");
+
+    private final Runnable publisher;
+    private final long windowMs;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private ScheduledFuture<?> scheduledFlush;
+    private int pendingChanges;
+    private boolean publishing;
+
+    /**
+     * Construct a batcher.
+     * @param publisher the action publishing the vault's changes to the node network.
+     * @param windowMs the time mutations are collected before they are published, or 0 to publish every mutation at
+     *                 once.
+     */
+    public VaultChangeBatcher(Runnable publisher, long windowMs) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Window must not be negative");
+        }
+        this.publisher = Objects.requireNonNull(publisher, "Publisher must not be null");
+        this.windowMs = windowMs;
+
+        scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "vault-change-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        pendingChanges = 0;
+        publishing = false;
+    }
+
+    /**
+     * Apply a mutation to the vault. The mutation runs exclusively of publications, so the vault is never serialized
+     * while it is being changed.
+     * @param mutation the mutation, returning whether it changed the vault.
+     * @return the result of the mutation.
+     */
+    public synchronized boolean mutate(BooleanSupplier mutation) {
+        boolean changed = mutation.getAsBoolean();
+        if (changed) {
+            pendingChanges++;
+            if (windowMs == 0) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Publish the pending mutations now, waiting for the publication to complete. Calls made while a publication is
+     * in progress on the same thread, e.g. when the publication fails fatally and the application exits, return at
+     * once.
+     * @return true if mutations were published; false if none were pending.
+     */
+    public synchronized boolean flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pendingChanges == 0 || publishing) {
+            return false;
+        }
+
+        LOGGER.debug("Publishing {} vault changes", pendingChanges);
+        BATCH_SIZE.record(pendingChanges);
+        publishing = true;
+        try {
+            publisher.run();
+            pendingChanges = 0;
+        } finally {
+            publishing = false;
+        }
+        return true;
+    }
+
+    /**
+     * Publish the vault now, whether or not mutations are pending, e.g. when the nodes must be sent the whole vault
+     * anew. The pending mutations are published with it. Waits for the publication to complete, and returns at once
+     * if a publication is in progress on the same thread.
+     */
+    public synchronized void republish() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (publishing) {
+            return;
+        }
+
+        LOGGER.debug("Republishing vault with {} pending changes", pendingChanges);
+        publishing = true;
+        try {
+            publisher.run();
+            pendingChanges = 0;
+        } finally {
+            publishing = false;
+        }
+    }
+
+    /**
+     * Get the number of mutations that have not yet been published.
+     * @return the number of pending mutations.
+     */
+    public synchronized int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * Check whether any mutations have not yet been published.
+     * @return true if mutations are pending; false otherwise.
+     */
+    public synchronized boolean hasPendingChanges() {
+        return pendingChanges > 0;
+    }
+
+    /**
+     * Flush the pending mutations and stop the batcher.
+     */
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,62 @@
+package edu.dk.asj.dpm.vault;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * The changes made to a vault between two generations, in the order they were made. A delta is serialized and
+ * fragmented like the vault itself, so that no single node holds the changed entries in clear.
+ */
+final class VaultDelta implements Serializable {
+    private static final long serialVersionUID = 6017385215390870264L;
+
+    private final ArrayList<VaultEntry> entries;
+    private final ArrayList<Boolean> additions;
+
+    VaultDelta() {
+        entries = new ArrayList<>();
+        additions = new ArrayList<>();
+    }
+
+    /**
+     * Record that an entry was added to the vault.
+     * @param entry the added entry.
+     */
+    void added(VaultEntry entry) {
+        entries.add(entry);
+        additions.add(true);
+    }
+
+    /**
+     * Record that an entry was removed from the vault. Only the entry's name is kept, since it identifies the entry.
+     * @param entry the removed entry.
+     */
+    void removed(VaultEntry entry) {
+        entries.add(new VaultEntry(entry.getName(), ""));
+        additions.add(false);
+    }
+
+    /**
+     * Check whether the delta contains any changes.
+     * @return true if no changes were recorded; false otherwise.
+     */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Apply the changes to a vault at the generation this delta was created from.
+     * @param entryMap the vault's entries, by normalized name.
+     */
+    void applyTo(Map<String, VaultEntry> entryMap) {
+        for (int i = 0; i < entries.size(); i++) {
+            VaultEntry entry = entries.get(i);
+            if (additions.get(i)) {
+                entryMap.put(entry.getNormalizedName(), entry);
+            } else {
+                entryMap.remove(entry.getNormalizedName());
+            }
+        }
+    }
+}
@@ -1,18 +1,21 @@
 package edu.dk.asj.dpm.vault;
 
 import java.io.Serializable;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
  * A vault entry encapsulates the data stored in a secure vault as discrete objects.<p>
  * <p>
- * An entry is uniquely defined by its name.
+ * An entry is uniquely defined by its name, regardless of case: entries are identified by their
+ * {@link #getNormalizedName() normalized name}.
  */
 public class VaultEntry implements Serializable {
     private static final long serialVersionUID = -8754746222972229122L;
 
     private final String name;
     private final String password;
+    private transient String normalizedName;
 
     /**
      * Create a discrete entry with all the data required.
@@ -35,6 +38,29 @@ public class VaultEntry implements Serializable {
         return name;
     }
 
+    /**
+     * Get the entry's name in the normalized form that identifies the entry, and orders the vault. The normalized name
+     * is computed once.
+     * @return the normalized name.
+     */
+    public String getNormalizedName() {
+        String normalized = normalizedName;
+        if (normalized == null) {
+            normalized = normalize(name);
+            normalizedName = normalized;
+        }
+        return normalized;
+    }
+
+    /**
+     * Normalize an entry name, or a query on entry names, for case-insensitive comparison.
+     * @param name the name.
+     * @return the normalized name.
+     */
+    public static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Get the entry's password.
      * @return the password
@@ -55,12 +81,12 @@ public class VaultEntry implements Serializable {
         }
 
         VaultEntry other = (VaultEntry) obj;
-        return this.name.toLowerCase().equals(other.name.toLowerCase());
+        return getNormalizedName().equals(other.getNormalizedName());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        return getNormalizedName().hashCode();
     }
 
     @Override
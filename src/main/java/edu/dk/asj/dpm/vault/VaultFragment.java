@@ -5,7 +5,10 @@ import edu.dk.asj.dpm.util.BufferHelper;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -18,6 +21,12 @@ import java.util.Objects;
  *     <li><b>vaultSize</b></li> denotes the total size of the complete vault's raw data array from which this fragment
  *     was created.
  * </ul>
+ * <p>
+ *     A fragment also records the vault generation it was created from, and the node's parts of the
+ *     {@link FragmentDelta}s published since, which bring the vault up to its latest generation without fragmenting
+ *     it anew. Every generation is also stamped with a random version, which tells whether two nodes hold the same
+ *     generation even if one of them missed a full fragmentation.
+ * </p>
  */
 public class VaultFragment implements Serializable {
     private static final long serialVersionUID = -4962470314049701456L;
@@ -25,6 +34,9 @@ public class VaultFragment implements Serializable {
     private final byte[] fragment;
     private final int[] mask;
     private final int vaultSize;
+    private long generation;
+    private long version;
+    private ArrayList<FragmentDelta> deltas;
 
     /**
      * Create a new vault fragment object.
@@ -68,6 +80,76 @@ public class VaultFragment implements Serializable {
         return vaultSize;
     }
 
+    /**
+     * Get the generation of the vault this fragment was created from.
+     * @return the base generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the generation of the vault after applying this fragment's deltas.
+     * @return the latest generation.
+     */
+    public long getLatestGeneration() {
+        List<FragmentDelta> fragmentDeltas = getDeltas();
+        return fragmentDeltas.isEmpty() ? generation : fragmentDeltas.get(fragmentDeltas.size() - 1).getGeneration();
+    }
+
+    /**
+     * Get the version stamp of the generation this fragment was created from.
+     * @return the base version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the version stamp of the vault after applying this fragment's deltas.
+     * @return the latest version.
+     */
+    public long getLatestVersion() {
+        List<FragmentDelta> fragmentDeltas = getDeltas();
+        return fragmentDeltas.isEmpty() ? version : fragmentDeltas.get(fragmentDeltas.size() - 1).getVersion();
+    }
+
+    /**
+     * Get the node's parts of the deltas published since the fragment was created, in the order they were published.
+     * @return the deltas. May be empty.
+     */
+    public List<FragmentDelta> getDeltas() {
+        return deltas == null ? Collections.emptyList() : Collections.unmodifiableList(deltas);
+    }
+
+    /**
+     * Append the node's part of a newly published delta to this fragment. The delta must continue from the fragment's
+     * latest generation; otherwise the node has missed an earlier delta and its fragment is stale.
+     * @param delta the delta.
+     * @return true if the delta was appended; false if it does not continue from the latest generation.
+     */
+    public boolean appendDelta(FragmentDelta delta) {
+        Objects.requireNonNull(delta, "Delta must not be null");
+        if (delta.getBaseGeneration() != getLatestGeneration()) {
+            return false;
+        }
+        if (deltas == null) {
+            deltas = new ArrayList<>();
+        }
+        deltas.add(delta);
+        return true;
+    }
+
+    /**
+     * Set the generation of the vault this fragment was created from.
+     * @param generation the generation.
+     * @param version the version stamp of the generation.
+     */
+    void setGeneration(long generation, long version) {
+        this.generation = generation;
+        this.version = version;
+    }
+
     /**
      * Get a builder for constructing a vault fragment through iterative addition of fragment data.
      * @param vaultSize the total byte-size of the vault this fragment will (partly) represent.
@@ -80,16 +162,19 @@ public class VaultFragment implements Serializable {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (!(o instanceof VaultFragment)) return false;
+        if (o == null || getClass() != o.getClass()) return false;
         VaultFragment fragment1 = (VaultFragment) o;
         return vaultSize == fragment1.vaultSize &&
+                generation == fragment1.generation &&
+                version == fragment1.version &&
                 Arrays.equals(fragment, fragment1.fragment) &&
-                Arrays.equals(mask, fragment1.mask);
+                Arrays.equals(mask, fragment1.mask) &&
+                getDeltas().equals(fragment1.getDeltas());
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(vaultSize);
+        int result = Objects.hash(vaultSize, generation, version, getDeltas());
         result = 31 * result + Arrays.hashCode(fragment);
         result = 31 * result + Arrays.hashCode(mask);
         return result;
@@ -97,7 +182,7 @@ public class VaultFragment implements Serializable {
 
     @Override
     public String toString() {
-        return VaultFragment.class + "{vaultSize:"+vaultSize+";fragment.length:"+fragment.length+";mask.length:"+mask.length+"}";
+        return VaultFragment.class + "{vaultSize:"+vaultSize+";generation:"+generation+";fragment.length:"+fragment.length+";mask.length:"+mask.length+";deltas:"+getDeltas().size()+"}";
     }
 
     /**
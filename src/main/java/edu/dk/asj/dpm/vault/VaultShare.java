@@ -0,0 +1,167 @@
+package edu.dk.asj.dpm.vault;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A vault share is a vault fragment created by erasure coding the complete vault, rather than by splitting its bytes
+ * between the fragments. Any <i>threshold</i> of the shares created by the same encoding reconstruct the vault, so the
+ * vault survives losing the remaining shares. In addition to the fragment data a share consists of:
+ * <ul>
+ *     <li><b>index</b> is the share's position in the encoding, which determines how its data is decoded.</li>
+ *     <li><b>threshold</b> is the number of shares required to reconstruct the vault.</li>
+ *     <li><b>encodingId</b> identifies the encoding the share was created by, since shares of different encodings of
+ *     the vault cannot be combined.</li>
+ * </ul>
+ */
+public class VaultShare extends VaultFragment {
+    private static final long serialVersionUID = 4410693532781585571L;
+
+    private final int index;
+    private final int threshold;
+    private final long encodingId;
+
+    /**
+     * Create a new vault share object.
+     * @param index the share's index in the encoding.
+     * @param threshold the number of shares required to reconstruct the vault.
+     * @param encodingId the ID of the encoding the share was created by.
+     * @param share the share's encoded data. Must not be null.
+     * @param vaultSize the size of the complete vault's data array.
+     */
+    public VaultShare(int index, int threshold, long encodingId, byte[] share, int vaultSize) {
+        super(new int[0], share, vaultSize);
+        if (index < 0 || index >= ReedSolomon.MAX_SHARES) {
+            throw new IllegalArgumentException("Share index must be in the range 0-" + (ReedSolomon.MAX_SHARES - 1));
+        }
+        if (threshold < 1 || threshold > ReedSolomon.MAX_SHARES) {
+            throw new IllegalArgumentException("Threshold must be in the range 1-" + ReedSolomon.MAX_SHARES);
+        }
+        this.index = index;
+        this.threshold = threshold;
+        this.encodingId = encodingId;
+    }
+
+    /**
+     * Get the share's index in the encoding.
+     * @return the index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the number of shares required to reconstruct the vault.
+     * @return the threshold.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get the ID of the encoding the share was created by.
+     * @return the encoding ID.
+     */
+    public long getEncodingId() {
+        return encodingId;
+    }
+
+    /**
+     * Check whether the fragments include enough shares of one encoding to reconstruct the vault, though possibly not
+     * the deltas appended to the shares.
+     * @param fragments the fragments, of which only the shares are considered.
+     * @return true if the vault can be reconstructed from the shares; false otherwise.
+     */
+    public static boolean isSufficient(Collection<? extends VaultFragment> fragments) {
+        return getMissingShares(fragments, false) == 0;
+    }
+
+    /**
+     * Check whether the fragments include enough shares of one encoding to reconstruct the vault at the latest
+     * generation of the shares, i.e. enough shares for the vault and for every delta appended to any of them.
+     * @param fragments the fragments, of which only the shares are considered.
+     * @return true if the vault and all its deltas can be reconstructed from the shares; false otherwise.
+     */
+    public static boolean isCurrent(Collection<? extends VaultFragment> fragments) {
+        return getMissingShares(fragments) == 0;
+    }
+
+    /**
+     * Get the number of shares still required to reconstruct the vault at the latest generation of the shares, for the
+     * encoding closest to it. A delta appended to only some of the shares, since the other nodes missed it, requires
+     * as many shares holding it as the vault does.
+     * @param fragments the fragments, of which only the shares are considered.
+     * @return the number of missing shares, which is 0 if the vault can be reconstructed, or -1 if the fragments
+     * include no shares.
+     */
+    public static int getMissingShares(Collection<? extends VaultFragment> fragments) {
+        return getMissingShares(fragments, true);
+    }
+
+    private static int getMissingShares(Collection<? extends VaultFragment> fragments, boolean withDeltas) {
+        Map<Long, Map<Integer, VaultShare>> encodings = new HashMap<>();
+        for (VaultFragment fragment : fragments) {
+            if (fragment instanceof VaultShare) {
+                VaultShare share = (VaultShare) fragment;
+                encodings.computeIfAbsent(share.encodingId, id -> new HashMap<>()).putIfAbsent(share.index, share);
+            }
+        }
+
+        int missing = -1;
+        for (Map<Integer, VaultShare> shares : encodings.values()) {
+            VaultShare first = shares.values().iterator().next();
+            int encodingMissing = Math.max(0, first.threshold - shares.size());
+            Map<Long, Integer> holders = new HashMap<>();
+            Map<Long, Integer> thresholds = new HashMap<>();
+            long latestGeneration = first.getGeneration();
+            for (VaultShare share : shares.values()) {
+                latestGeneration = Math.max(latestGeneration, share.getLatestGeneration());
+                for (FragmentDelta delta : share.getDeltas()) {
+                    holders.merge(delta.getBaseGeneration(), 1, Integer::sum);
+                    thresholds.putIfAbsent(delta.getBaseGeneration(), delta.getFragment() instanceof VaultShare
+                            ? ((VaultShare) delta.getFragment()).threshold : share.threshold);
+                }
+            }
+            if (withDeltas) {
+                for (long generation = first.getGeneration(); generation < latestGeneration; generation++) {
+                    int required = thresholds.getOrDefault(generation, first.threshold);
+                    encodingMissing = Math.max(encodingMissing, required - holders.getOrDefault(generation, 0));
+                }
+            }
+            missing = missing < 0 ? encodingMissing : Math.min(missing, encodingMissing);
+        }
+        return missing;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VaultShare)) return false;
+        VaultShare share = (VaultShare) o;
+        return index == share.index &&
+                threshold == share.threshold &&
+                encodingId == share.encodingId &&
+                getVaultSize() == share.getVaultSize() &&
+                getGeneration() == share.getGeneration() &&
+                getVersion() == share.getVersion() &&
+                Arrays.equals(getFragment(), share.getFragment()) &&
+                getDeltas().equals(share.getDeltas());
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(index, threshold, encodingId, getVaultSize(), getGeneration(), getVersion(), getDeltas());
+        result = 31 * result + Arrays.hashCode(getFragment());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return VaultShare.class + "{index:" + index + ";threshold:" + threshold + ";encodingId:" + encodingId
+                + ";vaultSize:" + getVaultSize() + ";generation:" + getGeneration() + ";share.length:"
+                + getFragment().length + ";deltas:" + getDeltas().size() + "}";
+    }
+}
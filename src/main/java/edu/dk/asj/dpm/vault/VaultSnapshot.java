@@ -0,0 +1,62 @@
+package edu.dk.asj.dpm.vault;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A copy of a published vault together with its generation and version stamp, cached on the device so that signing in
+ * only has to confirm with the node network that the vault has not changed, instead of fetching every fragment.
+ * <p>
+ *     Unlike a fragment, a snapshot holds the complete vault. It must only be stored encrypted under the master
+ *     password.
+ * </p>
+ */
+public final class VaultSnapshot implements Serializable {
+    private static final long serialVersionUID = 8273510244106390525L;
+
+    private final SecureVault vault;
+    private final long generation;
+    private final long version;
+
+    private VaultSnapshot(SecureVault vault) {
+        this.vault = vault;
+        this.generation = vault.getGeneration();
+        this.version = vault.getVersion();
+    }
+
+    /**
+     * Take a snapshot of a vault.
+     * @param vault the vault. Must not have unpublished changes, since those are not part of its version.
+     * @return the snapshot.
+     * @throws IllegalStateException if the vault has unpublished changes, or has never been published.
+     */
+    public static VaultSnapshot of(SecureVault vault) throws IllegalStateException {
+        Objects.requireNonNull(vault, "Vault must not be null");
+        if (vault.hasChanges() || vault.getVersion() == 0) {
+            throw new IllegalStateException("Vault has unpublished changes");
+        }
+        return new VaultSnapshot(vault);
+    }
+
+    /**
+     * Get the version stamp of the vault's generation.
+     * @return the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Restore the vault from the snapshot, at the snapshot's generation.
+     * @return the vault.
+     */
+    public SecureVault restore() {
+        vault.setGeneration(generation, version);
+        return vault;
+    }
+
+    @Override
+    public String toString() {
+        return VaultSnapshot.class + "{generation:" + generation + ";version:" + version + "}";
+    }
+}
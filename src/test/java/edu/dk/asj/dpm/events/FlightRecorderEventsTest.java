@@ -0,0 +1,74 @@
+package edu.dk.asj.dpm.events;
+
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightRecorderEventsTest {
+
+    @Test
+    @DisplayName("Record fragment I/O and SAE session events")
+    void recordEvents() throws IOException {
+        String fragmentPath = PropertiesContainer.loadProperties().getStorageProperties().getFragmentPath();
+        SecurityController.getInstance().setMasterPassword("123");
+        VaultFragment fragment = new VaultFragment(new int[]{0}, new byte[]{0x00}, 1);
+        UUID localNode = UUID.randomUUID();
+        UUID remoteNode = UUID.randomUUID();
+
+        Path recordingFile = Files.createTempFile("dpm-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(FragmentIOEvent.class);
+            recording.enable(SaeSessionEvent.class);
+            recording.start();
+
+            assertTrue(SecurityController.getInstance().saveFragment(fragment, fragmentPath), "Fragment was not saved");
+            assertNotNull(SecurityController.getInstance().loadFragment(fragmentPath), "Fragment was not loaded");
+            SecurityController.getInstance().initiateSaeSession(localNode, remoteNode);
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events;
+        try {
+            events = RecordingFile.readAllEvents(recordingFile);
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+
+        List<RecordedEvent> fragmentEvents = events.stream()
+                .filter(e -> e.getEventType().getName().equals("edu.dk.asj.dpm.FragmentIO"))
+                .collect(Collectors.toList());
+        assertEquals(2, fragmentEvents.size(), "Unexpected fragment I/O event count");
+        assertEquals(FragmentIOEvent.SAVE, fragmentEvents.get(0).getString("operation"), "First event is not a save");
+        assertEquals(FragmentIOEvent.LOAD, fragmentEvents.get(1).getString("operation"), "Second event is not a load");
+        for (RecordedEvent event : fragmentEvents) {
+            assertTrue(event.getBoolean("succeeded"), "Fragment I/O did not succeed");
+            assertTrue(event.getLong("bytes") > 0, "Fragment I/O has no bytes");
+            assertEquals(fragmentPath, event.getString("path"), "Unexpected fragment path");
+        }
+
+        RecordedEvent sessionEvent = events.stream()
+                .filter(e -> e.getEventType().getName().equals("edu.dk.asj.dpm.SaeSession"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No SAE session event"));
+        assertEquals(localNode.toString(), sessionEvent.getString("localNode"), "Unexpected local node");
+        assertEquals(remoteNode.toString(), sessionEvent.getString("remoteNode"), "Unexpected remote node");
+        assertTrue(sessionEvent.getInt("pweIterations") >= 1, "No PWE iterations recorded");
+        assertTrue(sessionEvent.getBoolean("succeeded"), "SAE session did not succeed");
+    }
+}
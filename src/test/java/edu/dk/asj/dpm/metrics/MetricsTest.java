@@ -0,0 +1,120 @@
+package edu.dk.asj.dpm.metrics;
+
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @AfterEach
+    void tearDown() {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/vault.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/network.prop");
+        Metrics.getInstance().configure(PropertiesContainer.loadProperties(properties).getMetricsProperties());
+    }
+
+    @Test
+    @DisplayName("Ignore updates while disabled")
+    void disabled() {
+        Metrics.getInstance().setEnabled(false);
+        Counter counter = Metrics.getInstance().counter("test.disabled.count");
+        Histogram histogram = Metrics.getInstance().histogram("test.disabled.nanos");
+
+        counter.increment();
+        histogram.record(42);
+
+        assertEquals(Histogram.DISABLED, histogram.start(), "Timer started while disabled");
+        assertEquals(0, counter.getCount(), "Counter updated while disabled");
+        assertEquals(0, histogram.getCount(), "Histogram updated while disabled");
+    }
+
+    @Test
+    @DisplayName("Get the same metric by name")
+    void sameMetric() {
+        assertSame(Metrics.getInstance().counter("test.same"), Metrics.getInstance().counter("test.same"),
+                "Counters with the same name are different");
+        assertThrows(IllegalArgumentException.class, () -> Metrics.getInstance().histogram("test.same"),
+                "Histogram registered with the name of a counter");
+    }
+
+    @Test
+    @DisplayName("Record durations from any start time while enabled")
+    void histogramStart() {
+        Metrics.getInstance().setEnabled(true);
+        Histogram histogram = Metrics.getInstance().histogram("test.start.nanos");
+
+        // System.nanoTime() may return 0, which must not be taken for a timer started while disabled
+        histogram.recordSince(0);
+        histogram.recordSince(histogram.start());
+        histogram.recordSince(Histogram.DISABLED);
+        assertEquals(2, histogram.getCount(), "Unexpected count");
+    }
+
+    @Test
+    @DisplayName("Unregister a gauge only while it is registered under its name")
+    void unregisterGauge() {
+        Gauge first = Metrics.getInstance().gauge("test.gauge", () -> 1);
+        Gauge second = Metrics.getInstance().gauge("test.gauge", () -> 2);
+        Metrics.getInstance().unregister(first);
+        assertTrue(Metrics.getInstance().getMetrics().contains(second), "Replacing gauge was unregistered");
+
+        Metrics.getInstance().unregister(second);
+        assertTrue(Metrics.getInstance().getMetrics().stream().noneMatch(m -> m.getName().equals("test.gauge")),
+                "Gauge is still registered");
+    }
+
+    @Test
+    @DisplayName("Compute histogram percentiles")
+    void histogramPercentiles() {
+        Metrics.getInstance().setEnabled(true);
+        Histogram histogram = Metrics.getInstance().histogram("test.percentiles");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount(), "Unexpected count");
+        assertEquals(500_500, histogram.getMean(), 0.001, "Unexpected mean");
+        assertEquals(1_000_000, histogram.getMax(), "Unexpected max");
+        assertEquals(500_000, histogram.getPercentile(0.5), 500_000 / 8.0, "p50 outside error bound");
+        assertEquals(990_000, histogram.getPercentile(0.99), 990_000 / 8.0, "p99 outside error bound");
+        assertTrue(histogram.getPercentile(0.99) >= 990_000, "p99 below recorded value");
+    }
+
+    @Test
+    @DisplayName("Place values in bounded buckets")
+    void histogramBuckets() {
+        long[] values = {0, 1, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(Histogram.bucketUpperBound(index) >= value, "Bucket upper bound below " + value);
+            assertTrue(Histogram.bucketUpperBound(index) - value <= Math.max(1, value / 8), "Bucket too wide for " + value);
+        }
+    }
+
+    @Test
+    @DisplayName("Export metrics over JMX")
+    void exportJmx() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/vault.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/network.prop");
+        properties.setProperty("metrics.enabled", "true");
+        properties.setProperty("metrics.jmx.domain", "edu.dk.asj.dpm.test");
+        Metrics.getInstance().configure(PropertiesContainer.loadProperties(properties).getMetricsProperties());
+
+        Metrics.getInstance().counter("test.jmx.count").add(3);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("edu.dk.asj.dpm.test", "type", "Metrics");
+        assertTrue(server.isRegistered(name), "Metrics MBean is not registered");
+        assertEquals(3L, server.getAttribute(name, "test.jmx.count"), "Unexpected exported counter value");
+    }
+}
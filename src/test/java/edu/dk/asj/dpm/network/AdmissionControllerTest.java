@@ -0,0 +1,87 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.properties.AdmissionProperties;
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.dk.asj.dpm.network.AdmissionController.Decision.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private final AtomicLong clock = new AtomicLong(1);
+
+    @Test
+    @DisplayName("Queue and reject requests beyond the concurrency limit")
+    void concurrencyLimit() {
+        AdmissionController controller = new AdmissionController(properties(2, 1, 1000, 100, 100), clock::get);
+        AtomicInteger queuedRuns = new AtomicInteger();
+
+        assertEquals(ADMITTED, controller.offer("a", queuedRuns::incrementAndGet), "First request not admitted");
+        assertEquals(ADMITTED, controller.offer("b", queuedRuns::incrementAndGet), "Second request not admitted");
+        assertEquals(QUEUED, controller.offer("c", queuedRuns::incrementAndGet), "Third request not queued");
+        assertEquals(SATURATED, controller.offer("d", queuedRuns::incrementAndGet), "Fourth request not rejected");
+        assertEquals(2, controller.getActive(), "Unexpected active count");
+        assertEquals(1, controller.getQueued(), "Unexpected queue length");
+
+        controller.release();
+        assertEquals(1, queuedRuns.get(), "Queued request was not run on release");
+        assertEquals(2, controller.getActive(), "Released slot was not handed to the queued request");
+        assertEquals(0, controller.getQueued(), "Queued request was not removed");
+
+        controller.release();
+        controller.release();
+        assertEquals(0, controller.getActive(), "Slots were not released");
+    }
+
+    @Test
+    @DisplayName("Drop queued requests after their timeout")
+    void queueTimeout() {
+        AdmissionController controller = new AdmissionController(properties(1, 1, 1000, 100, 100), clock::get);
+        AtomicInteger queuedRuns = new AtomicInteger();
+
+        assertEquals(ADMITTED, controller.offer("a", queuedRuns::incrementAndGet), "First request not admitted");
+        assertEquals(QUEUED, controller.offer("b", queuedRuns::incrementAndGet), "Second request not queued");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        controller.release();
+        assertEquals(0, queuedRuns.get(), "Expired request was run");
+        assertEquals(0, controller.getActive(), "Slot was not released");
+    }
+
+    @Test
+    @DisplayName("Rate limit requests per peer")
+    void peerRateLimit() {
+        AdmissionController controller = new AdmissionController(properties(100, 0, 1000, 2, 3), clock::get);
+        Runnable noop = () -> {};
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ADMITTED, controller.offer("a", noop), "Request within burst not admitted");
+        }
+        assertEquals(RATE_LIMITED, controller.offer("a", noop), "Request beyond burst not rate limited");
+        assertEquals(ADMITTED, controller.offer("b", noop), "Request from other peer not admitted");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(ADMITTED, controller.offer("a", noop), "Request after refill not admitted");
+        assertEquals(RATE_LIMITED, controller.offer("a", noop), "Request beyond refill not rate limited");
+    }
+
+    private static AdmissionProperties properties(int maxConcurrent, int queueCapacity, long queueTimeoutMs,
+                                                  double peerRate, int peerBurst) {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/vault.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/network.prop");
+        properties.setProperty("network.admission.max-concurrent", Integer.toString(maxConcurrent));
+        properties.setProperty("network.admission.queue-capacity", Integer.toString(queueCapacity));
+        properties.setProperty("network.admission.queue-timeout-ms", Long.toString(queueTimeoutMs));
+        properties.setProperty("network.admission.peer-rate", Double.toString(peerRate));
+        properties.setProperty("network.admission.peer-burst", Integer.toString(peerBurst));
+        return PropertiesContainer.loadProperties(properties).getAdmissionProperties();
+    }
+}
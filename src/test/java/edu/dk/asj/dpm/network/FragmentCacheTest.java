@@ -0,0 +1,52 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.network.packets.FragmentPacket;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentCacheTest {
+
+    private static final String PATH = "test-data/cache.frag";
+
+    @BeforeAll
+    static void setMasterPassword() {
+        SecurityController.getInstance().setMasterPassword("123");
+    }
+
+    @Test
+    @DisplayName("Serve the cached fragment until it changes")
+    void serveCachedFragment() {
+        FragmentCache cache = new FragmentCache(PATH);
+        VaultFragment first = new VaultFragment(new int[]{0}, new byte[]{0x01}, 1);
+        assertTrue(SecurityController.getInstance().saveFragment(first, PATH), "Fragment was not saved");
+
+        FragmentPacket packet = cache.get();
+        assertEquals(first, packet.getFragment(), "Unexpected cached fragment");
+        assertSame(packet, cache.get(), "Unchanged fragment was loaded again");
+        assertSame(packet.serialize(), packet.serialize(), "Cached packet was serialized again");
+
+        cache.invalidate();
+        FragmentPacket reloaded = cache.get();
+        assertNotSame(packet, reloaded, "Invalidated fragment was served from the cache");
+
+        VaultFragment second = new VaultFragment(new int[]{0, 1}, new byte[]{0x02, 0x03}, 2);
+        assertTrue(SecurityController.getInstance().saveFragment(second, PATH), "Fragment was not saved");
+        assertEquals(second, cache.get().getFragment(), "Fragment changed on disk was served from the cache");
+    }
+
+    @Test
+    @DisplayName("Serve no fragment when the node has none")
+    void serveMissingFragment() {
+        FragmentCache cache = new FragmentCache("test-data/missing.frag");
+        assertNull(cache.get().getFragment(), "Missing fragment was served");
+    }
+}
@@ -0,0 +1,452 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.metrics.Gauge;
+import edu.dk.asj.dpm.metrics.Metrics;
+import edu.dk.asj.dpm.network.packets.DiscoveryEchoPacket;
+import edu.dk.asj.dpm.network.packets.DiscoveryPacket;
+import edu.dk.asj.dpm.network.packets.Packet;
+import edu.dk.asj.dpm.network.transport.DiscoveryChannel;
+import edu.dk.asj.dpm.network.transport.InMemoryNetwork;
+import edu.dk.asj.dpm.network.transport.InMemoryTransport;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import edu.dk.asj.dpm.network.transport.StreamListener;
+import edu.dk.asj.dpm.network.transport.Transport;
+import edu.dk.asj.dpm.properties.NetworkProperties;
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.util.BufferHelper;
+import edu.dk.asj.dpm.vault.FragmentDelta;
+import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultEntry;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import edu.dk.asj.dpm.vault.VaultShare;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NetworkControllerTest {
+
+    private static final String PASSWORD = "123";
+    private static final String NETWORK_ID_SEED = "1337";
+    private static final long UNICAST_TIMEOUT_MS = 5000;
+
+    @Test
+    @DisplayName("Get fragments from simulated network")
+    void getNetworkFragments() throws IOException {
+        PropertiesContainer propertiesContainer = PropertiesContainer.loadProperties();
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        VaultFragment fragment = new VaultFragment(new int[]{0}, new byte[]{0x00}, 1);
+        assertTrue(SecurityController.getInstance().saveFragment(fragment, propertiesContainer.getStorageProperties().getFragmentPath()),
+                "Fragment was not saved");
+
+        NetworkProperties clientProperties = NetworkProperties.generate(PASSWORD, NETWORK_ID_SEED, "./test-data/client.prop");
+        NetworkProperties serverProperties = NetworkProperties.generate(PASSWORD, NETWORK_ID_SEED, "./test-data/server.prop");
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build();
+             NetworkController client = new NetworkController(clientProperties, propertiesContainer, network.createTransport());
+             NetworkController server = new NetworkController(serverProperties, propertiesContainer, network.createTransport())) {
+            server.startDiscoveryListener();
+
+            Collection<VaultFragment> fragments = client.getNetworkFragments();
+            assertEquals(1, fragments.size(), "Unexpected fragment count");
+            assertEquals(fragment, fragments.iterator().next(), "Unexpected fragment");
+            assertEquals(2, client.getNetworkSize(), "Unexpected network size");
+        }
+    }
+
+    @Test
+    @DisplayName("Get fragments from simulated network with unicast discovery")
+    void getNetworkFragmentsUnicast() throws IOException {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        VaultFragment fragment = new VaultFragment(new int[]{0}, new byte[]{0x00}, 1);
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            // the client only knows the first server, and learns of the second server from the first server's echo
+            NetworkController client = createUnicastNode(network, "client", "node-2", fragment);
+            NetworkController firstServer = createUnicastNode(network, "first-server", "node-3", fragment);
+            NetworkController secondServer = createUnicastNode(network, "second-server", "node-2", fragment);
+            firstServer.startDiscoveryListener();
+            secondServer.startDiscoveryListener();
+
+            long[] discoveryNanos = new long[1];
+            client.setObserver(new NetworkObserver() {
+                @Override
+                public void discoveryCompleted(long durationNanos, int discoveredNodes) {
+                    discoveryNanos[0] = durationNanos;
+                }
+            });
+
+            try {
+                Collection<VaultFragment> fragments = client.getNetworkFragments();
+                assertEquals(2, fragments.size(), "Unexpected fragment count");
+                assertEquals(3, client.getNetworkSize(), "Unexpected network size");
+                assertTrue(discoveryNanos[0] < TimeUnit.MILLISECONDS.toNanos(UNICAST_TIMEOUT_MS),
+                        "Discovery did not end when all nodes had replied");
+            } finally {
+                client.close();
+                firstServer.close();
+                secondServer.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Ignore discovery echoes from nodes that were not contacted with unicast discovery")
+    void ignoreForgedEchoes() throws Exception {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        VaultFragment fragment = new VaultFragment(new int[]{0}, new byte[]{0x00}, 1);
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            NetworkController client = createUnicastNode(network, "forged-client", "node-2", fragment);
+            NetworkController server = createUnicastNode(network, "forged-server", "node-1", fragment);
+            server.startDiscoveryListener();
+
+            // a forger keeps sending the client echoes that list a bystander, which must not be sent requests
+            DiscoveryChannel forger = network.createTransport().openDiscoveryChannel();
+            DiscoveryChannel bystander = network.createTransport().openDiscoveryChannel();
+            InetSocketAddress bystanderAddress = (InetSocketAddress) bystander.getLocalAddress();
+            InetSocketAddress clientAddress = InetSocketAddress.createUnresolved("node-1", bystanderAddress.getPort());
+            byte[] echo = new DiscoveryEchoPacket(1, UUID.randomUUID(), List.of(bystanderAddress)).serialize();
+            AtomicBoolean forging = new AtomicBoolean(true);
+            Thread forgery = new Thread(() -> {
+                while (forging.get()) {
+                    try {
+                        forger.send(ByteBuffer.wrap(echo), clientAddress);
+                        Thread.sleep(1);
+                    } catch (IOException | InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            forgery.start();
+
+            try {
+                Collection<VaultFragment> fragments = client.getNetworkFragments();
+                assertEquals(1, fragments.size(), "Unexpected fragment count");
+                assertEquals(2, client.getNetworkSize(), "Forged echo was counted as a node");
+                assertNull(bystander.receive(ByteBuffer.allocate(4000)), "Node listed by a forged echo was contacted");
+            } finally {
+                forging.set(false);
+                forgery.join();
+                forger.close();
+                bystander.close();
+                client.close();
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Get enough shares from simulated network without waiting for every node")
+    void getNetworkShares() throws IOException, ClassNotFoundException {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultShare[] shares = vault.encode(4, 2);
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            NetworkController client = createUnicastNode(network, "share-client", "node-2,node-3,node-4", shares[0]);
+            List<NetworkController> servers = new ArrayList<>();
+            for (int i = 1; i < shares.length; i++) {
+                servers.add(createUnicastNode(network, "share-server-" + i, "node-1", shares[i]));
+            }
+            servers.forEach(NetworkController::startDiscoveryListener);
+
+            try {
+                Collection<VaultFragment> fragments = client.getNetworkFragments(shares[0]);
+                assertTrue(fragments.size() >= 1 && fragments.size() < 3, "Unexpected share count " + fragments.size());
+                assertEquals(4, client.getNetworkSize(), "Unexpected network size");
+
+                SecureVault.Builder builder = SecureVault.builder().addFragment(shares[0]);
+                fragments.forEach(builder::addFragment);
+                assertEquals(vault.getAll(), builder.build().getAll(), "Rebuilt vault differs from original");
+            } finally {
+                client.close();
+                servers.forEach(NetworkController::close);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Send vault changes as deltas appended to the nodes' fragments")
+    void sendNetworkDeltas() throws IOException, ClassNotFoundException {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultFragment[] fragments = vault.fragment(2);
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            NetworkController client = createUnicastNode(network, "delta-client", "node-2", fragments[0]);
+            NetworkController server = createUnicastNode(network, "delta-server", "node-1", fragments[1]);
+            server.startDiscoveryListener();
+
+            try {
+                vault.add(new VaultEntry("baz", "qux"));
+                FragmentDelta[] deltas = vault.delta(2, 0);
+                assertTrue(client.appendLocalDelta(deltas[0]), "Delta was not appended to the local fragment");
+                assertFalse(client.appendLocalDelta(deltas[0]), "Delta was appended to a fragment at another generation");
+                assertTrue(fragments[0].appendDelta(deltas[0]), "Delta was not appended to the fragment in memory");
+                assertTrue(client.sendNetworkDeltas(new FragmentDelta[]{deltas[1]}), "Deltas were not sent");
+                // a retry of an applied delta is acknowledged, and a delta from another generation is rejected
+                assertTrue(client.sendNetworkDeltas(new FragmentDelta[]{deltas[1]}), "Retried delta was not acknowledged");
+                FragmentDelta stale = new FragmentDelta(0, 1, 1, deltas[1].getFragment());
+                assertFalse(client.sendNetworkDeltas(new FragmentDelta[]{stale}), "Delta of another generation was applied");
+
+                Collection<VaultFragment> networkFragments = client.getNetworkFragments(fragments[0]);
+                assertEquals(1, networkFragments.size(), "Unexpected fragment count");
+                assertEquals(vault.getGeneration(), networkFragments.iterator().next().getLatestGeneration(),
+                        "Node did not append the delta");
+
+                SecureVault.Builder builder = SecureVault.builder().addFragment(fragments[0]);
+                networkFragments.forEach(builder::addFragment);
+                assertEquals(vault.getAll(), builder.build().getAll(), "Rebuilt vault differs from changed vault");
+                assertFalse(builder.isStale(), "Rebuilt vault is stale");
+            } finally {
+                client.close();
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Keep sending an update until the node that was absent has acknowledged its part")
+    void sendToAbsentNode() throws IOException {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultFragment[] fragments = vault.fragment(3);
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            NetworkController client = createUnicastNode(network, "absent-client", "node-2,node-3", fragments[0]);
+            NetworkController present = createUnicastNode(network, "absent-present", "node-1", fragments[1]);
+            NetworkController absent = createUnicastNode(network, "absent-absent", "node-1", fragments[2]);
+            present.startDiscoveryListener();
+
+            try {
+                vault.add(new VaultEntry("baz", "qux"));
+                FragmentDelta[] deltas = vault.delta(3, 0);
+                PropagationQueue.Publication publication = PropagationQueue.Publication.deltas(vault.getGeneration(),
+                        new FragmentDelta[]{deltas[1], deltas[2]});
+                assertFalse(client.send(publication), "Update was delivered while a node was absent");
+                assertFalse(publication.isDelivered(), "Part of the absent node was dropped");
+
+                absent.startDiscoveryListener();
+                assertTrue(client.send(publication), "Update was not delivered to the node that came online");
+                assertTrue(publication.isDelivered(), "Update was not delivered");
+            } finally {
+                client.close();
+                present.close();
+                absent.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Fetch fragments only from nodes not at the known vault version")
+    void getModifiedNetworkFragments() throws IOException {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultFragment[] fragments = vault.fragment(2);
+        long version = vault.getVersion();
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            NetworkController client = createUnicastNode(network, "version-client", "node-2", fragments[0]);
+            NetworkController server = createUnicastNode(network, "version-server", "node-1", fragments[1]);
+            server.startDiscoveryListener();
+
+            try {
+                assertNull(client.getModifiedNetworkFragments(fragments[0], version), "Unchanged vault was not confirmed");
+                assertEquals(2, client.getNetworkSize(), "Unexpected network size");
+
+                Collection<VaultFragment> modified = client.getModifiedNetworkFragments(fragments[0], version + 1);
+                assertNotNull(modified, "Changed vault was confirmed");
+                assertEquals(List.of(fragments[1]), new ArrayList<>(modified), "Unexpected modified fragments");
+            } finally {
+                client.close();
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Answer rejected discovery requests as busy and release the slot of an undelivered echo")
+    void admission() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/admission.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/admission.prop");
+        properties.setProperty("network.admission.max-concurrent", "1");
+        properties.setProperty("network.admission.queue-capacity", "1");
+        PropertiesContainer propertiesContainer = PropertiesContainer.loadProperties(properties);
+        NetworkProperties networkProperties = NetworkProperties.generate(PASSWORD, NETWORK_ID_SEED,
+                propertiesContainer.getStorageProperties().getNetworkPropertiesPath());
+        DiscoveryPacket request = new DiscoveryPacket(networkProperties.getNetworkId());
+
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            InMemoryTransport transport = network.createTransport();
+            DiscoveryChannel peer = network.createTransport().openDiscoveryChannel();
+            SocketAddress sender = peer.getLocalAddress();
+            try (NetworkController server = new NetworkController(networkProperties, propertiesContainer, transport)) {
+                assertNull(server.process(request, sender), "Admitted request was not answered by the controller");
+                DiscoveryEchoPacket admitted = receiveEcho(peer);
+                assertNotNull(admitted, "Admitted request was not answered");
+                assertFalse(admitted.isBusy(), "Admitted request was answered as busy");
+                assertNull(server.process(request, sender), "Queued request was answered at once");
+                DiscoveryEchoPacket rejected = server.process(request, sender);
+                assertNotNull(rejected, "Rejected request was not answered");
+                assertTrue(rejected.isBusy(), "Rejected request was not answered as busy");
+
+                // closing the admitted connection hands its slot to the queued request
+                abandon(transport, admitted);
+                DiscoveryEchoPacket deferred = receiveEcho(peer);
+                assertNotNull(deferred, "Queued request was not answered once a slot was released");
+                abandon(transport, deferred);
+                awaitAdmissionIdle();
+                assertEquals(0, getAdmissionActive(), "Slots of closed connections were not released");
+            } finally {
+                peer.close();
+            }
+
+            try (NetworkController unreachable = new NetworkController(networkProperties, propertiesContainer,
+                    new UnreachableTransport(network.createTransport()))) {
+                assertNull(unreachable.process(request, sender), "Admitted request was not answered by the controller");
+                awaitAdmissionIdle();
+                assertEquals(0, getAdmissionActive(), "Slot of undelivered echo was not released");
+            }
+        }
+    }
+
+    /**
+     * Transport whose discovery datagrams cannot be sent.
+     */
+    private static final class UnreachableTransport implements Transport {
+        private final Transport transport;
+
+        private UnreachableTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public DiscoveryChannel openDiscoveryChannel() throws IOException {
+            DiscoveryChannel channel = transport.openDiscoveryChannel();
+            return new DiscoveryChannel() {
+                @Override
+                public SocketAddress receive(ByteBuffer buffer) throws IOException {
+                    return channel.receive(buffer);
+                }
+
+                @Override
+                public void send(ByteBuffer buffer, SocketAddress target) throws IOException {
+                    throw new IOException("Network is unreachable");
+                }
+
+                @Override
+                public SocketAddress getLocalAddress() throws IOException {
+                    return channel.getLocalAddress();
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return channel.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+
+        @Override
+        public SocketAddress getDiscoveryGroupAddress() {
+            return transport.getDiscoveryGroupAddress();
+        }
+
+        @Override
+        public SocketAddress resolveDiscoveryAddress(String host, int port) {
+            return transport.resolveDiscoveryAddress(host, port);
+        }
+
+        @Override
+        public SocketAddress resolveStreamAddress(SocketAddress discoverySender, int port) {
+            return transport.resolveStreamAddress(discoverySender, port);
+        }
+
+        @Override
+        public StreamListener openStreamListener() throws IOException {
+            return transport.openStreamListener();
+        }
+
+        @Override
+        public Future<StreamChannel> connect(SocketAddress destination) throws IOException {
+            return transport.connect(destination);
+        }
+    }
+
+    private static DiscoveryEchoPacket receiveEcho(DiscoveryChannel channel) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(4000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (channel.receive(buffer) != null) {
+                return (DiscoveryEchoPacket) Packet.deserialize(BufferHelper.readAndClear(buffer));
+            }
+            Thread.sleep(10);
+        }
+        return null;
+    }
+
+    private static void abandon(InMemoryTransport transport, DiscoveryEchoPacket echo) throws Exception {
+        SocketAddress host = InetSocketAddress.createUnresolved(transport.getHost(), 0);
+        transport.connect(transport.resolveStreamAddress(host, echo.getConnectionPort())).get(1, TimeUnit.SECONDS).close();
+    }
+
+    private static void awaitAdmissionIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getAdmissionActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long getAdmissionActive() {
+        return Metrics.getInstance().getMetrics().stream()
+                .filter(metric -> metric.getName().equals("network.admission.active"))
+                .mapToLong(metric -> ((Gauge) metric).getValue())
+                .findFirst()
+                .orElse(-1);
+    }
+
+    private static NetworkController createUnicastNode(InMemoryNetwork network, String name, String seed,
+                                                       VaultFragment fragment) {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/" + name + ".frag");
+        properties.setProperty("storage.path.network-properties", "test-data/" + name + ".prop");
+        properties.setProperty("network.discovery.mode", "unicast");
+        properties.setProperty("network.discovery.seeds", seed);
+        properties.setProperty("network.discovery.timeout-ms", String.valueOf(UNICAST_TIMEOUT_MS));
+        PropertiesContainer propertiesContainer = PropertiesContainer.loadProperties(properties);
+
+        assertTrue(SecurityController.getInstance().saveFragment(fragment, propertiesContainer.getStorageProperties().getFragmentPath()),
+                "Fragment was not saved");
+        NetworkProperties networkProperties = NetworkProperties.generate(PASSWORD, NETWORK_ID_SEED,
+                propertiesContainer.getStorageProperties().getNetworkPropertiesPath());
+        return new NetworkController(networkProperties, propertiesContainer, network.createTransport());
+    }
+}
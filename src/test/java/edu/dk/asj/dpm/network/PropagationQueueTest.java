@@ -0,0 +1,211 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.security.SecurityController;
+import edu.dk.asj.dpm.vault.SecureVault;
+import edu.dk.asj.dpm.vault.VaultEntry;
+import edu.dk.asj.dpm.vault.VaultFragment;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PropagationQueueTest {
+
+    @BeforeAll
+    static void setMasterPassword() {
+        SecurityController.getInstance().setMasterPassword("123");
+    }
+
+    @Test
+    @DisplayName("Retry failed updates and send them in order")
+    void retryInOrder() throws IOException {
+        AtomicInteger failures = new AtomicInteger(2);
+        List<Long> sent = Collections.synchronizedList(new ArrayList<>());
+        PropagationQueue queue = new PropagationQueue(publication -> {
+            if (failures.getAndDecrement() > 0) {
+                return false;
+            }
+            return sent.add(publication.getGeneration());
+        }, "test-data/retry.queue", 10, 40);
+
+        SecureVault vault = createVault();
+        List<Integer> attempts = new ArrayList<>();
+        queue.setListener(new PropagationListener() {
+            @Override
+            public void propagated(PropagationQueue.Publication publication, int attemptCount) {
+                attempts.add(attemptCount);
+            }
+        });
+        queue.start();
+        try {
+            queue.enqueue(PropagationQueue.Publication.fragments(1, vault.fragment(2)));
+            vault.add(new VaultEntry("second", "secret"));
+            queue.enqueue(PropagationQueue.Publication.deltas(2, vault.delta(2, 0)));
+
+            assertTrue(queue.awaitEmpty(5, TimeUnit.SECONDS), "Queue was not emptied");
+            assertEquals(List.of(1L, 2L), sent, "Updates were not sent in order");
+            assertEquals(List.of(3, 1), attempts, "Unexpected attempt counts");
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Resume saved updates and drop updates superseded by a full fragmentation")
+    void resumeAndSupersede() throws IOException {
+        String path = "test-data/resume.queue";
+        SecureVault vault = createVault();
+        VaultFragment[] fragments = vault.fragment(2);
+
+        PropagationQueue offline = new PropagationQueue(publication -> false, path, 60000, 60000);
+        offline.start();
+        offline.enqueue(PropagationQueue.Publication.fragments(1, fragments));
+        offline.close();
+
+        List<PropagationQueue.Publication> sent = Collections.synchronizedList(new ArrayList<>());
+        PropagationQueue resumed = new PropagationQueue(sent::add, path, 10, 10);
+        resumed.start();
+        try {
+            assertTrue(resumed.awaitEmpty(5, TimeUnit.SECONDS), "Saved update was not resumed");
+            assertEquals(1, sent.size(), "Unexpected number of resumed updates");
+            assertEquals(fragments[1], sent.get(0).getFragments()[1], "Resumed update differs from saved update");
+        } finally {
+            resumed.close();
+        }
+
+        AtomicInteger superseded = new AtomicInteger();
+        PropagationQueue blocked = new PropagationQueue(publication -> false, "test-data/supersede.queue", 60000, 60000);
+        blocked.setListener(new PropagationListener() {
+            @Override
+            public void superseded(PropagationQueue.Publication publication) {
+                superseded.incrementAndGet();
+            }
+        });
+        try {
+            vault.add(new VaultEntry("second", "secret"));
+            blocked.enqueue(PropagationQueue.Publication.deltas(2, vault.delta(2, 0)));
+            vault.add(new VaultEntry("third", "secret"));
+            blocked.enqueue(PropagationQueue.Publication.deltas(3, vault.delta(2, 0)));
+            blocked.enqueue(PropagationQueue.Publication.fragments(4, vault.fragment(2)));
+            assertEquals(1, blocked.size(), "Superseded updates were not dropped");
+            assertEquals(2, superseded.get(), "Listener was not notified of superseded updates");
+            assertFalse(blocked.awaitEmpty(10, TimeUnit.MILLISECONDS), "Update was sent while the queue was not started");
+        } finally {
+            blocked.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Keep the nodes' parts and acknowledgements across attempts and restarts")
+    void deliveryPerNode() throws Exception {
+        String path = "test-data/delivery.queue";
+        SecureVault vault = createVault();
+        vault.fragment(3);
+        vault.add(new VaultEntry("second", "secret"));
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        // the first node acknowledges its part, and the second node does not
+        CountDownLatch failed = new CountDownLatch(1);
+        PropagationQueue offline = new PropagationQueue(publication -> {
+            assertEquals(0, publication.assign(first), "Unexpected part of the first node");
+            assertEquals(1, publication.assign(second), "Unexpected part of the second node");
+            publication.setDelivered(first);
+            return publication.isDelivered();
+        }, path, 60000, 60000);
+        offline.setListener(new PropagationListener() {
+            @Override
+            public void propagationFailed(PropagationQueue.Publication publication, int attempts, long retryDelayMs) {
+                failed.countDown();
+            }
+        });
+        offline.start();
+        offline.enqueue(PropagationQueue.Publication.deltas(2, vault.delta(3, 0)));
+        assertTrue(failed.await(5, TimeUnit.SECONDS), "Update did not fail");
+        offline.close();
+
+        List<Boolean> checks = Collections.synchronizedList(new ArrayList<>());
+        PropagationQueue resumed = new PropagationQueue(publication -> {
+            checks.add(publication.isDelivered(first));
+            checks.add(publication.assign(third) == 2 && publication.assign(second) == 1);
+            checks.add(publication.assign(UUID.randomUUID()) < 0);
+            publication.setDelivered(second);
+            checks.add(publication.isDelivered());
+            publication.setDelivered(third);
+            return publication.isDelivered();
+        }, path, 10, 10);
+        resumed.start();
+        try {
+            assertTrue(resumed.awaitEmpty(5, TimeUnit.SECONDS), "Resumed update was not sent");
+            assertEquals(List.of(true, true, true, false), checks, "Parts or acknowledgements were not kept");
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Hold a rejected update without retrying it, across restarts, until a full fragmentation supersedes it")
+    void holdRejected() throws Exception {
+        String path = "test-data/rejected.queue";
+        SecureVault vault = createVault();
+        vault.fragment(2);
+        vault.add(new VaultEntry("second", "secret"));
+        AtomicInteger attempts = new AtomicInteger();
+
+        CountDownLatch rejected = new CountDownLatch(1);
+        PropagationQueue rejecting = new PropagationQueue(publication -> {
+            attempts.incrementAndGet();
+            publication.assign(UUID.randomUUID());
+            publication.setRejected();
+            return false;
+        }, path, 1, 1);
+        rejecting.setListener(new PropagationListener() {
+            @Override
+            public void rejected(PropagationQueue.Publication publication) {
+                rejected.countDown();
+            }
+        });
+        rejecting.start();
+        rejecting.enqueue(PropagationQueue.Publication.deltas(2, vault.delta(2, 0)));
+        assertTrue(rejected.await(5, TimeUnit.SECONDS), "Listener was not notified of the rejection");
+        vault.add(new VaultEntry("third", "secret"));
+        rejecting.enqueue(PropagationQueue.Publication.deltas(3, vault.delta(2, 0)));
+        assertFalse(rejecting.awaitEmpty(50, TimeUnit.MILLISECONDS), "Rejected update did not hold the updates after it");
+        assertEquals(1, attempts.get(), "Rejected update was retried");
+        assertTrue(rejecting.isRefragmentRequired(), "Rejection did not require a full fragmentation");
+        rejecting.close();
+
+        List<Long> sent = Collections.synchronizedList(new ArrayList<>());
+        PropagationQueue resumed = new PropagationQueue(publication -> sent.add(publication.getGeneration()), path, 1, 1);
+        resumed.start();
+        try {
+            assertTrue(resumed.isRefragmentRequired(), "Rejection was not saved with the queue");
+            assertFalse(resumed.awaitEmpty(50, TimeUnit.MILLISECONDS), "Resumed rejected update was sent");
+            resumed.enqueue(PropagationQueue.Publication.fragments(4, vault.fragment(2)));
+            assertTrue(resumed.awaitEmpty(5, TimeUnit.SECONDS), "Full fragmentation was not sent");
+            assertEquals(List.of(4L), sent, "Unexpected updates sent");
+            assertFalse(resumed.isRefragmentRequired(), "Full fragmentation did not supersede the rejection");
+        } finally {
+            resumed.close();
+        }
+    }
+
+    private static SecureVault createVault() {
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("first", "secret"));
+        return vault;
+    }
+}
@@ -0,0 +1,119 @@
+package edu.dk.asj.dpm.network;
+
+import edu.dk.asj.dpm.network.connections.ClientConnection;
+import edu.dk.asj.dpm.network.packets.GetFragmentPacket;
+import edu.dk.asj.dpm.network.transport.InMemoryNetwork;
+import edu.dk.asj.dpm.network.transport.InMemoryTransport;
+import edu.dk.asj.dpm.security.SecurityController;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestSchedulerTest {
+
+    private static final long HEDGE_DELAY_MS = 50;
+
+    @BeforeAll
+    static void setMasterPassword() {
+        SecurityController.getInstance().setMasterPassword("123");
+    }
+
+    @Test
+    @DisplayName("Hedge the request to an alternate when the running connection stalls")
+    void hedgeStalledConnection() throws IOException {
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            InMemoryTransport client = network.createTransport();
+            ClientConnection first = prepareStalled(network, client);
+            ClientConnection second = prepareStalled(network, client);
+
+            RequestScheduler scheduler = createScheduler(Deadline.after(5, TimeUnit.SECONDS));
+            scheduler.setTarget(1);
+            scheduler.offer(first);
+            scheduler.offer(second);
+            assertTrue(first.isAlive(), "First connection was not started");
+            assertFalse(second.isAlive(), "Alternate was started before the hedge delay");
+
+            assertNull(scheduler.poll(4 * HEDGE_DELAY_MS, TimeUnit.MILLISECONDS), "Stalled connection completed");
+            assertTrue(second.isAlive(), "Alternate was not started after the hedge delay");
+
+            // a stalled connection would wait out the 3 s handshake timeout, while a cancelled one stops at its next
+            // network operation
+            scheduler.close();
+            assertTimeout(Duration.ofMillis(2500), () -> {
+                first.join();
+                second.join();
+            }, "Cancelled connections kept waiting for their nodes");
+            assertTrue(first.isCancelled() && second.isCancelled(), "Late connections were not cancelled");
+        }
+    }
+
+    @Test
+    @DisplayName("Replace a failed connection with an alternate")
+    void replaceFailedConnection() throws IOException {
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            InMemoryTransport client = network.createTransport();
+            ClientConnection refused = ClientConnection.prepare(client,
+                    InetSocketAddress.createUnresolved("no-such-node", 1), UUID.randomUUID(), UUID.randomUUID());
+            ClientConnection alternate = prepareStalled(network, client);
+
+            RequestScheduler scheduler = new RequestScheduler(new GetFragmentPacket(BigInteger.ONE), true,
+                    Deadline.after(5, TimeUnit.SECONDS), 0);
+            scheduler.setTarget(1);
+            scheduler.offer(refused);
+            scheduler.offer(alternate);
+
+            ClientConnection failed = scheduler.poll(1, TimeUnit.SECONDS);
+            assertSame(refused, failed, "Refused connection was not completed");
+            assertNotNull(failed.getError(), "Refused connection has no error");
+            assertFalse(alternate.isAlive(), "Alternate was started without hedging");
+
+            scheduler.setTarget(1);
+            assertTrue(alternate.isAlive(), "Alternate did not replace the failed connection");
+            scheduler.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Bound waiting by the request deadline")
+    void pollUntilDeadline() throws IOException {
+        try (InMemoryNetwork network = InMemoryNetwork.builder().build()) {
+            InMemoryTransport client = network.createTransport();
+            ClientConnection stalled = prepareStalled(network, client);
+
+            RequestScheduler scheduler = createScheduler(Deadline.after(200, TimeUnit.MILLISECONDS));
+            scheduler.offer(stalled);
+
+            long start = System.nanoTime();
+            ClientConnection connection = scheduler.poll(10, TimeUnit.SECONDS);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (connection != null) {
+                assertNotNull(connection.getError(), "Stalled connection completed without error");
+            }
+            assertTrue(elapsedMs < 1000, "Waited " + elapsedMs + " ms beyond the deadline");
+            scheduler.close();
+        }
+    }
+
+    private static RequestScheduler createScheduler(Deadline deadline) {
+        return new RequestScheduler(new GetFragmentPacket(BigInteger.ONE), true, deadline, HEDGE_DELAY_MS);
+    }
+
+    /**
+     * Prepare a connection to a node that accepts the connection on the network level but never answers.
+     */
+    private static ClientConnection prepareStalled(InMemoryNetwork network, InMemoryTransport client) {
+        InMemoryTransport server = network.createTransport();
+        int port = server.openStreamListener().getPort();
+        return ClientConnection.prepare(client, InetSocketAddress.createUnresolved(server.getHost(), port),
+                UUID.randomUUID(), UUID.randomUUID());
+    }
+}
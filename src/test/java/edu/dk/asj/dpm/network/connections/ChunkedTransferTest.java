@@ -0,0 +1,99 @@
+package edu.dk.asj.dpm.network.connections;
+
+import edu.dk.asj.dpm.network.transport.InMemoryNetwork;
+import edu.dk.asj.dpm.network.transport.InMemoryTransport;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import edu.dk.asj.dpm.network.transport.StreamListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkedTransferTest {
+
+    private InMemoryNetwork network;
+    private StreamChannel clientChannel;
+    private StreamChannel serverChannel;
+
+    @BeforeEach
+    void connect() throws Exception {
+        network = InMemoryNetwork.builder().build();
+        InMemoryTransport client = network.createTransport();
+        InMemoryTransport server = network.createTransport();
+
+        StreamListener listener = server.openStreamListener();
+        Future<StreamChannel> accepted = listener.accept();
+        clientChannel = client.connect(server.resolveStreamAddress(
+                InetSocketAddress.createUnresolved(server.getHost(), 0), listener.getPort())).get(1, TimeUnit.SECONDS);
+        serverChannel = accepted.get(1, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        network.close();
+    }
+
+    @Test
+    @DisplayName("Transfer a message of many chunks, followed by a frame")
+    void transfer() throws Exception {
+        byte[] message = new byte[20 * ChunkedTransfer.CHUNK_SIZE + 123];
+        new Random(1).nextBytes(message);
+        byte[] packet = {0x01, 0x02, 0x03};
+
+        ChunkedTransfer sender = new ChunkedTransfer(clientChannel);
+        CompletableFuture<Void> sent = CompletableFuture.runAsync(() -> {
+            try {
+                try (OutputStream stream = sender.send(message.length, () -> 1000)) {
+                    // uneven writes cross the chunk boundaries
+                    for (int offset = 0; offset < message.length; offset += 10_000) {
+                        stream.write(message, offset, Math.min(10_000, message.length - offset));
+                    }
+                }
+                sender.writeFrame(ChunkedTransfer.PACKET, packet, 1000);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        ChunkedTransfer receiver = new ChunkedTransfer(serverChannel);
+        assertEquals(message.length, receiver.receiveHeader(1000), "Unexpected message size");
+        byte[] received = new byte[message.length];
+        try (InputStream stream = receiver.receive(() -> 1000)) {
+            assertEquals(message.length, stream.readNBytes(received, 0, received.length), "Message was truncated");
+            assertEquals(-1, stream.read(), "Transfer did not end after the message");
+        }
+        assertArrayEquals(message, received, "Received message differs");
+
+        ChunkedTransfer.Frame frame = receiver.readFrame(1000);
+        assertEquals(ChunkedTransfer.PACKET, frame.getType(), "Unexpected frame type");
+        assertArrayEquals(packet, frame.getBody(), "Unexpected frame body");
+        sent.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    @DisplayName("Sender waits for credit once the window is full")
+    void backpressure() throws Exception {
+        ChunkedTransfer sender = new ChunkedTransfer(clientChannel);
+        byte[] message = new byte[(ChunkedTransfer.INITIAL_CREDITS + 1) * ChunkedTransfer.CHUNK_SIZE];
+
+        OutputStream stream = sender.send(message.length, () -> 100);
+        // the receiver never reads, so the chunk beyond the window is never sent
+        assertThrows(IOException.class, () -> stream.write(message), "Sender exceeded the window");
+        // a header frame, and a frame per chunk in the window
+        long expectedBytes = (5 + 8) + ChunkedTransfer.INITIAL_CREDITS * (5L + ChunkedTransfer.CHUNK_SIZE);
+        assertEquals(expectedBytes, sender.getBytesSent(), "Unexpected number of bytes in flight");
+    }
+}
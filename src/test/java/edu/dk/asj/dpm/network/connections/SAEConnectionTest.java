@@ -0,0 +1,178 @@
+package edu.dk.asj.dpm.network.connections;
+
+import edu.dk.asj.dpm.network.packets.DiscoveryPacket;
+import edu.dk.asj.dpm.network.packets.NotModifiedPacket;
+import edu.dk.asj.dpm.network.packets.Packet;
+import edu.dk.asj.dpm.network.transport.InMemoryNetwork;
+import edu.dk.asj.dpm.network.transport.InMemoryTransport;
+import edu.dk.asj.dpm.network.transport.StreamChannel;
+import edu.dk.asj.dpm.network.transport.StreamListener;
+import edu.dk.asj.dpm.security.SecurityController;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SAEConnectionTest {
+    private static final String PASSWORD = "123";
+
+    private InMemoryNetwork network;
+    private Peer client;
+    private Peer server;
+
+    @BeforeEach
+    void connect() throws Exception {
+        network = InMemoryNetwork.builder().build();
+        InMemoryTransport clientTransport = network.createTransport();
+        InMemoryTransport serverTransport = network.createTransport();
+
+        StreamListener listener = serverTransport.openStreamListener();
+        Future<StreamChannel> accepted = listener.accept();
+        client = new Peer(clientTransport.connect(serverTransport.resolveStreamAddress(
+                InetSocketAddress.createUnresolved(serverTransport.getHost(), 0), listener.getPort()))
+                .get(1, TimeUnit.SECONDS));
+        server = new Peer(accepted.get(1, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        network.close();
+    }
+
+    @Test
+    @DisplayName("Authenticate both nodes and deliver the request with the handshake")
+    void handshakeSucceeds() throws Exception {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        handshake();
+
+        // both nodes derived the same key, so later messages decrypt
+        CompletableFuture<Packet> response = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.receiveMessage(() -> 1000);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        server.sendMessage(new NotModifiedPacket(2), () -> 1000);
+        assertEquals(new NotModifiedPacket(2), response.get(5, TimeUnit.SECONDS), "Client did not receive the response");
+    }
+
+    @Test
+    @DisplayName("Fail the handshake on both nodes if the passwords differ")
+    void handshakeWrongPassword() throws Exception {
+        // the password is read when a node starts its session, so the client starts with another password
+        CountDownLatch committed = new CountDownLatch(1);
+        StreamChannel channel = client.connection;
+        client.connection = new StreamChannel() {
+            @Override
+            public Future<Integer> read(ByteBuffer buffer) {
+                return channel.read(buffer);
+            }
+
+            @Override
+            public Future<Integer> write(ByteBuffer buffer) {
+                committed.countDown();
+                return channel.write(buffer);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+        SecurityController.getInstance().setMasterPassword("wrong");
+        CompletableFuture<Boolean> initiated = CompletableFuture.supplyAsync(
+                () -> client.initiateSaeHandshake(server.id, new NotModifiedPacket(1)));
+        assertTrue(committed.await(5, TimeUnit.SECONDS), "Client did not send its commit");
+
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        CompletableFuture<Packet> accepted = CompletableFuture.supplyAsync(server::acceptSaeHandshake);
+        assertFalse(initiated.get(5, TimeUnit.SECONDS), "Client accepted a node with another password");
+        client.connection.close();
+        assertNull(accepted.get(5, TimeUnit.SECONDS), "Server accepted a node with another password");
+        assertFalse(server.isAbandoned(), "Failed handshake was taken for an abandoned connection");
+    }
+
+    @Test
+    @DisplayName("Recognize a connection the client closed without sending anything as abandoned")
+    void abandoned() throws Exception {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        client.connection.close();
+        assertNull(server.acceptSaeHandshake(), "Server accepted a closed connection");
+        assertTrue(server.isAbandoned(), "Closed connection was not taken for abandoned");
+    }
+
+    @Test
+    @DisplayName("Grow the message buffer as a message larger than its initial capacity arrives")
+    void largeMessage() throws Exception {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        handshake();
+
+        Packet message = new DiscoveryPacket(new BigInteger(4_000_000, new Random(1)));
+        CompletableFuture<Packet> received = CompletableFuture.supplyAsync(() -> {
+            try {
+                return server.receiveMessage(() -> 1000);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        client.sendMessage(message, () -> 1000);
+        assertEquals(message, received.get(5, TimeUnit.SECONDS), "Received message differs");
+    }
+
+    @Test
+    @DisplayName("Reject an announced message size beyond the limit before reading the message")
+    void oversizedMessage() throws Exception {
+        SecurityController.getInstance().setMasterPassword(PASSWORD);
+        handshake();
+
+        // the header is not authenticated, so anyone on the path could announce any size
+        byte[] header = ByteBuffer.allocate(Long.BYTES).putLong(Integer.MAX_VALUE).array();
+        new ChunkedTransfer(client.connection).writeFrame(ChunkedTransfer.HEADER, header, 1000);
+        IOException e = assertThrows(IOException.class, () -> server.receiveMessage(() -> 1000),
+                "Oversized message was accepted");
+        assertTrue(e.getMessage().startsWith("Invalid message size"), "Unexpected error: " + e.getMessage());
+    }
+
+    private void handshake() throws Exception {
+        CompletableFuture<Packet> accepted = CompletableFuture.supplyAsync(server::acceptSaeHandshake);
+        assertTrue(client.initiateSaeHandshake(server.id, new NotModifiedPacket(1)), "Client handshake failed");
+        assertEquals(new NotModifiedPacket(1), accepted.get(5, TimeUnit.SECONDS), "Server did not receive the request");
+    }
+
+    private static final class Peer extends SAEConnection {
+        private final UUID id;
+
+        private Peer(StreamChannel channel) {
+            this(UUID.randomUUID(), channel);
+        }
+
+        private Peer(UUID id, StreamChannel channel) {
+            super(id);
+            this.id = id;
+            this.connection = channel;
+        }
+    }
+}
@@ -3,25 +3,46 @@ package edu.dk.asj.dpm.network.packets;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PacketTest {
 
     @Test
     @DisplayName("Packet serialize/deserialize")
     void fragmentPacketIO() {
-        Packet identityPacket = new IdentityPacket(UUID.randomUUID());
+        Packet echoPacket = new DiscoveryEchoPacket(35587, UUID.randomUUID());
 
-        byte[] data = identityPacket.serialize();
+        byte[] data = echoPacket.serialize();
         assertNotNull(data, "Data array is null");
 
         Packet packet = Packet.deserialize(data);
         assertNotNull(packet, "De-serialized packet is null");
-        assertSame(identityPacket.getClass(), packet.getClass(), "Unexpected de-serialized packet class");
-        assertEquals(identityPacket, packet, "Packets are not equal");
+        assertSame(echoPacket.getClass(), packet.getClass(), "Unexpected de-serialized packet class");
+        assertEquals(echoPacket, packet, "Packets are not equal");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Discovery echo with known peers serialize/deserialize")
+    void echoPacketWithPeersIO() {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            peers.add(new InetSocketAddress("10.0.0." + i, 35587));
+        }
+        Packet echoPacket = new DiscoveryEchoPacket(35587, UUID.randomUUID(), peers);
+
+        byte[] data = echoPacket.serialize();
+        assertTrue(data.length < 4000, "Echo does not fit a discovery datagram: " + data.length + " bytes");
+
+        Packet packet = Packet.deserialize(data);
+        assertEquals(echoPacket, packet, "Packets are not equal");
+        assertEquals(peers, ((DiscoveryEchoPacket) packet).getKnownPeers(), "Known peers are not equal");
+    }
+}
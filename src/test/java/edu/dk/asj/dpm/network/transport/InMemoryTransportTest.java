@@ -0,0 +1,104 @@
+package edu.dk.asj.dpm.network.transport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryTransportTest {
+
+    private InMemoryNetwork network;
+
+    @AfterEach
+    void cleanUp() {
+        if (network != null) {
+            network.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Discovery datagram reaches other nodes only")
+    void discoveryGroup() throws Exception {
+        network = InMemoryNetwork.builder().build();
+        InMemoryTransport sender = network.createTransport();
+        InMemoryTransport receiver = network.createTransport();
+        DiscoveryChannel senderChannel = sender.openDiscoveryChannel();
+        DiscoveryChannel receiverChannel = receiver.openDiscoveryChannel();
+
+        senderChannel.send(ByteBuffer.wrap(new byte[]{0x01, 0x02}), sender.getDiscoveryGroupAddress());
+        Thread.sleep(50);
+
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        SocketAddress source = receiverChannel.receive(buffer);
+        assertNotNull(source, "Datagram was not received");
+        assertEquals(sender.getHost(), ((InetSocketAddress) source).getHostString(), "Unexpected datagram source");
+        assertEquals(2, buffer.position(), "Unexpected datagram length");
+        assertNull(senderChannel.receive(ByteBuffer.allocate(10)), "Sender received its own datagram");
+    }
+
+    @Test
+    @DisplayName("Lossy network drops datagrams")
+    void datagramLoss() throws Exception {
+        network = InMemoryNetwork.builder().lossRate(1).build();
+        InMemoryTransport sender = network.createTransport();
+        InMemoryTransport receiver = network.createTransport();
+        DiscoveryChannel senderChannel = sender.openDiscoveryChannel();
+        DiscoveryChannel receiverChannel = receiver.openDiscoveryChannel();
+
+        senderChannel.send(ByteBuffer.wrap(new byte[]{0x01}), sender.getDiscoveryGroupAddress());
+        Thread.sleep(50);
+        assertNull(receiverChannel.receive(ByteBuffer.allocate(10)), "Datagram was not dropped");
+    }
+
+    @Test
+    @DisplayName("Stream round-trip is delayed by latency")
+    void streamRoundTrip() throws Exception {
+        long latencyMs = 20;
+        network = InMemoryNetwork.builder().latency(Duration.ofMillis(latencyMs)).build();
+        InMemoryTransport client = network.createTransport();
+        InMemoryTransport server = network.createTransport();
+
+        StreamListener listener = server.openStreamListener();
+        Future<StreamChannel> accepted = listener.accept();
+        long start = System.nanoTime();
+        StreamChannel clientChannel = client.connect(server.resolveStreamAddress(
+                InetSocketAddress.createUnresolved(server.getHost(), 0), listener.getPort())).get(1, TimeUnit.SECONDS);
+        StreamChannel serverChannel = accepted.get(1, TimeUnit.SECONDS);
+
+        byte[] message = "Hello, world!".getBytes(StandardCharsets.UTF_8);
+        clientChannel.write(ByteBuffer.wrap(message)).get(1, TimeUnit.SECONDS);
+        ByteBuffer received = ByteBuffer.allocate(100);
+        int length = serverChannel.read(received).get(1, TimeUnit.SECONDS);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(message.length, length, "Unexpected read length");
+        assertTrue(elapsedMs >= 2 * latencyMs, "Round trip was faster than the simulated latency");
+
+        clientChannel.close();
+        assertEquals(-1, serverChannel.read(ByteBuffer.allocate(10)).get(1, TimeUnit.SECONDS), "End-of-stream not received");
+    }
+
+    @Test
+    @DisplayName("Connecting to unknown listener fails")
+    void connectRefused() throws Exception {
+        network = InMemoryNetwork.builder().build();
+        InMemoryTransport client = network.createTransport();
+
+        Future<StreamChannel> promise = client.connect(InetSocketAddress.createUnresolved("unknown", 1));
+        assertThrows(ExecutionException.class, () -> promise.get(1, TimeUnit.SECONDS), "Connect did not fail");
+    }
+}
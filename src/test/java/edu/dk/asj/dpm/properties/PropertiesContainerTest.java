@@ -4,6 +4,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,5 +20,31 @@ class PropertiesContainerTest {
         assertNotNull(properties.getStorageProperties(),"Storage properties is null");
         assertNotNull(properties.getStorageProperties().getFragmentPath(), "Fragment storage path is null");
         assertNotNull(properties.getStorageProperties().getNetworkPropertiesPath(), "Network properties storage path is null");
+        assertNotNull(properties.getMetricsProperties(), "Metrics properties is null");
+        assertNotNull(properties.getMetricsProperties().getJmxDomain(), "Metrics JMX domain is null");
+        assertNotNull(properties.getDiscoveryProperties(), "Discovery properties is null");
+        assertEquals(DiscoveryProperties.Mode.MULTICAST, properties.getDiscoveryProperties().getMode(), "Unexpected discovery mode");
+    }
+
+    @Test
+    @DisplayName("Parse unicast discovery seeds")
+    void loadDiscoverySeeds() {
+        Properties properties = new Properties();
+        properties.setProperty("storage.path.vault-fragment", "test-data/vault.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/network.prop");
+        properties.setProperty("network.discovery.mode", "unicast");
+        properties.setProperty("network.discovery.port", "40000");
+        properties.setProperty("network.discovery.seeds", "10.0.0.1, node-2:40001, [::1]:40002");
+        DiscoveryProperties discovery = PropertiesContainer.loadProperties(properties).getDiscoveryProperties();
+
+        assertEquals(DiscoveryProperties.Mode.UNICAST, discovery.getMode(), "Unexpected discovery mode");
+        assertEquals(3, discovery.getSeeds().size(), "Unexpected seed count");
+        assertEquals("10.0.0.1:40000", discovery.getSeeds().get(0).toString(), "Seed without port must use the discovery port");
+        assertEquals("node-2:40001", discovery.getSeeds().get(1).toString(), "Unexpected seed");
+        assertEquals("::1", discovery.getSeeds().get(2).getHost(), "Unexpected IPv6 seed host");
+
+        properties.remove("network.discovery.seeds");
+        assertThrows(IllegalArgumentException.class, () -> PropertiesContainer.loadProperties(properties),
+                "Unicast mode without seeds must be rejected");
     }
 }
\ No newline at end of file
@@ -10,17 +10,30 @@ import org.junit.jupiter.api.TestMethodOrder;
 
 import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -55,6 +68,79 @@ class SecurityControllerTest {
         assertNotNull(fragment, "Fragment was not loaded");
     }
 
+    @Test
+    @DisplayName("Fragment file has a structured header, and files without it are still read")
+    void fragmentFileFormat() throws Exception {
+        SecurityController controller = SecurityController.getInstance();
+        controller.setMasterPassword(PASSWORD);
+        VaultFragment fragment = new VaultFragment(new int[]{0, 1}, new byte[]{0x01, 0x02}, 2);
+
+        String fragmentPath = "test-data/structured.frag";
+        assertTrue(controller.saveFragment(fragment, fragmentPath), "Fragment was not saved");
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fragmentPath)));
+        assertEquals(FragmentStore.MAGIC, header.getInt(), "Fragment file has no header");
+        assertEquals(FragmentStore.FORMAT_VERSION, header.getShort(), "Unexpected format version");
+        assertEquals(fragment, controller.loadFragment(fragmentPath), "Loaded fragment differs from saved fragment");
+
+        byte[] saved = Files.readAllBytes(Paths.get(fragmentPath));
+        byte[] tampered = saved.clone();
+        tampered[9] ^= 0x01;
+        Files.write(Paths.get(fragmentPath), tampered);
+        assertNull(controller.loadFragment(fragmentPath), "Fragment with tampered header was loaded");
+
+        // the KDF parameters are read before the header is authenticated, so they are bounded first
+        tampered = saved.clone();
+        ByteBuffer.wrap(tampered).putInt(6, Integer.MAX_VALUE);
+        Files.write(Paths.get(fragmentPath), tampered);
+        long start = System.nanoTime();
+        assertNull(controller.loadFragment(fragmentPath), "Fragment with huge KDF iteration count was loaded");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "Huge KDF iteration count was derived");
+        tampered = saved.clone();
+        tampered[10] = 0;
+        Files.write(Paths.get(fragmentPath), tampered);
+        assertNull(controller.loadFragment(fragmentPath), "Fragment without KDF salt was loaded");
+
+        // fragments were encrypted under the master password derivative before the header was introduced
+        byte[] mpDerivative = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA3-256", "BC")
+                .generateSecret(new PBEKeySpec(PASSWORD.toCharArray(), new byte[]{0x00}, 1000, 128))
+                .getEncoded();
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(serialized)) {
+            objectStream.writeObject(fragment);
+        }
+        String legacyPath = "test-data/legacy.frag";
+        Files.write(Paths.get(legacyPath), controller.encrypt(serialized.toByteArray(), mpDerivative));
+        assertEquals(fragment, controller.loadFragment(legacyPath), "Fragment file without header was not read");
+    }
+
+    @Test
+    @DisplayName("Concurrent fragment saves replace the file atomically")
+    void concurrentFragmentSaves() throws Exception {
+        SecurityController controller = SecurityController.getInstance();
+        controller.setMasterPassword(PASSWORD);
+        String fragmentPath = "test-data/journal.frag";
+
+        List<VaultFragment> fragments = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            fragments.add(new VaultFragment(new int[]{0, 1}, new byte[]{(byte) i, 0x02}, 2));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(fragments.size());
+        try {
+            List<Future<Boolean>> saves = new ArrayList<>();
+            for (VaultFragment fragment : fragments) {
+                saves.add(executor.submit(() -> controller.saveFragment(fragment, fragmentPath)));
+            }
+            for (Future<Boolean> save : saves) {
+                assertTrue(save.get(10, TimeUnit.SECONDS), "Fragment was not saved");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(fragments.contains(controller.loadFragment(fragmentPath)), "Saved fragment was not loaded");
+        assertFalse(Files.exists(Paths.get(fragmentPath + ".tmp")), "Temporary fragment file was left behind");
+    }
+
     @Test
     @DisplayName("Get singleton instance")
     void getInstance() {
@@ -0,0 +1,121 @@
+package edu.dk.asj.dpm.security;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamAeadTest {
+    private static final int SEGMENT_SIZE = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+
+    @Test
+    @DisplayName("Encrypt and decrypt streams and buffers across segment boundaries")
+    void roundTrip() throws Exception {
+        StreamAead aead = new StreamAead(key, SEGMENT_SIZE, new byte[]{0x01});
+        for (int length : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 5 * SEGMENT_SIZE}) {
+            byte[] plainText = new byte[length];
+            random.nextBytes(plainText);
+
+            byte[] streamed = encryptStream(aead, plainText);
+            assertEquals(StreamAead.getCipherTextLength(length, SEGMENT_SIZE), streamed.length,
+                    "Unexpected cipher-text length of " + length + " bytes");
+            assertArrayEquals(plainText, decryptStream(aead, streamed), "Stream of " + length + " bytes differs");
+
+            ByteBuffer buffered = ByteBuffer.allocate(streamed.length);
+            aead.encrypt(ByteBuffer.wrap(plainText), buffered, random);
+            assertEquals(0, buffered.remaining(), "Buffer was not filled");
+            assertArrayEquals(plainText, decryptStream(aead, buffered.array()), "Buffer of " + length + " bytes differs");
+            assertArrayEquals(plainText, decryptBuffer(aead, streamed), "Decrypted buffer of " + length + " bytes differs");
+        }
+    }
+
+    @Test
+    @DisplayName("Seal and open segments in parallel across batches")
+    void parallelSegments() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            StreamAead aead = new StreamAead(key, SEGMENT_SIZE, null, pool);
+            byte[] plainText = new byte[40 * SEGMENT_SIZE + 5];
+            random.nextBytes(plainText);
+
+            ByteBuffer buffered = ByteBuffer.allocate((int) StreamAead.getCipherTextLength(plainText.length, SEGMENT_SIZE));
+            aead.encrypt(ByteBuffer.wrap(plainText), buffered, random);
+            assertArrayEquals(plainText, decryptBuffer(aead, buffered.array()), "Buffer differs after parallel decryption");
+            assertArrayEquals(plainText, decryptStream(aead, buffered.array()), "Stream differs after batched decryption");
+            assertArrayEquals(plainText, decryptBuffer(aead, encryptStream(aead, plainText)), "Stream differs after batched encryption");
+
+            byte[] modified = buffered.array().clone();
+            modified[modified.length - 1] ^= 0x01;
+            assertThrows(AEADBadTagException.class, () -> decryptBuffer(aead, modified), "Modified last segment was accepted");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Reject modified, reordered and truncated cipher-texts")
+    void rejectTampering() throws Exception {
+        StreamAead aead = new StreamAead(key, SEGMENT_SIZE, null);
+        byte[] plainText = new byte[3 * SEGMENT_SIZE];
+        random.nextBytes(plainText);
+        byte[] cipherText = encryptStream(aead, plainText);
+        int segmentLength = SEGMENT_SIZE + StreamAead.TAG_LENGTH;
+
+        byte[] modified = cipherText.clone();
+        modified[StreamAead.HEADER_LENGTH + 1] ^= 0x01;
+        assertThrows(IOException.class, () -> decryptStream(aead, modified), "Modified segment was accepted");
+
+        byte[] reordered = cipherText.clone();
+        System.arraycopy(cipherText, StreamAead.HEADER_LENGTH, reordered, StreamAead.HEADER_LENGTH + segmentLength, segmentLength);
+        System.arraycopy(cipherText, StreamAead.HEADER_LENGTH + segmentLength, reordered, StreamAead.HEADER_LENGTH, segmentLength);
+        assertThrows(IOException.class, () -> decryptStream(aead, reordered), "Reordered segments were accepted");
+
+        byte[] truncated = Arrays.copyOf(cipherText, StreamAead.HEADER_LENGTH + 2 * segmentLength);
+        assertThrows(IOException.class, () -> decryptStream(aead, truncated), "Stream cut at a segment boundary was accepted");
+
+        StreamAead otherData = new StreamAead(key, SEGMENT_SIZE, new byte[]{0x01});
+        assertThrows(IOException.class, () -> decryptStream(otherData, cipherText), "Different associated data was accepted");
+    }
+
+    private byte[] encryptStream(StreamAead aead, byte[] plainText) throws IOException {
+        ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+        try (OutputStream stream = aead.newEncryptingStream(cipherText, random)) {
+            // uneven writes cross the segment boundaries
+            for (int offset = 0; offset < plainText.length; offset += 7) {
+                stream.write(plainText, offset, Math.min(7, plainText.length - offset));
+            }
+        }
+        return cipherText.toByteArray();
+    }
+
+    private static byte[] decryptBuffer(StreamAead aead, byte[] cipherText) throws Exception {
+        ByteBuffer plainText = ByteBuffer.allocate((int) StreamAead.getPlainTextLength(cipherText.length, SEGMENT_SIZE));
+        aead.decrypt(ByteBuffer.wrap(cipherText), plainText);
+        assertEquals(0, plainText.remaining(), "Buffer was not filled");
+        return plainText.array();
+    }
+
+    private static byte[] decryptStream(StreamAead aead, byte[] cipherText) throws IOException {
+        try (InputStream stream = aead.newDecryptingStream(new ByteArrayInputStream(cipherText))) {
+            return stream.readAllBytes();
+        }
+    }
+}
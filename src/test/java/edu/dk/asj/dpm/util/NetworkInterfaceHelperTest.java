@@ -1,15 +1,23 @@
 package edu.dk.asj.dpm.util;
 
+import edu.dk.asj.dpm.properties.PropertiesContainer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class NetworkInterfaceHelperTest {
 
+    @AfterEach
+    void resetConfiguration() {
+        configure(new Properties());
+    }
+
     @Test
     @DisplayName("Get active network interface controller")
     void getActiveNetInterface() {
@@ -23,4 +31,43 @@ class NetworkInterfaceHelperTest {
         InetAddress address = NetworkInterfaceHelper.getNetworkInterfaceAddress();
         assertNotNull(address, "Address is null");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Select network interface by configured name")
+    void selectByName() throws Exception {
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        Properties properties = new Properties();
+        properties.setProperty("network.interface.name", loopback.getName());
+        configure(properties);
+
+        assertEquals(loopback, NetworkInterfaceHelper.getNetworkInterfaceController(), "Configured interface was not selected");
+        assertTrue(NetworkInterfaceHelper.getNetworkInterfaceAddress().isLoopbackAddress(), "Address is not of configured interface");
+    }
+
+    @Test
+    @DisplayName("Fall back to detection when configured interface does not exist")
+    void selectUnknownName() {
+        Properties properties = new Properties();
+        properties.setProperty("network.interface.name", "no-such-interface0");
+        properties.setProperty("network.interface.cidr", "not-a-subnet");
+        configure(properties);
+
+        assertNotNull(NetworkInterfaceHelper.getNetworkInterfaceController(), "Controller is null");
+        assertNotNull(NetworkInterfaceHelper.getNetworkInterfaceAddress(), "Address is null");
+    }
+
+    @Test
+    @DisplayName("Detect network interface quickly")
+    void detectQuickly() {
+        long start = System.nanoTime();
+        NetworkInterfaceHelper.getNetworkInterfaceController();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMs < 1000, "Detection took " + elapsedMs + " ms");
+    }
+
+    private static void configure(Properties properties) {
+        properties.setProperty("storage.path.vault-fragment", "test-data/vault.frag");
+        properties.setProperty("storage.path.network-properties", "test-data/network.prop");
+        NetworkInterfaceHelper.configure(PropertiesContainer.loadProperties(properties).getNetworkInterfaceProperties());
+    }
+}
@@ -0,0 +1,74 @@
+package edu.dk.asj.dpm.vault;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BkTreeTest {
+
+    @Test
+    @DisplayName("Rank names by edit distance, and follow additions and removals")
+    void search() {
+        BkTree tree = new BkTree();
+        VaultEntry github = new VaultEntry("GitHub", "a");
+        VaultEntry gitlab = new VaultEntry("gitlab", "b");
+        VaultEntry bank = new VaultEntry("bank", "c");
+        tree.add(github);
+        tree.add(gitlab);
+        tree.add(bank);
+
+        assertEquals(1, BkTree.distance("github", "githib"), "Unexpected substitution distance");
+        assertEquals(2, BkTree.distance("gitlab", "gitab1"), "Unexpected insertion and deletion distance");
+
+        assertEquals(List.of(github), tree.search("githib", 1, 10), "Mistyped name was not found");
+        assertEquals(List.of(github, gitlab), tree.search("GITHUB", 3, 10), "Results are not ranked by distance");
+        assertEquals(List.of(github), tree.search("github", 3, 1), "Results are not limited to the closest");
+        assertTrue(tree.search("bankk", 0, 10).isEmpty(), "Name beyond the distance was found");
+
+        tree.remove(new VaultEntry("github", "other"));
+        assertEquals(List.of(gitlab), tree.search("github", 3, 10), "Removed entry was found");
+        tree.add(github);
+        assertEquals(List.of(github), tree.search("github", 0, 10), "Re-added entry was not found");
+        assertEquals(3, tree.size(), "Unexpected tree size");
+    }
+
+    @Test
+    @DisplayName("Match a scan of every entry in a large vault")
+    void matchesScan() {
+        Random random = new Random(1);
+        BkTree tree = new BkTree();
+        List<VaultEntry> entries = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int j = 0, length = 4 + random.nextInt(8); j < length; j++) {
+                name.append((char) ('a' + random.nextInt(8)));
+            }
+            VaultEntry entry = new VaultEntry(name.toString(), "p");
+            if (names.add(entry.getNormalizedName())) {
+                entries.add(entry);
+                tree.add(entry);
+            }
+        }
+
+        for (String query : new String[]{"abcde", "hhgg", "fedcbaab", "aaaa"}) {
+            List<VaultEntry> expected = entries.stream()
+                    .filter(e -> BkTree.distance(query, e.getNormalizedName()) <= 2)
+                    .sorted(Comparator.comparingInt((VaultEntry e) -> BkTree.distance(query, e.getNormalizedName()))
+                            .thenComparing(VaultEntry::getNormalizedName))
+                    .limit(5)
+                    .collect(Collectors.toList());
+            assertEquals(expected, tree.search(query, 2, 5), "Tree differs from scan for query " + query);
+        }
+    }
+}
@@ -5,14 +5,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -79,6 +85,36 @@ class SecureVaultTest {
         assertTrue(wasRemoved, "Entry was not removed");
     }
 
+    @Test
+    @DisplayName("Look up entries by name, prefix and page")
+    void navigate() {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        vault.add(new VaultEntry("fooBar", "baz"));
+        vault.add(new VaultEntry("Alice", "Bob"));
+        assertFalse(vault.add(new VaultEntry("FOO", "qux")), "Entry differing only in case was added");
+
+        assertEquals("fooBar", vault.get("FOOBAR").getName(), "Entry was not found by name");
+        assertNull(vault.get("fo"), "Prefix was found as a name");
+
+        Collection<VaultEntry> prefixed = vault.getByPrefix("Fo");
+        assertEquals(List.of("foo", "fooBar"), prefixed.stream().map(VaultEntry::getName).collect(Collectors.toList()),
+                "Unexpected prefix range");
+        vault.add(new VaultEntry("fox", "box"));
+        assertEquals(3, prefixed.size(), "Prefix range is not a view");
+
+        List<VaultEntry> firstPage = vault.getPage(null, 2);
+        assertEquals(List.of("Alice", "foo"), firstPage.stream().map(VaultEntry::getName).collect(Collectors.toList()),
+                "Unexpected first page");
+        List<VaultEntry> lastPage = vault.getPage(firstPage.get(1).getName(), 2);
+        assertEquals(List.of("fooBar", "fox"), lastPage.stream().map(VaultEntry::getName).collect(Collectors.toList()),
+                "Unexpected next page");
+        assertTrue(vault.getPage("fox", 2).isEmpty(), "Page after the last entry is not empty");
+        assertEquals(4, vault.size(), "Unexpected vault size");
+    }
+
     @Test
     @DisplayName("Fragment vault")
     void fragment() throws IOException {
@@ -180,4 +216,225 @@ class SecureVaultTest {
         vaultBuilder.addFragment(f2);
         assertTrue(vaultBuilder.isComplete(), "Filled builder is not complete");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Build vault from any threshold of shares")
+    void buildFromShares() throws IOException, ClassNotFoundException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        for (int i = 0; i < 20; i++) {
+            vault.add(new VaultEntry("entry" + i, "secret" + i));
+        }
+        VaultShare[] shares = vault.encode(5, 3);
+        assertEquals(5, shares.length, "Unexpected share count");
+
+        int[][] subsets = {{0, 1, 2}, {2, 3, 4}, {4, 0, 3}, {1, 3, 4}};
+        for (int[] subset : subsets) {
+            SecureVault.Builder builder = SecureVault.builder();
+            for (int index : subset) {
+                builder.addFragment(shares[index]);
+            }
+            assertTrue(builder.isComplete(), "Builder with threshold shares is not complete");
+            assertEquals(vault.getAll(), builder.build().getAll(), "Rebuilt vault differs from original");
+        }
+
+        SecureVault.Builder incomplete = SecureVault.builder();
+        incomplete.addFragment(shares[0]);
+        incomplete.addFragment(shares[0]);
+        incomplete.addFragment(shares[1]);
+        assertFalse(incomplete.isComplete(), "Builder is complete with too few distinct shares");
+    }
+
+    @Test
+    @DisplayName("Shares of different encodings are not combined")
+    void buildFromMixedEncodings() throws IOException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        VaultShare[] first = vault.encode(3, 2);
+        VaultShare[] second = vault.encode(3, 2);
+
+        vaultBuilder.addFragment(first[0]);
+        vaultBuilder.addFragment(second[1]);
+        assertFalse(vaultBuilder.isComplete(), "Builder combined shares of different encodings");
+        assertFalse(VaultShare.isSufficient(List.of(first[0], second[1])), "Shares of different encodings are sufficient");
+
+        vaultBuilder.addFragment(first[2]);
+        assertTrue(vaultBuilder.isComplete(), "Builder is not complete with threshold shares of one encoding");
+        assertTrue(VaultShare.isSufficient(List.of(first[0], second[1], first[2])), "Shares of one encoding are not sufficient");
+
+        VaultFragment fragment = vault.fragment(2)[0];
+        SecureVault.Builder mixedBuilder = SecureVault.builder().addFragment(second[0]);
+        assertThrows(IllegalArgumentException.class, () -> mixedBuilder.addFragment(fragment),
+                "Combining fragments and shares does not throw exception");
+    }
+
+    @Test
+    @DisplayName("Fragment vault with redundancy")
+    void fragmentWithRedundancy() throws IOException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        assertFalse(vault.fragment(3, 0)[0] instanceof VaultShare, "Fragments without redundancy are shares");
+
+        VaultFragment[] fragments = vault.fragment(3, 1);
+        assertTrue(fragments[0] instanceof VaultShare, "Fragments with redundancy are not shares");
+        assertEquals(2, ((VaultShare) fragments[0]).getThreshold(), "Unexpected share threshold");
+        // a single share would hold the whole vault
+        assertFalse(vault.fragment(2, 1)[0] instanceof VaultShare, "Fragments of a single-share threshold are shares");
+        assertFalse(vault.fragment(2, 5)[0] instanceof VaultShare, "Fragments beyond the redundancy are shares");
+        assertThrows(IllegalArgumentException.class, () -> vault.encode(3, 1), "Single-share threshold was accepted");
+    }
+
+    @Test
+    @DisplayName("Build vault from fragments with appended deltas")
+    void buildFromDeltas() throws IOException, ClassNotFoundException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        for (int redundancy = 0; redundancy < 2; redundancy++) {
+            SecureVault vault = SecureVault.builder().buildEmpty();
+            vault.add(new VaultEntry("kept", "secret"));
+            vault.add(new VaultEntry("removed", "secret"));
+            VaultFragment[] fragments = vault.fragment(3, redundancy);
+            assertFalse(vault.hasChanges(), "Fragmented vault has unpublished changes");
+
+            vault.remove(new VaultEntry("removed", "secret"));
+            vault.remove(new VaultEntry("kept", "secret"));
+            vault.add(new VaultEntry("kept", "changed"));
+            appendDeltas(fragments, vault.delta(3, redundancy));
+            vault.add(new VaultEntry("added", "secret"));
+            appendDeltas(fragments, vault.delta(3, redundancy));
+
+            SecureVault.Builder builder = SecureVault.builder();
+            for (VaultFragment fragment : fragments) {
+                builder.addFragment(fragment);
+            }
+            SecureVault rebuilt = builder.build();
+            assertEquals(vault.getAll(), rebuilt.getAll(), "Rebuilt vault differs from changed vault");
+            assertEquals("changed", rebuilt.search("kept").get(0).getPassword(), "Changed entry was not replaced");
+            assertEquals(vault.getGeneration(), rebuilt.getGeneration(), "Rebuilt vault has unexpected generation");
+            assertFalse(builder.isStale(), "Up-to-date vault is stale");
+        }
+
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        assertThrows(IllegalStateException.class, () -> vault.delta(3, 0), "Delta without changes does not throw exception");
+    }
+
+    @Test
+    @DisplayName("Build stale vault when a node missed a delta")
+    void buildFromMissedDelta() throws IOException, ClassNotFoundException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        vault.add(new VaultEntry("first", "secret"));
+        VaultFragment[] fragments = vault.fragment(2);
+        long firstGeneration = vault.getGeneration();
+
+        vault.add(new VaultEntry("second", "secret"));
+        FragmentDelta[] deltas = vault.delta(2, 0);
+        assertTrue(fragments[0].appendDelta(deltas[0]), "Delta was not appended");
+        assertFalse(fragments[0].appendDelta(deltas[0]), "Delta was appended to a later generation");
+
+        SecureVault.Builder builder = SecureVault.builder().addFragment(fragments[0]).addFragment(fragments[1]);
+        SecureVault rebuilt = builder.build();
+        assertTrue(builder.isStale(), "Vault missing a delta is not stale");
+        assertEquals(firstGeneration, rebuilt.getGeneration(), "Stale vault has unexpected generation");
+        assertEquals(1, rebuilt.getAll().size(), "Stale vault contains changes of the missed delta");
+
+        VaultFragment other = vault.fragment(2)[1];
+        SecureVault.Builder mixedBuilder = SecureVault.builder().addFragment(fragments[0]);
+        assertThrows(IllegalArgumentException.class, () -> mixedBuilder.addFragment(other),
+                "Combining fragments of different generations does not throw exception");
+    }
+
+    @Test
+    @DisplayName("Stamp every generation with a version and restore it from a snapshot")
+    void versionAndSnapshot() throws IOException, ClassNotFoundException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        vault.add(new VaultEntry("first", "secret"));
+        assertThrows(IllegalStateException.class, () -> VaultSnapshot.of(vault), "Unpublished vault was snapshot");
+
+        VaultFragment[] fragments = vault.fragment(2);
+        long fragmentVersion = vault.getVersion();
+        assertEquals(fragmentVersion, fragments[1].getLatestVersion(), "Fragment has unexpected version");
+
+        vault.add(new VaultEntry("second", "secret"));
+        appendDeltas(fragments, vault.delta(2, 0));
+        assertTrue(vault.getVersion() != fragmentVersion, "Delta did not start a new version");
+        assertEquals(vault.getVersion(), fragments[0].getLatestVersion(), "Delta has unexpected version");
+
+        SecureVault rebuilt = SecureVault.builder().addFragment(fragments[0]).addFragment(fragments[1]).build();
+        assertEquals(vault.getVersion(), rebuilt.getVersion(), "Rebuilt vault has unexpected version");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(VaultSnapshot.of(rebuilt));
+        }
+        VaultSnapshot snapshot;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            snapshot = (VaultSnapshot) ois.readObject();
+        }
+        SecureVault restored = snapshot.restore();
+        assertEquals(vault.getAll(), restored.getAll(), "Restored vault differs from snapshot vault");
+        assertEquals(vault.getVersion(), restored.getVersion(), "Restored vault has unexpected version");
+        assertEquals(vault.getGeneration(), restored.getGeneration(), "Restored vault has unexpected generation");
+    }
+
+    @Test
+    @DisplayName("Keep entries of a legacy vault whose names differ only in case")
+    void legacyCaseCollision() throws IOException, ClassNotFoundException {
+        assumeTrue(vaultBuilder != null, "Vault builder is null");
+
+        SecureVault vault = vaultBuilder.buildEmpty();
+        vault.add(new VaultEntry("GitHub", "first"));
+        vault.add(new VaultEntry("Xithub", "second"));
+        byte[] bytes;
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutputStream oos = new ObjectOutputStream(bos))  {
+            oos.writeObject(vault);
+            bytes = bos.toByteArray();
+        }
+        // earlier versions serialized entries ordered by exact name, so both names could be written
+        byte[] from = "Xithub".getBytes(StandardCharsets.UTF_8);
+        byte[] to = "github".getBytes(StandardCharsets.UTF_8);
+        int at = indexOf(bytes, from);
+        assertTrue(at >= 0, "Entry name not found in serialized vault");
+        System.arraycopy(to, 0, bytes, at, to.length);
+        int[] mask = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            mask[i] = i;
+        }
+
+        SecureVault legacy = vaultBuilder.addFragment(new VaultFragment(mask, bytes, bytes.length)).build();
+        assertEquals(2, legacy.size(), "Entry of colliding name was dropped");
+        assertEquals("first", legacy.get("GitHub").getPassword(), "First entry lost its name");
+        assertEquals("second", legacy.get("github (2)").getPassword(), "Colliding entry was not renamed");
+
+        VaultFragment[] fragments = legacy.fragment(2);
+        SecureVault rebuilt = SecureVault.builder().addFragment(fragments[0]).addFragment(fragments[1]).build();
+        assertEquals(legacy.getAll(), rebuilt.getAll(), "Republished vault lost an entry");
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void appendDeltas(VaultFragment[] fragments, FragmentDelta[] deltas) {
+        assertEquals(fragments.length, deltas.length, "Unexpected delta count");
+        for (int i = 0; i < fragments.length; i++) {
+            assertTrue(fragments[i].appendDelta(deltas[i]), "Delta was not appended");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package edu.dk.asj.dpm.vault;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrigramIndexTest {
+
+    @Test
+    @DisplayName("Search names by sub-string, and follow additions and removals")
+    void search() {
+        TrigramIndex index = new TrigramIndex();
+        VaultEntry mail = new VaultEntry("Mail.example.com", "a");
+        VaultEntry bank = new VaultEntry("bank", "b");
+        VaultEntry mailbox = new VaultEntry("mailbox", "c");
+        index.add(mail);
+        index.add(bank);
+        index.add(mailbox);
+
+        assertEquals(List.of(mail, mailbox), index.search("MAIL"), "Case-insensitive search failed");
+        assertEquals(List.of(mail), index.search("example"), "Multi-trigram search failed");
+        assertEquals(List.of(bank, mail, mailbox), index.search("a"), "Short query search failed");
+        assertTrue(index.search("mailx").isEmpty(), "Unknown trigram matched");
+        assertTrue(index.search("ilma").isEmpty(), "Trigrams out of order matched");
+
+        index.remove(new VaultEntry("mailbox", "other"));
+        assertEquals(List.of(mail), index.search("mail"), "Removed entry was found");
+        assertEquals(2, index.size(), "Unexpected index size");
+    }
+
+    @Test
+    @DisplayName("Match a scan of every entry in a large vault")
+    void matchesScan() {
+        Random random = new Random(1);
+        TrigramIndex index = new TrigramIndex();
+        List<VaultEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int j = 0, length = 3 + random.nextInt(10); j < length; j++) {
+                name.append((char) ((random.nextBoolean() ? 'a' : 'A') + random.nextInt(6)));
+            }
+            VaultEntry entry = new VaultEntry(name.toString() + i, "p");
+            entries.add(entry);
+            index.add(entry);
+        }
+
+        for (String query : new String[]{"ab", "abc", "FeD", "cabba", "7", "99"}) {
+            String normalized = query.toLowerCase(Locale.ROOT);
+            List<VaultEntry> expected = entries.stream()
+                    .filter(e -> e.getName().toLowerCase(Locale.ROOT).contains(normalized))
+                    .sorted((e1, e2) -> e1.getNormalizedName().compareTo(e2.getNormalizedName()))
+                    .collect(Collectors.toList());
+            assertEquals(expected, index.search(query), "Index differs from scan for query " + query);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package edu.dk.asj.dpm.vault;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultAssemblerTest {
+
+    @Test
+    @DisplayName("Decode the vault as soon as its fragments are complete")
+    void pipelined() throws Exception {
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        vault.add(new VaultEntry("Alice", "Bob"));
+        VaultFragment[] fragments = vault.fragment(3);
+
+        AtomicInteger decodings = new AtomicInteger();
+        Executor executor = task -> {
+            decodings.incrementAndGet();
+            task.run();
+        };
+        VaultAssembler assembler = new VaultAssembler(executor);
+        assembler.accept(null);
+        assembler.accept(fragments[0]);
+        assembler.accept(fragments[1]);
+        assertEquals(0, decodings.get(), "Decoding started before the fragments were complete");
+        assertThrows(IllegalStateException.class, assembler::getVault, "Incomplete vault was returned");
+
+        assembler.accept(fragments[2]);
+        assertEquals(1, decodings.get(), "Decoding did not start once the fragments were complete");
+        assembler.accept(fragments[2]);
+        assertEquals(vault.getAll(), assembler.getVault().getAll(), "Assembled vault differs from original");
+        assertFalse(assembler.isStale(), "Assembled vault is stale");
+    }
+
+    @Test
+    @DisplayName("Decode the vault again with shares holding deltas the decoded shares missed")
+    void lateShares() throws Exception {
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultShare[] shares = vault.encode(3, 2);
+        vault.add(new VaultEntry("Alice", "Bob"));
+        FragmentDelta[] deltas = vault.delta(3, 1);
+        // the second node missed the delta
+        assertTrue(shares[0].appendDelta(deltas[0]), "Delta was not appended");
+        assertTrue(shares[2].appendDelta(deltas[2]), "Delta was not appended");
+
+        assertTrue(VaultShare.isSufficient(List.of(shares[0], shares[1])), "Shares are not sufficient");
+        assertFalse(VaultShare.isCurrent(List.of(shares[0], shares[1])), "Shares missing a delta are current");
+        assertEquals(1, VaultShare.getMissingShares(List.of(shares[0], shares[1])), "Unexpected number of missing shares");
+        assertTrue(VaultShare.isCurrent(List.of(shares[0], shares[1], shares[2])), "Shares holding every delta are not current");
+
+        VaultAssembler assembler = new VaultAssembler(Runnable::run);
+        assembler.accept(shares[0]);
+        assembler.accept(shares[1]);
+        assembler.accept(shares[2]);
+        assertEquals(vault.getAll(), assembler.getVault().getAll(), "Assembled vault is missing the delta");
+        assertFalse(assembler.isStale(), "Assembled vault is stale");
+    }
+
+    @Test
+    @DisplayName("Reject fragments of another vault")
+    void mismatch() throws Exception {
+        SecureVault vault = SecureVault.builder().buildEmpty();
+        vault.add(new VaultEntry("foo", "bar"));
+        VaultFragment fragment = vault.fragment(2)[0];
+        vault.add(new VaultEntry("Alice", "Bob"));
+        VaultFragment other = vault.fragment(2)[1];
+
+        VaultAssembler assembler = new VaultAssembler();
+        assembler.accept(fragment);
+        assertThrows(IllegalArgumentException.class, () -> assembler.accept(other), "Fragment of another vault was accepted");
+    }
+}
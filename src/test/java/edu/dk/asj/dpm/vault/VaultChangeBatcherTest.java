@@ -0,0 +1,66 @@
+package edu.dk.asj.dpm.vault;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultChangeBatcherTest {
+
+    @Test
+    @DisplayName("Coalesce the mutations within the window into one publication")
+    void coalesceMutations() {
+        AtomicInteger publications = new AtomicInteger();
+        try (VaultChangeBatcher batcher = new VaultChangeBatcher(publications::incrementAndGet, 100)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(batcher.mutate(() -> true), "Mutation result was not returned");
+            }
+            assertFalse(batcher.mutate(() -> false), "Mutation result was not returned");
+            assertEquals(10, batcher.getPendingChanges(), "Unexpected pending change count");
+            assertEquals(0, publications.get(), "Mutations were published before the window closed");
+
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+                while (batcher.hasPendingChanges()) {
+                    Thread.sleep(10);
+                }
+            }, "Mutations were not published when the window closed");
+            assertEquals(1, publications.get(), "Mutations were not published together");
+        }
+    }
+
+    @Test
+    @DisplayName("Flush pending mutations before the window closes")
+    void flushMutations() {
+        AtomicInteger publications = new AtomicInteger();
+        VaultChangeBatcher batcher = new VaultChangeBatcher(publications::incrementAndGet, 60000);
+        assertFalse(batcher.flush(), "Flush without pending mutations published");
+
+        batcher.mutate(() -> true);
+        batcher.mutate(() -> true);
+        assertTrue(batcher.flush(), "Flush did not publish the pending mutations");
+        assertEquals(1, publications.get(), "Unexpected publication count");
+        assertFalse(batcher.hasPendingChanges(), "Mutations are pending after flush");
+
+        batcher.mutate(() -> true);
+        batcher.close();
+        assertEquals(2, publications.get(), "Close did not publish the pending mutations");
+    }
+
+    @Test
+    @DisplayName("Publish every mutation at once without a window")
+    void publishWithoutWindow() {
+        AtomicInteger publications = new AtomicInteger();
+        try (VaultChangeBatcher batcher = new VaultChangeBatcher(publications::incrementAndGet, 0)) {
+            batcher.mutate(() -> true);
+            batcher.mutate(() -> true);
+            assertEquals(2, publications.get(), "Mutations were not published at once");
+            assertFalse(batcher.hasPendingChanges(), "Mutations are pending without a window");
+        }
+    }
+}